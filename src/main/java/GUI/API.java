@@ -1,18 +1,27 @@
 package GUI;
+import h2_database_api.classes.H2ColumnType;
 import h2_database_api.classes.H2DatabaseAccessor;
+import h2_database_api.classes.H2IngestLedger;
+import h2_database_api.classes.H2Partitioning;
+import h2_database_api.classes.H2WriteBehindQueue;
 import com.jcraft.jsch.JSchException;
-import downloading.DownloadManager;
+import downloading.IngestScheduler;
+import downloading.RowSink;
 import downloading.Source;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static java.util.Arrays.asList;
 
@@ -24,35 +33,251 @@ public class API {
     private API() {}
     public static API getInstance(){return api;}
     H2DatabaseAccessor databaseAccessor = null;
+    int ingestChunkSize = 1000;
+    int ingestChunksInFlight = 4;
+    int maxConcurrentPolls = 16;
+    int maxPollsPerHost = 2;
+    int writeQueueRows = 100000;
+    int writeGroupRows = 20000;
+    long writeLingerMillis = 50;
+    IngestScheduler scheduler = null;
+    Map<Source, LocalDate> connectedSources = new LinkedHashMap<>();
+    H2WriteBehindQueue writeQueue = null;
+    H2IngestLedger ledger = null;
+    List<String> colNames = null;
+    ChronoUnit partitionUnit = ChronoUnit.DAYS;
+    Duration retention = null;
+    boolean tokenIndex = false;
+    boolean trigramIndex = false;
+    boolean valueSummary = false;
+    LocalDateTime lastRetention = null;
+    H2DatabaseAccessor.Page currentPage = null;
 
+    /**
+     * Sets how many rows are committed to the database at once during ingest
+     * and how many such chunks can wait for the database before downloading is paused.
+     */
+    public void setIngestChunking(int chunkSize, int chunksInFlight){
+        ingestChunkSize = chunkSize;
+        ingestChunksInFlight = chunksInFlight;
+    }
+
+    /**
+     * Sets how many parsed rows can wait for the database before downloading is paused, how many of them are written together
+     * and how long the writer waits for more rows of other sources. Applies to the next connectToDatabase.
+     */
+    public void setWriteBehind(int queueRows, int groupRows, long lingerMillis){
+        writeQueueRows = queueRows;
+        writeGroupRows = groupRows;
+        writeLingerMillis = lingerMillis;
+    }
+
+    /**
+     * Sets how many sources can be polled at once, in total and per host. Applies to sources that are already connected as well,
+     * polls that are running are not stopped.
+     */
+    public void setPollingLimits(int maxConcurrent, int maxPerHost){
+        if(scheduler != null) scheduler.setLimits(maxConcurrent, maxPerHost);
+        maxConcurrentPolls = maxConcurrent;
+        maxPollsPerHost = maxPerHost;
+    }
+
+    /**
+     * Sets length of period of single partition of the log table, null to keep all logs in one table.
+     * Logs are partitioned only when they have a timestamp column. Applies to table created after the call.
+     */
+    public void setPartitioning(ChronoUnit unit){
+        partitionUnit = unit;
+    }
+
+    /**
+     * Sets whether text columns of the log table get token index, which makes searches for whole words like \bERR42\b fast.
+     * Applies to table created after the call.
+     */
+    public void setTokenIndex(boolean enabled){
+        tokenIndex = enabled;
+    }
+
+    /**
+     * Sets whether text columns of the log table get trigram index, which makes searches for any regex with some literal text
+     * like err.*(disk|dsk) fast, at the cost of slower ingest. Applies to table created after the call.
+     */
+    public void setTrigramIndex(boolean enabled){
+        trigramIndex = enabled;
+    }
+
+    /**
+     * Sets whether columns of the log table other than timestamps get summary of values, which counts all logs
+     * and logs with a given value, like ^404$, without reading them. Applies to table created after the call.
+     */
+    public void setValueSummary(boolean enabled){
+        valueSummary = enabled;
+    }
+
+    /**
+     * Sets for how long logs are kept in partitioned log table, null to keep them forever.
+     * Older partitions are dropped as new logs arrive.
+     */
+    public void setRetention(Duration retention){
+        this.retention = retention;
+    }
+
+    /**
+     * Removes logs older than given time, whole partitions at once.
+     *
+     * @return Number of removed partitions.
+     */
+    public int dropLogsBefore(LocalDateTime time){
+        try {
+            if(databaseAccessor.getPartitioning("ThisProjectSucks") != null){
+                int removed = databaseAccessor.dropPartitionsBefore("ThisProjectSucks", time);
+                System.out.println("[INFO]:Removed " + removed + " partitions");
+                return removed;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Connects to the database, connected sources are downloaded again into the new database since the day they were connected with.
+     */
     public int connectToDatabase(String url, String login, String password){
+        // Polls write through the queue and the ledger of the old database, so they are stopped before both are closed
+        if(scheduler != null) scheduler.close();
+        scheduler = null;
+        if(writeQueue != null) writeQueue.close();
+        if(databaseAccessor != null) databaseAccessor.close();
         databaseAccessor = new H2DatabaseAccessor(login, password, url);
+        writeQueue = new H2WriteBehindQueue(databaseAccessor, writeQueueRows, writeGroupRows, writeLingerMillis);
+        colNames = null;
+        ledger = null;
+        currentPage = null;
+        try {
+            ledger = new H2IngestLedger(databaseAccessor);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
         System.out.println("[INFO]:Database connection created");
+        Map<Source, LocalDate> sources = new LinkedHashMap<>(connectedSources);
+        connectedSources.clear();
+        for(Map.Entry<Source, LocalDate> source : sources.entrySet()){
+            connectToSource(source.getKey(), source.getValue());
+        }
         return 0;
     }
 
     public int connectToSource(Source source, LocalDate since){
-        DownloadManager downloadManager = null;
         try {
-            downloadManager = new DownloadManager(source);
-            List<List<String>> data = downloadManager.initialDownload(LocalDateTime.of(since, LocalTime.MIDNIGHT));
-            int howManyColumns = data.get(0).size();
-            List<String> colNames = new ArrayList<>();
-            for(int i = 0; i < howManyColumns; i++)colNames.add("col_" + (i+1));
-
-            databaseAccessor.addTable("ThisProjectSucks", colNames);
-            databaseAccessor.addRowsToTable("ThisProjectSucks", colNames, data);
+            if(scheduler == null){
+                scheduler = new IngestScheduler(maxConcurrentPolls, maxPollsPerHost, ingestChunkSize, ingestChunksInFlight);
+            }
+            scheduler.setLedger(ledger);
+            List<String> sourceColumns = source.getColumnNames();
+            H2WriteBehindQueue.Producer producer = writeQueue.newProducer();
+            scheduler.addSource(source, LocalDateTime.of(since, LocalTime.MIDNIGHT), new RowSink() {
+                @Override
+                public void accept(List<List<String>> rows) throws Exception {
+                    producer.put("ThisProjectSucks", ensureTable(sourceColumns, rows), rows);
+                    applyRetention();
+                }
+
+                @Override
+                public void checkpoint(Checkpoint checkpoint) throws Exception {
+                    producer.checkpoint(checkpoint);
+                }
+            });
+            connectedSources.put(source, since);
         } catch (IOException e) {
             e.printStackTrace();
         } catch (JSchException e) {
             e.printStackTrace();
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         System.out.println("[INFO]:Connected to source");
         return 0;
     }
 
+    /**
+     * Returns counters of rows inserted to the database, with insert speed in rows per second.
+     */
+    public H2DatabaseAccessor.InsertStatistics getInsertStatistics(){
+        if(databaseAccessor == null) return null;
+        return databaseAccessor.getInsertStatistics();
+    }
+
+    /**
+     * Returns depth of the queue of rows waiting for the database and how long rows wait in it.
+     */
+    public H2WriteBehindQueue.Statistics getWriteBehindStatistics(){
+        if(writeQueue == null) return null;
+        return writeQueue.getStatistics();
+    }
+
+    public List<IngestScheduler.SourceStatus> getSourceStatuses(){
+        if(scheduler == null) return new ArrayList<>();
+        return scheduler.getStatuses();
+    }
+
+    /**
+     * Creates the log table when the first rows arrive, all sources share it afterwards.
+     * Columns are named after columns of the source and their types are inferred from the first rows.
+     * When the ledger remembers earlier ingest, the table filled by it is kept.
+     */
+    private synchronized List<String> ensureTable(List<String> sourceColumns, List<List<String>> sample) throws Exception {
+        if(colNames == null && ledger != null && !ledger.isEmpty() && databaseAccessor.checkIfTableExists("ThisProjectSucks")){
+            List<String> names = new ArrayList<>(databaseAccessor.getColumnNames("ThisProjectSucks"));
+            names.remove("id");
+            colNames = names;
+        }
+        if(colNames == null){
+            List<String> names = new ArrayList<>();
+            for(String column : sourceColumns)names.add(column.replaceAll("[^A-Za-z0-9_]", "_"));
+            List<H2ColumnType> types = H2ColumnType.inferAll(sample);
+            while(types.size() < names.size())types.add(H2ColumnType.VARCHAR);
+            types = types.subList(0, names.size());
+            int timeColumn = types.indexOf(H2ColumnType.TIMESTAMP);
+            if(partitionUnit != null && timeColumn >= 0){
+                databaseAccessor.addPartitionedTable("ThisProjectSucks", names, types, names.get(timeColumn), partitionUnit);
+            }else{
+                databaseAccessor.addTable("ThisProjectSucks", names, types);
+            }
+            List<String> textColumns = new ArrayList<>();
+            for(int i = 0; i < names.size(); i++){
+                if(types.get(i) == H2ColumnType.SHORT_VARCHAR || types.get(i) == H2ColumnType.VARCHAR)textColumns.add(names.get(i));
+            }
+            if(tokenIndex && !textColumns.isEmpty()){
+                databaseAccessor.addTokenIndex("ThisProjectSucks", textColumns);
+            }
+            if(trigramIndex && !textColumns.isEmpty()){
+                databaseAccessor.addTrigramIndex("ThisProjectSucks", textColumns);
+            }
+            if(valueSummary){
+                List<String> summaryColumns = new ArrayList<>();
+                for(int i = 0; i < names.size(); i++){
+                    if(types.get(i) != H2ColumnType.TIMESTAMP)summaryColumns.add(names.get(i));
+                }
+                databaseAccessor.addValueSummary("ThisProjectSucks", summaryColumns);
+            }
+            colNames = names;
+        }
+        return colNames;
+    }
+
+    /**
+     * Drops partitions older than retention, at most once a minute.
+     */
+    private void applyRetention(){
+        Duration keep = retention;
+        if(keep == null) return;
+        LocalDateTime now = LocalDateTime.now();
+        synchronized (this){
+            if(lastRetention != null && lastRetention.isAfter(now.minusMinutes(1))) return;
+            lastRetention = now;
+        }
+        dropLogsBefore(now.minus(keep));
+    }
+
     ObservableList<ParsedData> parse(List<List<String>> input){
         ObservableList<ParsedData> data = FXCollections.observableArrayList();
         if(input == null) return data;
@@ -76,4 +301,47 @@ public class API {
         System.out.println("[INFO]:Data downloaded");
         return data;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the first page of logs. Pages are ordered by time for partitioned log table and by id otherwise,
+     * each page is found by seeking from the previous one, so all pages take the same time.
+     */
+    public ObservableList<ParsedData> firstPage(int amount) {
+        return page(amount, null, true);
+    }
+
+    public ObservableList<ParsedData> lastPage(int amount) {
+        return page(amount, null, false);
+    }
+
+    /**
+     * Returns page after the one returned last, or the same page when there are no newer logs.
+     */
+    public ObservableList<ParsedData> nextPage(int amount) {
+        if(currentPage == null || currentPage.isEmpty()) return firstPage(amount);
+        return page(amount, currentPage.getLastKey(), true);
+    }
+
+    /**
+     * Returns page before the one returned last, or the same page when there are no older logs.
+     */
+    public ObservableList<ParsedData> previousPage(int amount) {
+        if(currentPage == null || currentPage.isEmpty()) return lastPage(amount);
+        return page(amount, currentPage.getFirstKey(), false);
+    }
+
+    private ObservableList<ParsedData> page(int amount, H2DatabaseAccessor.PageKey from, boolean forward) {
+        try {
+            H2Partitioning partitioning = databaseAccessor.getPartitioning("ThisProjectSucks");
+            String keyColumn = partitioning != null ? partitioning.getTimeColumn() : "id";
+            H2DatabaseAccessor.Page page = databaseAccessor.selectPage("ThisProjectSucks", asList("*"), null, keyColumn, from, forward, amount);
+            if(!page.isEmpty() || from == null) currentPage = page;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        ObservableList<ParsedData> data = parse(currentPage == null ? null : currentPage.getRows());
+
+        System.out.println("[INFO]:Data downloaded");
+        return data;
+    }
+}
@@ -26,7 +26,6 @@ public class UserInterface extends Application {
     private API api = API.getInstance();
     private ObservableList<ParsedData> dataList = FXCollections.observableArrayList();
     private int numberOfColumns = 0;
-    private int offset = 0;
     private int amount = 25;
 
     Tab createDatabaseTab(){
@@ -172,7 +171,7 @@ public class UserInterface extends Application {
         downloadButton.setOnMouseClicked(new EventHandler<MouseEvent>() {
             @Override
             public void handle(MouseEvent event) {
-                dataList =  api.download(amount, offset);
+                dataList =  api.firstPage(amount);
                 createBrowsingTab();
             }
         });
@@ -244,8 +243,7 @@ public class UserInterface extends Application {
             @Override
             public void handle(MouseEvent event) {
                 dataList.removeAll(dataList);
-                offset = 0;
-                dataList.addAll(api.download(amount, offset));
+                dataList.addAll(api.firstPage(amount));
             }
         });
         Button previous = new Button("<");
@@ -253,8 +251,7 @@ public class UserInterface extends Application {
             @Override
             public void handle(MouseEvent event) {
                 dataList.removeAll(dataList);
-                offset -= amount;
-                dataList.addAll(api.download(amount, offset));
+                dataList.addAll(api.previousPage(amount));
             }
         });
         Button next = new Button(">");
@@ -262,8 +259,7 @@ public class UserInterface extends Application {
             @Override
             public void handle(MouseEvent event) {
                 dataList.removeAll(dataList);
-                offset += amount;
-                dataList.addAll(api.download(amount, offset));
+                dataList.addAll(api.nextPage(amount));
             }
         });
         Button last = new Button(">|");
@@ -271,8 +267,7 @@ public class UserInterface extends Application {
             @Override
             public void handle(MouseEvent event) {
                 dataList.removeAll(dataList);
-                offset += amount*5;
-                dataList.addAll(api.download(amount, offset));
+                dataList.addAll(api.lastPage(amount));
             }
         });
 
@@ -30,16 +30,29 @@ either expressed or implied, of the FreeBSD Project.
 package downloading;
 
 import com.jcraft.jsch.JSchException;
+import org.apache.commons.io.IOUtils;
 import sun.plugin.dom.exception.InvalidStateException;
 import util.NamePatternConverter;
-import util.Splitter;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
 
 /**
  * Created by MIC on 2015-11-29.
@@ -48,12 +61,17 @@ import java.util.List;
 /**
  * Class used for managing downloads from single Source
  */
-public class DownloadManager {
+public class DownloadManager implements AutoCloseable {
 
     final Source source;
+    final LogDownloader.Factory downloaders;
     final LogDownloader downloader;
     final DateTimeFormatter formatter;
     final FileParser parser;
+    final IngestLedger ledger;
+    final List<LogDownloader> extraDownloaders = new ArrayList<>();
+    /** Position after the last file whose entries were all handled by the sink, null when there is none yet. */
+    volatile Progress handled = null;
 
     /**
      * Quite self explanatory.
@@ -63,20 +81,51 @@ public class DownloadManager {
      * @throws JSchException When there is problem with downloading from ssh.
      */
     public DownloadManager(Source source) throws IOException, JSchException {
+        this(source, null);
+    }
+
+    /**
+     * Creates download manager that keeps its progress in the ledger, so that it continues where previous run stopped.
+     *
+     * @param source Source from which this download manager will be downloading.
+     * @param ledger Ledger of ingested files, or null to keep progress only in the source.
+     * @throws IOException When there is problem with downloading.
+     * @throws JSchException When there is problem with downloading from ssh.
+     */
+    public DownloadManager(Source source, IngestLedger ledger) throws IOException, JSchException {
+        this(source, ledger, () -> createDownloader(source));
+    }
+
+    /**
+     * Creates download manager that downloads with downloaders of the factory instead of ones matching type of the source.
+     *
+     * @param source Source from which this download manager will be downloading.
+     * @param ledger Ledger of ingested files, or null to keep progress only in the source.
+     * @param downloaders Factory of downloaders, called once now and once for every extra fetch worker.
+     * @throws IOException When there is problem with downloading.
+     * @throws JSchException When there is problem with downloading from ssh.
+     */
+    public DownloadManager(Source source, IngestLedger ledger, LogDownloader.Factory downloaders) throws IOException, JSchException {
         this.source = source;
+        this.ledger = ledger;
+        this.downloaders = downloaders;
+        downloader = downloaders.create();
+        formatter = NamePatternConverter.convertToFormatter(source.namePattern);
+        this.parser = new FileParser(source.lineParser);
+    }
+
+    private static LogDownloader createDownloader(Source source) throws IOException, JSchException {
         if(source.type == Source.Type.HTTP){
-            downloader = new HttpLogDownloader();
+            return new HttpLogDownloader();
         }else if(source.type == Source.Type.FTP){
             FtpSource ftpSource = (FtpSource)source;
-            downloader = new FtpLogDownloader(ftpSource.address, 21, ftpSource.login, ftpSource.password);
+            return new FtpLogDownloader(ftpSource.address, 21, ftpSource.login, ftpSource.password);
         }else if(source.type == Source.Type.SSH){
             SshSource sshSource = (SshSource)source;
-            downloader = new SshLogDownloader(sshSource.address, 22, sshSource.login, sshSource.password);
+            return new SshLogDownloader(sshSource.address, 22, sshSource.login, sshSource.password);
         }else {
             throw new InvalidStateException("Invalid source type: "+source.type);
         }
-        formatter = NamePatternConverter.convertToFormatter(source.namePattern);
-        this.parser = new FileParser(new Splitter(source.splitPattern));
     }
 
     /**
@@ -87,36 +136,332 @@ public class DownloadManager {
      * @return List of log entries, each as List of Strings, according to the splitting regex.
      */
     private List<List<String>> downloadFromDate(LocalDateTime startTime, boolean continuation){
-        LocalDateTime endTime = LocalDateTime.now();
-        LocalDateTime currentTime = startTime;
         List<List<String>> out = new ArrayList<>();
-        while (currentTime.isBefore(endTime)){
+        try {
+            downloadFromDate(startTime, continuation, Integer.MAX_VALUE, out::addAll);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return out;
+    }
+
+    /**
+     * Downloads and parses logs from startTime till now, handing the entries over to the sink in chunks as soon as they are parsed.
+     * Failed downloads are reported and skipped, failure of the sink stops the whole download.
+     * Files are parsed while they are downloaded, unless the source is set to spool them to disk first.
+     * When the source has more than one fetch worker, files are downloaded concurrently to temporary files but still parsed in chronological order.
+     * Afterwards lastDownload of the source points to the last parsed file, so the next continuation resumes inside it.
+     *
+     * @param startTime Since when the logs should be downloaded
+     * @param continuation Whether to use remembered position
+     * @param chunkSize Maximal number of entries passed to the sink at once
+     * @param sink Receiver of log entries
+     * @throws Exception When the sink fails.
+     */
+    private void downloadFromDate(LocalDateTime startTime, boolean continuation, int chunkSize, RowSink sink) throws Exception {
+        LocalDateTime endTime = LocalDateTime.now();
+        List<LocalDateTime> steps = new ArrayList<>();
+        for (LocalDateTime currentTime = startTime; currentTime.isBefore(endTime); currentTime = currentTime.plus(source.stepAmount, source.stepUnit)) {
+            steps.add(currentTime);
+        }
+        if (!continuation) {
+            source.lastDownload = startTime;
+            source.lastDownloadLine = 0;
+            source.lastDownloadOffset = 0;
+            handled = null;
+        }
+        if (source.fetchWorkers > 1 && steps.size() > 1) {
+            downloadConcurrently(steps, continuation, chunkSize, sink);
+        } else {
+            for (int i = 0; i < steps.size(); i++) {
+                Fetched fetched = fetch(downloader, steps.get(i), continuation && i == 0, source.spoolToDisk);
+                parse(fetched, i == steps.size() - 1, chunkSize, sink);
+            }
+        }
+    }
+
+    /**
+     * Downloads files of the given steps using up to source.fetchWorkers downloaders at once.
+     * No more than two files per worker are downloaded ahead of the one being parsed.
+     */
+    private void downloadConcurrently(List<LocalDateTime> steps, boolean continuation, int chunkSize, RowSink sink) throws Exception {
+        BlockingQueue<LogDownloader> idleDownloaders = new LinkedBlockingQueue<>();
+        idleDownloaders.add(downloader);
+        while (extraDownloaders.size() < source.fetchWorkers - 1) {
             try {
-                String path = source.path + currentTime.format(formatter);
-                File target = new File(System.getProperty("user.dir")+System.getProperty("file.separator")+currentTime.format(formatter));
-                target.deleteOnExit();
-                if (downloader.type == Source.Type.HTTP) {
-                    HttpLogDownloader httpDownloader = (HttpLogDownloader) downloader;
-                    httpDownloader.downloadToFile(source.address + path, target);
-                } else if (downloader.type == Source.Type.FTP) {
-                    FtpLogDownloader ftpDownloader = (FtpLogDownloader) downloader;
-                    ftpDownloader.downloadToFile(path, target);
-                } else if (downloader.type == Source.Type.SSH) {
-                    SshLogDownloader sshDownloader = (SshLogDownloader)downloader;
-                    sshDownloader.downloadToFile(path, target);
-                } else {
-                    throw new InvalidStateException("Invalid downloader type: " + downloader.type);
-                }
-                out.addAll(parser.parseFile(target, source, continuation));
-                continuation = false;
-                target.delete();
-            } catch (Exception e) {
+                extraDownloaders.add(downloaders.create());
+            } catch (IOException | JSchException e) {
                 e.printStackTrace();
+                break;
+            }
+        }
+        idleDownloaders.addAll(extraDownloaders);
+
+        int workers = idleDownloaders.size();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        Deque<Future<Fetched>> pending = new ArrayDeque<>();
+        // Files fetched but not taken by the parser yet, closed when the download stops early, also when their fetch ends afterwards
+        Set<Fetched> unparsed = new HashSet<>();
+        boolean[] stopped = new boolean[1];
+        int submitted = 0;
+        try {
+            for (int i = 0; i < steps.size(); i++) {
+                while (submitted < steps.size() && submitted < i + 2 * workers) {
+                    LocalDateTime step = steps.get(submitted);
+                    boolean resume = continuation && submitted == 0;
+                    submitted++;
+                    pending.add(executor.submit(() -> {
+                        LogDownloader pooled = idleDownloaders.take();
+                        Fetched fetched;
+                        try {
+                            fetched = fetch(pooled, step, resume, true);
+                        } finally {
+                            idleDownloaders.add(pooled);
+                        }
+                        synchronized (unparsed) {
+                            if (stopped[0]) {
+                                closeFetched(fetched);
+                                return null;
+                            }
+                            unparsed.add(fetched);
+                        }
+                        return fetched;
+                    }));
+                }
+                Fetched fetched = pending.poll().get();
+                synchronized (unparsed) {
+                    unparsed.remove(fetched);
+                }
+                parse(fetched, i == steps.size() - 1, chunkSize, sink);
+            }
+        } finally {
+            executor.shutdownNow();
+            synchronized (unparsed) {
+                stopped[0] = true;
+                for (Fetched fetched : unparsed) {
+                    closeFetched(fetched);
+                }
+                unparsed.clear();
             }
-            currentTime = currentTime.plus(source.stepAmount, source.stepUnit);
         }
-        source.lastDownload = currentTime;
-        return out;
+    }
+
+    private static void closeFetched(Fetched fetched) {
+        if (fetched != null && fetched.stream != null) {
+            IOUtils.closeQuietly(fetched.stream);
+        }
+    }
+
+    /**
+     * Opens the not yet ingested part of the file of the given step.
+     * Position to start from is taken from the ledger, or from the source when resuming without a ledger.
+     * Files that the ledger marks as complete are not downloaded at all. A file that is now shorter than the position,
+     * or whose bytes before the position differ from the remembered ones, was replaced and is downloaded from the beginning.
+     *
+     * @param spool Whether to download the file to a temporary file first, instead of reading it from the server.
+     * @return Opened part of the file, or null when downloading failed.
+     */
+    private Fetched fetch(LogDownloader downloader, LocalDateTime currentTime, boolean resume, boolean spool) {
+        String path = source.path + currentTime.format(formatter);
+        Fetched fetched = new Fetched(currentTime, path);
+        try {
+            IngestLedger.Entry entry = ledger == null ? null : ledger.find(source.name, path);
+            if (entry != null && entry.complete) {
+                fetched.offset = entry.byteOffset;
+                fetched.line = entry.lineCount;
+                fetched.info = new RemoteFileInfo(entry.size, entry.modified);
+                return fetched;
+            }
+            int overlap = 0;
+            long expectedFingerprint = 0;
+            if (entry != null) {
+                fetched.offset = entry.byteOffset;
+                fetched.line = entry.lineCount;
+                overlap = (int) Math.min(IngestLedger.Entry.FINGERPRINT_BYTES, entry.byteOffset);
+                expectedFingerprint = entry.fingerprint;
+            } else if (resume) {
+                fetched.offset = source.lastDownloadOffset;
+                fetched.line = source.lastDownloadLine;
+                overlap = source.lastDownloadTail.length;
+                expectedFingerprint = fingerprint(source.lastDownloadTail);
+            }
+            if (fetched.offset > 0) {
+                fetched.info = stat(downloader, path);
+                if (fetched.info != null && fetched.info.size < fetched.offset) {
+                    fetched.offset = 0;
+                    fetched.line = 0;
+                    overlap = 0;
+                }
+            }
+            fetched.stream = open(downloader, path, fetched.offset - overlap, spool);
+            fetched.tail = new byte[overlap];
+            if (overlap > 0 && (IOUtils.read(fetched.stream, fetched.tail) != overlap || fingerprint(fetched.tail) != expectedFingerprint)) {
+                fetched.stream.close();
+                fetched.offset = 0;
+                fetched.line = 0;
+                fetched.tail = new byte[0];
+                fetched.stream = open(downloader, path, 0, spool);
+            }
+            return fetched;
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (fetched.stream != null) {
+                IOUtils.closeQuietly(fetched.stream);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Opens the file at offset, either directly from the server or through a temporary file that is deleted when the stream is closed.
+     */
+    private InputStream open(LogDownloader downloader, String path, long offset, boolean spool) throws Exception {
+        String location = location(downloader, path);
+        if (!spool) {
+            return downloader.openStream(location, offset);
+        }
+        File target = File.createTempFile("log-", ".part");
+        target.deleteOnExit();
+        try {
+            downloader.downloadToFile(location, target, offset);
+            return new SpooledFile(target);
+        } catch (Exception e) {
+            target.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Size and modification time of the file, or null when the server can not tell.
+     */
+    private RemoteFileInfo stat(LogDownloader downloader, String path) {
+        try {
+            return downloader.stat(location(downloader, path));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return Location of the file as the downloader expects it, full address for http, path on the server otherwise.
+     */
+    private String location(LogDownloader downloader, String path) {
+        return downloader.type == Source.Type.HTTP ? source.address + path : path;
+    }
+
+    /**
+     * Parses opened file into the sink and remembers it as the last download. Does nothing for failed downloads.
+     * Large spooled files are parsed in parallel.
+     * The newest file may still be written to, so its unterminated last line is left for the next download.
+     * The reached position is remembered, and recorded in the ledger if there is one, once all entries of the file are handled by the sink.
+     * Entries handled before the ledger is written are downloaded again when the process stops in between.
+     */
+    private void parse(Fetched fetched, boolean newest, int chunkSize, RowSink sink) throws Exception {
+        if (fetched == null) {
+            return;
+        }
+        source.lastDownload = fetched.step;
+        source.lastDownloadLine = fetched.line;
+        source.lastDownloadOffset = fetched.offset;
+        source.lastDownloadTail = fetched.tail;
+        if (fetched.stream == null) {
+            Progress reached = new Progress(source);
+            sink.checkpoint(() -> handled = reached);
+            return;
+        }
+        FileChannel channel = fetched.stream instanceof SpooledFile ? ((SpooledFile) fetched.stream).getChannel() : null;
+        if (channel != null && channel.size() - channel.position() >= FileParser.PARALLEL_PARSE_BYTES) {
+            try {
+                parser.parseFileParallel(channel, channel.position(), source, true, newest, chunkSize, sink);
+            } finally {
+                fetched.stream.close();
+            }
+        } else {
+            parser.parseStream(fetched.stream, source, true, newest, chunkSize, sink);
+        }
+        Progress reached = new Progress(source);
+        IngestLedger.Entry entry = null;
+        if (ledger != null) {
+            long size = fetched.info == null ? source.lastDownloadOffset : Math.max(fetched.info.size, source.lastDownloadOffset);
+            entry = new IngestLedger.Entry(fetched.path, fetched.step, source.lastDownloadOffset, source.lastDownloadLine,
+                    size, fetched.info == null ? 0 : fetched.info.modified, fingerprint(source.lastDownloadTail), !newest);
+        }
+        IngestLedger.Entry recorded = entry;
+        sink.checkpoint(() -> {
+            if (recorded != null) {
+                ledger.record(source.name, recorded);
+            }
+            handled = reached;
+        });
+    }
+
+    private static long fingerprint(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * Temporary copy of a downloaded file, deleted when closed.
+     */
+    private static class SpooledFile extends FileInputStream {
+        final File file;
+
+        SpooledFile(File file) throws IOException {
+            super(file);
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Position in the log reached by the source, copied when parsing of a file ends.
+     */
+    private static class Progress {
+        final LocalDateTime step;
+        final int line;
+        final long offset;
+        final byte[] tail;
+
+        Progress(Source source) {
+            this.step = source.lastDownload;
+            this.line = source.lastDownloadLine;
+            this.offset = source.lastDownloadOffset;
+            this.tail = source.lastDownloadTail;
+        }
+
+        void restore(Source source) {
+            source.lastDownload = step;
+            source.lastDownloadLine = line;
+            source.lastDownloadOffset = offset;
+            source.lastDownloadTail = tail;
+        }
+    }
+
+    /**
+     * Part of a log file opened for a single step.
+     */
+    private static class Fetched {
+        final LocalDateTime step;
+        final String path;
+        /** Contents of the file from offset on, null when there is nothing to parse. */
+        InputStream stream;
+        /** Position in the log from which parsing starts, number of lines before it and the bytes right before it. */
+        long offset = 0;
+        int line = 0;
+        byte[] tail = new byte[0];
+        RemoteFileInfo info;
+
+        Fetched(LocalDateTime step, String path) {
+            this.step = step;
+            this.path = path;
+        }
     }
 
     /**
@@ -139,4 +484,76 @@ public class DownloadManager {
         return downloadFromDate(startDate, true);
     }
 
+    /**
+     * Performs initial download since the given startTime, passing entries to the sink in chunks instead of collecting them.
+     *
+     * @param startTime from when the download should be performed.
+     * @param chunkSize maximal number of entries passed to the sink at once.
+     * @param sink receiver of log entries.
+     * @throws Exception When the sink fails.
+     */
+    public void initialDownload(LocalDateTime startTime, int chunkSize, RowSink sink) throws Exception {
+        downloadFromDate(startTime, false, chunkSize, sink);
+    }
+
+    /**
+     * Performs an updating download, passing entries to the sink in chunks instead of collecting them.
+     * Download continues after the last file whose entries were all handled by the sink, so after a failed download
+     * files parsed ahead of the sink are downloaded again and files handled before the failure are not.
+     *
+     * @param chunkSize maximal number of entries passed to the sink at once.
+     * @param sink receiver of log entries.
+     * @throws Exception When the sink fails.
+     */
+    public void downloadSinceLast(int chunkSize, RowSink sink) throws Exception {
+        Progress from = handled;
+        if (from != null) {
+            from.restore(source);
+        }
+        LocalDateTime startDate = source.lastDownload;
+        downloadFromDate(startDate, true, chunkSize, sink);
+    }
+
+    /**
+     * @return Whether entries of some file were all handled by the sink, so that downloadSinceLast continues after it.
+     */
+    public boolean hasProgress() {
+        return handled != null;
+    }
+
+    /**
+     * Closes connections of all downloaders, also when closing some of them fails or the thread is interrupted.
+     * Interruption is not thrown, the interrupt flag of the thread is restored instead.
+     *
+     * @throws IOException When closing a downloader failed, the first such failure.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (LogDownloader logDownloader : extraDownloaders) {
+            failure = closeDownloader(logDownloader, failure);
+        }
+        extraDownloaders.clear();
+        failure = closeDownloader(downloader, failure);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static IOException closeDownloader(LogDownloader logDownloader, IOException failure) {
+        if (!(logDownloader instanceof AutoCloseable)) {
+            return failure;
+        }
+        try {
+            ((AutoCloseable) logDownloader).close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (failure == null) {
+                return e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            failure.addSuppressed(e);
+        }
+        return failure;
+    }
 }
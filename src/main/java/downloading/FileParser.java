@@ -29,50 +29,310 @@ either expressed or implied, of the FreeBSD Project.
 
 package downloading;
 
-import util.Splitter;
+import util.ByteLineReader;
+import util.RowBuffer;
+import util.LineParser;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by MIC on 2015-11-29.
  */
 public class FileParser {
 
-    public final Splitter splitter;
+    /**
+     * Files with at least that many bytes left to parse are parsed in parallel by parseFileParallel.
+     */
+    public static final long PARALLEL_PARSE_BYTES = 64L * 1024 * 1024;
+    /**
+     * Approximate size of a part of file parsed by single task.
+     */
+    public static final long PARALLEL_PART_BYTES = 8L * 1024 * 1024;
+    private static final int SCAN_BLOCK_BYTES = 64 * 1024;
 
-    public FileParser(Splitter splitter){
-        this.splitter = splitter;
+    public final LineParser lineParser;
+
+    public FileParser(LineParser lineParser){
+        this.lineParser = lineParser;
     }
 
 
     public List<List<String>> parseFile(File file, Source source, boolean continuation){
         List<List<String>> output = new ArrayList<>();
+        try {
+            parseFile(file, source, continuation, false, Integer.MAX_VALUE, output::addAll);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return output;
+    }
+
+    /**
+     * Parses the file handing entries over to the sink in chunks, so that the whole file never has to be kept in memory.
+     * With continuation the file is expected to hold only the part of the log after source.lastDownloadOffset,
+     * otherwise the whole log. Either way the source remembers line and byte offset where parsing ended.
+     *
+     * @param file File to parse.
+     * @param source Source the file comes from, its remembered position is used and updated.
+     * @param continuation Whether the file continues from remembered position.
+     * @param growing Whether the log may still be written to, then unterminated last line is left for the next download.
+     * @param chunkSize Maximal number of entries passed to the sink at once.
+     * @param sink Receiver of parsed entries.
+     * @throws Exception When the sink fails.
+     */
+    public void parseFile(File file, Source source, boolean continuation, boolean growing, int chunkSize, RowSink sink) throws Exception {
+        InputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        parseStream(in, source, continuation, growing, chunkSize, sink);
+    }
+
+    /**
+     * Parses the stream handing entries over to the sink in chunks, the stream is closed afterwards.
+     * With continuation the stream is expected to start at source.lastDownloadOffset, otherwise at the beginning of the log.
+     * Last bytes before the reached position are kept in the source as well, to recognize the position later.
+     *
+     * @param in Stream to parse.
+     * @param source Source the stream comes from, its remembered position is used and updated.
+     * @param continuation Whether the stream continues from remembered position.
+     * @param growing Whether the log may still be written to, then unterminated last line is left for the next download.
+     * @param chunkSize Maximal number of entries passed to the sink at once.
+     * @param sink Receiver of parsed entries.
+     * @throws Exception When the sink fails.
+     */
+    public void parseStream(InputStream in, Source source, boolean continuation, boolean growing, int chunkSize, RowSink sink) throws Exception {
+        List<List<String>> chunk = new ArrayList<>();
         int lineCounter;
+        long offset;
         if(continuation){
             lineCounter = source.lastDownloadLine;
+            offset = source.lastDownloadOffset;
         }else{
             lineCounter = 0;
+            offset = 0;
         }
-        try(BufferedReader reader = new BufferedReader(new FileReader(file))){
-            String line;
-            if(continuation){
-                for(int i = 0; i < lineCounter; i++){
-                    reader.readLine();
-                }
-            }
-            while ((line = reader.readLine()) != null){
-                output.add(splitter.splitByGroups(line));
+        long position = 0;
+        byte[] tail = continuation ? source.lastDownloadTail : new byte[0];
+        try(ByteLineReader reader = new ByteLineReader(in, Charset.defaultCharset(), growing)){
+            reader.keepTail(continuation ? source.lastDownloadTail : new byte[0], Source.TAIL_BYTES);
+            RowBuffer row = lineParser.newRowBuffer();
+            CharSequence line;
+            while ((line = reader.readLineChars()) != null){
+                lineParser.splitInto(line, row);
+                // Values are copied out of the line right away, as the reader reuses its buffer for the next line
+                chunk.add(row.toList());
                 lineCounter++;
+                position = reader.getPosition();
+                tail = reader.getTail();
+                if(chunk.size() >= chunkSize){
+                    sink.accept(chunk);
+                    chunk = new ArrayList<>();
+                }
             }
         }catch (IOException e) {
             e.printStackTrace();
         }
+        if(!chunk.isEmpty()){
+            sink.accept(chunk);
+        }
         source.lastDownloadLine = lineCounter;
-        return output;
+        source.lastDownloadOffset = offset + position;
+        source.lastDownloadTail = tail;
+    }
+
+    /**
+     * Parses the file in parallel. The file is split into parts at line boundaries, parts are memory mapped
+     * and parsed by tasks of a pool with thread per core, then entries are handed over to the sink in file order.
+     * Only a few parts per core are parsed ahead of the sink, so memory use does not depend on the size of the file.
+     * Meaning of continuation and growing is the same as in parseFile.
+     *
+     * @param file File to parse.
+     * @param source Source the file comes from, its remembered position is used and updated.
+     * @param continuation Whether the file continues from remembered position.
+     * @param growing Whether the log may still be written to, then unterminated last line is left for the next download.
+     * @param chunkSize Maximal number of entries passed to the sink at once.
+     * @param sink Receiver of parsed entries.
+     * @throws Exception When the file can not be read or the sink fails.
+     */
+    public void parseFileParallel(File file, Source source, boolean continuation, boolean growing, int chunkSize, RowSink sink) throws Exception {
+        try(FileInputStream in = new FileInputStream(file)){
+            parseFileParallel(in.getChannel(), 0, source, continuation, growing, chunkSize, sink);
+        }
+    }
+
+    /**
+     * Parses the channel in parallel from position start, which corresponds to source.lastDownloadOffset with continuation.
+     */
+    void parseFileParallel(FileChannel channel, long start, Source source, boolean continuation, boolean growing, int chunkSize, RowSink sink) throws Exception {
+        long end = channel.size();
+        if(growing){
+            end = lastLineEnd(channel, start, end);
+        }
+        List<long[]> parts = new ArrayList<>();
+        for(long partStart = start; partStart < end; ){
+            long partEnd = partStart + PARALLEL_PART_BYTES >= end ? end : nextLineStart(channel, partStart + PARALLEL_PART_BYTES, end);
+            parts.add(new long[]{partStart, partEnd});
+            partStart = partEnd;
+        }
+
+        int threads = Math.max(1, Math.min(parts.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "file-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int window = Math.max(2, threads * 2);
+        Deque<Future<List<List<String>>>> pending = new ArrayDeque<>();
+        int submitted = 0;
+        int lineCounter = continuation ? source.lastDownloadLine : 0;
+        List<List<String>> chunk = new ArrayList<>();
+        try {
+            for(int i = 0; i < parts.size(); i++){
+                while(submitted < parts.size() && submitted < i + window){
+                    long[] part = parts.get(submitted++);
+                    pending.add(pool.submit(new PartTask(channel, part[0], part[1])));
+                }
+                for(List<String> row : takeRows(pending.poll())){
+                    chunk.add(row);
+                    lineCounter++;
+                    if(chunk.size() >= chunkSize){
+                        sink.accept(chunk);
+                        chunk = new ArrayList<>();
+                    }
+                }
+            }
+        } finally {
+            for(Future<List<List<String>>> task : pending){
+                task.cancel(true);
+            }
+            pool.shutdownNow();
+        }
+        if(!chunk.isEmpty()){
+            sink.accept(chunk);
+        }
+
+        long offset = continuation ? source.lastDownloadOffset : 0;
+        byte[] previousTail = continuation ? source.lastDownloadTail : new byte[0];
+        int fromFile = (int) Math.min(Source.TAIL_BYTES, end - start);
+        int fromPrevious = Math.min(previousTail.length, Source.TAIL_BYTES - fromFile);
+        byte[] tail = new byte[fromPrevious + fromFile];
+        System.arraycopy(previousTail, previousTail.length - fromPrevious, tail, 0, fromPrevious);
+        channel.read(ByteBuffer.wrap(tail, fromPrevious, fromFile), end - fromFile);
+
+        source.lastDownloadLine = lineCounter;
+        source.lastDownloadOffset = offset + end - start;
+        source.lastDownloadTail = tail;
+    }
+
+    /**
+     * Waits for rows of a part, failure of the task is rethrown as it is.
+     */
+    private static List<List<String>> takeRows(Future<List<List<String>>> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * @return Position right after the first '\n' at or after position, or end when there is none.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long end) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_BYTES);
+        while(position < end){
+            block.clear();
+            block.limit((int) Math.min(SCAN_BLOCK_BYTES, end - position));
+            int read = channel.read(block, position);
+            if(read <= 0){
+                break;
+            }
+            for(int i = 0; i < read; i++){
+                if(block.get(i) == '\n'){
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    /**
+     * @return Position right after the last '\n' between start and end, or start when there is none.
+     */
+    private static long lastLineEnd(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_BYTES);
+        long blockEnd = end;
+        while(blockEnd > start){
+            long blockStart = Math.max(start, blockEnd - SCAN_BLOCK_BYTES);
+            block.clear();
+            block.limit((int) (blockEnd - blockStart));
+            while(block.hasRemaining() && channel.read(block, blockStart + block.position()) > 0);
+            for(int i = block.position() - 1; i >= 0; i--){
+                if(block.get(i) == '\n'){
+                    return blockStart + i + 1;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return start;
+    }
+
+    /**
+     * Maps part of the file and parses its lines.
+     */
+    private class PartTask implements Callable<List<List<String>>> {
+        final FileChannel channel;
+        final long start;
+        final long end;
+
+        PartTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public List<List<String>> call() throws IOException {
+            CharBuffer text = Charset.defaultCharset().decode(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            List<List<String>> rows = new ArrayList<>();
+            RowBuffer row = lineParser.newRowBuffer();
+            int lineStart = 0;
+            int length = text.limit();
+            for(int i = 0; i <= length; i++){
+                if(i == length ? i > lineStart : text.get(i) == '\n'){
+                    int lineEnd = i > lineStart && text.get(i - 1) == '\r' ? i - 1 : i;
+                    lineParser.splitInto(text, lineStart, lineEnd, row);
+                    // Values are copied out here, so the decoded part is not kept until the rows reach the sink
+                    rows.add(row.toList());
+                    lineStart = i + 1;
+                }
+            }
+            return rows;
+        }
     }
 }
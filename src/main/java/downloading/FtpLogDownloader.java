@@ -29,8 +29,10 @@ either expressed or implied, of the FreeBSD Project.
 
 package downloading;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
 
 import java.io.*;
 
@@ -64,6 +66,84 @@ public class FtpLogDownloader extends LogDownloader implements AutoCloseable{
         outputStream.close();
     }
 
+    /**
+     * Downloads the part of the file after offset. Asks the server to restart the transfer at offset,
+     * if the server does not support that, whole file is transferred and the first offset bytes are skipped.
+     *
+     * @param path Path of the file on the server.
+     * @param file Target file.
+     * @param offset Number of bytes to leave out.
+     * @throws IOException When there is problem with downloading.
+     */
+    @Override
+    public void downloadToFile(String path, File file, long offset) throws IOException {
+        if(offset <= 0){
+            downloadToFile(path, file);
+            return;
+        }
+        try(OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))){
+            ftpClient.setRestartOffset(offset);
+            boolean success = ftpClient.retrieveFile(path, outputStream);
+            ftpClient.setRestartOffset(0);
+            if(success){
+                return;
+            }
+            InputStream inputStream = ftpClient.retrieveFileStream(path);
+            if(inputStream == null){
+                throw new IOException("Could not download " + path + ": " + ftpClient.getReplyString());
+            }
+            try{
+                IOUtils.skip(inputStream, offset);
+                IOUtils.copy(inputStream, outputStream);
+            }finally{
+                inputStream.close();
+                ftpClient.completePendingCommand();
+            }
+        }
+    }
+
+    @Override
+    public InputStream openStream(String path, long offset) throws IOException {
+        ftpClient.setRestartOffset(offset);
+        InputStream inputStream = ftpClient.retrieveFileStream(path);
+        ftpClient.setRestartOffset(0);
+        boolean skip = false;
+        if(inputStream == null && offset > 0){
+            inputStream = ftpClient.retrieveFileStream(path);
+            skip = true;
+        }
+        if(inputStream == null){
+            throw new IOException("Could not download " + path + ": " + ftpClient.getReplyString());
+        }
+        InputStream transfer = new FilterInputStream(inputStream) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                ftpClient.completePendingCommand();
+            }
+        };
+        if(skip){
+            IOUtils.skip(transfer, offset);
+        }
+        return transfer;
+    }
+
+    /**
+     * Lists the file to get its size and modification time.
+     *
+     * @param path Path of the file on the server.
+     * @return Information about the file, or null when it is not listed.
+     * @throws IOException When there is problem with connection.
+     */
+    @Override
+    public RemoteFileInfo stat(String path) throws IOException {
+        FTPFile[] files = ftpClient.listFiles(path);
+        if(files.length != 1 || !files[0].isFile()){
+            return null;
+        }
+        return new RemoteFileInfo(files[0].getSize(), files[0].getTimestamp() == null ? 0 : files[0].getTimestamp().getTimeInMillis());
+    }
+
     @Override
     public void close() throws Exception {
         if (ftpClient.isConnected()) {
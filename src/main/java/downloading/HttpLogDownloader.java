@@ -30,10 +30,14 @@ either expressed or implied, of the FreeBSD Project.
 package downloading;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
@@ -42,6 +46,7 @@ import java.nio.channels.ReadableByteChannel;
  * Created by MIC on 2015-11-22.
  */
 public class HttpLogDownloader extends LogDownloader{
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
 
     public HttpLogDownloader(){
         super(Source.Type.HTTP);
@@ -51,6 +56,75 @@ public class HttpLogDownloader extends LogDownloader{
         downloadCommonsIO(address, file);
     }
 
+    /**
+     * Downloads the part of the file after offset. Asks the server for that range only,
+     * if the server sends whole file instead, the first offset bytes are skipped.
+     * When the file is not longer than offset, the target file is left empty.
+     *
+     * @param address Address of the file.
+     * @param file Target file.
+     * @param offset Number of bytes to leave out.
+     * @throws IOException When there is problem with downloading.
+     */
+    @Override
+    public void downloadToFile(String address, File file, long offset) throws IOException {
+        if(offset <= 0){
+            downloadToFile(address, file);
+            return;
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
+        connection.setRequestProperty("Range", "bytes=" + offset + "-");
+        if(connection.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE){
+            connection.disconnect();
+            FileUtils.writeByteArrayToFile(file, new byte[0]);
+            return;
+        }
+        try(InputStream in = connection.getInputStream()){
+            if(connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL){
+                IOUtils.skip(in, offset);
+            }
+            FileUtils.copyInputStreamToFile(in, file);
+        }
+    }
+
+    @Override
+    public InputStream openStream(String address, long offset) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
+        if(offset > 0){
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            if(connection.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE){
+                connection.disconnect();
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        }
+        InputStream in = connection.getInputStream();
+        if(offset > 0 && connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL){
+            IOUtils.skip(in, offset);
+        }
+        return in;
+    }
+
+    /**
+     * Asks the server for size and modification time of the file with HEAD request.
+     *
+     * @param address Address of the file.
+     * @return Information about the file, or null when the server does not report its size.
+     * @throws IOException When there is problem with connection.
+     */
+    @Override
+    public RemoteFileInfo stat(String address) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
+        connection.setRequestMethod("HEAD");
+        try {
+            if(connection.getResponseCode() != HttpURLConnection.HTTP_OK || connection.getContentLengthLong() < 0){
+                return null;
+            }
+            return new RemoteFileInfo(connection.getContentLengthLong(), connection.getLastModified());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
     private void downloadCommonsIO(String address, File file) throws IOException{
         URL url = new URL(address);
         FileUtils.copyURLToFile(url, file);
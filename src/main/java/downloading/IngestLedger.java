@@ -0,0 +1,93 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package downloading;
+
+import java.time.LocalDateTime;
+
+/**
+ * Durable record of how far every file of every Source was ingested, so that ingest can continue where it stopped after a restart.
+ * Entries are recorded after the entries of the file are stored, not together with them, so ingest is at least once:
+ * after a crash between the two the file is ingested again from the previous entry, no entry is ever ahead of the stored logs.
+ */
+public interface IngestLedger {
+
+    /**
+     * @param sourceName Name of the source.
+     * @param path Path of the file on the server.
+     * @return Entry of the file, or null when the file was never ingested.
+     * @throws Exception When the ledger can not be read.
+     */
+    Entry find(String sourceName, String path) throws Exception;
+
+    /**
+     * Stores the entry, replacing previous entry of the same file. Called once all entries of the file up to the entry are stored.
+     *
+     * @param sourceName Name of the source.
+     * @param entry Entry to store.
+     * @throws Exception When the ledger can not be written.
+     */
+    void record(String sourceName, Entry entry) throws Exception;
+
+    /**
+     * @return Whether nothing was ingested yet.
+     * @throws Exception When the ledger can not be read.
+     */
+    boolean isEmpty() throws Exception;
+
+    /**
+     * State of a single ingested file.
+     */
+    class Entry {
+        public final String path;
+        public final LocalDateTime step;
+        public final long byteOffset;
+        public final int lineCount;
+        public final long size;
+        public final long modified;
+        /**
+         * CRC32 of the last (at most FINGERPRINT_BYTES) bytes before byteOffset, used to notice that the file was replaced.
+         */
+        public final long fingerprint;
+        public final boolean complete;
+
+        public static final int FINGERPRINT_BYTES = Source.TAIL_BYTES;
+
+        public Entry(String path, LocalDateTime step, long byteOffset, int lineCount, long size, long modified, long fingerprint, boolean complete) {
+            this.path = path;
+            this.step = step;
+            this.byteOffset = byteOffset;
+            this.lineCount = lineCount;
+            this.size = size;
+            this.modified = modified;
+            this.fingerprint = fingerprint;
+            this.complete = complete;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package downloading;
+
+import downloading.RowSink.Checkpoint;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs download and parsing of a single Source on a separate thread and hands parsed chunks to the sink on the calling thread.
+ * At most maxChunksInFlight chunks wait between the two, so memory used does not depend on how much is downloaded.
+ */
+public class IngestPipeline {
+
+    private static final Object END = new Object();
+
+    final int chunkSize;
+    final int maxChunksInFlight;
+
+    /**
+     * @param chunkSize Maximal number of entries in single chunk, each chunk is passed to the sink separately.
+     * @param maxChunksInFlight How many parsed chunks can wait for the sink before download is paused.
+     */
+    public IngestPipeline(int chunkSize, int maxChunksInFlight) {
+        if(chunkSize < 1 || maxChunksInFlight < 1){
+            throw new IllegalArgumentException("Chunk size and chunks in flight have to be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+
+    /**
+     * Streams initial download of the manager into the sink.
+     *
+     * @param manager Manager of the source to download from.
+     * @param startTime From when the download should be performed.
+     * @param sink Receiver of log entries, called on the current thread.
+     * @throws Exception When the sink fails or the download was interrupted.
+     */
+    public void initialDownload(DownloadManager manager, LocalDateTime startTime, RowSink sink) throws Exception {
+        run(queue -> manager.initialDownload(startTime, chunkSize, queue), sink);
+    }
+
+    /**
+     * Streams updating download of the manager into the sink.
+     *
+     * @param manager Manager of the source to download from.
+     * @param sink Receiver of log entries, called on the current thread.
+     * @throws Exception When the sink fails or the download was interrupted.
+     */
+    public void downloadSinceLast(DownloadManager manager, RowSink sink) throws Exception {
+        run(queue -> manager.downloadSinceLast(chunkSize, queue), sink);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run(Producer producer, RowSink sink) throws Exception {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(maxChunksInFlight);
+        Exception[] producerFailure = new Exception[1];
+        Thread producerThread = new Thread(() -> {
+            try {
+                producer.produce(new RowSink() {
+                    @Override
+                    public void accept(List<List<String>> rows) throws InterruptedException {
+                        queue.put(rows);
+                    }
+
+                    @Override
+                    public void checkpoint(Checkpoint checkpoint) throws InterruptedException {
+                        queue.put(checkpoint);
+                    }
+                });
+            } catch (Exception e) {
+                producerFailure[0] = e;
+            } finally {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "ingest-" + Thread.currentThread().getName());
+        producerThread.setDaemon(true);
+        producerThread.start();
+
+        try {
+            Object item;
+            while ((item = queue.take()) != END) {
+                if (item instanceof Checkpoint) {
+                    sink.checkpoint((Checkpoint) item);
+                } else {
+                    sink.accept((List<List<String>>) item);
+                }
+            }
+        } catch (Exception e) {
+            producerThread.interrupt();
+            queue.clear();
+            throw e;
+        }
+        producerThread.join();
+        if(producerFailure[0] != null){
+            throw producerFailure[0];
+        }
+    }
+
+    private interface Producer {
+        void produce(RowSink sink) throws Exception;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package downloading;
+
+import com.jcraft.jsch.JSchException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps many Sources up to date. Each source is downloaded initially and then polled with downloadSinceLast
+ * once per its step (stepAmount of stepUnit).
+ * Polls run on a bounded pool of workers and every host has its own limit of concurrent polls,
+ * so a slow host can occupy only its share of workers. A source is never polled twice at the same time.
+ * Both limits can be changed while sources are polled.
+ */
+public class IngestScheduler implements AutoCloseable {
+
+    /**
+     * How long a poll waits before trying again when its host is already at its limit.
+     */
+    private static final long HOST_BUSY_RETRY_MILLIS = 1000;
+
+    volatile int maxPerHost;
+    final int chunkSize;
+    final int maxChunksInFlight;
+    final ScheduledExecutorService timer;
+    final ThreadPoolExecutor workers;
+    final Map<String, AtomicInteger> hostPolls = new ConcurrentHashMap<>();
+    final Map<String, ScheduledSource> sources = new ConcurrentHashMap<>();
+    volatile IngestLedger ledger = null;
+
+    /**
+     * @param maxConcurrent How many sources can be polled at once.
+     * @param maxPerHost How many sources with the same address can be polled at once.
+     * @param chunkSize Maximal number of entries passed to the sink at once.
+     * @param maxChunksInFlight How many chunks of a single poll can wait for its sink.
+     */
+    public IngestScheduler(int maxConcurrent, int maxPerHost, int chunkSize, int maxChunksInFlight) {
+        checkLimits(maxConcurrent, maxPerHost);
+        this.maxPerHost = maxPerHost;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ingest-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "ingest-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Changes concurrency limits of the running scheduler. Polls that are already running are not stopped,
+     * with lower limits new polls wait until enough of them finish.
+     *
+     * @param maxConcurrent How many sources can be polled at once.
+     * @param maxPerHost How many sources with the same address can be polled at once.
+     */
+    public synchronized void setLimits(int maxConcurrent, int maxPerHost) {
+        checkLimits(maxConcurrent, maxPerHost);
+        this.maxPerHost = maxPerHost;
+        // Core size can not exceed maximal size at any moment
+        if (maxConcurrent > workers.getMaximumPoolSize()) {
+            workers.setMaximumPoolSize(maxConcurrent);
+            workers.setCorePoolSize(maxConcurrent);
+        } else {
+            workers.setCorePoolSize(maxConcurrent);
+            workers.setMaximumPoolSize(maxConcurrent);
+        }
+    }
+
+    private static void checkLimits(int maxConcurrent, int maxPerHost) {
+        if (maxConcurrent < 1 || maxPerHost < 1) {
+            throw new IllegalArgumentException("Concurrency limits have to be positive");
+        }
+    }
+
+    /**
+     * Sets ledger in which sources added afterwards keep their progress, so that they continue where previous run stopped.
+     *
+     * @param ledger Ledger of ingested files, or null to keep progress only in memory.
+     */
+    public void setLedger(IngestLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    /**
+     * Starts ingesting the source. The first poll downloads everything since startTime, following ones only new entries.
+     *
+     * @param source Source to ingest, its name has to be unique within this scheduler.
+     * @param startTime Since when the logs should be downloaded.
+     * @param sink Receiver of log entries of this source, called from worker threads.
+     * @throws IOException When there is problem with downloading.
+     * @throws JSchException When there is problem with downloading from ssh.
+     */
+    public void addSource(Source source, LocalDateTime startTime, RowSink sink) throws IOException, JSchException {
+        ScheduledSource scheduled = new ScheduledSource(source, new DownloadManager(source, ledger), startTime, sink);
+        if (sources.putIfAbsent(source.name, scheduled) != null) {
+            scheduled.close();
+            throw new IllegalArgumentException("Source " + source.name + " is already scheduled");
+        }
+        scheduled.schedule(0);
+    }
+
+    /**
+     * Stops polling the source and closes its connections. A poll that is already running is allowed to finish.
+     *
+     * @param name Name of the source.
+     */
+    public void removeSource(String name) {
+        ScheduledSource scheduled = sources.remove(name);
+        if (scheduled != null) {
+            scheduled.close();
+        }
+    }
+
+    /**
+     * @return Current state of every scheduled source.
+     */
+    public List<SourceStatus> getStatuses() {
+        List<SourceStatus> statuses = new ArrayList<>();
+        for (ScheduledSource scheduled : sources.values()) {
+            statuses.add(scheduled.status());
+        }
+        return statuses;
+    }
+
+    @Override
+    public void close() {
+        for (String name : new ArrayList<>(sources.keySet())) {
+            removeSource(name);
+        }
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Snapshot of the state of a single source.
+     */
+    public static class SourceStatus {
+        public final String name;
+        public final String address;
+        public final LocalDateTime lastDownload;
+        public final LocalDateTime lastSuccess;
+        public final Duration lastPollDuration;
+        public final int consecutiveFailures;
+        public final Exception lastError;
+        public final long rowsIngested;
+        public final boolean polling;
+
+        SourceStatus(String name, String address, LocalDateTime lastDownload, LocalDateTime lastSuccess, Duration lastPollDuration,
+                     int consecutiveFailures, Exception lastError, long rowsIngested, boolean polling) {
+            this.name = name;
+            this.address = address;
+            this.lastDownload = lastDownload;
+            this.lastSuccess = lastSuccess;
+            this.lastPollDuration = lastPollDuration;
+            this.consecutiveFailures = consecutiveFailures;
+            this.lastError = lastError;
+            this.rowsIngested = rowsIngested;
+            this.polling = polling;
+        }
+
+        /**
+         * Lag of the source, that is how long ago the last successful poll started. Everything logged before that is already ingested.
+         *
+         * @return Lag of the source, or null when no poll has succeeded yet.
+         */
+        public Duration getLag() {
+            return lastSuccess == null ? null : Duration.between(lastSuccess, LocalDateTime.now());
+        }
+    }
+
+    private class ScheduledSource {
+        final Source source;
+        final DownloadManager manager;
+        final LocalDateTime startTime;
+        final RowSink sink;
+        final Duration interval;
+        final AtomicInteger hostPollsRunning;
+
+        volatile ScheduledFuture<?> next;
+        volatile boolean closed = false;
+        volatile boolean initialDone = false;
+        volatile boolean polling = false;
+        volatile LocalDateTime lastSuccess;
+        volatile Duration lastPollDuration;
+        volatile int consecutiveFailures = 0;
+        volatile Exception lastError;
+        volatile long rowsIngested = 0;
+
+        ScheduledSource(Source source, DownloadManager manager, LocalDateTime startTime, RowSink sink) {
+            this.source = source;
+            this.manager = manager;
+            this.startTime = startTime;
+            this.sink = sink;
+            this.interval = source.stepUnit.getDuration().multipliedBy(source.stepAmount);
+            this.hostPollsRunning = hostPolls.computeIfAbsent(source.address, address -> new AtomicInteger());
+        }
+
+        /**
+         * Takes a place among polls of the host, unless the host is already at its limit.
+         */
+        boolean acquireHost() {
+            while (true) {
+                int running = hostPollsRunning.get();
+                if (running >= maxPerHost) {
+                    return false;
+                }
+                if (hostPollsRunning.compareAndSet(running, running + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void schedule(long delayMillis) {
+            if (closed) {
+                return;
+            }
+            try {
+                next = timer.schedule(() -> workers.execute(this::poll), delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // scheduler is being closed
+            }
+        }
+
+        void poll() {
+            if (closed) {
+                return;
+            }
+            if (!acquireHost()) {
+                schedule(HOST_BUSY_RETRY_MILLIS);
+                return;
+            }
+            if (!startPolling()) {
+                hostPollsRunning.decrementAndGet();
+                return;
+            }
+            LocalDateTime pollStart = LocalDateTime.now();
+            try {
+                IngestPipeline pipeline = new IngestPipeline(chunkSize, maxChunksInFlight);
+                RowSink counting = new RowSink() {
+                    @Override
+                    public void accept(List<List<String>> rows) throws Exception {
+                        sink.accept(rows);
+                        rowsIngested += rows.size();
+                    }
+
+                    @Override
+                    public void checkpoint(Checkpoint checkpoint) throws Exception {
+                        sink.checkpoint(checkpoint);
+                    }
+                };
+                // After a failed initial download, files it handled are not downloaded again
+                if (initialDone || manager.hasProgress()) {
+                    pipeline.downloadSinceLast(manager, counting);
+                } else {
+                    pipeline.initialDownload(manager, startTime, counting);
+                }
+                initialDone = true;
+                lastSuccess = pollStart;
+                consecutiveFailures = 0;
+            } catch (Exception e) {
+                e.printStackTrace();
+                lastError = e;
+                consecutiveFailures++;
+            } finally {
+                hostPollsRunning.decrementAndGet();
+                stopPolling();
+            }
+            lastPollDuration = Duration.between(pollStart, LocalDateTime.now());
+            long untilNext = Duration.between(LocalDateTime.now(), pollStart.plus(interval)).toMillis();
+            schedule(Math.max(0, untilNext));
+        }
+
+        SourceStatus status() {
+            return new SourceStatus(source.name, source.address, source.lastDownload, lastSuccess, lastPollDuration,
+                    consecutiveFailures, lastError, rowsIngested, polling);
+        }
+
+        synchronized boolean startPolling() {
+            if (closed) {
+                return false;
+            }
+            polling = true;
+            return true;
+        }
+
+        synchronized void stopPolling() {
+            polling = false;
+            if (closed) {
+                closeManager();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (next != null) {
+                next.cancel(false);
+            }
+            if (!polling) {
+                closeManager();
+            }
+        }
+
+        private void closeManager() {
+            try {
+                manager.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -29,6 +29,15 @@ either expressed or implied, of the FreeBSD Project.
 
 package downloading;
 
+import com.jcraft.jsch.JSchException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
 /**
  * Created by MIC on 2015-11-22.
  */
@@ -38,4 +47,55 @@ public abstract class LogDownloader {
     public LogDownloader(Source.Type type){
         this.type = type;
     }
+
+    /**
+     * Opens the file for reading directly from the server, without storing it locally.
+     * The stream starts at offset, servers that can not resume have the first offset bytes skipped.
+     * Closing the stream finishes the transfer.
+     *
+     * @param path Location of the file, full address for http, path on the server otherwise.
+     * @param offset Number of bytes to leave out.
+     * @return Stream of the file contents after offset.
+     * @throws IOException When there is problem with downloading.
+     */
+    public abstract InputStream openStream(String path, long offset) throws IOException;
+
+    /**
+     * Same as openStream, as a channel.
+     */
+    public ReadableByteChannel openChannel(String path, long offset) throws IOException {
+        return Channels.newChannel(openStream(path, offset));
+    }
+
+    /**
+     * Downloads the part of the file after offset to the target file. By default the contents of openStream are copied.
+     *
+     * @param path Location of the file, full address for http, path on the server otherwise.
+     * @param file Target file.
+     * @param offset Number of bytes to leave out.
+     * @throws Exception When there is problem with downloading.
+     */
+    public void downloadToFile(String path, File file, long offset) throws Exception {
+        try(InputStream in = openStream(path, offset)){
+            FileUtils.copyInputStreamToFile(in, file);
+        }
+    }
+
+    /**
+     * Asks the server for size and modification time of the file. By default the server is expected not to tell.
+     *
+     * @param path Location of the file, full address for http, path on the server otherwise.
+     * @return Information about the file, or null when the server does not report it.
+     * @throws Exception When there is problem with connection.
+     */
+    public RemoteFileInfo stat(String path) throws Exception {
+        return null;
+    }
+
+    /**
+     * Creates downloaders of a source, one for every file downloaded at once.
+     */
+    public interface Factory {
+        LogDownloader create() throws IOException, JSchException;
+    }
 }
@@ -0,0 +1,61 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package downloading;
+
+import java.util.List;
+
+/**
+ * Receives parsed log entries chunk by chunk, as soon as they are available.
+ */
+public interface RowSink {
+
+    /**
+     * Accepts next chunk of log entries. Chunk is never empty and the sink may keep it, it will not be reused.
+     *
+     * @param rows Log entries, each as List of Strings, according to the splitting regex.
+     * @throws Exception When the entries could not be handled, this stops the download.
+     */
+    void accept(List<List<String>> rows) throws Exception;
+
+    /**
+     * Runs the checkpoint once every entry accepted before it is handled.
+     * Download progress is recorded this way, so it is never stored ahead of the entries themselves.
+     *
+     * @param checkpoint Action to run.
+     * @throws Exception When the checkpoint fails.
+     */
+    default void checkpoint(Checkpoint checkpoint) throws Exception {
+        checkpoint.run();
+    }
+
+    interface Checkpoint {
+        void run() throws Exception;
+    }
+}
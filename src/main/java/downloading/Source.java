@@ -29,29 +29,40 @@ either expressed or implied, of the FreeBSD Project.
 
 package downloading;
 
-import util.Splitter;
+import util.LineParser;
+import util.LineParsers;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
 
 /**
  * Created by MIC on 2015-11-28.
  */
 public abstract class Source implements Serializable{
-    enum Type{
+    public enum Type{
         FTP, HTTP, SSH
     }
 
+    /**
+     * How many bytes before lastDownloadOffset are remembered, to check that the file was not replaced before resuming.
+     */
+    static final int TAIL_BYTES = 1024;
+
     final Type type;
     final String name;
     final String address;
     final String path; //For http we will simply append address + path
     final String namePattern;
     final String splitPattern;
-    final Splitter splitter;
+    final LineParser lineParser;
     LocalDateTime lastDownload;
     int lastDownloadLine = 0;
+    long lastDownloadOffset = 0;
+    byte[] lastDownloadTail = new byte[0];
+    int fetchWorkers = 1;
+    boolean spoolToDisk = false;
     final ChronoUnit stepUnit;
     final int stepAmount;
 
@@ -62,9 +73,38 @@ public abstract class Source implements Serializable{
         this.path = path;
         this.namePattern = namePattern;
         this.splitPattern = splitPattern;
-        this.splitter = new Splitter(splitPattern);
+        this.lineParser = LineParsers.forPattern(splitPattern);
         this.stepUnit = stepUnit;
         this.stepAmount = stepAmount;
         lastDownload = LocalDateTime.now();
     }
+
+    /**
+     * Sets how many files of this source can be downloaded at once. Files are still parsed in chronological order.
+     *
+     * @param fetchWorkers Number of concurrent downloads, 1 means sequential downloading.
+     */
+    public void setFetchWorkers(int fetchWorkers) {
+        if (fetchWorkers < 1) {
+            throw new IllegalArgumentException("At least one fetch worker is required");
+        }
+        this.fetchWorkers = fetchWorkers;
+    }
+
+    /**
+     * Sets whether files are stored in temporary files before parsing, instead of being parsed while downloading.
+     * Concurrent fetching always stores files, because files fetched ahead have to wait for the parser.
+     *
+     * @param spoolToDisk Whether to store files before parsing.
+     */
+    public void setSpoolToDisk(boolean spoolToDisk) {
+        this.spoolToDisk = spoolToDisk;
+    }
+
+    /**
+     * @return Names of the columns of rows parsed from this source, taken from named groups of the split pattern or from its built-in format.
+     */
+    public List<String> getColumnNames() {
+        return lineParser.columnNames();
+    }
 }
@@ -76,6 +76,53 @@ public class SshLogDownloader extends LogDownloader implements AutoCloseable{
         bos.close();
     }
 
+    /**
+     * Downloads the part of the file after offset, the transfer starts directly at offset.
+     *
+     * @param path Path of the file on the server.
+     * @param file Target file.
+     * @param offset Number of bytes to leave out.
+     * @throws SftpException When there is problem with sftp channel.
+     * @throws IOException When there is problem with downloading.
+     */
+    @Override
+    public void downloadToFile(String path, File file, long offset) throws SftpException, IOException {
+        if(offset <= 0){
+            downloadToFile(path, file);
+            return;
+        }
+        byte[] buffer = new byte[1024];
+        try(BufferedInputStream bis = new BufferedInputStream(channelSftp.get(path, null, offset));
+            BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file))){
+            int readCount;
+            while( (readCount = bis.read(buffer)) > 0) {
+                bos.write(buffer, 0, readCount);
+            }
+        }
+    }
+
+
+    @Override
+    public InputStream openStream(String path, long offset) throws IOException {
+        try {
+            return channelSftp.get(path, null, offset);
+        } catch (SftpException e) {
+            throw new IOException("Could not download " + path, e);
+        }
+    }
+
+    /**
+     * Reads size and modification time of the file.
+     *
+     * @param path Path of the file on the server.
+     * @return Information about the file.
+     * @throws SftpException When the file can not be read.
+     */
+    @Override
+    public RemoteFileInfo stat(String path) throws SftpException {
+        SftpATTRS attributes = channelSftp.lstat(path);
+        return new RemoteFileInfo(attributes.getSize(), attributes.getMTime() * 1000L);
+    }
 
     @Override
     public void close() throws Exception {
@@ -0,0 +1,466 @@
+package downloading.downloading_tests;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import com.sun.net.httpserver.HttpServer;
+import downloading.DownloadManager;
+import downloading.HttpLogDownloader;
+import downloading.HttpSource;
+import downloading.IngestLedger;
+import downloading.LogDownloader;
+import downloading.RemoteFileInfo;
+import downloading.Source;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+* This class is a collection of tests of downloading logs with DownloadManager.
+* Files are served by a fake downloader from memory, or by a local http server */
+public class DownloadManagerTests {
+    private static final String SPLIT_PATTERN = "^(\\S+) (\\S+) (.*)$";
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    static Source newSource(String address) {
+        return new HttpSource("download_test", address, "/", "access-*yyyyMMdd*.log", SPLIT_PATTERN, ChronoUnit.DAYS, 1);
+    }
+
+    static String path(LocalDateTime step) {
+        return "/access-" + step.format(FILE_DATE) + ".log";
+    }
+
+    static byte[] lines(int from, int to) {
+        StringBuilder builder = new StringBuilder();
+        for (int line = from; line < to; line++) {
+            builder.append("host").append(line).append(' ').append(line).append(" GET /index.html\n");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static List<List<String>> rows(int from, int to) {
+        List<List<String>> rows = new ArrayList<>();
+        for (int line = from; line < to; line++) {
+            rows.add(asList("host" + line, String.valueOf(line), "GET /index.html"));
+        }
+        return rows;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+
+    /* Test for resuming a file that grew since the last download. Only the new part is downloaded,
+     starting with the remembered bytes before the offset, which are compared with the ones seen before */
+    @Test
+    public void grownFileResumeTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusHours(1);
+        FakeDownloader downloader = new FakeDownloader(true);
+        byte[] first = lines(0, 100);
+        downloader.files.put(path(start), first);
+        DownloadManager manager = new DownloadManager(newSource(""), null, () -> downloader);
+        List<List<String>> rows = new ArrayList<>();
+        manager.initialDownload(start, 1000, rows::addAll);
+        assertEquals(rows(0, 100), rows);
+
+        downloader.files.put(path(start), concat(first, lines(100, 150)));
+        downloader.offsets.clear();
+        rows.clear();
+        manager.downloadSinceLast(1000, rows::addAll);
+        assertEquals(rows(100, 150), rows);
+        assertEquals(asList((long) first.length - IngestLedger.Entry.FINGERPRINT_BYTES), downloader.offsets);
+    }
+
+    /* Test for a file that is shorter than the remembered offset. It was replaced, so it is downloaded from the beginning,
+     also when the server does not report sizes and the file turns out to be too short only when its tail is read */
+    @Test
+    public void truncatedFileRestartTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusHours(1);
+        for (boolean reportsSize : asList(true, false)) {
+            FakeDownloader downloader = new FakeDownloader(reportsSize);
+            byte[] first = lines(0, 100);
+            downloader.files.put(path(start), first);
+            DownloadManager manager = new DownloadManager(newSource(""), null, () -> downloader);
+            manager.initialDownload(start, 1000, rows -> { });
+
+            downloader.files.put(path(start), lines(500, 510));
+            downloader.offsets.clear();
+            List<List<String>> rows = new ArrayList<>();
+            manager.downloadSinceLast(1000, rows::addAll);
+            assertEquals(rows(500, 510), rows);
+            assertEquals(reportsSize ? asList(0L) : asList((long) first.length - IngestLedger.Entry.FINGERPRINT_BYTES, 0L), downloader.offsets);
+        }
+    }
+
+    /* Test for a file replaced by another one of the same size. Bytes before the offset differ from the remembered ones,
+     so the file is downloaded from the beginning instead of continuing in the middle of a different log */
+    @Test
+    public void replacedFileRestartTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusHours(1);
+        FakeDownloader downloader = new FakeDownloader(true);
+        byte[] first = lines(0, 100);
+        downloader.files.put(path(start), first);
+        DownloadManager manager = new DownloadManager(newSource(""), null, () -> downloader);
+        manager.initialDownload(start, 1000, rows -> { });
+
+        byte[] replaced = new String(first, StandardCharsets.UTF_8).replace("GET", "PUT").getBytes(StandardCharsets.UTF_8);
+        assertEquals(first.length, replaced.length);
+        downloader.files.put(path(start), replaced);
+        downloader.offsets.clear();
+        List<List<String>> rows = new ArrayList<>();
+        manager.downloadSinceLast(1000, rows::addAll);
+        assertEquals(100, rows.size());
+        assertEquals(asList("host0", "0", "PUT /index.html"), rows.get(0));
+        assertEquals(asList((long) first.length - IngestLedger.Entry.FINGERPRINT_BYTES, 0L), downloader.offsets);
+    }
+
+    /* Test for downloading parts of files over http, from servers that support Range requests and from ones that send
+     the whole file instead, in which case the bytes before the offset are skipped. Resumed download has to be the same with both */
+    @Test
+    public void httpRangeTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusHours(1);
+        for (boolean supportsRange : asList(true, false)) {
+            Map<String, byte[]> files = new ConcurrentHashMap<>();
+            HttpServer server = startServer(files, supportsRange);
+            File target = File.createTempFile("http_range", ".part");
+            try {
+                String address = "http://localhost:" + server.getAddress().getPort();
+                byte[] content = lines(0, 10);
+                files.put(path(start), content);
+                HttpLogDownloader downloader = new HttpLogDownloader();
+                try (InputStream in = downloader.openStream(address + path(start), 5)) {
+                    assertArrayEquals(Arrays.copyOfRange(content, 5, content.length), IOUtils.toByteArray(in));
+                }
+                downloader.downloadToFile(address + path(start), target, 5);
+                assertArrayEquals(Arrays.copyOfRange(content, 5, content.length), FileUtils.readFileToByteArray(target));
+                try (InputStream in = downloader.openStream(address + path(start), content.length)) {
+                    assertEquals(0, IOUtils.toByteArray(in).length);
+                }
+                downloader.downloadToFile(address + path(start), target, content.length + 10);
+                assertEquals(0, target.length());
+                assertEquals(content.length, downloader.stat(address + path(start)).size);
+
+                files.put(path(start), lines(0, 100));
+                DownloadManager manager = new DownloadManager(newSource(address));
+                manager.initialDownload(start, 1000, rows -> { });
+                files.put(path(start), concat(lines(0, 100), lines(100, 120)));
+                List<List<String>> rows = new ArrayList<>();
+                manager.downloadSinceLast(1000, rows::addAll);
+                assertEquals(rows(100, 120), rows);
+            } finally {
+                server.stop(0);
+                assertTrue(target.delete());
+            }
+        }
+    }
+
+    /* Test for restart with a ledger. Files the ledger marks as complete are not downloaded again
+     and the newest file, which was still growing, continues at the recorded offset */
+    @Test
+    public void ledgerRestartTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusDays(1).minusHours(1);
+        LocalDateTime today = start.plusDays(1);
+        MemoryLedger ledger = new MemoryLedger();
+        FakeDownloader downloader = new FakeDownloader(true);
+        downloader.files.put(path(start), lines(0, 100));
+        byte[] todayLines = lines(100, 200);
+        downloader.files.put(path(today), todayLines);
+        List<List<String>> rows = new ArrayList<>();
+        new DownloadManager(newSource(""), ledger, () -> downloader).initialDownload(start, 1000, rows::addAll);
+        assertEquals(rows(0, 200), rows);
+        assertTrue(ledger.find("download_test", path(start)).complete);
+        assertEquals(todayLines.length, ledger.find("download_test", path(today)).byteOffset);
+        assertEquals(false, ledger.find("download_test", path(today)).complete);
+
+        // Process is restarted, only the ledger is kept
+        downloader.files.put(path(today), concat(todayLines, lines(200, 210)));
+        downloader.opened.clear();
+        downloader.offsets.clear();
+        rows.clear();
+        new DownloadManager(newSource(""), ledger, () -> downloader).initialDownload(start, 1000, rows::addAll);
+        assertEquals(rows(200, 210), rows);
+        assertEquals(asList(path(today)), downloader.opened);
+        assertEquals(asList((long) todayLines.length - IngestLedger.Entry.FINGERPRINT_BYTES), downloader.offsets);
+        assertEquals(todayLines.length + lines(200, 210).length, ledger.find("download_test", path(today)).byteOffset);
+    }
+
+    /* Test for restart with a ledger when the file was replaced meanwhile. Bytes before the recorded offset
+     do not match the recorded fingerprint, so the file is downloaded from the beginning */
+    @Test
+    public void ledgerFingerprintRestartTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusHours(1);
+        MemoryLedger ledger = new MemoryLedger();
+        FakeDownloader downloader = new FakeDownloader(true);
+        byte[] first = lines(0, 100);
+        downloader.files.put(path(start), first);
+        new DownloadManager(newSource(""), ledger, () -> downloader).initialDownload(start, 1000, rows -> { });
+
+        downloader.files.put(path(start), concat(lines(500, 600), lines(600, 610)));
+        downloader.offsets.clear();
+        List<List<String>> rows = new ArrayList<>();
+        new DownloadManager(newSource(""), ledger, () -> downloader).initialDownload(start, 1000, rows::addAll);
+        assertEquals(rows(500, 610), rows);
+        assertEquals(asList((long) first.length - IngestLedger.Entry.FINGERPRINT_BYTES, 0L), downloader.offsets);
+    }
+
+    /* Test for downloading files concurrently. Later files are served faster than earlier ones, but rows are still
+     handed over in chronological order, and the next download continues inside the newest file */
+    @Test
+    public void concurrentFetchOrderTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusDays(5).minusHours(1);
+        FakeDownloader downloader = new FakeDownloader(true);
+        for (int day = 0; day < 6; day++) {
+            downloader.files.put(path(start.plusDays(day)), lines(day * 100, day * 100 + 100));
+            downloader.delays.put(path(start.plusDays(day)), (6L - day) * 50);
+        }
+        Source source = newSource("");
+        source.setFetchWorkers(3);
+        DownloadManager manager = new DownloadManager(source, null, () -> downloader);
+        List<List<String>> rows = new ArrayList<>();
+        manager.initialDownload(start, 30, rows::addAll);
+        assertEquals(rows(0, 600), rows);
+        assertTrue(downloader.maxOpening.get() > 1);
+        assertEquals(6, downloader.spooled.get());
+
+        String newest = path(start.plusDays(5));
+        downloader.files.put(newest, concat(downloader.files.get(newest), lines(600, 620)));
+        rows.clear();
+        manager.downloadSinceLast(30, rows::addAll);
+        assertEquals(rows(600, 620), rows);
+    }
+
+    /* Test for temporary files of spooled downloads. Files are parsed from the stream unless spooling is set, spooled files
+     are deleted once parsed, and when the sink fails, also files whose fetch was running and ends only afterwards */
+    @Test
+    public void spooledFilesCleanupTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusDays(5).minusHours(1);
+        FakeDownloader downloader = new FakeDownloader(true);
+        for (int day = 0; day < 6; day++) {
+            downloader.files.put(path(start.plusDays(day)), lines(day * 100, day * 100 + 100));
+        }
+        int before = spooledFiles();
+        new DownloadManager(newSource(""), null, () -> downloader).initialDownload(start, 30, rows -> { });
+        assertEquals(0, downloader.spooled.get());
+
+        Source spooling = newSource("");
+        spooling.setSpoolToDisk(true);
+        List<List<String>> rows = new ArrayList<>();
+        new DownloadManager(spooling, null, () -> downloader).initialDownload(start, 30, rows::addAll);
+        assertEquals(rows(0, 600), rows);
+        assertEquals(6, downloader.spooled.get());
+        assertEquals(before, spooledFiles());
+
+        for (int day = 1; day < 6; day++) {
+            downloader.delays.put(path(start.plusDays(day)), 300L);
+        }
+        Source concurrent = newSource("");
+        concurrent.setFetchWorkers(3);
+        try {
+            new DownloadManager(concurrent, null, () -> downloader).initialDownload(start, 30, chunk -> {
+                throw new IllegalStateException("Database is down");
+            });
+            fail("Failure of the sink was not thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("Database is down", e.getMessage());
+        }
+        for (int wait = 0; wait < 50 && spooledFiles() != before; wait++) {
+            Thread.sleep(100);
+        }
+        assertEquals(before, spooledFiles());
+    }
+
+    private static int spooledFiles() {
+        File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles((dir, name) -> name.startsWith("log-") && name.endsWith(".part"));
+        return files == null ? 0 : files.length;
+    }
+
+    private static HttpServer startServer(Map<String, byte[]> files, boolean supportsRange) throws IOException {
+        Pattern range = Pattern.compile("bytes=(\\d+)-");
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] content = files.get(exchange.getRequestURI().getPath());
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            String requested = exchange.getRequestHeaders().getFirst("Range");
+            Matcher matcher = requested == null ? null : range.matcher(requested);
+            int status = 200;
+            if (supportsRange && matcher != null && matcher.matches()) {
+                int start = Integer.parseInt(matcher.group(1));
+                if (start >= content.length) {
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+                content = Arrays.copyOfRange(content, start, content.length);
+                status = 206;
+            }
+            exchange.sendResponseHeaders(status, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Serves files from memory and remembers paths and offsets of every opened file and how many bytes were read.
+     * Opening a file can be delayed, to simulate latency of the server.
+     */
+    static class FakeDownloader extends LogDownloader {
+        final Map<String, byte[]> files = new ConcurrentHashMap<>();
+        final Map<String, Long> delays = new ConcurrentHashMap<>();
+        final List<String> opened = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> offsets = Collections.synchronizedList(new ArrayList<>());
+        final AtomicLong bytesRead = new AtomicLong();
+        final AtomicInteger opening = new AtomicInteger();
+        final AtomicInteger maxOpening = new AtomicInteger();
+        final AtomicInteger spooled = new AtomicInteger();
+        final boolean reportsSize;
+
+        FakeDownloader(boolean reportsSize) {
+            super(Source.Type.FTP);
+            this.reportsSize = reportsSize;
+        }
+
+        @Override
+        public InputStream openStream(String path, long offset) throws IOException {
+            byte[] content = files.get(path);
+            if (content == null) {
+                throw new IOException("No such file " + path);
+            }
+            opened.add(path);
+            offsets.add(offset);
+            maxOpening.accumulateAndGet(opening.incrementAndGet(), Math::max);
+            // Like a blocking read of a socket, the delay is not ended by interruption
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delays.getOrDefault(path, 0L));
+            boolean interrupted = false;
+            for (long remaining; (remaining = deadline - System.nanoTime()) > 0; ) {
+                LockSupport.parkNanos(remaining);
+                interrupted |= Thread.interrupted();
+            }
+            opening.decrementAndGet();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return new FilterInputStream(new ByteArrayInputStream(content, (int) Math.min(offset, content.length), content.length)) {
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read >= 0) {
+                        bytesRead.incrementAndGet();
+                    }
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0) {
+                        bytesRead.addAndGet(read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public void downloadToFile(String path, File file, long offset) throws Exception {
+            spooled.incrementAndGet();
+            super.downloadToFile(path, file, offset);
+        }
+
+        @Override
+        public RemoteFileInfo stat(String path) {
+            byte[] content = files.get(path);
+            return reportsSize && content != null ? new RemoteFileInfo(content.length, 0) : null;
+        }
+    }
+
+    /**
+     * Keeps entries in memory, outliving download managers which use it.
+     */
+    static class MemoryLedger implements IngestLedger {
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+        @Override
+        public Entry find(String sourceName, String path) {
+            return entries.get(sourceName + path);
+        }
+
+        @Override
+        public void record(String sourceName, Entry entry) {
+            entries.put(sourceName + entry.path, entry);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return entries.isEmpty();
+        }
+    }
+}
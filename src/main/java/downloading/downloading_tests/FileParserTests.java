@@ -0,0 +1,181 @@
+package downloading.downloading_tests;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import downloading.FileParser;
+import downloading.HttpSource;
+import downloading.Source;
+import org.junit.Test;
+import util.LineParsers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+* This class is a collection of tests of parsing downloaded files.
+* Files are written to temporary files, which are deleted after every test */
+public class FileParserTests {
+    private static final String SPLIT_PATTERN = "^(\\S+) (\\S+) (.*)$";
+
+    private static Source newSource() {
+        return new HttpSource("parser_test", "localhost", "/", "'log'", SPLIT_PATTERN, ChronoUnit.DAYS, 1);
+    }
+
+    /* Test for parsing of large files in parallel. Rows have to be the same and in the same order as rows of the stream,
+     also of the line which crosses the boundary where the file is split into parts */
+    @Test
+    public void parallelParseTest() throws Exception {
+        File file = File.createTempFile("parallel_parse", ".log");
+        try {
+            long crossingLine;
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.defaultCharset()))) {
+                long position = 0;
+                int line = 0;
+                crossingLine = -1;
+                while (position < FileParser.PARALLEL_PART_BYTES * 2 + 1000) {
+                    String text;
+                    if (crossingLine < 0 && position > FileParser.PARALLEL_PART_BYTES - 200) {
+                        // Long line starting before the boundary and ending after it
+                        StringBuilder builder = new StringBuilder("crossing line ");
+                        while (builder.length() < 500) {
+                            builder.append("0123456789");
+                        }
+                        text = builder.append('\n').toString();
+                        crossingLine = line;
+                    } else if (line % 97 == 0) {
+                        text = "unmatched\n";
+                    } else if (line % 13 == 0) {
+                        text = "host" + line + " GET /index.html?q=" + line + "\r\n";
+                    } else {
+                        text = "host" + (line % 50) + " POST /api/items/" + line + " status=200\n";
+                    }
+                    writer.write(text);
+                    position += text.getBytes(Charset.defaultCharset()).length;
+                    line++;
+                }
+                writer.write("host last unterminated line");
+            }
+
+            FileParser parser = new FileParser(LineParsers.forPattern(SPLIT_PATTERN));
+            List<List<String>> streamed = new ArrayList<>();
+            parser.parseStream(new FileInputStream(file), newSource(), false, false, 10000, streamed::addAll);
+            List<List<String>> parallel = new ArrayList<>();
+            List<Integer> chunkSizes = new ArrayList<>();
+            parser.parseFileParallel(file, newSource(), false, false, 10000, chunk -> {
+                chunkSizes.add(chunk.size());
+                parallel.addAll(chunk);
+            });
+
+            assertTrue(file.length() > FileParser.PARALLEL_PART_BYTES * 2);
+            assertEquals(streamed.size(), parallel.size());
+            assertEquals(streamed, parallel);
+            assertEquals("crossing", parallel.get((int) crossingLine).get(0));
+            assertTrue(parallel.get((int) crossingLine).get(2).startsWith("0123456789"));
+            assertEquals(asList("host", "last", "unterminated line"), parallel.get(parallel.size() - 1));
+            for (int size : chunkSizes) {
+                assertTrue(size <= 10000);
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    /* Test for splitting lines of a stream with reused buffers. Rows of 500k lines in mixed encodings, with groups
+     that did not take part in the match, have to be the same as rows of lines read as Strings and matched one by one */
+    @Test
+    public void reusedBuffersParseTest() throws Exception {
+        String pattern = "^(\\S+) (?:(\\d+) )?(.*)$";
+        File file = File.createTempFile("reused_buffers", ".log");
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                for (int line = 0; line < 500000; line++) {
+                    String text;
+                    switch (line % 5) {
+                        case 0:
+                            text = "host" + line + " " + line + " GET /za\u017c\u00f3\u0142\u0107/" + line + "\n";
+                            break;
+                        case 1:
+                            text = "host" + line + " no number here \u65e5\u672c\r\n";
+                            break;
+                        case 2:
+                            text = "\n";
+                            break;
+                        default:
+                            text = "host" + line + " " + (line * 7) + " plain ascii line\n";
+                    }
+                    out.write(text.getBytes(line % 10 == 0 ? Charset.forName("UTF-8") : Charset.forName("ISO-8859-1")));
+                }
+            }
+
+            List<List<String>> expected = new ArrayList<>();
+            Pattern compiled = Pattern.compile(pattern);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.defaultCharset()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Matcher matcher = compiled.matcher(line);
+                    List<String> row = new ArrayList<>();
+                    if (matcher.find()) {
+                        for (int group = 1; group <= matcher.groupCount(); group++) {
+                            row.add(matcher.group(group));
+                        }
+                    }
+                    expected.add(row);
+                }
+            }
+
+            FileParser parser = new FileParser(LineParsers.forPattern(pattern));
+            List<List<String>> parsed = new ArrayList<>();
+            parser.parseStream(new BufferedInputStream(new FileInputStream(file)), newSource(), false, false, 10000, parsed::addAll);
+            assertEquals(500000, parsed.size());
+            assertEquals(expected, parsed);
+            assertEquals(null, parsed.get(1).get(1));
+            assertEquals(asList(), parsed.get(2));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
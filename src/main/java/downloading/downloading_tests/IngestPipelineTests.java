@@ -0,0 +1,127 @@
+package downloading.downloading_tests;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import downloading.DownloadManager;
+import downloading.IngestPipeline;
+import downloading.downloading_tests.DownloadManagerTests.FakeDownloader;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static downloading.downloading_tests.DownloadManagerTests.lines;
+import static downloading.downloading_tests.DownloadManagerTests.newSource;
+import static downloading.downloading_tests.DownloadManagerTests.path;
+import static downloading.downloading_tests.DownloadManagerTests.rows;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+* This class is a collection of tests of streaming downloads through IngestPipeline.
+* Files are served by a fake downloader from memory */
+public class IngestPipelineTests {
+    private static final int LINES = 200000;
+
+    /* Test for bounded memory of the pipeline. While the sink is blocked, download stops after a few chunks
+     instead of reading the whole file, and once the sink continues every row arrives in order */
+    @Test
+    public void boundedChunksInFlightTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusHours(1);
+        FakeDownloader downloader = new FakeDownloader(true);
+        byte[] content = lines(0, LINES);
+        downloader.files.put(path(start), content);
+        DownloadManager manager = new DownloadManager(newSource(""), null, () -> downloader);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<String>> rows = new ArrayList<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                new IngestPipeline(100, 2).initialDownload(manager, start, chunk -> {
+                    if (rows.isEmpty()) {
+                        blocked.countDown();
+                        release.await();
+                    }
+                    rows.addAll(chunk);
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        consumer.start();
+        try {
+            blocked.await();
+            long read;
+            do {
+                read = downloader.bytesRead.get();
+                Thread.sleep(200);
+            } while (read != downloader.bytesRead.get());
+            // Two chunks wait in the queue and the producer holds the third, within one buffer of the reader
+            assertTrue("Read " + read + " of " + content.length + " bytes", read < content.length / 10);
+        } finally {
+            release.countDown();
+            consumer.join();
+        }
+        assertEquals(rows(0, LINES), rows);
+        assertEquals(content.length, downloader.bytesRead.get());
+    }
+
+    /* Test for failure of the sink. The failure is thrown by the pipeline as it is, the download stops
+     in the middle of the first file and the next file is never opened */
+    @Test
+    public void sinkFailureStopsDownloadTest() throws Exception {
+        LocalDateTime start = LocalDateTime.now().minusDays(1).minusHours(1);
+        FakeDownloader downloader = new FakeDownloader(true);
+        byte[] content = lines(0, LINES);
+        downloader.files.put(path(start), content);
+        downloader.files.put(path(start.plusDays(1)), lines(0, 10));
+        DownloadManager manager = new DownloadManager(newSource(""), null, () -> downloader);
+        IllegalStateException failure = new IllegalStateException("Database is down");
+        AtomicInteger chunks = new AtomicInteger();
+        try {
+            new IngestPipeline(100, 2).initialDownload(manager, start, chunk -> {
+                if (chunks.incrementAndGet() == 2) {
+                    throw failure;
+                }
+            });
+            fail("Failure of the sink was not thrown");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+        Thread.sleep(200);
+        assertEquals(2, chunks.get());
+        assertEquals(asList(path(start)), downloader.opened);
+        assertTrue(downloader.bytesRead.get() < content.length / 10);
+    }
+}
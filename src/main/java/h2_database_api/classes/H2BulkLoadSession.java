@@ -0,0 +1,283 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session of loading many rows into one table at once, created by <code>H2DatabaseAccessor.openBulkLoadSession</code>.
+ * While it is open the database keeps no transaction and undo log, writes changes to disk less often and uses bigger cache.
+ * Secondary indexes of the table are dropped when the session is opened and built again when it is closed,
+ * so each of them is built once instead of being updated by every inserted row.
+ * Settings are shared by whole database, so the session should be closed as soon as the load is done.
+ * Without undo log failed statement is not rolled back, rows inserted before the failure stay in the table,
+ * so after a failed load the table has to be emptied or dropped and loaded again.
+ */
+public class H2BulkLoadSession implements AutoCloseable {
+    private static final int BULK_LOAD_WRITE_DELAY = 60000;
+    private static final int DEFAULT_WRITE_DELAY = 500;
+    private static final int DEFAULT_CACHE_SIZE = 16 * 1024;
+    private static final int DEFAULT_LOG = 2;
+    private static final int BULK_LOAD_CACHE_SIZE = 256 * 1024;
+
+    // Keywords of SET statements are upper case, parser does not convert them as the database is opened with DATABASE_TO_UPPER=false
+    private static final String SELECT_SETTINGS_STATEMENT = "select name, value from INFORMATION_SCHEMA.SETTINGS where name in ('LOG', 'MV_STORE', 'info.CACHE_MAX_SIZE');";
+    private static final String SELECT_INDEXES_STATEMENT = "select INDEX_NAME, SQL from INFORMATION_SCHEMA.INDEXES " +
+            "where TABLE_SCHEMA = SCHEMA() and TABLE_NAME = ? and PRIMARY_KEY = false and CONSTRAINT_NAME is null order by INDEX_NAME, ORDINAL_POSITION;";
+    private static final String DROP_INDEX_STATEMENT = "drop index if exists \"%s\";";
+    private static final String LOAD_CSV_STATEMENT = "insert into \"%s\" (%s) select %s from CSVREAD('%s', null, 'charset=UTF-8');";
+
+    private final H2DatabaseAccessor m_accessor;
+    private final String m_tableName;
+    private final Connection m_connection;
+    private final Map<String, String> m_droppedIndexes = new LinkedHashMap<>();
+    private int m_log = DEFAULT_LOG;
+    private int m_cacheSize = DEFAULT_CACHE_SIZE;
+    private long m_loadedRows = 0;
+    private boolean m_closed = false;
+
+    /**
+     * Opens session, switches database into fast load mode and drops secondary indexes of the table
+     *
+     * @param accessor  - accessor of the database
+     * @param tableName - name of the loaded table
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    H2BulkLoadSession(H2DatabaseAccessor accessor, String tableName) throws SQLException {
+        m_accessor = accessor;
+        m_tableName = tableName;
+        m_connection = accessor.getConnector().getConnection();
+        try {
+            readSettings();
+            execute("SET UNDO_LOG 0;", "SET LOG 0;",
+                    String.format("SET WRITE_DELAY %d;", BULK_LOAD_WRITE_DELAY),
+                    String.format("SET CACHE_SIZE %d;", Math.max(m_cacheSize, BULK_LOAD_CACHE_SIZE)));
+            dropIndexes();
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns name of the loaded table
+     *
+     * @return Value of <code>m_tableName</code> field
+     */
+    public String getTableName() {
+        return m_tableName;
+    }
+
+    /**
+     * Returns number of rows loaded in this session
+     *
+     * @return Value of <code>m_loadedRows</code> field
+     */
+    public long getLoadedRows() {
+        return m_loadedRows;
+    }
+
+    /**
+     * Inserts rows into the table with multi-row statements, in chunks like <code>H2DatabaseAccessor.addRowsToTable</code>.
+     * Unlike there, failing chunk is not rolled back, as the session keeps no undo log, the table has to be loaded again.
+     *
+     * @param columnNames - list of column names in table (except default primary key ID)
+     * @param rowsValues  - list of list with values of each new row in table
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public void addRows(List<String> columnNames, List<List<String>> rowsValues) throws SQLException {
+        checkOpen();
+        m_accessor.addRowsToTable(m_tableName, columnNames, rowsValues, m_connection);
+        m_loadedRows += rowsValues.size();
+    }
+
+    /**
+     * Inserts all rows of CSV file into the table with a single statement, without parsing them in this process.
+     * File has to be readable by the database server and start with a header row naming its columns.
+     * Works only for tables which are not partitioned and have no token or trigram index, summary of values or rollups.
+     * When the statement fails, rows inserted before the failure stay in the table, as the session keeps no undo log.
+     *
+     * @param fileName    - path of the file on the database server
+     * @param columnNames - names of columns copied from the file, the same in the file and in the table
+     * @return number of inserted rows
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public int loadCsvFile(String fileName, List<String> columnNames) throws SQLException {
+        checkOpen();
+        if (columnNames.isEmpty()) {
+            throw new IllegalArgumentException("No column names specified");
+        }
+        if (m_accessor.getPartitioning(m_tableName) != null) {
+            throw new IllegalArgumentException(String.format("Table %s is partitioned, CSV files can be loaded only into plain tables", m_tableName));
+        }
+        if (!m_accessor.getTokenIndexColumns(m_tableName).isEmpty() || !m_accessor.getTrigramIndexColumns(m_tableName).isEmpty()
+                || !m_accessor.getValueSummaryColumns(m_tableName).isEmpty() || m_accessor.getRollup(m_tableName) != null) {
+            throw new IllegalArgumentException(String.format("Table %s has index, summary of values or rollups, CSV files can be loaded only into plain tables",
+                    m_tableName));
+        }
+        StringBuilder tableColumns = new StringBuilder();
+        StringBuilder fileColumns = new StringBuilder();
+        for (String columnName : columnNames) {
+            if (tableColumns.length() > 0) {
+                tableColumns.append(", ");
+                fileColumns.append(", ");
+            }
+            String column = '"' + columnName.replaceAll(H2DatabaseAccessor.ESCAPE_CHARACTER_REGEX, "").replace("\"", "\"\"") + '"';
+            tableColumns.append(column);
+            fileColumns.append(column);
+        }
+        int result;
+        try {
+            m_connection.setAutoCommit(false);
+            // CSVREAD needs the file name when statement is prepared, so it cannot be a parameter
+            PreparedStatement statement = m_connection.prepareStatement(String.format(LOAD_CSV_STATEMENT,
+                    m_tableName.replaceAll(H2DatabaseAccessor.ESCAPE_CHARACTER_REGEX, "").replace("\"", "\"\""), tableColumns, fileColumns,
+                    fileName.replace("'", "''")));
+            result = statement.executeUpdate();
+            statement.close();
+            m_connection.commit();
+            m_accessor.invalidateQueryCache(m_tableName);
+        } catch (SQLException e) {
+            m_connection.rollback();
+            throw e;
+        }
+        m_loadedRows += result;
+        return result;
+    }
+
+    /**
+     * Ends the session. Data is written to disk, settings of the database are restored and dropped indexes are built again,
+     * together with time indexes of partitions created during the session.
+     *
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    @Override
+    public void close() throws SQLException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        m_accessor.endBulkLoad(m_tableName);
+        SQLException failure = null;
+        try {
+            execute("CHECKPOINT SYNC;", "SET UNDO_LOG 1;", String.format("SET LOG %d;", m_log),
+                    String.format("SET WRITE_DELAY %d;", DEFAULT_WRITE_DELAY), String.format("SET CACHE_SIZE %d;", m_cacheSize));
+        } catch (SQLException e) {
+            failure = e;
+        }
+        try {
+            execute(m_droppedIndexes.values().toArray(new String[m_droppedIndexes.size()]));
+            m_droppedIndexes.clear();
+            m_accessor.createPartitionIndexes(m_tableName);
+        } catch (SQLException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        try {
+            m_connection.close();
+        } catch (SQLException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void checkOpen() {
+        if (m_closed) {
+            throw new IllegalStateException("Bulk load session is closed");
+        }
+    }
+
+    private void readSettings() throws SQLException {
+        Map<String, String> settings = new LinkedHashMap<>();
+        PreparedStatement statement = m_connection.prepareStatement(SELECT_SETTINGS_STATEMENT);
+        ResultSet resultSet = statement.executeQuery();
+        while (resultSet.next()) {
+            settings.put(resultSet.getString(1), resultSet.getString(2));
+        }
+        statement.close();
+        try {
+            if (settings.containsKey("LOG")) {
+                m_log = Integer.parseInt(settings.get("LOG"));
+            }
+            if (settings.containsKey("info.CACHE_MAX_SIZE")) {
+                // MVStore reports cache size in megabytes, page store in kilobytes like SET CACHE_SIZE expects
+                int cacheSize = Integer.parseInt(settings.get("info.CACHE_MAX_SIZE"));
+                m_cacheSize = Boolean.parseBoolean(settings.get("MV_STORE")) ? cacheSize * 1024 : cacheSize;
+            }
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void dropIndexes() throws SQLException {
+        for (String table : m_accessor.getStorageTables(m_tableName)) {
+            PreparedStatement statement = m_connection.prepareStatement(SELECT_INDEXES_STATEMENT);
+            statement.setString(1, table);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                m_droppedIndexes.put(resultSet.getString(1), resultSet.getString(2));
+            }
+            statement.close();
+        }
+        String[] statements = new String[m_droppedIndexes.size()];
+        int index = 0;
+        for (String indexName : m_droppedIndexes.keySet()) {
+            statements[index++] = String.format(DROP_INDEX_STATEMENT, indexName);
+        }
+        execute(statements);
+    }
+
+    private void execute(String... statements) throws SQLException {
+        if (statements.length == 0) {
+            return;
+        }
+        try {
+            m_connection.setAutoCommit(false);
+            for (String sql : statements) {
+                PreparedStatement statement = m_connection.prepareStatement(sql);
+                statement.executeUpdate();
+                statement.close();
+            }
+            m_connection.commit();
+        } catch (SQLException e) {
+            m_connection.rollback();
+            throw e;
+        }
+    }
+}
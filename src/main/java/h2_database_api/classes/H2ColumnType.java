@@ -0,0 +1,293 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.DateTimeException;
+import java.time.Year;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Types of data columns of log tables, from the narrowest to the widest.
+ * Values always come as text from parsed lines and are converted when inserted.
+ * Empty values and "-", used by many log formats for missing ones, are stored as NULL in numeric columns.
+ * Timestamp columns store empty values as NULL, but hold no values with offset, as the offset would be lost, and no "-",
+ * as it would be lost too, such values widen the column to text, which keeps them as written.
+ * <p>
+ * Regex filters of typed columns match the text H2 renders from the stored value, not the text of the log line:
+ * numbers are rendered as written, as only numbers in canonical form are stored in numeric columns,
+ * timestamps as <code>yyyy-MM-dd HH:mm:ss.f</code> (e.g. "2015-12-06 10:00:00.0" for "2015-12-06T10:00:00"
+ * and a syslog timestamp rendered with the assumed year), NULL of missing value is never matched.
+ */
+public enum H2ColumnType {
+    INT("int"),
+    BIGINT("bigint"),
+    TIMESTAMP("timestamp"),
+    SHORT_VARCHAR("varchar(255)"),
+    VARCHAR("varchar(65025)");
+
+    private static final int SHORT_VARCHAR_LENGTH = 255;
+    private static final int VARCHAR_LENGTH = 65025;
+
+    /**
+     * Timestamp formats recognised in logs: ISO-8601 without offset and syslog (without year).
+     * Formats with offset, like the one of Apache access log, are not stored as timestamps.
+     */
+    private static final DateTimeFormatter[] TIMESTAMP_FORMATS = {
+            new DateTimeFormatterBuilder()
+                    .append(DateTimeFormatter.ISO_LOCAL_DATE)
+                    .optionalStart().appendLiteral('T').optionalEnd()
+                    .optionalStart().appendLiteral(' ').optionalEnd()
+                    .append(DateTimeFormatter.ISO_LOCAL_TIME)
+                    .optionalStart().appendLiteral(',').appendValue(ChronoField.MILLI_OF_SECOND, 3).optionalEnd()
+                    .toFormatter(Locale.ENGLISH),
+            DateTimeFormatter.ofPattern("MMM ppd HH:mm:ss", Locale.ENGLISH)
+    };
+    private static volatile int lastTimestampFormat = 0;
+
+    private final String sqlType;
+
+    H2ColumnType(String sqlType) {
+        this.sqlType = sqlType;
+    }
+
+    /**
+     * Returns type used in column definition
+     *
+     * @return Value of <code>sqlType</code> field
+     */
+    public String getSqlType() {
+        return sqlType;
+    }
+
+    /**
+     * Converts text value to object stored in column of this type
+     *
+     * @param value - value of the column in parsed line, can be null
+     * @return Integer, Long, Timestamp, String or null
+     * @throws IllegalArgumentException - when value cannot be stored in column of this type
+     */
+    public Object convert(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (this) {
+            case INT:
+                return isMissing(value) ? null : Integer.valueOf(checkNumber(value));
+            case BIGINT:
+                return isMissing(value) ? null : Long.valueOf(checkNumber(value));
+            case TIMESTAMP:
+                if (value.isEmpty()) {
+                    return null;
+                }
+                Timestamp timestamp = parseTimestamp(value);
+                if (timestamp == null) {
+                    throw new IllegalArgumentException("Not a timestamp: " + value);
+                }
+                return timestamp;
+            case SHORT_VARCHAR:
+                if (value.length() > SHORT_VARCHAR_LENGTH) {
+                    throw new IllegalArgumentException("Value longer than " + SHORT_VARCHAR_LENGTH);
+                }
+                return value;
+            default:
+                return value.length() > VARCHAR_LENGTH ? value.substring(0, VARCHAR_LENGTH) : value;
+        }
+    }
+
+    /**
+     * Returns the next wider type, able to store all values of this one
+     *
+     * @return Wider type, or this when there is none
+     */
+    public H2ColumnType widen() {
+        switch (this) {
+            case INT:
+                return BIGINT;
+            case BIGINT:
+            case TIMESTAMP:
+                return SHORT_VARCHAR;
+            default:
+                return VARCHAR;
+        }
+    }
+
+    /**
+     * Finds type of column from its definition in database
+     *
+     * @param typeName   - name of the type reported by database metadata
+     * @param columnSize - size of the column reported by database metadata
+     * @return matching type, <code>VARCHAR</code> for types not created by this enum
+     */
+    public static H2ColumnType fromSql(String typeName, int columnSize) {
+        switch (typeName.toUpperCase(Locale.ENGLISH)) {
+            case "INT":
+            case "INTEGER":
+                return INT;
+            case "BIGINT":
+                return BIGINT;
+            case "TIMESTAMP":
+                return TIMESTAMP;
+            case "VARCHAR":
+                return columnSize <= SHORT_VARCHAR_LENGTH ? SHORT_VARCHAR : VARCHAR;
+            default:
+                return VARCHAR;
+        }
+    }
+
+    /**
+     * Infers the narrowest type able to store all sample values of a column.
+     * Missing values are skipped, but "-" rules out <code>TIMESTAMP</code>, column without any other values is <code>VARCHAR</code>.
+     *
+     * @param values - sample values of the column
+     * @return inferred type
+     */
+    public static H2ColumnType infer(Iterable<String> values) {
+        boolean any = false;
+        boolean allInt = true;
+        boolean allLong = true;
+        boolean allTimestamp = true;
+        int maxLength = 0;
+        for (String value : values) {
+            if (value == null) {
+                continue;
+            }
+            if (isMissing(value)) {
+                allTimestamp &= value.isEmpty();
+                continue;
+            }
+            any = true;
+            maxLength = Math.max(maxLength, value.length());
+            boolean number = false;
+            if (allLong) {
+                try {
+                    long parsed = Long.parseLong(checkNumber(value));
+                    allInt &= parsed >= Integer.MIN_VALUE && parsed <= Integer.MAX_VALUE;
+                    number = true;
+                } catch (NumberFormatException e) {
+                    allInt = false;
+                    allLong = false;
+                }
+            }
+            if (number) {
+                allTimestamp = false;
+            } else if (allTimestamp) {
+                allTimestamp = parseTimestamp(value) != null;
+            }
+        }
+        if (!any) {
+            return VARCHAR;
+        }
+        if (allInt) {
+            return INT;
+        }
+        if (allLong) {
+            return BIGINT;
+        }
+        if (allTimestamp) {
+            return TIMESTAMP;
+        }
+        return maxLength <= SHORT_VARCHAR_LENGTH ? SHORT_VARCHAR : VARCHAR;
+    }
+
+    /**
+     * Infers types of all columns from sample rows, rows shorter than the first one are skipped
+     *
+     * @param rows - sample of parsed rows
+     * @return list of inferred types, one per value of the first row
+     */
+    public static List<H2ColumnType> inferAll(List<List<String>> rows) {
+        List<H2ColumnType> types = new ArrayList<>();
+        int columns = 0;
+        for (List<String> row : rows) {
+            columns = Math.max(columns, row.size());
+        }
+        for (int column = 0; column < columns; column++) {
+            List<String> values = new ArrayList<>(rows.size());
+            for (List<String> row : rows) {
+                if (row.size() == columns) {
+                    values.add(row.get(column));
+                }
+            }
+            types.add(infer(values));
+        }
+        return types;
+    }
+
+    private static boolean isMissing(String value) {
+        return value.isEmpty() || value.equals("-");
+    }
+
+    /**
+     * Rejects numbers that would not be stored as written, like ones with leading zeros or plus sign
+     */
+    private static String checkNumber(String value) {
+        int digits = value.startsWith("-") ? 1 : 0;
+        if (value.length() > digits + 1 && value.charAt(digits) == '0' || value.startsWith("+")) {
+            throw new NumberFormatException("Number not in canonical form: " + value);
+        }
+        return value;
+    }
+
+    private static Timestamp parseTimestamp(String value) {
+        if (value.length() < 8 || value.length() > 40) {
+            return null;
+        }
+        int first = lastTimestampFormat;
+        for (int i = 0; i < TIMESTAMP_FORMATS.length; i++) {
+            int format = (first + i) % TIMESTAMP_FORMATS.length;
+            try {
+                TemporalAccessor parsed = TIMESTAMP_FORMATS[format].parse(value);
+                lastTimestampFormat = format;
+                return toTimestamp(parsed);
+            } catch (DateTimeException e) {
+                // try next format
+            }
+        }
+        return null;
+    }
+
+    private static Timestamp toTimestamp(TemporalAccessor parsed) {
+        if (!parsed.isSupported(ChronoField.YEAR)) {
+            // syslog timestamps have no year, the latest one not in the future is assumed
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime time = LocalDateTime.of(Year.now().getValue(), parsed.get(ChronoField.MONTH_OF_YEAR),
+                    parsed.get(ChronoField.DAY_OF_MONTH), parsed.get(ChronoField.HOUR_OF_DAY),
+                    parsed.get(ChronoField.MINUTE_OF_HOUR), parsed.get(ChronoField.SECOND_OF_MINUTE));
+            return Timestamp.valueOf(time.isAfter(now.plusDays(1)) ? time.minusYears(1) : time);
+        }
+        return Timestamp.valueOf(LocalDateTime.from(parsed));
+    }
+}
@@ -0,0 +1,576 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of connections of @see h2_database_api.classes.H2DatabaseConnector.
+ * Borrowed connections are returned to the pool by closing them, so code written for unpooled connections works unchanged.
+ * Connections idle for a while are validated before being lent again, and closed when idle longer than idle timeout.
+ * Each connection keeps its recently prepared statements, closing them returns them to the connection,
+ * so preparing the same SQL again skips parsing and planning.
+ * Values of queries of the accessor are bound as parameters, so queries of the same shape share a statement,
+ * except regexes, which stay literals in SQL. Searches by regex bypass this cache unless the same regex is searched for again.
+ */
+public class H2ConnectionPool {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final H2DatabaseConnector m_connector;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int size = 0;
+    private int waiting = 0;
+    private boolean closed = false;
+    private ScheduledExecutorService evictor = null;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    /**
+     * Constructs a new @see h2_database_api.classes.H2ConnectionPool
+     *
+     * @param connector                - connector opening physical connections
+     * @param maxSize                  - maximum number of open connections, borrowed and idle together
+     * @param borrowTimeoutMillis      - how long borrowing waits for a free connection before failing
+     * @param idleTimeoutMillis        - how long a connection can stay idle before it is closed
+     * @param validationIntervalMillis - connections idle for longer are validated before being lent
+     */
+    public H2ConnectionPool(H2DatabaseConnector connector, int maxSize, long borrowTimeoutMillis,
+                            long idleTimeoutMillis, long validationIntervalMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool needs at least one connection");
+        }
+        this.m_connector = connector;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+    }
+
+    /**
+     * Borrows a connection, opening a new one when none is idle and the pool is not full.
+     * Closing the returned connection gives it back to the pool.
+     *
+     * @return Connection of the pool
+     * @exception SQLException - when no connection became free in time or new one couldn't be opened
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        while (true) {
+            PooledConnection pooled;
+            synchronized (this) {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    pooled = idle.pollFirst();
+                    if (pooled != null || size < maxSize) {
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeouts.incrementAndGet();
+                        throw new SQLException(String.format("No free connection in pool of %d within %d ms", maxSize, borrowTimeoutMillis));
+                    }
+                    waiting++;
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for connection", e);
+                    } finally {
+                        waiting--;
+                    }
+                }
+                if (pooled == null) {
+                    size++;
+                }
+                startEvictor();
+            }
+            if (pooled == null) {
+                try {
+                    pooled = new PooledConnection(m_connector.openConnection());
+                    created.incrementAndGet();
+                } catch (SQLException | RuntimeException e) {
+                    synchronized (this) {
+                        size--;
+                        notifyAll();
+                    }
+                    throw e;
+                }
+            } else if (System.currentTimeMillis() - pooled.lastUsed > validationIntervalMillis && !isValid(pooled)) {
+                validationFailures.incrementAndGet();
+                destroy(pooled);
+                continue;
+            }
+            borrowed.incrementAndGet();
+            waitNanos.addAndGet(System.nanoTime() - start);
+            return pooled.lend();
+        }
+    }
+
+    /**
+     * Closes idle connections and makes the pool refuse new borrows. Borrowed connections are closed when returned.
+     */
+    public void close() {
+        List<PooledConnection> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            if (evictor != null) {
+                evictor.shutdownNow();
+            }
+            notifyAll();
+        }
+        for (PooledConnection pooled : toClose) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * Returns current state and counters of the pool
+     *
+     * @return New snapshot of pool statistics
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(size, idle.size(), waiting, created.get(), destroyed.get(), borrowed.get(),
+                TimeUnit.NANOSECONDS.toMillis(waitNanos.get()), validationFailures.get(), timeouts.get(),
+                statementHits.get(), statementMisses.get());
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Called when borrowed connection is closed, puts it back among idle ones unless it is broken
+     */
+    private void release(PooledConnection pooled) {
+        boolean reusable = pooled.reset();
+        synchronized (this) {
+            if (reusable && !closed) {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.addFirst(pooled);
+                notifyAll();
+                return;
+            }
+        }
+        destroy(pooled);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        destroyed.incrementAndGet();
+        synchronized (this) {
+            size--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Closes connections idle longer than idle timeout. The most recently used connections are at the front of the queue.
+     */
+    private void evictIdle() {
+        List<PooledConnection> toClose = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<PooledConnection> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledConnection pooled = iterator.next();
+                if (now - pooled.lastUsed < idleTimeoutMillis) {
+                    break;
+                }
+                iterator.remove();
+                toClose.add(pooled);
+            }
+        }
+        for (PooledConnection pooled : toClose) {
+            destroy(pooled);
+        }
+    }
+
+    private void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "h2-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Physical connection with statements opened and not closed yet by the current borrower and idle prepared statements by their SQL
+     */
+    private class PooledConnection {
+        final Connection physical;
+        final List<Statement> statements = new ArrayList<>();
+        final Map<String, PreparedStatement> preparedStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= STATEMENT_CACHE_SIZE) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+        long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection lend() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    new LentConnection(this));
+        }
+
+        /**
+         * Takes idle statement of given SQL, or prepares a new one when there is none
+         *
+         * @return Statement closing which returns it to the connection
+         */
+        PreparedStatement prepareStatement(String sql) throws SQLException {
+            PreparedStatement statement = preparedStatements.remove(sql);
+            if (statement != null) {
+                statementHits.incrementAndGet();
+            } else {
+                statementMisses.incrementAndGet();
+                statement = physical.prepareStatement(sql);
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new CachedStatement(this, sql, statement));
+        }
+
+        /**
+         * Clears state left by the borrower and keeps the statement for next borrowers, unless one of the same SQL is kept already
+         */
+        void recycle(String sql, PreparedStatement statement) {
+            try {
+                ResultSet resultSet = statement.getResultSet();
+                if (resultSet != null) {
+                    resultSet.close();
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.setFetchSize(0);
+                if (!physical.isClosed() && !preparedStatements.containsKey(sql)) {
+                    preparedStatements.put(sql, statement);
+                    return;
+                }
+            } catch (SQLException e) {
+                // Statement in unknown state is not reused
+            }
+            closeQuietly(statement);
+        }
+
+        /**
+         * Closes statements left open by the borrower and rolls back not committed changes
+         *
+         * @return true if connection can be lent again
+         */
+        boolean reset() {
+            try {
+                // Closed statements remove themselves from the list
+                for (Statement statement : new ArrayList<>(statements)) {
+                    statement.close();
+                }
+                statements.clear();
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Handle of prepared statement of borrowed connection, closing it returns the statement to the connection
+     */
+    private class CachedStatement implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final String sql;
+        private PreparedStatement statement;
+
+        CachedStatement(PooledConnection pooled, String sql, PreparedStatement statement) {
+            this.pooled = pooled;
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                PreparedStatement returned;
+                synchronized (this) {
+                    returned = statement;
+                    statement = null;
+                }
+                if (returned != null) {
+                    pooled.statements.remove(proxy);
+                    pooled.recycle(sql, returned);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return statement == null || statement.isClosed();
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            PreparedStatement current = statement;
+            if (current == null) {
+                throw new SQLException("Statement is closed");
+            }
+            try {
+                return method.invoke(current, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Handle of borrowed connection, closing it returns the connection to the pool and makes the handle unusable
+     */
+    private class LentConnection implements InvocationHandler {
+        private PooledConnection pooled;
+
+        LentConnection(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                PooledConnection returned;
+                synchronized (this) {
+                    returned = pooled;
+                    pooled = null;
+                }
+                if (returned != null) {
+                    release(returned);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return pooled == null || pooled.physical.isClosed();
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            PooledConnection current = pooled;
+            if (current == null) {
+                throw new SQLException("Connection is closed");
+            }
+            try {
+                if (name.equals("prepareStatement") && args.length == 1) {
+                    PreparedStatement statement = current.prepareStatement((String) args[0]);
+                    current.statements.add(statement);
+                    return statement;
+                }
+                Object result = method.invoke(current.physical, args);
+                if (result instanceof Statement) {
+                    current.statements.add((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Snapshot of state and counters of the pool
+     */
+    public static class Statistics {
+        private final int size;
+        private final int idle;
+        private final int waiting;
+        private final long created;
+        private final long destroyed;
+        private final long borrowed;
+        private final long waitMillis;
+        private final long validationFailures;
+        private final long timeouts;
+        private final long statementHits;
+        private final long statementMisses;
+
+        Statistics(int size, int idle, int waiting, long created, long destroyed, long borrowed,
+                   long waitMillis, long validationFailures, long timeouts, long statementHits, long statementMisses) {
+            this.size = size;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.created = created;
+            this.destroyed = destroyed;
+            this.borrowed = borrowed;
+            this.waitMillis = waitMillis;
+            this.validationFailures = validationFailures;
+            this.timeouts = timeouts;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+        }
+
+        /**
+         * @return Number of open connections, borrowed and idle
+         */
+        public int getSize() {
+            return size;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getActive() {
+            return size - idle;
+        }
+
+        /**
+         * @return Number of threads waiting for a free connection
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getDestroyed() {
+            return destroyed;
+        }
+
+        public long getBorrowed() {
+            return borrowed;
+        }
+
+        /**
+         * @return Total time spent by all borrowers waiting for connections
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+
+        public long getValidationFailures() {
+            return validationFailures;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        /**
+         * @return Number of prepared statements taken from statements kept by connections
+         */
+        public long getStatementHits() {
+            return statementHits;
+        }
+
+        /**
+         * @return Number of prepared statements which had to be prepared by the database
+         */
+        public long getStatementMisses() {
+            return statementMisses;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%d, idle=%d, active=%d, waiting=%d, created=%d, destroyed=%d, borrowed=%d, waitMillis=%d, validationFailures=%d, timeouts=%d, statementHits=%d, statementMisses=%d",
+                    size, idle, getActive(), waiting, created, destroyed, borrowed, waitMillis, validationFailures, timeouts,
+                    statementHits, statementMisses);
+        }
+    }
+}
@@ -27,12 +27,22 @@ of the authors and should not be interpreted as representing official policies,
 either expressed or implied, of the FreeBSD Project.
 */
 
+import org.h2.api.ErrorCode;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
 
 /**
  * Provides access to specified database.
@@ -40,14 +50,123 @@ import java.util.Map.Entry;
  */
 public class H2DatabaseAccessor {
     private final H2DatabaseConnector m_connector;
+    private static final long SCHEMA_CACHE_TTL_MILLIS = 30000;
+    private final H2SchemaCache m_schemaCache = new H2SchemaCache(SCHEMA_CACHE_TTL_MILLIS);
+    private static final int QUERY_CACHE_ENTRIES = 256;
+    private static final long QUERY_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final long QUERY_CACHE_TTL_MILLIS = 30000;
+    private final H2QueryCache m_queryCache = new H2QueryCache(QUERY_CACHE_ENTRIES, QUERY_CACHE_BYTES, QUERY_CACHE_TTL_MILLIS);
+
+    private static final int MULTI_ROW_VALUES_ROWS = 100;
+    private static final int MULTI_ROW_VALUES_PARAMETERS = 2000;
+    private static final int ROW_SIZE_SAMPLE = 100;
+    private static final int VALUE_OVERHEAD_BYTES = 16;
+    private volatile int m_minChunkRows = 100;
+    private volatile int m_maxChunkRows = 50000;
+    private volatile long m_maxChunkBytes = 8L * 1024 * 1024;
+    private volatile long m_targetCommitNanos = TimeUnit.MILLISECONDS.toNanos(250);
+    private volatile int m_chunkRows = 1000;
+    private volatile boolean m_multiRowInserts = false;
+    private volatile double m_lastRowsPerSecond = 0;
+    private final AtomicLong m_insertedRows = new AtomicLong();
+    private final AtomicLong m_committedChunks = new AtomicLong();
+    private final AtomicLong m_insertNanos = new AtomicLong();
     private static final String CREATE_TABLE_STATEMENT = "create table \"%s\" (id int unsigned not null auto_increment, primary key (id)";
-    private static final String CREATE_TABLE_COLUMN = ", %s varchar(65025) ";
+    private static final String CREATE_TABLE_COLUMN = ", %s %s ";
+    private static final String ALTER_COLUMN_STATEMENT = "alter table \"%s\" alter column %s %s;";
 
     private static final String DROP_TABLE_STATEMENT = "drop table if exists \"%s\";";
 
-    private static final String INSERT_INTO_STATEMENT = "insert into \"%s\" values (default ";
+    private static final String INSERT_INTO_STATEMENT = "insert into \"%s\" values (%s ";
+
+    static final String ESCAPE_CHARACTER_REGEX = "[\\n\\r\\t\\']";
 
-    private static final String ESCAPE_CHARACTER_REGEX = "[\\n\\r\\t\\']";
+    private static final String PARTITIONS_TABLE_NAME = "table_partitions";
+    private static final String CREATE_PARTITIONS_TABLE_STATEMENT = "create table if not exists \"" + PARTITIONS_TABLE_NAME + "\" (" +
+            "table_name varchar(255) not null, time_column varchar(255) not null, unit varchar(16) not null, primary key (table_name));";
+    private static final String MERGE_PARTITIONING_STATEMENT = "merge into \"" + PARTITIONS_TABLE_NAME + "\" key (table_name) values (?, ?, ?);";
+    private static final String SELECT_PARTITIONING_STATEMENT = "select time_column, unit from \"" + PARTITIONS_TABLE_NAME + "\" where table_name = ?;";
+    private static final String DELETE_PARTITIONING_STATEMENT = "delete from \"" + PARTITIONS_TABLE_NAME + "\" where table_name = ?;";
+    private static final String CREATE_SEQUENCE_STATEMENT = "create sequence if not exists \"%s\";";
+    private static final String DROP_SEQUENCE_STATEMENT = "drop sequence if exists \"%s\";";
+    private static final String CREATE_PARTITION_STATEMENT = "create table if not exists \"%s\" (id bigint default (next value for \"%s\") not null, primary key (id)";
+    private static final String CREATE_TIME_INDEX_STATEMENT = "create index if not exists \"%s_time_idx\" on \"%s\" (%s);";
+    private static final String CREATE_VIEW_STATEMENT = "create or replace view \"%s\" as select * from \"%s\"";
+    private static final String UNION_PARTITION = " union all select * from \"%s\"";
+    private static final String DROP_VIEW_STATEMENT = "drop view if exists \"%s\";";
+
+    private static final String TOKEN_INDEXES_TABLE_NAME = "token_indexes";
+    private static final String TRIGRAM_INDEXES_TABLE_NAME = "trigram_indexes";
+    private static final String CREATE_INDEXED_COLUMNS_TABLE_STATEMENT = "create table if not exists \"%s\" (" +
+            "table_name varchar(255) not null, column_name varchar(255) not null, primary key (table_name, column_name));";
+    private static final String MERGE_INDEXED_COLUMN_STATEMENT = "merge into \"%s\" key (table_name, column_name) values (?, ?);";
+    private static final String SELECT_INDEXED_COLUMNS_STATEMENT = "select column_name from \"%s\" where table_name = ? order by column_name;";
+    private static final String DELETE_INDEXED_COLUMNS_STATEMENT = "delete from \"%s\" where table_name = ?;";
+    private static final String CREATE_TOKEN_TABLE_STATEMENT = "create table if not exists \"%s\" (token_key bigint not null, row_id bigint not null, " +
+            "primary key (token_key, row_id));";
+    private static final String CREATE_TOKEN_ROW_INDEX_STATEMENT = "create index if not exists \"%s_row_idx\" on \"%s\" (row_id);";
+    private static final String INSERT_TOKEN_STATEMENT = "insert into \"%s\" values (?, ?);";
+    private static final String MERGE_TOKEN_STATEMENT = "merge into \"%s\" key (token_key, row_id) values (?, ?);";
+    private static final String DELETE_PARTITION_TOKENS_STATEMENT = "delete from \"%s\" where row_id in (select id from \"%s\");";
+    private static final String TOKEN_CONDITION = "id in (select row_id from \"%s\" where token_key = ?)";
+    private static final String CREATE_TRIGRAM_TABLE_STATEMENT = "create table if not exists \"%s\" (trigram_key bigint not null, block bigint not null, " +
+            "primary key (trigram_key, block));";
+    private static final String MERGE_TRIGRAM_STATEMENT = "merge into \"%s\" key (trigram_key, block) values (?, ?);";
+    private static final String SELECT_MIN_ID_STATEMENT = "select min(id) from \"%s\";";
+    private static final String DELETE_TRIGRAM_BLOCKS_STATEMENT = "delete from \"%s\" where block < %d;";
+    private static final String TRIGRAM_BLOCKS_QUERY = "select block from \"%s\" where trigram_key = ?";
+    private static final String TRIGRAM_CONDITION = "id in (select b.block * %d + r.x from (%s) b, system_range(0, %d) r)";
+    private static final String COUNT_CANDIDATE_BLOCKS_STATEMENT = "select count(*) from (select * from (%s) b limit ?);";
+    private static final String SELECT_SEQUENCE_VALUE_STATEMENT = "select CURRENT_VALUE from INFORMATION_SCHEMA.SEQUENCES where SEQUENCE_NAME = ?;";
+    // Reading a row through index costs several times more than reading it by scan, so index pays off only for a small part of blocks
+    private static final int TRIGRAM_MAX_CANDIDATE_FRACTION = 8;
+    private static final String VALUE_SUMMARIES_TABLE_NAME = "value_summaries";
+    private static final String CREATE_SUMMARY_TABLE_STATEMENT = "create table if not exists \"%s\" (column_name varchar(255) not null, " +
+            "sketch boolean not null, value_key bigint not null, column_value varchar, value_count bigint not null, " +
+            "primary key (column_name, sketch, value_key));";
+    private static final String SELECT_SUMMARY_MODE_STATEMENT = "select sketch, count(*) from \"%s\" where column_name = ? group by sketch;";
+    private static final String SELECT_COLUMN_SUMMARY_STATEMENT = "select sketch, value_key, value_count from \"%s\" where column_name = ?;";
+    private static final String MERGE_SUMMARY_COUNT_STATEMENT = "merge into \"%s\" key (column_name, sketch, value_key) values (?, ?, ?, ?, ?);";
+    private static final String DELETE_SUMMARY_COUNT_STATEMENT = "delete from \"%s\" where column_name = ? and sketch = false and value_key = ?;";
+    private static final String SELECT_EXACT_COUNTS_STATEMENT = "select value_key, column_value, value_count from \"%s\" " +
+            "where column_name = ? and sketch = false order by value_count desc;";
+    private static final String DELETE_SUMMARY_COLUMN_STATEMENT = "delete from \"%s\" where column_name = ?;";
+    private static final String SELECT_SUMMARY_COUNTS_STATEMENT = "select value_key, value_count from \"%s\" where column_name = ? and sketch = ? and value_key in (%s);";
+    private static final String COUNT_ROWS_STATEMENT = "select count(*) from \"%s\";";
+    private static final String COUNT_VALUES_STATEMENT = "select %s, count(*) from \"%s\" where %s is not null group by %s;";
+    private static final String ROLLUPS_TABLE_NAME = "table_rollups";
+    private static final String CREATE_ROLLUPS_TABLE_STATEMENT = "create table if not exists \"" + ROLLUPS_TABLE_NAME + "\" (" +
+            "table_name varchar(255) not null, time_column varchar(255) not null, group_columns varchar(65025) not null, " +
+            "value_columns varchar(65025) not null, primary key (table_name));";
+    private static final String MERGE_ROLLUP_DEFINITION_STATEMENT = "merge into \"" + ROLLUPS_TABLE_NAME + "\" key (table_name) values (?, ?, ?, ?);";
+    private static final String SELECT_ROLLUP_DEFINITION_STATEMENT = "select time_column, group_columns, value_columns from \"" + ROLLUPS_TABLE_NAME +
+            "\" where table_name = ?;";
+    private static final String DELETE_ROLLUP_DEFINITION_STATEMENT = "delete from \"" + ROLLUPS_TABLE_NAME + "\" where table_name = ?;";
+    private static final String CREATE_ROLLUP_TABLE_STATEMENT = "create table if not exists \"%s\" (bucket timestamp not null, group_key bigint not null%s, " +
+            "row_count bigint not null%s, primary key (bucket, group_key));";
+    private static final String ROLLUP_VALUE_COLUMNS = ", min_%1$s bigint, max_%1$s bigint, sum_%1$s bigint";
+    private static final String SELECT_ROLLUP_ROWS_STATEMENT = "select * from \"%s\" where bucket = ? and group_key in (%s);";
+    private static final String SELECT_LAST_BUCKET_STATEMENT = "select max(bucket) from \"%s\";";
+    private static final String INSERT_ROLLUP_STATEMENT = "insert into \"%s\" values (?, ?%s);";
+    private static final String MERGE_ROLLUP_STATEMENT = "merge into \"%s\" key (bucket, group_key) values (?, ?%s);";
+    private static final String ROLLUP_VALUE_AGGREGATES = ", min(min_%1$s), max(max_%1$s), sum(sum_%1$s)";
+    private static final String SELECT_ROLLUP_BUCKETS_STATEMENT = "select bucket%s, sum(row_count)%s from \"%s\" where 1=1";
+    private static final String SELECT_ID_SEQUENCE_STATEMENT = "select SEQUENCE_NAME from INFORMATION_SCHEMA.COLUMNS where TABLE_NAME = ? and COLUMN_NAME = 'id';";
+    private static final String NEXT_IDS_STATEMENT = "select next value for \"%s\" from system_range(1, %d);";
+    private static final int TOKEN_BACKFILL_ROWS = 10000;
+    private static final int SANITIZED_IDENTIFIERS_LIMIT = 1024;
+
+    private final Map<String, List<String>> m_tokenIndexColumns = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> m_trigramIndexColumns = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> m_summaryColumns = new ConcurrentHashMap<>();
+    private final Map<String, Object> m_summaryLocks = new ConcurrentHashMap<>();
+    private final Map<String, H2Partitioning> m_partitionings = new ConcurrentHashMap<>();
+    private final Set<String> m_unpartitionedTables = ConcurrentHashMap.newKeySet();
+    private final Map<String, H2Rollup> m_rollups = new ConcurrentHashMap<>();
+    private final Set<String> m_tablesWithoutRollups = ConcurrentHashMap.newKeySet();
+    private final Set<String> m_knownPartitions = ConcurrentHashMap.newKeySet();
+    private final Set<String> m_bulkLoadTables = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> m_sanitizedIdentifiers = new ConcurrentHashMap<>();
 
     /**
      * Basic constructor of @see h2_database_api.classes.H2DatabaseAccessor
@@ -61,11 +180,36 @@ public class H2DatabaseAccessor {
         m_connector = new H2DatabaseConnector(username, password, String.format("jdbc:h2:%s;IFEXISTS=TRUE;DATABASE_TO_UPPER=false", databaseURL));
     }
 
+    /**
+     * Returns statistics of the connection pool of this accessor
+     *
+     * @return New snapshot of pool statistics
+     */
+    public H2ConnectionPool.Statistics getPoolStatistics() {
+        return m_connector.getPool().getStatistics();
+    }
+
+    /**
+     * Closes connections to database. Accessor cannot be used afterwards.
+     */
+    public void close() {
+        m_connector.close();
+    }
+
+    /**
+     * Returns connector used by this accessor, for other classes storing their data in the same database
+     *
+     * @return Value of <code>m_connector</code> field
+     */
+    H2DatabaseConnector getConnector() {
+        return m_connector;
+    }
+
     /**
      * Creates a new table in a database specified in <code>m_connector</code>.
      * If table already exists it is removed before creating a new one.
      * Table always uses integer sequence named id as primary key. User cannot change that.
-     * User only specifies names of data columns. All of them are of type <code>varchar(255)</code>
+     * User only specifies names of data columns. All of them are of type <code>varchar(65025)</code>
      *
      * @param tableName   - name of a new table
      * @param columnNames - list of column names
@@ -73,6 +217,24 @@ public class H2DatabaseAccessor {
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
     public boolean addTable(String tableName, List<String> columnNames) throws SQLException {
+        return addTable(tableName, columnNames, Collections.nCopies(columnNames.size(), H2ColumnType.VARCHAR));
+    }
+
+    /**
+     * Creates a new table in a database specified in <code>m_connector</code>, with typed data columns.
+     * If table already exists it is removed before creating a new one.
+     * Types can be inferred from sample rows with @see h2_database_api.classes.H2ColumnType#inferAll
+     *
+     * @param tableName   - name of a new table
+     * @param columnNames - list of column names
+     * @param columnTypes - list of column types, one for each column name
+     * @return boolean value, <code>true</code> if table was created successfully, <code>false</code> otherwise
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public boolean addTable(String tableName, List<String> columnNames, List<H2ColumnType> columnTypes) throws SQLException {
+        if (columnNames.size() != columnTypes.size()) {
+            throw new IllegalArgumentException("Number of column types differs from number of column names");
+        }
         dropTable(tableName);
 
         boolean result = true;
@@ -86,8 +248,9 @@ public class H2DatabaseAccessor {
         // Create SQL statement
         StringBuilder statementBuilder = new StringBuilder(String.format(CREATE_TABLE_STATEMENT, tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")));
 
-        for (String columnName : columnNames) {
-            statementBuilder.append(String.format(CREATE_TABLE_COLUMN, columnName.replaceAll(ESCAPE_CHARACTER_REGEX, "")));
+        for (int index = 0; index < columnNames.size(); index++) {
+            statementBuilder.append(String.format(CREATE_TABLE_COLUMN, columnNames.get(index).replaceAll(ESCAPE_CHARACTER_REGEX, ""),
+                    columnTypes.get(index).getSqlType()));
         }
 
         statementBuilder.append(");");
@@ -107,6 +270,8 @@ public class H2DatabaseAccessor {
             result = false;
             throw e;
         } finally {
+            m_schemaCache.invalidate(tableName);
+            m_queryCache.invalidate(tableName);
             try {
                 if (connection != null) {
                     connection.close();
@@ -125,6 +290,15 @@ public class H2DatabaseAccessor {
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
     public void dropTable(String tableName) throws SQLException {
+        dropTokenIndex(tableName);
+        dropTrigramIndex(tableName);
+        dropValueSummary(tableName);
+        dropRollup(tableName);
+        H2Partitioning partitioning = getPartitioning(tableName);
+        if (partitioning != null) {
+            dropPartitionedTable(partitioning);
+            return;
+        }
         Connection connection = null;
 
         // Create SQL statement
@@ -143,6 +317,8 @@ public class H2DatabaseAccessor {
         } catch (SQLException e) {
             throw e;
         } finally {
+            m_schemaCache.invalidate(tableName);
+            m_queryCache.invalidate(tableName);
             try {
                 if (connection != null) {
                     connection.close();
@@ -154,143 +330,199 @@ public class H2DatabaseAccessor {
     }
 
     /**
-     * Adds a new row to specified table.
+     * Adds inverted index of tokens of given columns, used by queries with regexes searching for whole words, like <code>\bERR42\b</code>.
+     * Tokens of existing rows are indexed at once, tokens of new rows when they are inserted.
+     * Rows of indexed table get their IDs before they are inserted, from the same sequence as the rows inserted otherwise.
+     * Index makes inserts several times slower, as every row adds a few index entries, so only searched columns should be indexed.
      *
-     * @param columnNames - list of column names in table (except default primary key ID)
-     * @param rowsValues  - list of list with values of each new row in table
-     * @return boolean value, <code>true</code> if row was inserted succesfully, <code>false</code> otherwise
+     * @param tableName   - name of the table
+     * @param columnNames - list of indexed column names
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
-    public boolean addRowsToTable(String tableName, List<String> columnNames, List<List<String>> rowsValues) throws SQLException {
-        boolean result = true;
-        Connection connection = null;
-
-        if (!checkIfTableExists(tableName)) {
-            throw new SQLException(String.format("Table %s do not exists in database", tableName));
+    public void addTokenIndex(String tableName, List<String> columnNames) throws SQLException {
+        checkIndexedColumns(tableName, columnNames);
+        String tokenTable = H2TokenIndex.getTokenTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        executeStatements(String.format(CREATE_INDEXED_COLUMNS_TABLE_STATEMENT, TOKEN_INDEXES_TABLE_NAME),
+                String.format(CREATE_TOKEN_TABLE_STATEMENT, tokenTable));
+        if (getPartitioning(tableName) != null) {
+            // Tokens of partitions removed by retention are found by row ID
+            executeStatements(String.format(CREATE_TOKEN_ROW_INDEX_STATEMENT, tokenTable, tokenTable));
         }
+        m_schemaCache.invalidate(TOKEN_INDEXES_TABLE_NAME);
+        m_schemaCache.invalidate(tokenTable);
+        addIndexedColumns(TOKEN_INDEXES_TABLE_NAME, m_tokenIndexColumns, tableName, columnNames);
+        indexExistingRows(tableName, getTokenIndexColumns(tableName), false);
+    }
 
-        // Check arguments validity
-        if (columnNames.isEmpty()) {
-            throw new IllegalArgumentException("No column names specified");
-        }
-        if (rowsValues.isEmpty()) {
-            throw new IllegalArgumentException("No row values specified");
+    /**
+     * Removes token index of given table, if it has one
+     *
+     * @param tableName - name of the table
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public void dropTokenIndex(String tableName) throws SQLException {
+        if (!getTokenIndexColumns(tableName).isEmpty()) {
+            dropIndex(TOKEN_INDEXES_TABLE_NAME, m_tokenIndexColumns, tableName,
+                    H2TokenIndex.getTokenTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")));
         }
+    }
 
-        // Create string with SQL statement
-        StringBuilder statementBuilder = new StringBuilder(String.format(INSERT_INTO_STATEMENT, tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")));
+    /**
+     * Returns columns of given table which have token index
+     *
+     * @param tableName - name of the table
+     * @return list of column names, empty when table has no token index
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public List<String> getTokenIndexColumns(String tableName) throws SQLException {
+        return getIndexedColumns(TOKEN_INDEXES_TABLE_NAME, m_tokenIndexColumns, tableName);
+    }
+
+    /**
+     * Adds trigram index of given columns, used by queries with any regexes containing some literal text, like <code>err.*(disk|dsk)</code>.
+     * Regex is decomposed into trigrams which matching values have to contain and only rows of blocks containing them are checked by the regex.
+     * Regexes without literal text of at least three characters, like <code>\d+</code>, are checked on all rows as before.
+     * Trigrams of existing rows are indexed at once, trigrams of new rows when they are inserted, which makes inserts slower.
+     *
+     * @param tableName   - name of the table
+     * @param columnNames - list of indexed column names
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public void addTrigramIndex(String tableName, List<String> columnNames) throws SQLException {
+        checkIndexedColumns(tableName, columnNames);
+        String trigramTable = H2TrigramIndex.getTrigramTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        executeStatements(String.format(CREATE_INDEXED_COLUMNS_TABLE_STATEMENT, TRIGRAM_INDEXES_TABLE_NAME),
+                String.format(CREATE_TRIGRAM_TABLE_STATEMENT, trigramTable));
+        m_schemaCache.invalidate(TRIGRAM_INDEXES_TABLE_NAME);
+        m_schemaCache.invalidate(trigramTable);
+        addIndexedColumns(TRIGRAM_INDEXES_TABLE_NAME, m_trigramIndexColumns, tableName, columnNames);
+        indexExistingRows(tableName, getTrigramIndexColumns(tableName), true);
+    }
 
-        for (int index = 0; index < rowsValues.get(0).size(); index++) {
-            statementBuilder.append(", ?");
+    /**
+     * Removes trigram index of given table, if it has one
+     *
+     * @param tableName - name of the table
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public void dropTrigramIndex(String tableName) throws SQLException {
+        if (!getTrigramIndexColumns(tableName).isEmpty()) {
+            dropIndex(TRIGRAM_INDEXES_TABLE_NAME, m_trigramIndexColumns, tableName,
+                    H2TrigramIndex.getTrigramTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")));
         }
-        statementBuilder.append(");");
+    }
 
-        try {
-            // Execute
-            connection = m_connector.getConnection();
-            connection.setAutoCommit(false);
-            PreparedStatement statement = connection.prepareStatement(statementBuilder.toString());
-            for (List<String> rowValues : rowsValues) {
-                for (int index = 0; index < rowValues.size(); index++) {
-                    statement.setString(index + 1, rowValues.get(index));
-                }
-                statement.addBatch();
-            }
+    /**
+     * Returns columns of given table which have trigram index
+     *
+     * @param tableName - name of the table
+     * @return list of column names, empty when table has no trigram index
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public List<String> getTrigramIndexColumns(String tableName) throws SQLException {
+        return getIndexedColumns(TRIGRAM_INDEXES_TABLE_NAME, m_trigramIndexColumns, tableName);
+    }
 
-            statement.executeBatch();
-            statement.close();
+    /**
+     * Adds summary of values of given columns, maintained at insert, which answers <code>countValuesFromTable</code> without scan
+     * when it has no regexes or a single regex matching values equal to some text, like <code>^404$</code>.
+     * Existing summary of the table is replaced. Rows already in the table are counted at once, which reads the whole table.
+     * Rows inserted by other threads while the summary is built may be missed, so it should be added before ingest starts.
+     *
+     * @param tableName   - name of the table
+     * @param columnNames - list of summarized column names, of text or integer type
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public void addValueSummary(String tableName, List<String> columnNames) throws SQLException {
+        checkIndexedColumns(tableName, columnNames);
+        List<String> dataColumnNames = getColumnNames(tableName);
+        dataColumnNames.removeIf(name -> name.equalsIgnoreCase("id"));
+        List<H2ColumnType> columnTypes = getColumnTypes(tableName);
+        for (String columnName : columnNames) {
+            if (columnTypes.get(dataColumnNames.indexOf(columnName)) == H2ColumnType.TIMESTAMP) {
+                throw new IllegalArgumentException(String.format("Column %s is a timestamp, only text and integer columns can be summarized", columnName));
+            }
+        }
+        dropValueSummary(tableName);
+        String summaryTable = H2ValueSummary.getSummaryTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        executeStatements(String.format(CREATE_INDEXED_COLUMNS_TABLE_STATEMENT, VALUE_SUMMARIES_TABLE_NAME),
+                String.format(CREATE_SUMMARY_TABLE_STATEMENT, summaryTable));
+        m_schemaCache.invalidate(VALUE_SUMMARIES_TABLE_NAME);
+        m_schemaCache.invalidate(summaryTable);
 
-            connection.commit();
-        } catch (SQLException e) {
-            result = false;
-            throw e;
-        } finally {
+        synchronized (getSummaryLock(tableName)) {
+            addIndexedColumns(VALUE_SUMMARIES_TABLE_NAME, m_summaryColumns, tableName, columnNames);
+            Connection connection = null;
             try {
-                if (connection != null) {
-                    connection.close();
-                }
+                connection = m_connector.getConnection();
+                connection.setAutoCommit(false);
+                updateValueSummary(connection, tableName, countRows(connection, tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""), columnNames));
+                connection.commit();
             } catch (SQLException e) {
                 throw e;
+            } finally {
+                try {
+                    if (connection != null) {
+                        connection.close();
+                    }
+                } catch (SQLException e) {
+                    throw e;
+                }
             }
         }
-
-        return result;
     }
 
     /**
-     * Executes a SELECT query on specified table with given list of columns as parameters. Optionally user can specify regular expression for some of the columns
+     * Removes summary of values of given table, if it has one
      *
-     * @param tableName       - name of table
-     * @param columnNames     - list of column names
-     * @param columnRegexMap- contains pairs of column name (key) and associated regex (value).
-     * @return ResultSet of executed query
+     * @param tableName - name of the table
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
-    public List<List<String>> selectValuesFromTable(String tableName, List<String> columnNames,
-                                                    Map<String, String> columnRegexMap) throws SQLException {
-        return selectValuesFromTable(tableName, columnNames, columnRegexMap, null, null);
+    public void dropValueSummary(String tableName) throws SQLException {
+        if (!getValueSummaryColumns(tableName).isEmpty()) {
+            dropIndex(VALUE_SUMMARIES_TABLE_NAME, m_summaryColumns, tableName,
+                    H2ValueSummary.getSummaryTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")));
+        }
     }
 
     /**
-     * Executes a SELECT query on specified table with given list of columns as parameters. Optionally user can specify regular expression for some of the columns
+     * Returns columns of given table which are counted by its summary of values
      *
-     * @param tableName       - name of table
-     * @param columnNames     - list of column names
-     * @param columnRegexMap  - contains pairs of column name (key) and associated regex (value).
-     * @param limit           - maximum number of rows that should be
-     * @param offset          - skip that many rows before beginning to return row
-     * @return ResultSet of executed query
+     * @param tableName - name of the table
+     * @return list of column names, empty when table has no summary
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
-    public List<List<String>> selectValuesFromTable(String tableName, List<String> columnNames,
-                                                    Map<String, String> columnRegexMap,
-                                                    Integer limit, Integer offset) throws SQLException {
-        List<List<String>> result = null;
-        Connection connection = null;
-
-        // Check arguments validity
-        if (!checkIfTableExists(tableName)) {
-            throw new SQLException(String.format("Table %s do not exists in database", tableName));
-        }
-        if (columnNames.isEmpty()) {
-            throw new IllegalArgumentException("No column names specified");
-        }
+    public List<String> getValueSummaryColumns(String tableName) throws SQLException {
+        return getIndexedColumns(VALUE_SUMMARIES_TABLE_NAME, m_summaryColumns, tableName);
+    }
 
-        // Create string with SQL statement
-        StringBuilder statementBuilder = new StringBuilder("select ");
-        statementBuilder.append(columnNames.get(0).replaceAll(ESCAPE_CHARACTER_REGEX, ""));
-        for (int i = 1; i < columnNames.size(); i++) {
-            statementBuilder.append(", ")
-                    .append(columnNames.get(i).replaceAll(ESCAPE_CHARACTER_REGEX, ""));
-        }
-        statementBuilder.append(" from \"").append(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")).append("\"");
-        if (columnRegexMap != null && !columnRegexMap.isEmpty()) {
-            addRegexesToStatement(statementBuilder, columnRegexMap);
-        }
-        if(limit != null && limit > 0) {
-            addOffsetAndLimitToStatement(statementBuilder, limit, offset);
+    /**
+     * Returns histogram of values of summarized column, for columns whose values are counted exactly
+     *
+     * @param tableName  - name of the table
+     * @param columnName - name of summarized column
+     * @return map of values to their counts, from the most frequent one, or null when the column has too many values to count them exactly
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public Map<String, Long> getValueCounts(String tableName, String columnName) throws SQLException {
+        if (!getValueSummaryColumns(tableName).contains(columnName)) {
+            throw new IllegalArgumentException(String.format("Column %s of table %s is not summarized", columnName, tableName));
         }
-        statementBuilder.append(';');
-
+        String summaryTable = H2ValueSummary.getSummaryTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        Map<String, Long> result = null;
+        Connection connection = null;
         try {
-            // Execute
             connection = m_connector.getConnection();
-            connection.setAutoCommit(false);
-            PreparedStatement statement = connection.prepareStatement(statementBuilder.toString());
-            ResultSet resultSet = statement.executeQuery();
-            result = new LinkedList<List<String>>();
-            int columnsNum = resultSet.getMetaData().getColumnCount();
-            while (resultSet.next()) {
-                int index = 1;
-                List<String> rowValues = new ArrayList<String>(columnsNum);
-                while (index <= columnsNum) {
-                    rowValues.add(resultSet.getString(index));
-                    index++;
+            if (getExactValueCount(connection, summaryTable, columnName) >= 0) {
+                result = new LinkedHashMap<>();
+                PreparedStatement statement = connection.prepareStatement(String.format(SELECT_EXACT_COUNTS_STATEMENT, summaryTable));
+                statement.setString(1, columnName);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    result.put(resultSet.getString(2), resultSet.getLong(3));
                 }
-                result.add(rowValues);
+                statement.close();
             }
-            statement.close();
-            connection.commit();
         } catch (SQLException e) {
             throw e;
         } finally {
@@ -306,92 +538,169 @@ public class H2DatabaseAccessor {
     }
 
     /**
-     * Executes a SELECT COUNT(*) query on specified table. Optionally user can specify regular expression for some of the columns
+     * Returns number of rows with given value of summarized column, without reading them.
+     * Number is exact for columns counted exactly, for columns with too many values it is an estimate from sketch,
+     * which is never lower than the number of rows and usually higher by a small fraction of all rows.
      *
-     * @param tableName       - name of table
-     * @param columnRegexMap- contains pairs of column name (key) and associated regex (value).
-     * @return ResultSet of executed query
+     * @param tableName  - name of the table
+     * @param columnName - name of summarized column
+     * @param value      - value as text, the same as REGEXP matches
+     * @return number of rows, or its upper estimate
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
-    public int countValuesFromTable(String tableName, Map<String, String> columnRegexMap) throws SQLException {
-        return countValuesFromTable(tableName, columnRegexMap, null, null);
+    public long estimateValueCount(String tableName, String columnName, String value) throws SQLException {
+        if (!getValueSummaryColumns(tableName).contains(columnName)) {
+            throw new IllegalArgumentException(String.format("Column %s of table %s is not summarized", columnName, tableName));
+        }
+        String summaryTable = H2ValueSummary.getSummaryTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        long key = H2ValueSummary.getValueKey(columnName, value);
+        long result;
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            if (getExactValueCount(connection, summaryTable, columnName) >= 0) {
+                result = getSummaryCounts(connection, summaryTable, columnName, false, Collections.singletonList(key)).getOrDefault(key, 0L);
+            } else {
+                result = Long.MAX_VALUE;
+                List<Long> cells = new ArrayList<>();
+                for (long cell : H2ValueSummary.getSketchCells(key)) {
+                    cells.add(cell);
+                }
+                Map<Long, Long> counts = getSummaryCounts(connection, summaryTable, columnName, true, cells);
+                for (Long cell : cells) {
+                    result = Math.min(result, counts.getOrDefault(cell, 0L));
+                }
+            }
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        return result;
     }
 
     /**
-     * Executes a SELECT COUNT(*) query on specified table. Optionally user can specify regular expression for some of the columns
+     * Adds rollups of given table, which keep number of rows and minimum, maximum and sum of value columns per minute, hour and day
+     * of time column, for every combination of values of group columns. Rollups are updated in the same transaction as inserted rows,
+     * so <code>aggregate</code> answers queries like number of 5xx responses per minute and host without reading the rows.
+     * Existing rollups of the table are replaced. Rows already in the table are aggregated at once, which reads the whole table.
+     * Rows inserted by other threads while rollups are built may be missed, so they should be added before ingest starts.
+     * Rollups are kept when retention drops partitions, so they can cover longer period than the rows.
      *
-     * @param tableName       - name of table
-     * @param columnRegexMap- contains pairs of column name (key) and associated regex (value).
-     * @param limit           - maximum number of rows that should be
-     * @param offset          - skip that many rows before beginning to return row
-     * @return ResultSet of executed query
+     * @param tableName    - name of the table
+     * @param timeColumn   - name of the column rows are aggregated by, of type <code>TIMESTAMP</code>
+     * @param groupColumns - list of column names whose values are kept apart, of text or integer type, can be empty
+     * @param valueColumns - list of column names whose minimum, maximum and sum are kept, of integer type, can be empty
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
-    public int countValuesFromTable(String tableName, Map<String, String> columnRegexMap,
-                                    Integer limit, Integer offset) throws SQLException {
-        Integer result = null;
-        Connection connection = null;
-
-        // Check arguments validity
-        if (!checkIfTableExists(tableName)) {
-            throw new SQLException(String.format("Table %s do not exists in database", tableName));
+    public void addRollup(String tableName, String timeColumn, List<String> groupColumns, List<String> valueColumns) throws SQLException {
+        H2Rollup rollup = new H2Rollup(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""), timeColumn, groupColumns, valueColumns);
+        checkIndexedColumns(tableName, rollup.getColumns());
+        List<String> dataColumnNames = getColumnNames(tableName);
+        dataColumnNames.removeIf(name -> name.equalsIgnoreCase("id"));
+        List<H2ColumnType> columnTypes = getColumnTypes(tableName);
+        if (columnTypes.get(dataColumnNames.indexOf(timeColumn)) != H2ColumnType.TIMESTAMP) {
+            throw new IllegalArgumentException("Time column has to be of type TIMESTAMP");
+        }
+        for (String columnName : groupColumns) {
+            if (columnTypes.get(dataColumnNames.indexOf(columnName)) == H2ColumnType.TIMESTAMP) {
+                throw new IllegalArgumentException(String.format("Column %s is a timestamp, only text and integer columns can be grouped", columnName));
+            }
         }
+        for (String columnName : valueColumns) {
+            H2ColumnType columnType = columnTypes.get(dataColumnNames.indexOf(columnName));
+            if (columnType != H2ColumnType.INT && columnType != H2ColumnType.BIGINT) {
+                throw new IllegalArgumentException(String.format("Column %s is not an integer column", columnName));
+            }
+        }
+        dropRollup(tableName);
 
-        // Create string with SQL statement
-        StringBuilder statementBuilder = new StringBuilder("select count(*) from \"").append(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")).append("\"");
-        if (columnRegexMap != null && !columnRegexMap.isEmpty()) {
-            addRegexesToStatement(statementBuilder, columnRegexMap);
+        StringBuilder groupColumnsBuilder = new StringBuilder();
+        for (String columnName : groupColumns) {
+            groupColumnsBuilder.append(String.format(CREATE_TABLE_COLUMN, H2Rollup.getGroupColumnName(columnName).replaceAll(ESCAPE_CHARACTER_REGEX, ""),
+                    H2ColumnType.VARCHAR.getSqlType()).trim());
         }
-        if(limit != null && limit > 0 && offset != null && offset > 0) {
-            addOffsetAndLimitToStatement(statementBuilder, limit, offset);
+        StringBuilder valueColumnsBuilder = new StringBuilder();
+        for (String columnName : valueColumns) {
+            valueColumnsBuilder.append(String.format(ROLLUP_VALUE_COLUMNS, columnName.replaceAll(ESCAPE_CHARACTER_REGEX, "")));
         }
-        statementBuilder.append(';');
+        List<String> statements = new ArrayList<>();
+        statements.add(CREATE_ROLLUPS_TABLE_STATEMENT);
+        for (ChronoUnit unit : H2Rollup.UNITS) {
+            statements.add(String.format(CREATE_ROLLUP_TABLE_STATEMENT, rollup.getRollupTableName(unit), groupColumnsBuilder, valueColumnsBuilder));
+        }
+        executeStatements(statements.toArray(new String[statements.size()]));
+        m_schemaCache.invalidate(ROLLUPS_TABLE_NAME);
 
-        try {
-            connection = m_connector.getConnection();
-            connection.setAutoCommit(false);
-            PreparedStatement statement = connection.prepareStatement(statementBuilder.toString());
-            ResultSet resultSet = statement.executeQuery();
-            resultSet.next();
-            result = Integer.parseInt(resultSet.getString("COUNT(*)"));
-            statement.close();
-            connection.commit();
-        } catch (SQLException e) {
-            throw e;
-        } finally {
+        synchronized (getSummaryLock(tableName)) {
+            Connection connection = null;
             try {
-                if (connection != null) {
-                    connection.close();
-                }
+                connection = m_connector.getConnection();
+                connection.setAutoCommit(false);
+                PreparedStatement statement = connection.prepareStatement(MERGE_ROLLUP_DEFINITION_STATEMENT);
+                statement.setString(1, rollup.getTableName());
+                statement.setString(2, timeColumn);
+                statement.setString(3, String.join(",", groupColumns));
+                statement.setString(4, String.join(",", valueColumns));
+                statement.executeUpdate();
+                statement.close();
+                connection.commit();
+                m_tablesWithoutRollups.remove(tableName);
+                m_rollups.put(tableName, rollup);
+                aggregateExistingRows(connection, tableName, rollup);
             } catch (SQLException e) {
                 throw e;
+            } finally {
+                try {
+                    if (connection != null) {
+                        connection.close();
+                    }
+                } catch (SQLException e) {
+                    throw e;
+                }
             }
         }
-        return result;
     }
 
     /**
-     * Returns a list of column names
+     * Removes rollups of given table, if it has them
      *
      * @param tableName - name of the table
-     * @return list of column names
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
-    public List<String> getColumnNames(String tableName) throws SQLException {
-        List<String> columnNames = new LinkedList<>();
+    public void dropRollup(String tableName) throws SQLException {
+        H2Rollup rollup = getRollup(tableName);
+        if (rollup == null) {
+            return;
+        }
         Connection connection = null;
         try {
             connection = m_connector.getConnection();
             connection.setAutoCommit(false);
-
-            ResultSet columns = connection.getMetaData().getColumns(null, null, tableName, null);
-            connection.commit();
-            while (columns.next()) {
-                columnNames.add(columns.getString("COLUMN_NAME"));
+            PreparedStatement statement = connection.prepareStatement(DELETE_ROLLUP_DEFINITION_STATEMENT);
+            statement.setString(1, rollup.getTableName());
+            statement.executeUpdate();
+            statement.close();
+            for (ChronoUnit unit : H2Rollup.UNITS) {
+                statement = connection.prepareStatement(String.format(DROP_TABLE_STATEMENT, rollup.getRollupTableName(unit)));
+                statement.executeUpdate();
+                statement.close();
             }
+            connection.commit();
         } catch (SQLException e) {
             throw e;
         } finally {
+            m_rollups.remove(tableName);
+            m_tablesWithoutRollups.remove(tableName);
+            for (ChronoUnit unit : H2Rollup.UNITS) {
+                m_schemaCache.invalidate(rollup.getRollupTableName(unit));
+            }
             try {
                 if (connection != null) {
                     connection.close();
@@ -400,29 +709,307 @@ public class H2DatabaseAccessor {
                 throw e;
             }
         }
-
-        return columnNames;
     }
 
     /**
-     * Ensures that given table exists in database
+     * Returns description of rollups of given table
      *
      * @param tableName - name of the table
-     * @return true if table exists, false otherwise
+     * @return rollups of the table, or null when table has no rollups
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
-    public boolean checkIfTableExists(String tableName) throws SQLException {
+    public H2Rollup getRollup(String tableName) throws SQLException {
+        H2Rollup rollup = m_rollups.get(tableName);
+        if (rollup != null || m_tablesWithoutRollups.contains(tableName)) {
+            return rollup;
+        }
+        if (checkIfTableExists(ROLLUPS_TABLE_NAME)) {
+            Connection connection = null;
+            try {
+                connection = m_connector.getConnection();
+                PreparedStatement statement = connection.prepareStatement(SELECT_ROLLUP_DEFINITION_STATEMENT);
+                statement.setString(1, tableName);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    rollup = new H2Rollup(tableName, resultSet.getString(1), splitColumnList(resultSet.getString(2)),
+                            splitColumnList(resultSet.getString(3)));
+                }
+                statement.close();
+            } catch (SQLException e) {
+                throw e;
+            } finally {
+                try {
+                    if (connection != null) {
+                        connection.close();
+                    }
+                } catch (SQLException e) {
+                    throw e;
+                }
+            }
+        }
+        if (rollup != null) {
+            m_rollups.put(tableName, rollup);
+        } else {
+            m_tablesWithoutRollups.add(tableName);
+        }
+        return rollup;
+    }
+
+    /**
+     * Returns number of rows and minimum, maximum and sum of value columns per minute, hour or day, read only from rollups of the table.
+     * Buckets can be grouped by some of group columns of rollups, the others are merged, and filtered by regexes of group columns.
+     * Regexes are matched against values as text, like by other queries, so the same rows are counted as <code>countValuesFromTable</code> would.
+     *
+     * @param tableName      - name of the table with rollups
+     * @param unit           - length of bucket, <code>MINUTES</code>, <code>HOURS</code> or <code>DAYS</code>
+     * @param groupColumns   - list of group columns of rollups, whose values are kept apart, can be empty
+     * @param columnRegexMap - contains pairs of group column name (key) and associated regex (value), can be null
+     * @param from           - first time of the range, inclusive, null for no limit
+     * @param to             - last time of the range, exclusive, null for no limit
+     * @return list of buckets overlapping the range, ordered by their start and values of group columns, buckets without rows are skipped
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public List<H2Rollup.Bucket> aggregate(String tableName, ChronoUnit unit, List<String> groupColumns, Map<String, String> columnRegexMap,
+                                           LocalDateTime from, LocalDateTime to) throws SQLException {
+        H2Rollup rollup = getRollup(tableName);
+        if (rollup == null) {
+            throw new IllegalArgumentException(String.format("Table %s has no rollups", tableName));
+        }
+        if (!H2Rollup.UNITS.contains(unit)) {
+            throw new IllegalArgumentException("Rows can be aggregated only by minutes, hours or days");
+        }
+        if (!rollup.getGroupColumns().containsAll(groupColumns)
+                || (columnRegexMap != null && !rollup.getGroupColumns().containsAll(columnRegexMap.keySet()))) {
+            throw new IllegalArgumentException(String.format("Rollups of table %s are grouped only by columns %s", tableName, rollup.getGroupColumns()));
+        }
+        StringBuilder groupBuilder = new StringBuilder();
+        for (String columnName : groupColumns) {
+            groupBuilder.append(", ").append(H2Rollup.getGroupColumnName(columnName).replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        }
+        StringBuilder aggregatesBuilder = new StringBuilder();
+        for (String columnName : rollup.getValueColumns()) {
+            aggregatesBuilder.append(String.format(ROLLUP_VALUE_AGGREGATES, columnName.replaceAll(ESCAPE_CHARACTER_REGEX, "")));
+        }
+        StringBuilder statementBuilder = new StringBuilder(String.format(SELECT_ROLLUP_BUCKETS_STATEMENT, groupBuilder, aggregatesBuilder,
+                rollup.getRollupTableName(unit)));
+        List<Object> parameters = new ArrayList<>();
+        if (from != null) {
+            statementBuilder.append(" and bucket >= ?");
+            parameters.add(Timestamp.valueOf(from.truncatedTo(unit)));
+        }
+        if (to != null) {
+            statementBuilder.append(" and bucket < ?");
+            parameters.add(Timestamp.valueOf(to));
+        }
+        if (columnRegexMap != null && !columnRegexMap.isEmpty()) {
+            Map<String, String> groupRegexMap = new LinkedHashMap<>();
+            for (Entry<String, String> entry : columnRegexMap.entrySet()) {
+                groupRegexMap.put(H2Rollup.getGroupColumnName(entry.getKey()), entry.getValue());
+            }
+            addRegexesToStatement(statementBuilder, groupRegexMap, " and ", groupRegexMap.keySet());
+        }
+        statementBuilder.append(" group by bucket").append(groupBuilder).append(" order by bucket").append(groupBuilder).append(';');
+
+        List<H2Rollup.Bucket> result = new ArrayList<>();
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            PreparedStatement statement = connection.prepareStatement(statementBuilder.toString());
+            setParameters(statement, parameters);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                List<String> groupValues = new ArrayList<>(groupColumns.size());
+                for (int index = 0; index < groupColumns.size(); index++) {
+                    groupValues.add(resultSet.getString(index + 2));
+                }
+                int column = groupColumns.size() + 3;
+                Map<String, Long> minimums = new HashMap<>();
+                Map<String, Long> maximums = new HashMap<>();
+                Map<String, Long> sums = new HashMap<>();
+                for (String columnName : rollup.getValueColumns()) {
+                    minimums.put(columnName, getLongOrNull(resultSet, column++));
+                    maximums.put(columnName, getLongOrNull(resultSet, column++));
+                    sums.put(columnName, getLongOrNull(resultSet, column++));
+                }
+                result.add(new H2Rollup.Bucket(resultSet.getTimestamp(1).toLocalDateTime(), groupValues, resultSet.getLong(groupColumns.size() + 2),
+                        minimums, maximums, sums));
+            }
+            statement.close();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    private void checkIndexedColumns(String tableName, List<String> columnNames) throws SQLException {
+        if (!checkIfTableExists(tableName)) {
+            throw new SQLException(String.format("Table %s do not exists in database", tableName));
+        }
+        if (columnNames.isEmpty()) {
+            throw new IllegalArgumentException("No column names specified");
+        }
+        List<String> dataColumnNames = getColumnNames(tableName);
+        if (!dataColumnNames.containsAll(columnNames)) {
+            throw new IllegalArgumentException(String.format("Table %s has no columns %s", tableName, columnNames));
+        }
+    }
+
+    /**
+     * Records indexed columns of given table in table of indexes of one kind
+     *
+     * @param indexesTable   - TOKEN_INDEXES_TABLE_NAME or TRIGRAM_INDEXES_TABLE_NAME
+     * @param indexedColumns - cache of indexed columns of that kind
+     */
+    private void addIndexedColumns(String indexesTable, Map<String, List<String>> indexedColumns, String tableName,
+                                   List<String> columnNames) throws SQLException {
         Connection connection = null;
-        boolean result = false;
         try {
             connection = m_connector.getConnection();
             connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(String.format(MERGE_INDEXED_COLUMN_STATEMENT, indexesTable));
+            for (String columnName : columnNames) {
+                statement.setString(1, tableName);
+                statement.setString(2, columnName);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            statement.close();
+            connection.commit();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            indexedColumns.remove(tableName);
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+    }
 
-            ResultSet tables = connection.getMetaData().getTables(null, null, tableName, null);
+    /**
+     * Removes index of given table from table of indexes of one kind and drops the table holding the index
+     *
+     * @param indexesTable   - TOKEN_INDEXES_TABLE_NAME or TRIGRAM_INDEXES_TABLE_NAME
+     * @param indexedColumns - cache of indexed columns of that kind
+     * @param indexTable     - name of the table holding the index
+     */
+    private void dropIndex(String indexesTable, Map<String, List<String>> indexedColumns, String tableName, String indexTable) throws SQLException {
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(String.format(DELETE_INDEXED_COLUMNS_STATEMENT, indexesTable));
+            statement.setString(1, tableName);
+            statement.executeUpdate();
+            statement.close();
+            statement = connection.prepareStatement(String.format(DROP_TABLE_STATEMENT, indexTable));
+            statement.executeUpdate();
+            statement.close();
             connection.commit();
-            result = tables.first();
         } catch (SQLException e) {
             throw e;
+        } finally {
+            indexedColumns.remove(tableName);
+            m_schemaCache.invalidate(indexTable);
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns indexed columns of given table from table of indexes of one kind
+     *
+     * @param indexesTable   - TOKEN_INDEXES_TABLE_NAME or TRIGRAM_INDEXES_TABLE_NAME
+     * @param indexedColumns - cache of indexed columns of that kind
+     */
+    private List<String> getIndexedColumns(String indexesTable, Map<String, List<String>> indexedColumns, String tableName) throws SQLException {
+        List<String> columnNames = indexedColumns.get(tableName);
+        if (columnNames != null) {
+            return columnNames;
+        }
+        columnNames = new ArrayList<>();
+        if (checkIfTableExists(indexesTable)) {
+            Connection connection = null;
+            try {
+                connection = m_connector.getConnection();
+                PreparedStatement statement = connection.prepareStatement(String.format(SELECT_INDEXED_COLUMNS_STATEMENT, indexesTable));
+                statement.setString(1, tableName);
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    columnNames.add(resultSet.getString(1));
+                }
+                statement.close();
+            } catch (SQLException e) {
+                throw e;
+            } finally {
+                try {
+                    if (connection != null) {
+                        connection.close();
+                    }
+                } catch (SQLException e) {
+                    throw e;
+                }
+            }
+        }
+        columnNames = Collections.unmodifiableList(columnNames);
+        indexedColumns.put(tableName, columnNames);
+        return columnNames;
+    }
+
+    /**
+     * Adds rows already in the table to token or trigram index, merge skips entries of rows inserted and indexed meanwhile
+     *
+     * @param indexedColumns - columns of the index
+     * @param trigrams       - true for trigram index, false for token index
+     */
+    private void indexExistingRows(String tableName, List<String> indexedColumns, boolean trigrams) throws SQLException {
+        List<String> selectedColumns = new ArrayList<>(indexedColumns);
+        selectedColumns.add(0, "id");
+        int[] columnIndexes = new int[indexedColumns.size()];
+        for (int index = 0; index < columnIndexes.length; index++) {
+            columnIndexes[index] = index + 1;
+        }
+        Connection connection = null;
+        try (H2ResultCursor cursor = openCursor(tableName, selectedColumns, null, TOKEN_BACKFILL_ROWS)) {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            List<Object[]> rows = new ArrayList<>();
+            while (cursor.hasNext()) {
+                List<String> row = cursor.next();
+                Object[] rowValues = row.toArray();
+                rowValues[0] = Long.parseLong(row.get(0));
+                rows.add(rowValues);
+                if (rows.size() == TOKEN_BACKFILL_ROWS || !cursor.hasNext()) {
+                    if (trigrams) {
+                        insertTrigrams(connection, tableName, indexedColumns, columnIndexes, rows);
+                    } else {
+                        insertTokens(connection, MERGE_TOKEN_STATEMENT, tableName, indexedColumns, columnIndexes, rows);
+                    }
+                    connection.commit();
+                    rows.clear();
+                }
+            }
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
         } finally {
             try {
                 if (connection != null) {
@@ -432,51 +1019,2569 @@ public class H2DatabaseAccessor {
                 throw e;
             }
         }
+    }
+
+    /**
+     * Adds a new row to specified table.
+     * Values are converted to types of the table columns, columns that cannot store some value are widened first.
+     * Rows shorter than the table, like ones of lines not matched by parser, get NULL in the remaining columns.
+     * Rows are inserted and committed in chunks, which are sized to keep commit time near the target, see <code>setInsertChunking</code>.
+     * When a chunk fails only that chunk is rolled back, rows of earlier chunks stay in the table.
+     *
+     * @param columnNames - list of column names in table (except default primary key ID)
+     * @param rowsValues  - list of list with values of each new row in table
+     * @return boolean value, <code>true</code> if row was inserted succesfully, <code>false</code> otherwise
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public boolean addRowsToTable(String tableName, List<String> columnNames, List<List<String>> rowsValues) throws SQLException {
+        return addRowsToTable(tableName, columnNames, rowsValues, null);
+    }
+
+    /**
+     * Adds rows to specified table like <code>addRowsToTable</code>, using given connection when it is not null.
+     * Given connection is left open, so bulk load sessions can keep their session settings across calls.
+     * Bulk load session keeps no undo log, so on its connection failing chunk is not rolled back.
+     *
+     * @param columnNames       - list of column names in table (except default primary key ID)
+     * @param rowsValues        - list of list with values of each new row in table
+     * @param sessionConnection - connection used for inserts, or null to borrow one from the pool
+     * @return boolean value, <code>true</code> if row was inserted succesfully, <code>false</code> otherwise
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    boolean addRowsToTable(String tableName, List<String> columnNames, List<List<String>> rowsValues, Connection sessionConnection) throws SQLException {
+        return addRowsToTable(tableName, columnNames, rowsValues, sessionConnection, null);
+    }
+
+    /**
+     * Adds rows to specified table like <code>addRowsToTable</code>, and marks rows of committed chunks,
+     * so the caller knows which rows stay in the table when a later chunk fails.
+     *
+     * @param columnNames       - list of column names in table (except default primary key ID)
+     * @param rowsValues        - list of list with values of each new row in table
+     * @param sessionConnection - connection used for inserts, or null to borrow one from the pool
+     * @param committedRows     - flags set at indexes of committed rows, as long as rowsValues, or null
+     * @return boolean value, <code>true</code> if row was inserted succesfully, <code>false</code> otherwise
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    boolean addRowsToTable(String tableName, List<String> columnNames, List<List<String>> rowsValues, Connection sessionConnection,
+                           boolean[] committedRows) throws SQLException {
+        boolean result = true;
+        Connection connection = null;
+
+        if (!checkIfTableExists(tableName)) {
+            throw new SQLException(String.format("Table %s do not exists in database", tableName));
+        }
+
+        // Check arguments validity
+        if (columnNames.isEmpty()) {
+            throw new IllegalArgumentException("No column names specified");
+        }
+        if (rowsValues.isEmpty()) {
+            throw new IllegalArgumentException("No row values specified");
+        }
+
+        List<H2ColumnType> columnTypes = getColumnTypes(tableName);
+        Object[][] convertedRows = convertRows(tableName, columnTypes, rowsValues);
+
+        // Rows of indexed table get their IDs before insert, so their tokens and trigrams can be inserted in the same transaction
+        List<String> tokenColumns = getTokenIndexColumns(tableName);
+        List<String> trigramColumns = getTrigramIndexColumns(tableName);
+        List<String> summaryColumns = getValueSummaryColumns(tableName);
+        H2Rollup rollup = getRollup(tableName);
+        int valueOffset = 0;
+        int[] tokenColumnIndexes = null;
+        int[] trigramColumnIndexes = null;
+        int[] summaryColumnIndexes = null;
+        int[] rollupColumnIndexes = null;
+        if (!tokenColumns.isEmpty() || !trigramColumns.isEmpty()) {
+            convertedRows = addRowIds(tableName, convertedRows);
+            valueOffset = 1;
+        }
+        if (!tokenColumns.isEmpty() || !trigramColumns.isEmpty() || !summaryColumns.isEmpty() || rollup != null) {
+            List<String> dataColumnNames = getColumnNames(tableName);
+            dataColumnNames.removeIf(name -> name.equalsIgnoreCase("id"));
+            tokenColumnIndexes = tokenColumns.isEmpty() ? null : getValueIndexes(dataColumnNames, tokenColumns, valueOffset);
+            trigramColumnIndexes = trigramColumns.isEmpty() ? null : getValueIndexes(dataColumnNames, trigramColumns, valueOffset);
+            summaryColumnIndexes = summaryColumns.isEmpty() ? null : getValueIndexes(dataColumnNames, summaryColumns, valueOffset);
+            rollupColumnIndexes = rollup == null ? null : getValueIndexes(dataColumnNames, rollup.getColumns(), valueOffset);
+        }
+        Map<String, List<Object[]>> rowsByTable = splitRowsByPartition(tableName, convertedRows, valueOffset);
+        // Rows are reordered by partition, their indexes are found by identity of their arrays
+        Map<Object[], Integer> rowIndexes = null;
+        if (committedRows != null) {
+            rowIndexes = new IdentityHashMap<>(convertedRows.length * 2);
+            for (int row = 0; row < convertedRows.length; row++) {
+                rowIndexes.put(convertedRows[row], row);
+            }
+        }
+
+        int rowBytes = estimateRowBytes(rowsValues);
+
+        try {
+            // Execute
+            connection = sessionConnection != null ? sessionConnection : m_connector.getConnection();
+            connection.setAutoCommit(false);
+            boolean multiRowInserts = m_multiRowInserts || sessionConnection != null;
+            for (Entry<String, List<Object[]>> tableRows : rowsByTable.entrySet()) {
+                List<Object[]> rows = tableRows.getValue();
+                int chunkStart = 0;
+                while (chunkStart < rows.size()) {
+                    int chunkRows = Math.max(m_minChunkRows, Math.min(m_chunkRows, (int) (m_maxChunkBytes / rowBytes)));
+                    int chunkEnd = Math.min(rows.size(), chunkStart + chunkRows);
+                    long start = System.nanoTime();
+                    if (multiRowInserts) {
+                        insertMultiRowValues(connection, tableRows.getKey(), columnTypes.size(), valueOffset > 0, rows.subList(chunkStart, chunkEnd));
+                    } else {
+                        insertBatch(connection, tableRows.getKey(), columnTypes.size(), valueOffset > 0, rows.subList(chunkStart, chunkEnd));
+                    }
+                    if (tokenColumnIndexes != null) {
+                        insertTokens(connection, INSERT_TOKEN_STATEMENT, tableName, tokenColumns, tokenColumnIndexes, rows.subList(chunkStart, chunkEnd));
+                    }
+                    if (trigramColumnIndexes != null) {
+                        insertTrigrams(connection, tableName, trigramColumns, trigramColumnIndexes, rows.subList(chunkStart, chunkEnd));
+                    }
+                    if (summaryColumnIndexes != null || rollupColumnIndexes != null) {
+                        synchronized (getSummaryLock(tableName)) {
+                            if (summaryColumnIndexes != null) {
+                                updateValueSummary(connection, tableName, countRows(summaryColumns, summaryColumnIndexes, rows.subList(chunkStart, chunkEnd)));
+                            }
+                            if (rollupColumnIndexes != null) {
+                                H2Rollup.Aggregation aggregation = new H2Rollup.Aggregation(rollup.getValueColumns().size());
+                                aggregateRows(rollup, aggregation, rollupColumnIndexes, rows.subList(chunkStart, chunkEnd));
+                                updateRollups(connection, rollup, aggregation);
+                            }
+                            connection.commit();
+                        }
+                    } else {
+                        connection.commit();
+                    }
+                    if (rowIndexes != null) {
+                        for (Object[] row : rows.subList(chunkStart, chunkEnd)) {
+                            committedRows[rowIndexes.get(row)] = true;
+                        }
+                    }
+                    m_queryCache.invalidate(tableName);
+                    adaptChunkSize(chunkEnd - chunkStart, System.nanoTime() - start);
+                    chunkStart = chunkEnd;
+                }
+            }
+        } catch (SQLException e) {
+            result = false;
+            invalidateOnSchemaError(tableName, e);
+            throw e;
+        } finally {
+            try {
+                if (connection != null && connection != sessionConnection) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
 
         return result;
     }
 
     /**
-     * Adds columns regexes to SELECT query. This method is used to avoid code duplication
+     * Sets limits of number of rows inserted and committed at once by <code>addRowsToTable</code>.
+     * Chunk grows while its commits are faster than the target and shrinks when they are slower.
      *
-     * @param statementBuilder - reference to StringBuilder used to create statement
-     * @param columnRegexMap-  contains pairs of column name (key) and associated regex (value).
-     * @return true if table exists, false otherwise
+     * @param minRows            - minimum number of rows in chunk
+     * @param maxRows            - maximum number of rows in chunk
+     * @param maxBytes           - maximum estimated size of values of rows in chunk, wide rows make chunks shorter
+     * @param targetCommitMillis - desired time of inserting and committing single chunk
+     */
+    public void setInsertChunking(int minRows, int maxRows, long maxBytes, long targetCommitMillis) {
+        if (minRows < 1 || maxRows < minRows) {
+            throw new IllegalArgumentException("Invalid chunk limits");
+        }
+        m_minChunkRows = minRows;
+        m_maxChunkRows = maxRows;
+        m_maxChunkBytes = maxBytes;
+        m_targetCommitNanos = TimeUnit.MILLISECONDS.toNanos(targetCommitMillis);
+        m_chunkRows = Math.max(minRows, Math.min(maxRows, m_chunkRows));
+    }
+
+    /**
+     * Sets whether rows are inserted with statements of many rows, <code>insert ... values (...), (...)</code>,
+     * instead of batches of single row statements.
+     *
+     * @param multiRowInserts - <code>true</code> to use multi-row statements
+     */
+    public void setMultiRowInserts(boolean multiRowInserts) {
+        m_multiRowInserts = multiRowInserts;
+    }
+
+    /**
+     * Returns counters of rows inserted by <code>addRowsToTable</code>
+     *
+     * @return New snapshot of insert statistics
+     */
+    public InsertStatistics getInsertStatistics() {
+        return new InsertStatistics(m_insertedRows.get(), m_committedChunks.get(), TimeUnit.NANOSECONDS.toMillis(m_insertNanos.get()),
+                m_lastRowsPerSecond, m_chunkRows);
+    }
+
+    /**
+     * Starts bulk load of given table. Database is switched into fast load mode and secondary indexes of the table are dropped
+     * until the returned session is closed. Only one session can be open at a time, as the settings are shared by whole database.
+     *
+     * @param tableName - name of the loaded table
+     * @return New open session, which has to be closed to restore the settings and indexes
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
-    private void addRegexesToStatement(StringBuilder statementBuilder, Map<String, String> columnRegexMap) {
-        statementBuilder.append(" where ");
-        Set<Entry<String, String>> entries = columnRegexMap.entrySet();
-        Iterator<Entry<String, String>> iterator = entries.iterator();
-        Entry<String, String> entry = iterator.next();
-        statementBuilder.append(entry.getKey().replaceAll(ESCAPE_CHARACTER_REGEX, ""))
-                .append(" regexp \'")
-                .append(entry.getValue().replaceAll(ESCAPE_CHARACTER_REGEX, ""))
-                .append('\'');
+    public H2BulkLoadSession openBulkLoadSession(String tableName) throws SQLException {
+        if (!checkIfTableExists(tableName)) {
+            throw new SQLException(String.format("Table %s do not exists in database", tableName));
+        }
+        synchronized (m_bulkLoadTables) {
+            if (!m_bulkLoadTables.isEmpty()) {
+                throw new IllegalStateException("Bulk load session is already open");
+            }
+            m_bulkLoadTables.add(tableName);
+        }
+        try {
+            return new H2BulkLoadSession(this, tableName);
+        } catch (SQLException | RuntimeException e) {
+            m_bulkLoadTables.remove(tableName);
+            throw e;
+        }
+    }
 
-        while (iterator.hasNext()) {
-            entry = iterator.next();
-            statementBuilder.append(" and ")
-                    .append(entry.getKey().replaceAll(ESCAPE_CHARACTER_REGEX, ""))
-                    .append(" regexp \'")
-                    .append(entry.getValue().replaceAll(ESCAPE_CHARACTER_REGEX, ""))
-                    .append('\'');
+    /**
+     * Ends bulk load of given table, partitions created from now on get their indexes again
+     *
+     * @param tableName - name of the loaded table
+     */
+    void endBulkLoad(String tableName) {
+        m_bulkLoadTables.remove(tableName);
+    }
+
+    /**
+     * Returns names of tables storing rows of given table, partitions for partitioned table and the table itself otherwise
+     *
+     * @param tableName - name of the table
+     * @return list of table names
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    List<String> getStorageTables(String tableName) throws SQLException {
+        H2Partitioning partitioning = getPartitioning(tableName);
+        if (partitioning == null) {
+            return new ArrayList<>(Collections.singletonList(tableName));
         }
+        return getPartitions(tableName);
     }
 
     /**
-     * Adds columns LIMIT and OFFSET parameters to SELECT query. This method is used to avoid code duplication
+     * Creates missing time indexes of all partitions of given table
      *
-     * @param statementBuilder - reference to StringBuilder used to create statement
-     * @param limit -  value for the LIMIT parameter
-     * @param offset - value for the OFFSET parameter
-     * @return true if table exists, false otherwise
+     * @param tableName - name of partitioned table
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
-    private void addOffsetAndLimitToStatement(StringBuilder statementBuilder, Integer limit, Integer offset) {
-        statementBuilder.append(" limit ").append(limit);
-        if (offset != null && offset > 0) {
-            statementBuilder.append(" offset ").append(offset);
+    void createPartitionIndexes(String tableName) throws SQLException {
+        H2Partitioning partitioning = getPartitioning(tableName);
+        if (partitioning == null) {
+            return;
+        }
+        List<String> statements = new ArrayList<>();
+        for (String partition : getPartitions(tableName)) {
+            statements.add(String.format(CREATE_TIME_INDEX_STATEMENT, partition, partition, partitioning.getTimeColumn()));
+        }
+        if (!statements.isEmpty()) {
+            executeStatements(statements.toArray(new String[statements.size()]));
+        }
+    }
+
+    private void insertBatch(Connection connection, String tableName, int columns, boolean explicitIds, List<Object[]> rows) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(insertStatement(tableName, columns, explicitIds, 1));
+        for (Object[] rowValues : rows) {
+            for (int index = 0; index < rowValues.length; index++) {
+                statement.setObject(index + 1, rowValues[index]);
+            }
+            statement.addBatch();
+        }
+        statement.executeBatch();
+        statement.close();
+    }
+
+    private void insertMultiRowValues(Connection connection, String tableName, int columns, boolean explicitIds, List<Object[]> rows) throws SQLException {
+        int rowsPerStatement = Math.max(1, Math.min(MULTI_ROW_VALUES_ROWS, MULTI_ROW_VALUES_PARAMETERS / Math.max(1, columns)));
+        int full = rows.size() / rowsPerStatement * rowsPerStatement;
+        if (full > 0) {
+            PreparedStatement statement = connection.prepareStatement(insertStatement(tableName, columns, explicitIds, rowsPerStatement));
+            for (int row = 0; row < full; row += rowsPerStatement) {
+                setRowParameters(statement, rows.subList(row, row + rowsPerStatement));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            statement.close();
+        }
+        if (full < rows.size()) {
+            PreparedStatement statement = connection.prepareStatement(insertStatement(tableName, columns, explicitIds, rows.size() - full));
+            setRowParameters(statement, rows.subList(full, rows.size()));
+            statement.executeUpdate();
+            statement.close();
+        }
+    }
+
+    private void setRowParameters(PreparedStatement statement, List<Object[]> rows) throws SQLException {
+        int parameter = 1;
+        for (Object[] rowValues : rows) {
+            for (Object value : rowValues) {
+                statement.setObject(parameter++, value);
+            }
         }
     }
-}
\ No newline at end of file
+
+    private String insertStatement(String tableName, int columns, boolean explicitIds, int rows) {
+        String id = explicitIds ? "?" : "default";
+        StringBuilder statementBuilder = new StringBuilder(String.format(INSERT_INTO_STATEMENT, tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""), id));
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                statementBuilder.append("), (").append(id).append(' ');
+            }
+            for (int index = 0; index < columns; index++) {
+                statementBuilder.append(", ?");
+            }
+        }
+        statementBuilder.append(");");
+        return statementBuilder.toString();
+    }
+
+    /**
+     * Estimates size of single row from the first rows, as two bytes per character and some overhead per value
+     */
+    private int estimateRowBytes(List<List<String>> rowsValues) {
+        long bytes = 0;
+        int sampled = Math.min(rowsValues.size(), ROW_SIZE_SAMPLE);
+        for (int row = 0; row < sampled; row++) {
+            for (String value : rowsValues.get(row)) {
+                bytes += VALUE_OVERHEAD_BYTES + (value == null ? 0 : 2L * value.length());
+            }
+        }
+        return (int) Math.max(1, bytes / Math.max(1, sampled));
+    }
+
+    /**
+     * Doubles chunk when it was committed in less than half of the target time, halves it when it took longer than the target
+     */
+    private void adaptChunkSize(int rows, long nanos) {
+        m_insertedRows.addAndGet(rows);
+        m_committedChunks.incrementAndGet();
+        m_insertNanos.addAndGet(nanos);
+        m_lastRowsPerSecond = rows * 1e9 / Math.max(1, nanos);
+        if (rows < m_chunkRows) {
+            return;
+        }
+        if (nanos < m_targetCommitNanos / 2) {
+            m_chunkRows = Math.min(m_maxChunkRows, m_chunkRows * 2);
+        } else if (nanos > m_targetCommitNanos) {
+            m_chunkRows = Math.max(m_minChunkRows, m_chunkRows / 2);
+        }
+    }
+
+    /**
+     * Snapshot of counters of inserted rows
+     */
+    public static class InsertStatistics {
+        private final long rows;
+        private final long chunks;
+        private final long millis;
+        private final double lastRowsPerSecond;
+        private final int chunkRows;
+
+        InsertStatistics(long rows, long chunks, long millis, double lastRowsPerSecond, int chunkRows) {
+            this.rows = rows;
+            this.chunks = chunks;
+            this.millis = millis;
+            this.lastRowsPerSecond = lastRowsPerSecond;
+            this.chunkRows = chunkRows;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getChunks() {
+            return chunks;
+        }
+
+        /**
+         * @return Total time spent inserting and committing chunks
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return Average speed of all inserts so far
+         */
+        public double getRowsPerSecond() {
+            return millis == 0 ? 0 : rows * 1000.0 / millis;
+        }
+
+        /**
+         * @return Speed of the most recently committed chunk
+         */
+        public double getLastRowsPerSecond() {
+            return lastRowsPerSecond;
+        }
+
+        /**
+         * @return Current number of rows in full chunk
+         */
+        public int getChunkRows() {
+            return chunkRows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("rows=%d, chunks=%d, millis=%d, rowsPerSecond=%.0f, lastRowsPerSecond=%.0f, chunkRows=%d",
+                    rows, chunks, millis, getRowsPerSecond(), lastRowsPerSecond, chunkRows);
+        }
+    }
+
+    /**
+     * Executes a SELECT query on specified table with given list of columns as parameters. Optionally user can specify regular expression for some of the columns
+     *
+     * @param tableName       - name of table
+     * @param columnNames     - list of column names
+     * @param columnRegexMap- contains pairs of column name (key) and associated regex (value).
+     * @return ResultSet of executed query
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public List<List<String>> selectValuesFromTable(String tableName, List<String> columnNames,
+                                                    Map<String, String> columnRegexMap) throws SQLException {
+        return selectValuesFromTable(tableName, columnNames, columnRegexMap, null, null);
+    }
+
+    /**
+     * Executes a SELECT query on specified table with given list of columns as parameters. Optionally user can specify regular expression for some of the columns
+     *
+     * @param tableName       - name of table
+     * @param columnNames     - list of column names
+     * @param columnRegexMap  - contains pairs of column name (key) and associated regex (value).
+     * @param limit           - maximum number of rows that should be
+     * @param offset          - skip that many rows before beginning to return row
+     * @return ResultSet of executed query
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public List<List<String>> selectValuesFromTable(String tableName, List<String> columnNames,
+                                                    Map<String, String> columnRegexMap,
+                                                    Integer limit, Integer offset) throws SQLException {
+        List<List<String>> result = null;
+        Connection connection = null;
+
+        // Check arguments validity
+        if (!checkIfTableExists(tableName)) {
+            throw new SQLException(String.format("Table %s do not exists in database", tableName));
+        }
+        if (columnNames.isEmpty()) {
+            throw new IllegalArgumentException("No column names specified");
+        }
+        List<Object> cacheKey = H2QueryCache.key("select", tableName, columnNames, columnRegexMap, limit, offset);
+        long generation = m_queryCache.getGeneration(tableName);
+        List<List<String>> cached = m_queryCache.get(cacheKey);
+        if (cached != null) {
+            return copyRows(cached);
+        }
+
+        try {
+            // Execute
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            List<Object> parameters = new ArrayList<>();
+            PreparedStatement statement = connection.prepareStatement(selectStatement(tableName, columnNames, columnRegexMap, limit, offset,
+                    parameters));
+            setParameters(statement, parameters);
+            ResultSet resultSet = statement.executeQuery();
+            result = new LinkedList<List<String>>();
+            int columnsNum = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                int index = 1;
+                List<String> rowValues = new ArrayList<String>(columnsNum);
+                while (index <= columnsNum) {
+                    rowValues.add(resultSet.getString(index));
+                    index++;
+                }
+                result.add(rowValues);
+            }
+            statement.close();
+            connection.commit();
+        } catch (SQLException e) {
+            invalidateOnSchemaError(tableName, e);
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        m_queryCache.put(tableName, cacheKey, generation, copyRows(result), H2QueryCache.estimateBytes(result));
+        return result;
+    }
+
+    /**
+     * Executes a SELECT query on specified table and returns cursor reading its rows as they are iterated, instead of all rows at once.
+     * Memory used does not depend on number of rows, so whole table can be exported this way.
+     * Cursor keeps a connection of the pool until it is exhausted or closed, so it should be used with try-with-resources.
+     * Optionally user can specify regular expression for some of the columns
+     *
+     * @param tableName       - name of table
+     * @param columnNames     - list of column names
+     * @param columnRegexMap  - contains pairs of column name (key) and associated regex (value).
+     * @param fetchSize       - number of rows transferred from database at once
+     * @return New open cursor positioned before the first row
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public H2ResultCursor openCursor(String tableName, List<String> columnNames, Map<String, String> columnRegexMap,
+                                     int fetchSize) throws SQLException {
+        Connection connection = null;
+
+        // Check arguments validity
+        if (!checkIfTableExists(tableName)) {
+            throw new SQLException(String.format("Table %s do not exists in database", tableName));
+        }
+        if (columnNames.isEmpty()) {
+            throw new IllegalArgumentException("No column names specified");
+        }
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size has to be positive");
+        }
+
+        try {
+            // Execute, connection is closed by the cursor
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            List<Object> parameters = new ArrayList<>();
+            PreparedStatement statement = connection.prepareStatement(selectStatement(tableName, columnNames, columnRegexMap, null, null,
+                    parameters));
+            setParameters(statement, parameters);
+            statement.setFetchSize(fetchSize);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.setFetchSize(fetchSize);
+            return new H2ResultCursor(connection, statement, resultSet);
+        } catch (SQLException e) {
+            invalidateOnSchemaError(tableName, e);
+            if (connection != null) {
+                connection.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Executes a SELECT query returning one page of rows ordered by key column, seeking from the key of the previous page instead of skipping rows.
+     * Every page costs the same, no matter how far from the beginning of the table it is.
+     * Pages of partitioned table by its time column are read from partitions in order of the time, until the page is full.
+     * Rows of one partition are ordered by ID, so rows without time, which are stored in partition of the previous row, stay
+     * next to it, keys of such pages hold the start of the partition and the ID.
+     * Otherwise rows with equal keys are ordered by ID, rows with NULL key are not returned.
+     * Optionally user can specify regular expression for some of the columns
+     *
+     * @param tableName       - name of table
+     * @param columnNames     - list of column names
+     * @param columnRegexMap  - contains pairs of column name (key) and associated regex (value).
+     * @param keyColumn       - column ordering the rows, ID or indexed column like the time column of partitioned table
+     * @param from            - key of the row next to the page, <code>getLastKey</code> of previous page when moving forward and <code>getFirstKey</code> when moving backward,
+     *                          null for the first or the last page
+     * @param forward         - <code>true</code> for rows after the key, <code>false</code> for rows before it
+     * @param limit           - maximum number of rows of the page
+     * @return Page with rows in ascending order of the key, empty when there are no more rows in given direction
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public Page selectPage(String tableName, List<String> columnNames, Map<String, String> columnRegexMap,
+                           String keyColumn, PageKey from, boolean forward, int limit) throws SQLException {
+        List<List<String>> rows = new ArrayList<>();
+        List<PageKey> keys = new ArrayList<>();
+        Connection connection = null;
+
+        // Check arguments validity
+        if (!checkIfTableExists(tableName)) {
+            throw new SQLException(String.format("Table %s do not exists in database", tableName));
+        }
+        if (columnNames.isEmpty()) {
+            throw new IllegalArgumentException("No column names specified");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page has to have at least one row");
+        }
+        List<Object> cacheKey = H2QueryCache.key("page", tableName, columnNames, columnRegexMap, keyColumn, from, forward, limit);
+        long generation = m_queryCache.getGeneration(tableName);
+        Page cached = m_queryCache.get(cacheKey);
+        if (cached != null) {
+            return copyPage(cached);
+        }
+
+        String key = keyColumn.replaceAll(ESCAPE_CHARACTER_REGEX, "");
+        boolean byId = key.equalsIgnoreCase("id");
+        // Partitions hold disjoint ranges of their time, so pages by time are read partition by partition in order of the key,
+        // instead of from the view, which would sort matching rows of all partitions for every page.
+        // Inside the partition rows are read by ID, rows without time were inserted after the row they continue
+        H2Partitioning partitioning = getPartitioning(tableName);
+        boolean byPartition = partitioning != null && key.equals(partitioning.getTimeColumn());
+        List<String> sourceTables = byPartition
+                ? getPartitionsForPage(tableName, partitioning, from, forward) : Collections.singletonList(tableName);
+        String fromPartition = byPartition && from != null && from.getValue() instanceof Timestamp
+                ? partitioning.getPartitionName(((Timestamp) from.getValue()).toLocalDateTime()) : null;
+        // Filters are the same for every partition, so indexes are looked into once per page
+        StringBuilder filters = new StringBuilder();
+        List<Object> filterParameters = new ArrayList<>();
+        if (columnRegexMap != null && !columnRegexMap.isEmpty()) {
+            addFiltersToStatement(filters, tableName, columnRegexMap, " where ", filterParameters);
+        }
+
+        try {
+            // Execute
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            for (String sourceTable : sourceTables) {
+                List<Object> parameters = new ArrayList<>();
+                PreparedStatement statement;
+                Timestamp partitionStart = null;
+                if (byPartition) {
+                    partitionStart = Timestamp.valueOf(partitioning.getPartitionStart(sourceTable));
+                    statement = connection.prepareStatement(pageStatement(sourceTable, columnNames, filters, filterParameters,
+                            "id", true, sourceTable.equals(fromPartition) ? from : null, forward, limit - rows.size(), parameters));
+                } else {
+                    statement = connection.prepareStatement(pageStatement(sourceTable, columnNames, filters, filterParameters,
+                            key, byId, from, forward, limit - rows.size(), parameters));
+                }
+                setParameters(statement, parameters);
+                ResultSet resultSet = statement.executeQuery();
+                int columnsNum = resultSet.getMetaData().getColumnCount() - (byId || byPartition ? 1 : 2);
+                while (resultSet.next()) {
+                    List<String> rowValues = new ArrayList<String>(columnsNum);
+                    for (int index = 1; index <= columnsNum; index++) {
+                        rowValues.add(resultSet.getString(index));
+                    }
+                    rows.add(rowValues);
+                    keys.add(byId || byPartition ? new PageKey(partitionStart, resultSet.getLong(columnsNum + 1))
+                            : new PageKey(resultSet.getObject(columnsNum + 1), resultSet.getLong(columnsNum + 2)));
+                }
+                statement.close();
+                if (rows.size() >= limit) {
+                    break;
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            invalidateOnSchemaError(tableName, e);
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        if (!forward) {
+            Collections.reverse(rows);
+            Collections.reverse(keys);
+        }
+        Page page = new Page(keyColumn, rows, keys.isEmpty() ? null : keys.get(0), keys.isEmpty() ? null : keys.get(keys.size() - 1));
+        m_queryCache.put(tableName, cacheKey, generation, copyPage(page), H2QueryCache.estimateBytes(rows));
+        return page;
+    }
+
+    /**
+     * Creates SELECT query of one page, key and ID are selected after requested columns
+     *
+     * @param sourceTable      - table or partition the rows are read from
+     * @param filters          - conditions of regexes starting with " where ", empty without regexes
+     * @param filterParameters - values of parameters of the filters
+     * @param parameters       - values of parameters of the statement, values of its placeholders are appended
+     * @return SQL statement
+     */
+    private String pageStatement(String sourceTable, List<String> columnNames, CharSequence filters, List<Object> filterParameters,
+                                 String key, boolean byId, PageKey from, boolean forward, int limit, List<Object> parameters) {
+        StringBuilder statementBuilder = new StringBuilder("select ");
+        statementBuilder.append(columnNames.get(0).replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        for (int i = 1; i < columnNames.size(); i++) {
+            statementBuilder.append(", ")
+                    .append(columnNames.get(i).replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        }
+        statementBuilder.append(", ").append(key);
+        if (!byId) {
+            statementBuilder.append(", id");
+        }
+        statementBuilder.append(" from \"").append(sourceTable.replaceAll(ESCAPE_CHARACTER_REGEX, "")).append("\"");
+        String keyword = " where ";
+        if (filters.length() > 0) {
+            statementBuilder.append(filters);
+            parameters.addAll(filterParameters);
+            keyword = " and ";
+        }
+        String comparison = forward ? " > " : " < ";
+        if (!byId) {
+            statementBuilder.append(keyword).append(key).append(" is not null");
+            keyword = " and ";
+        }
+        if (from != null) {
+            statementBuilder.append(keyword);
+            if (byId) {
+                statementBuilder.append("id").append(comparison).append('?');
+                parameters.add(from.getId());
+            } else {
+                statementBuilder.append('(').append(key).append(comparison).append("? or (").append(key).append(" = ? and id")
+                        .append(comparison).append("?))");
+                parameters.add(from.getValue());
+                parameters.add(from.getValue());
+                parameters.add(from.getId());
+            }
+        }
+        String order = forward ? " asc" : " desc";
+        statementBuilder.append(" order by ").append(key).append(order);
+        if (!byId) {
+            statementBuilder.append(", id").append(order);
+        }
+        statementBuilder.append(" limit ?;");
+        parameters.add(limit);
+        return statementBuilder.toString();
+    }
+
+    /**
+     * Finds partitions which can hold rows of the page by time, in order they are read: from the oldest when moving forward
+     * and from the newest when moving backward, starting at the partition of the key
+     */
+    private List<String> getPartitionsForPage(String tableName, H2Partitioning partitioning, PageKey from, boolean forward) throws SQLException {
+        List<String> partitions = getPartitions(tableName);
+        if (from != null && from.getValue() instanceof Timestamp) {
+            LocalDateTime time = ((Timestamp) from.getValue()).toLocalDateTime();
+            partitions.removeIf(partition -> {
+                LocalDateTime start = partitioning.getPartitionStart(partition);
+                return forward ? !partitioning.getPartitionEnd(start).isAfter(time) : start.isAfter(time);
+            });
+        }
+        if (!forward) {
+            Collections.reverse(partitions);
+        }
+        return partitions;
+    }
+
+    private Page copyPage(Page page) {
+        return new Page(page.getKeyColumn(), new ArrayList<>(copyRows(page.getRows())), page.getFirstKey(), page.getLastKey());
+    }
+
+    /**
+     * Position of a row in pages of @see h2_database_api.classes.H2DatabaseAccessor#selectPage, value of its key column and its ID
+     */
+    public static class PageKey {
+        private final Object value;
+        private final long id;
+
+        PageKey(Object value, long id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        /**
+         * @return Value of key column, null when pages are ordered by ID
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof PageKey)) {
+                return false;
+            }
+            PageKey key = (PageKey) other;
+            return id == key.id && Objects.equals(value, key.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(value) + Long.hashCode(id);
+        }
+
+        @Override
+        public String toString() {
+            return value == null ? String.valueOf(id) : value + "/" + id;
+        }
+    }
+
+    /**
+     * Rows returned by @see h2_database_api.classes.H2DatabaseAccessor#selectPage with keys of its first and last row
+     */
+    public static class Page {
+        private final String keyColumn;
+        private final List<List<String>> rows;
+        private final PageKey firstKey;
+        private final PageKey lastKey;
+
+        Page(String keyColumn, List<List<String>> rows, PageKey firstKey, PageKey lastKey) {
+            this.keyColumn = keyColumn;
+            this.rows = rows;
+            this.firstKey = firstKey;
+            this.lastKey = lastKey;
+        }
+
+        public String getKeyColumn() {
+            return keyColumn;
+        }
+
+        public List<List<String>> getRows() {
+            return rows;
+        }
+
+        /**
+         * @return Key of the first row, to pass to <code>selectPage</code> for previous page, null when page is empty
+         */
+        public PageKey getFirstKey() {
+            return firstKey;
+        }
+
+        /**
+         * @return Key of the last row, to pass to <code>selectPage</code> for next page, null when page is empty
+         */
+        public PageKey getLastKey() {
+            return lastKey;
+        }
+
+        public boolean isEmpty() {
+            return rows.isEmpty();
+        }
+    }
+
+    /**
+     * Executes a SELECT COUNT(*) query on specified table. Optionally user can specify regular expression for some of the columns
+     *
+     * @param tableName       - name of table
+     * @param columnRegexMap- contains pairs of column name (key) and associated regex (value).
+     * @return ResultSet of executed query
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public int countValuesFromTable(String tableName, Map<String, String> columnRegexMap) throws SQLException {
+        return countValuesFromTable(tableName, columnRegexMap, null, null);
+    }
+
+    /**
+     * Executes a SELECT COUNT(*) query on specified table. Optionally user can specify regular expression for some of the columns
+     *
+     * @param tableName       - name of table
+     * @param columnRegexMap- contains pairs of column name (key) and associated regex (value).
+     * @param limit           - maximum number of rows that should be
+     * @param offset          - skip that many rows before beginning to return row
+     * @return ResultSet of executed query
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public int countValuesFromTable(String tableName, Map<String, String> columnRegexMap,
+                                    Integer limit, Integer offset) throws SQLException {
+        Integer result = null;
+        Connection connection = null;
+
+        // Check arguments validity
+        if (!checkIfTableExists(tableName)) {
+            throw new SQLException(String.format("Table %s do not exists in database", tableName));
+        }
+
+        List<Object> cacheKey = H2QueryCache.key("count", tableName, columnRegexMap, limit, offset);
+        long generation = m_queryCache.getGeneration(tableName);
+        Integer cached = m_queryCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Answer from summary of values, when the table has one
+        if (limit == null || limit <= 0 || offset == null || offset <= 0) {
+            Long summarized = countFromSummary(tableName, columnRegexMap);
+            if (summarized != null) {
+                m_queryCache.put(tableName, cacheKey, generation, summarized.intValue(), H2QueryCache.estimateBytes(Collections.emptyList()));
+                return summarized.intValue();
+            }
+        }
+
+        // Create string with SQL statement
+        StringBuilder statementBuilder = new StringBuilder("select count(*) from \"").append(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")).append("\"");
+        List<Object> parameters = new ArrayList<>();
+        if (columnRegexMap != null && !columnRegexMap.isEmpty()) {
+            addFiltersToStatement(statementBuilder, tableName, columnRegexMap, " where ", parameters);
+        }
+        if(limit != null && limit > 0 && offset != null && offset > 0) {
+            addOffsetAndLimitToStatement(statementBuilder, limit, offset, parameters);
+        }
+        statementBuilder.append(';');
+
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(statementBuilder.toString());
+            setParameters(statement, parameters);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            result = Integer.parseInt(resultSet.getString("COUNT(*)"));
+            statement.close();
+            connection.commit();
+        } catch (SQLException e) {
+            invalidateOnSchemaError(tableName, e);
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        m_queryCache.put(tableName, cacheKey, generation, result, H2QueryCache.estimateBytes(Collections.emptyList()));
+        return result;
+    }
+
+    /**
+     * Returns a list of column names
+     *
+     * @param tableName - name of the table
+     * @return list of column names
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public List<String> getColumnNames(String tableName) throws SQLException {
+        return new LinkedList<>(getTableMetadata(tableName).columnNames);
+    }
+
+    /**
+     * Returns types of data columns of the table, in the order of columns (except default primary key ID)
+     *
+     * @param tableName - name of the table
+     * @return list of column types
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public List<H2ColumnType> getColumnTypes(String tableName) throws SQLException {
+        return new ArrayList<>(getTableMetadata(tableName).columnTypes);
+    }
+
+    /**
+     * Changes type of a column, existing values are converted by database
+     *
+     * @param tableName  - name of the table
+     * @param columnName - name of the column
+     * @param columnType - new type of the column
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public void alterColumnType(String tableName, String columnName, H2ColumnType columnType) throws SQLException {
+        H2Partitioning partitioning = getPartitioning(tableName);
+        if (partitioning == null) {
+            try {
+                executeStatements(alterColumnStatement(tableName, columnName, columnType));
+            } finally {
+                m_schemaCache.invalidate(tableName);
+                m_queryCache.invalidate(tableName);
+            }
+            return;
+        }
+        synchronized (this) {
+            List<String> statements = new ArrayList<>();
+            statements.add(alterColumnStatement(partitioning.getTemplateName(), columnName, columnType));
+            for (String partition : getPartitions(tableName)) {
+                statements.add(alterColumnStatement(partition, columnName, columnType));
+            }
+            try {
+                executeStatements(statements.toArray(new String[statements.size()]));
+                recreateView(partitioning, Collections.<String>emptySet());
+            } finally {
+                m_schemaCache.invalidateAll();
+                m_queryCache.invalidate(tableName);
+            }
+        }
+    }
+
+    private String alterColumnStatement(String tableName, String columnName, H2ColumnType columnType) {
+        return String.format(ALTER_COLUMN_STATEMENT, tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""),
+                columnName.replaceAll(ESCAPE_CHARACTER_REGEX, ""), columnType.getSqlType());
+    }
+
+    /**
+     * Converts values of rows to objects stored in columns of given types.
+     * When some value does not fit its column, the column is widened in database and converted again.
+     *
+     * @param tableName   - name of the table
+     * @param columnTypes - types of data columns of the table, updated when some column is widened
+     * @param rowsValues  - list of list with values of each row
+     * @return converted rows, each one as long as the table
+     * @exception SQLException - when widening of a column wasn't successfull
+     */
+    private Object[][] convertRows(String tableName, List<H2ColumnType> columnTypes, List<List<String>> rowsValues) throws SQLException {
+        Object[][] convertedRows = new Object[rowsValues.size()][columnTypes.size()];
+        List<String> columnNames = null;
+        for (int column = 0; column < columnTypes.size(); column++) {
+            H2ColumnType columnType = columnTypes.get(column);
+            for (int row = 0; row < rowsValues.size(); row++) {
+                List<String> rowValues = rowsValues.get(row);
+                if (column >= rowValues.size()) {
+                    continue;
+                }
+                try {
+                    convertedRows[row][column] = columnType.convert(rowValues.get(column));
+                } catch (IllegalArgumentException e) {
+                    // Widen the column and convert it again from the first row
+                    columnType = columnType.widen();
+                    row = -1;
+                }
+            }
+            if (columnType != columnTypes.get(column)) {
+                if (columnNames == null) {
+                    columnNames = new ArrayList<>(getColumnNames(tableName));
+                    columnNames.removeIf(name -> name.equalsIgnoreCase("id"));
+                }
+                alterColumnType(tableName, columnNames.get(column), columnType);
+                columnTypes.set(column, columnType);
+            }
+        }
+        return convertedRows;
+    }
+
+    /**
+     * Creates a new table partitioned by time, in a database specified in <code>m_connector</code>.
+     * Rows are stored in one table per day or hour of the time column, see @see h2_database_api.classes.H2Partitioning.
+     * The table itself is a view of all partitions, so all other methods of this class can be used with it.
+     * If table already exists it is removed before creating a new one.
+     *
+     * @param tableName   - name of a new table
+     * @param columnNames - list of column names
+     * @param columnTypes - list of column types, one for each column name
+     * @param timeColumn  - name of the column rows are partitioned by, has to be of type <code>TIMESTAMP</code>
+     * @param unit        - length of period of single partition, <code>DAYS</code> or <code>HOURS</code>
+     * @return boolean value, <code>true</code> if table was created successfully, <code>false</code> otherwise
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public boolean addPartitionedTable(String tableName, List<String> columnNames, List<H2ColumnType> columnTypes,
+                                       String timeColumn, ChronoUnit unit) throws SQLException {
+        int timeIndex = columnNames.indexOf(timeColumn);
+        if (timeIndex < 0 || columnTypes.get(timeIndex) != H2ColumnType.TIMESTAMP) {
+            throw new IllegalArgumentException("Time column has to be one of the columns, of type TIMESTAMP");
+        }
+        H2Partitioning partitioning = new H2Partitioning(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""), timeColumn, unit);
+        dropTable(tableName);
+
+        StringBuilder templateBuilder = new StringBuilder(String.format(CREATE_PARTITION_STATEMENT,
+                partitioning.getTemplateName(), partitioning.getSequenceName()));
+        for (int index = 0; index < columnNames.size(); index++) {
+            templateBuilder.append(String.format(CREATE_TABLE_COLUMN, columnNames.get(index).replaceAll(ESCAPE_CHARACTER_REGEX, ""),
+                    columnTypes.get(index).getSqlType()));
+        }
+        templateBuilder.append(");");
+
+        boolean result = true;
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+
+            PreparedStatement statement = connection.prepareStatement(CREATE_PARTITIONS_TABLE_STATEMENT);
+            statement.executeUpdate();
+            statement.close();
+
+            statement = connection.prepareStatement(MERGE_PARTITIONING_STATEMENT);
+            statement.setString(1, partitioning.getTableName());
+            statement.setString(2, timeColumn);
+            statement.setString(3, unit.name());
+            statement.executeUpdate();
+            statement.close();
+
+            for (String sql : asList(String.format(CREATE_SEQUENCE_STATEMENT, partitioning.getSequenceName()), templateBuilder.toString(),
+                    String.format(CREATE_VIEW_STATEMENT, partitioning.getTableName(), partitioning.getTemplateName()))) {
+                statement = connection.prepareStatement(sql);
+                statement.executeUpdate();
+                statement.close();
+            }
+
+            connection.commit();
+            m_schemaCache.invalidate(partitioning.getTableName());
+            m_schemaCache.invalidate(partitioning.getTemplateName());
+            m_unpartitionedTables.remove(partitioning.getTableName());
+            m_partitionings.put(partitioning.getTableName(), partitioning);
+        } catch (SQLException e) {
+            result = false;
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns description of partitioning of given table
+     *
+     * @param tableName - name of the table
+     * @return partitioning of the table, or null when table is not partitioned
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public H2Partitioning getPartitioning(String tableName) throws SQLException {
+        H2Partitioning partitioning = m_partitionings.get(tableName);
+        if (partitioning != null || m_unpartitionedTables.contains(tableName)) {
+            return partitioning;
+        }
+        if (checkIfTableExists(PARTITIONS_TABLE_NAME)) {
+            Connection connection = null;
+            try {
+                connection = m_connector.getConnection();
+                PreparedStatement statement = connection.prepareStatement(SELECT_PARTITIONING_STATEMENT);
+                statement.setString(1, tableName);
+                ResultSet resultSet = statement.executeQuery();
+                if (resultSet.next()) {
+                    partitioning = new H2Partitioning(tableName, resultSet.getString(1), ChronoUnit.valueOf(resultSet.getString(2)));
+                }
+                statement.close();
+            } catch (SQLException e) {
+                throw e;
+            } finally {
+                try {
+                    if (connection != null) {
+                        connection.close();
+                    }
+                } catch (SQLException e) {
+                    throw e;
+                }
+            }
+        }
+        if (partitioning != null) {
+            m_partitionings.put(tableName, partitioning);
+        } else {
+            m_unpartitionedTables.add(tableName);
+        }
+        return partitioning;
+    }
+
+    /**
+     * Returns names of all partitions of given table, from the oldest one
+     *
+     * @param tableName - name of partitioned table
+     * @return list of partition names, empty when table is not partitioned
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public List<String> getPartitions(String tableName) throws SQLException {
+        H2Partitioning partitioning = getPartitioning(tableName);
+        TreeMap<LocalDateTime, String> partitions = new TreeMap<>();
+        if (partitioning == null) {
+            return new ArrayList<>();
+        }
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            ResultSet tables = connection.getMetaData().getTables(null, null, tableName + "%", new String[]{"TABLE"});
+            while (tables.next()) {
+                String name = tables.getString("TABLE_NAME");
+                LocalDateTime start = partitioning.getPartitionStart(name);
+                if (start != null) {
+                    partitions.put(start, name);
+                }
+            }
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        return new ArrayList<>(partitions.values());
+    }
+
+    /**
+     * Removes partitions of given table with all rows older than given time. Newer rows of the same partition are kept.
+     * This is the way to apply retention, it does not depend on number of removed rows.
+     *
+     * @param tableName - name of partitioned table
+     * @param time      - time before which rows can be removed
+     * @return number of removed partitions
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public int dropPartitionsBefore(String tableName, LocalDateTime time) throws SQLException {
+        H2Partitioning partitioning = getPartitioning(tableName);
+        if (partitioning == null) {
+            throw new IllegalArgumentException(String.format("Table %s is not partitioned", tableName));
+        }
+        synchronized (this) {
+            Set<String> removed = new LinkedHashSet<>();
+            for (String partition : getPartitions(tableName)) {
+                if (!partitioning.getPartitionEnd(partitioning.getPartitionStart(partition)).isAfter(time)) {
+                    removed.add(partition);
+                }
+            }
+            if (removed.isEmpty()) {
+                return 0;
+            }
+            recreateView(partitioning, removed);
+            List<String> summaryColumns = getValueSummaryColumns(tableName);
+            if (!summaryColumns.isEmpty()) {
+                removeFromValueSummary(tableName, removed, summaryColumns);
+            }
+            List<String> statements = new ArrayList<>();
+            boolean tokenIndexed = !getTokenIndexColumns(tableName).isEmpty();
+            for (String partition : removed) {
+                if (tokenIndexed) {
+                    statements.add(String.format(DELETE_PARTITION_TOKENS_STATEMENT, H2TokenIndex.getTokenTableName(partitioning.getTableName()), partition));
+                }
+                statements.add(String.format(DROP_TABLE_STATEMENT, partition));
+            }
+            executeStatements(statements.toArray(new String[statements.size()]));
+            if (!getTrigramIndexColumns(tableName).isEmpty()) {
+                deleteTrigramBlocksBefore(partitioning.getTableName());
+            }
+            m_knownPartitions.removeAll(removed);
+            for (String partition : removed) {
+                m_schemaCache.invalidate(partition);
+            }
+            m_queryCache.invalidate(tableName);
+            return removed.size();
+        }
+    }
+
+    /**
+     * Removes trigrams of blocks before the block of the first remaining row of partitioned table.
+     * Blocks can contain rows of several partitions, so trigrams of later blocks are kept until their last partition is removed.
+     */
+    private void deleteTrigramBlocksBefore(String tableName) throws SQLException {
+        Long firstId = null;
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            PreparedStatement statement = connection.prepareStatement(String.format(SELECT_MIN_ID_STATEMENT, tableName));
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                firstId = (Long) resultSet.getObject(1);
+            }
+            statement.close();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        // Without remaining rows the first block of rows inserted meanwhile is not known, trigrams are removed by the next retention
+        if (firstId != null) {
+            executeStatements(String.format(DELETE_TRIGRAM_BLOCKS_STATEMENT, H2TrigramIndex.getTrigramTableName(tableName),
+                    H2TrigramIndex.getBlock(firstId)));
+        }
+    }
+
+    /**
+     * Executes a SELECT query on partitions of specified table overlapping given time range, the others are not read at all.
+     * Optionally user can specify regular expression for some of the columns
+     *
+     * @param tableName      - name of partitioned table
+     * @param columnNames    - list of column names
+     * @param columnRegexMap - contains pairs of column name (key) and associated regex (value).
+     * @param from           - first time of the range, inclusive, null for no limit
+     * @param to             - last time of the range, exclusive, null for no limit
+     * @param limit          - maximum number of rows that should be
+     * @param offset         - skip that many rows before beginning to return row
+     * @return List of selected rows
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public List<List<String>> selectValuesFromTimeRange(String tableName, List<String> columnNames, Map<String, String> columnRegexMap,
+                                                        LocalDateTime from, LocalDateTime to,
+                                                        Integer limit, Integer offset) throws SQLException {
+        if (columnNames.isEmpty()) {
+            throw new IllegalArgumentException("No column names specified");
+        }
+        StringBuilder columnsBuilder = new StringBuilder();
+        for (String columnName : columnNames) {
+            columnsBuilder.append(columnsBuilder.length() == 0 ? "" : ", ").append(columnName.replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        }
+        List<Object> cacheKey = H2QueryCache.key("selectTimeRange", tableName, columnNames, columnRegexMap, from, to, limit, offset);
+        long generation = m_queryCache.getGeneration(tableName);
+        List<List<String>> cached = m_queryCache.get(cacheKey);
+        if (cached != null) {
+            return copyRows(cached);
+        }
+        List<String> partitions = getPartitionsInRange(tableName, from, to);
+        List<List<String>> result = new LinkedList<>();
+        if (partitions.isEmpty()) {
+            return result;
+        }
+        StringBuilder statementBuilder = new StringBuilder();
+        List<Object> parameters = addTimeRangeQueries(statementBuilder, columnsBuilder.toString(), getPartitioning(tableName),
+                partitions, columnRegexMap, from, to);
+        if (limit != null && limit > 0) {
+            addOffsetAndLimitToStatement(statementBuilder, limit, offset, parameters);
+        }
+        statementBuilder.append(';');
+
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(statementBuilder.toString());
+            setParameters(statement, parameters);
+            ResultSet resultSet = statement.executeQuery();
+            int columnsNum = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                List<String> rowValues = new ArrayList<String>(columnsNum);
+                for (int index = 1; index <= columnsNum; index++) {
+                    rowValues.add(resultSet.getString(index));
+                }
+                result.add(rowValues);
+            }
+            statement.close();
+            connection.commit();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        m_queryCache.put(tableName, cacheKey, generation, copyRows(result), H2QueryCache.estimateBytes(result));
+        return result;
+    }
+
+    /**
+     * Executes a SELECT COUNT(*) query on partitions of specified table overlapping given time range, the others are not read at all.
+     * Optionally user can specify regular expression for some of the columns
+     *
+     * @param tableName      - name of partitioned table
+     * @param columnRegexMap - contains pairs of column name (key) and associated regex (value).
+     * @param from           - first time of the range, inclusive, null for no limit
+     * @param to             - last time of the range, exclusive, null for no limit
+     * @return number of rows
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public int countValuesFromTimeRange(String tableName, Map<String, String> columnRegexMap,
+                                        LocalDateTime from, LocalDateTime to) throws SQLException {
+        List<Object> cacheKey = H2QueryCache.key("countTimeRange", tableName, columnRegexMap, from, to);
+        long generation = m_queryCache.getGeneration(tableName);
+        Integer cached = m_queryCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        List<String> partitions = getPartitionsInRange(tableName, from, to);
+        if (partitions.isEmpty()) {
+            return 0;
+        }
+        StringBuilder statementBuilder = new StringBuilder("select count(*) from (");
+        List<Object> parameters = addTimeRangeQueries(statementBuilder, "id", getPartitioning(tableName), partitions, columnRegexMap, from, to);
+        statementBuilder.append(");");
+
+        int result = 0;
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(statementBuilder.toString());
+            setParameters(statement, parameters);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            result = resultSet.getInt(1);
+            statement.close();
+            connection.commit();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        m_queryCache.put(tableName, cacheKey, generation, result, H2QueryCache.estimateBytes(Collections.emptyList()));
+        return result;
+    }
+
+    /**
+     * Finds partitions of the table which can contain rows of given time range
+     */
+    private List<String> getPartitionsInRange(String tableName, LocalDateTime from, LocalDateTime to) throws SQLException {
+        H2Partitioning partitioning = getPartitioning(tableName);
+        if (partitioning == null) {
+            throw new IllegalArgumentException(String.format("Table %s is not partitioned", tableName));
+        }
+        List<String> partitions = new ArrayList<>();
+        for (String partition : getPartitions(tableName)) {
+            LocalDateTime start = partitioning.getPartitionStart(partition);
+            if ((to == null || start.isBefore(to)) && (from == null || partitioning.getPartitionEnd(start).isAfter(from))) {
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Adds one query per partition, joined with UNION ALL, each limited to regexes.
+     * Time range is checked only in partitions at its ends, partitions within the range are read whole.
+     * Filters of regexes are built once and repeated in every query, as all partitions share indexes of the partitioned table.
+     *
+     * @return values of parameters of the time range and filters, in order of their placeholders
+     */
+    private List<Object> addTimeRangeQueries(StringBuilder statementBuilder, String columns, H2Partitioning partitioning, List<String> partitions,
+                                             Map<String, String> columnRegexMap, LocalDateTime from, LocalDateTime to) throws SQLException {
+        List<Object> parameters = new ArrayList<>();
+        StringBuilder filters = new StringBuilder();
+        List<Object> filterParameters = new ArrayList<>();
+        if (columnRegexMap != null && !columnRegexMap.isEmpty()) {
+            addFiltersToStatement(filters, partitioning.getTableName(), columnRegexMap, " and ", filterParameters);
+        }
+        for (int index = 0; index < partitions.size(); index++) {
+            if (index > 0) {
+                statementBuilder.append(" union all ");
+            }
+            statementBuilder.append("select ").append(columns).append(" from \"").append(partitions.get(index)).append("\" where 1=1");
+            LocalDateTime start = partitioning.getPartitionStart(partitions.get(index));
+            if (from != null && start.isBefore(from)) {
+                statementBuilder.append(" and ").append(partitioning.getTimeColumn()).append(" >= ?");
+                parameters.add(Timestamp.valueOf(from));
+            }
+            if (to != null && partitioning.getPartitionEnd(start).isAfter(to)) {
+                statementBuilder.append(" and ").append(partitioning.getTimeColumn()).append(" < ?");
+                parameters.add(Timestamp.valueOf(to));
+            }
+            statementBuilder.append(filters);
+            parameters.addAll(filterParameters);
+        }
+        return parameters;
+    }
+
+    /**
+     * Groups converted rows by table they are inserted to, which for partitioned tables is the partition of their time.
+     * Rows without time, like continuation lines, go to the partition of the previous row.
+     */
+    private Map<String, List<Object[]>> splitRowsByPartition(String tableName, Object[][] convertedRows, int valueOffset) throws SQLException {
+        Map<String, List<Object[]>> rowsByTable = new LinkedHashMap<>();
+        H2Partitioning partitioning = getPartitioning(tableName);
+        if (partitioning == null) {
+            rowsByTable.put(tableName, asList(convertedRows));
+            return rowsByTable;
+        }
+        List<String> dataColumnNames = new ArrayList<>(getColumnNames(partitioning.getTemplateName()));
+        dataColumnNames.removeIf(name -> name.equalsIgnoreCase("id"));
+        int timeIndex = dataColumnNames.indexOf(partitioning.getTimeColumn()) + valueOffset;
+        String partition = null;
+        for (Object[] rowValues : convertedRows) {
+            Timestamp time = (Timestamp) rowValues[timeIndex];
+            if (time != null || partition == null) {
+                partition = partitioning.getPartitionName(time != null ? time.toLocalDateTime() : LocalDateTime.now());
+            }
+            List<Object[]> partitionRows = rowsByTable.get(partition);
+            if (partitionRows == null) {
+                ensurePartition(partitioning, partition);
+                partitionRows = new ArrayList<>();
+                rowsByTable.put(partition, partitionRows);
+            }
+            partitionRows.add(rowValues);
+        }
+        return rowsByTable;
+    }
+
+    /**
+     * Creates partition, with the same columns as the template table, and adds it to the view
+     */
+    private void ensurePartition(H2Partitioning partitioning, String partition) throws SQLException {
+        if (m_knownPartitions.contains(partition)) {
+            return;
+        }
+        synchronized (this) {
+            if (m_knownPartitions.contains(partition)) {
+                return;
+            }
+            List<String> columnNames = new ArrayList<>(getColumnNames(partitioning.getTemplateName()));
+            columnNames.removeIf(name -> name.equalsIgnoreCase("id"));
+            List<H2ColumnType> columnTypes = getColumnTypes(partitioning.getTemplateName());
+            StringBuilder statementBuilder = new StringBuilder(String.format(CREATE_PARTITION_STATEMENT, partition, partitioning.getSequenceName()));
+            for (int index = 0; index < columnNames.size(); index++) {
+                statementBuilder.append(String.format(CREATE_TABLE_COLUMN, columnNames.get(index), columnTypes.get(index).getSqlType()));
+            }
+            statementBuilder.append(");");
+            if (m_bulkLoadTables.contains(partitioning.getTableName())) {
+                // Bulk load session creates the index when it ends
+                executeStatements(statementBuilder.toString());
+            } else {
+                executeStatements(statementBuilder.toString(),
+                        String.format(CREATE_TIME_INDEX_STATEMENT, partition, partition, partitioning.getTimeColumn()));
+            }
+            recreateView(partitioning, Collections.<String>emptySet());
+            m_schemaCache.invalidate(partition);
+            m_knownPartitions.add(partition);
+        }
+    }
+
+    /**
+     * Replaces view of partitioned table, so it contains all its partitions except the excluded ones
+     */
+    private void recreateView(H2Partitioning partitioning, Set<String> excluded) throws SQLException {
+        StringBuilder statementBuilder = new StringBuilder(String.format(CREATE_VIEW_STATEMENT,
+                partitioning.getTableName(), partitioning.getTemplateName()));
+        for (String partition : getPartitions(partitioning.getTableName())) {
+            if (!excluded.contains(partition)) {
+                statementBuilder.append(String.format(UNION_PARTITION, partition));
+            }
+        }
+        statementBuilder.append(';');
+        executeStatements(statementBuilder.toString());
+    }
+
+    /**
+     * Removes view, all partitions, template table, sequence and description of partitioned table
+     */
+    private synchronized void dropPartitionedTable(H2Partitioning partitioning) throws SQLException {
+        List<String> statements = new ArrayList<>();
+        statements.add(String.format(DROP_VIEW_STATEMENT, partitioning.getTableName()));
+        List<String> partitions = getPartitions(partitioning.getTableName());
+        for (String partition : partitions) {
+            statements.add(String.format(DROP_TABLE_STATEMENT, partition));
+        }
+        statements.add(String.format(DROP_TABLE_STATEMENT, partitioning.getTemplateName()));
+        statements.add(String.format(DROP_SEQUENCE_STATEMENT, partitioning.getSequenceName()));
+        executeStatements(statements.toArray(new String[statements.size()]));
+
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(DELETE_PARTITIONING_STATEMENT);
+            statement.setString(1, partitioning.getTableName());
+            statement.executeUpdate();
+            statement.close();
+            connection.commit();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        m_knownPartitions.removeAll(partitions);
+        m_partitionings.remove(partitioning.getTableName());
+        m_schemaCache.invalidateAll();
+        m_queryCache.invalidate(partitioning.getTableName());
+    }
+
+    /**
+     * Executes statements without parameters in a single transaction
+     */
+    private void executeStatements(String... statements) throws SQLException {
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            for (String sql : statements) {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                statement.executeUpdate();
+                statement.close();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Ensures that given table exists in database.
+     * Existence and columns of tables are cached, see <code>setSchemaCacheTtl</code>
+     *
+     * @param tableName - name of the table
+     * @return true if table exists, false otherwise
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public boolean checkIfTableExists(String tableName) throws SQLException {
+        return getTableMetadata(tableName).exists;
+    }
+
+    /**
+     * Sets for how long metadata of tables is cached, 0 disables the cache.
+     * Changes made by this accessor are visible immediately, changes made by other processes after this time.
+     *
+     * @param ttlMillis - time to live of cached metadata in milliseconds
+     */
+    public void setSchemaCacheTtl(long ttlMillis) {
+        m_schemaCache.setTtlMillis(ttlMillis);
+    }
+
+    /**
+     * Sets limits of cache of results of selects and counts, 0 entries disables the cache.
+     * Results are dropped when rows inserted by this accessor are committed, changes made by other processes are visible after time to live.
+     *
+     * @param maxEntries - maximum number of cached results, least recently used ones are evicted
+     * @param maxBytes   - maximum estimated size of cached results
+     * @param ttlMillis  - time to live of cached results in milliseconds
+     */
+    public void setQueryCache(int maxEntries, long maxBytes, long ttlMillis) {
+        m_queryCache.setLimits(maxEntries, maxBytes, ttlMillis);
+    }
+
+    /**
+     * Returns statistics of cache of results of selects and counts
+     *
+     * @return New snapshot of cache statistics
+     */
+    public H2QueryCache.Statistics getQueryCacheStatistics() {
+        return m_queryCache.getStatistics();
+    }
+
+    /**
+     * Drops cached results of queries of given table, for changes made outside of this class
+     */
+    void invalidateQueryCache(String tableName) {
+        m_queryCache.invalidate(tableName);
+    }
+
+    /**
+     * Returns copy of rows, so results cached and returned to callers are not shared
+     */
+    private List<List<String>> copyRows(List<List<String>> rows) {
+        List<List<String>> copy = new LinkedList<>();
+        for (List<String> row : rows) {
+            copy.add(new ArrayList<>(row));
+        }
+        return copy;
+    }
+
+    /**
+     * Returns metadata of table from the cache, reading it from database when it is not cached
+     */
+    private H2SchemaCache.TableMetadata getTableMetadata(String tableName) throws SQLException {
+        H2SchemaCache.TableMetadata metadata = m_schemaCache.get(tableName);
+        if (metadata != null) {
+            return metadata;
+        }
+        boolean exists = false;
+        List<String> columnNames = new ArrayList<>();
+        List<H2ColumnType> columnTypes = new ArrayList<>();
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+
+            ResultSet tables = connection.getMetaData().getTables(null, null, tableName, null);
+            while (tables.next()) {
+                exists |= tables.getString("TABLE_NAME").equals(tableName);
+            }
+            ResultSet columns = connection.getMetaData().getColumns(null, null, tableName, null);
+            while (columns.next()) {
+                if (!columns.getString("TABLE_NAME").equals(tableName)) {
+                    continue;
+                }
+                String columnName = columns.getString("COLUMN_NAME");
+                columnNames.add(columnName);
+                if (!columnName.equalsIgnoreCase("id")) {
+                    columnTypes.add(H2ColumnType.fromSql(columns.getString("TYPE_NAME"), columns.getInt("COLUMN_SIZE")));
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        metadata = new H2SchemaCache.TableMetadata(tableName, exists, columnNames, columnTypes);
+        m_schemaCache.put(metadata);
+        return metadata;
+    }
+
+    /**
+     * Drops cached metadata of the table when error shows that it changed outside of this accessor
+     */
+    private void invalidateOnSchemaError(String tableName, SQLException e) {
+        int code = e.getErrorCode();
+        if (code == ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1 || code == ErrorCode.COLUMN_NOT_FOUND_1
+                || code == ErrorCode.COLUMN_COUNT_DOES_NOT_MATCH || code == ErrorCode.DATA_CONVERSION_ERROR_1) {
+            m_schemaCache.invalidate(tableName);
+            m_queryCache.invalidate(tableName);
+        }
+    }
+
+    /**
+     * Adds columns regexes to query, after given keyword. Regexes stay literals with quotes doubled, as H2 compiles
+     * pattern given by parameter again for every row, while literal is compiled once per query.
+     * So unlike other queries, searches by regex bypass statements cached by the connection pool,
+     * statement of a regex is prepared again unless the same regex was searched for recently.
+     * Regexes of text columns matching exact texts or anchored prefixes are rewritten to conditions using index of the column.
+     *
+     * @param statementBuilder - reference to StringBuilder used to create statement
+     * @param columnRegexMap-  contains pairs of column name (key) and associated regex (value).
+     * @param keyword - " where " for the first condition of query, " and " when there are other conditions already
+     * @param textColumns - columns of text type, whose regexes may be rewritten
+     */
+    private void addRegexesToStatement(StringBuilder statementBuilder, Map<String, String> columnRegexMap, String keyword,
+                                       Collection<String> textColumns) {
+        statementBuilder.append(keyword);
+        Set<Entry<String, String>> entries = columnRegexMap.entrySet();
+        Iterator<Entry<String, String>> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry<String, String> entry = iterator.next();
+            String columnName = sanitizeIdentifier(entry.getKey());
+            String condition = textColumns.contains(columnName) ? H2RegexFilter.toCondition(columnName, entry.getValue()) : null;
+            if (condition != null) {
+                statementBuilder.append(condition);
+            } else {
+                statementBuilder.append(columnName)
+                        .append(" regexp \'")
+                        .append(entry.getValue().replace("'", "''"))
+                        .append('\'');
+            }
+            if (iterator.hasNext()) {
+                statementBuilder.append(" and ");
+            }
+        }
+    }
+
+    /**
+     * Strips escape characters from name of table or column used in query, names used before are taken from cache,
+     * so filters of every query do not run the replacing regex again
+     *
+     * @param identifier - name of table or column
+     * @return name without escape characters
+     */
+    private String sanitizeIdentifier(String identifier) {
+        String sanitized = m_sanitizedIdentifiers.get(identifier);
+        if (sanitized == null) {
+            sanitized = identifier.replaceAll(ESCAPE_CHARACTER_REGEX, "");
+            if (m_sanitizedIdentifiers.size() < SANITIZED_IDENTIFIERS_LIMIT) {
+                m_sanitizedIdentifiers.put(identifier, sanitized);
+            }
+        }
+        return sanitized;
+    }
+
+    /**
+     * Returns names of data columns of the table of text type
+     *
+     * @param tableName - name of the table, or of the view of partitioned table
+     * @return names of text columns
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    private Set<String> getTextColumns(String tableName) throws SQLException {
+        List<String> dataColumnNames = getColumnNames(tableName);
+        dataColumnNames.removeIf(name -> name.equalsIgnoreCase("id"));
+        List<H2ColumnType> columnTypes = getColumnTypes(tableName);
+        Set<String> textColumns = new HashSet<>();
+        for (int index = 0; index < dataColumnNames.size() && index < columnTypes.size(); index++) {
+            if (columnTypes.get(index) == H2ColumnType.VARCHAR || columnTypes.get(index) == H2ColumnType.SHORT_VARCHAR) {
+                textColumns.add(dataColumnNames.get(index));
+            }
+        }
+        return textColumns;
+    }
+
+    /**
+     * Sets values of parameters of the statement, in order of their placeholders
+     *
+     * @param statement  - prepared statement
+     * @param parameters - values of parameters
+     * @exception SQLException - when value can not be set
+     */
+    private void setParameters(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int index = 0; index < parameters.size(); index++) {
+            statement.setObject(index + 1, parameters.get(index));
+        }
+    }
+
+    /**
+     * Adds columns regexes to query, after given keyword, and for regexes searching for whole words of token indexed columns
+     * also conditions finding the rows in token index. Regexes are kept, as index ignores case and order of words.
+     * Other regexes of trigram indexed columns get condition finding blocks of rows in trigram index, when it finds few of them.
+     *
+     * @param statementBuilder - reference to StringBuilder used to create statement
+     * @param tableName        - name of the queried table, for partitions the name of partitioned table
+     * @param columnRegexMap   - contains pairs of column name (key) and associated regex (value).
+     * @param keyword          - " where " for the first condition of query, " and " when there are other conditions already
+     * @param parameters       - values of parameters of the statement, values of added conditions are appended
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    private void addFiltersToStatement(StringBuilder statementBuilder, String tableName, Map<String, String> columnRegexMap,
+                                       String keyword, List<Object> parameters) throws SQLException {
+        addRegexesToStatement(statementBuilder, columnRegexMap, keyword, getTextColumns(tableName));
+        List<String> tokenColumns = getTokenIndexColumns(tableName);
+        List<String> trigramColumns = getTrigramIndexColumns(tableName);
+        if (tokenColumns.isEmpty() && trigramColumns.isEmpty()) {
+            return;
+        }
+        String tokenTable = H2TokenIndex.getTokenTableName(sanitizeIdentifier(tableName));
+        String trigramTable = H2TrigramIndex.getTrigramTableName(sanitizeIdentifier(tableName));
+        for (Entry<String, String> entry : columnRegexMap.entrySet()) {
+            String columnName = sanitizeIdentifier(entry.getKey());
+            List<String> tokens = tokenColumns.contains(columnName) ? H2TokenIndex.getSearchTokens(entry.getValue()) : null;
+            if (tokens != null) {
+                for (String token : tokens) {
+                    statementBuilder.append(" and ").append(String.format(TOKEN_CONDITION, tokenTable));
+                    parameters.add(H2TokenIndex.getTokenKey(columnName, token));
+                }
+            } else if (trigramColumns.contains(columnName)) {
+                // Analysed regex has to be the same as the one added to query
+                H2TrigramIndex.Query query = H2TrigramIndex.analyze(entry.getValue());
+                // Block query is built depth first, which is also the order of its trigram keys in the text
+                List<Object> blockParameters = new ArrayList<>();
+                String blocks = query.isAll() ? null : query.toBlockQuery(trigram -> {
+                    blockParameters.add(H2TokenIndex.getTokenKey(columnName, trigram));
+                    return String.format(TRIGRAM_BLOCKS_QUERY, trigramTable);
+                });
+                if (blocks != null && isSelective(tableName, blocks, blockParameters)) {
+                    statementBuilder.append(" and ").append(String.format(TRIGRAM_CONDITION, H2TrigramIndex.BLOCK_ROWS, blocks,
+                            H2TrigramIndex.BLOCK_ROWS - 1));
+                    parameters.addAll(blockParameters);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts tokens of given rows into token table of the table, many tokens per statement
+     *
+     * @param sql                - INSERT_TOKEN_STATEMENT for new rows, MERGE_TOKEN_STATEMENT when rows may be indexed already
+     * @param tokenColumnIndexes - positions of indexed columns in rows, whose first value is row ID
+     */
+    private void insertTokens(Connection connection, String sql, String tableName, List<String> tokenColumns, int[] tokenColumnIndexes,
+                              List<Object[]> rows) throws SQLException {
+        List<Object[]> tokenRows = new ArrayList<>();
+        for (Object[] rowValues : rows) {
+            for (int index = 0; index < tokenColumnIndexes.length; index++) {
+                Object value = tokenColumnIndexes[index] < rowValues.length ? rowValues[tokenColumnIndexes[index]] : null;
+                Set<Long> keys = new HashSet<>();
+                for (String token : H2TokenIndex.tokenize(value == null ? null : value.toString())) {
+                    long key = H2TokenIndex.getTokenKey(tokenColumns.get(index), token);
+                    if (keys.add(key)) {
+                        tokenRows.add(new Object[]{key, rowValues[0]});
+                    }
+                }
+            }
+        }
+        // Sorted keys are inserted into neighbouring pages of the index, which is much faster than random order
+        tokenRows.sort((first, second) -> Long.compare((Long) first[0], (Long) second[0]));
+        insertKeyRows(connection, sql, H2TokenIndex.getTokenTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")), tokenRows);
+    }
+
+    /**
+     * Checks whether query of trigram index finds few enough blocks of given table to be worth using.
+     * Candidates are counted only up to the limit, so the check is fast also for trigrams of most rows.
+     *
+     * @param blockQuery - query of blocks built by <code>H2TrigramIndex.Query</code>
+     * @param parameters - trigram keys bound to parameters of the block query
+     * @return boolean value, <code>true</code> if at most one in <code>TRIGRAM_MAX_CANDIDATE_FRACTION</code> blocks is found
+     */
+    private boolean isSelective(String tableName, String blockQuery, List<Object> parameters) throws SQLException {
+        String sequence = getIdSequence(tableName);
+        boolean result;
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            PreparedStatement statement = connection.prepareStatement(SELECT_SEQUENCE_VALUE_STATEMENT);
+            statement.setString(1, sequence);
+            ResultSet resultSet = statement.executeQuery();
+            long blocks = resultSet.next() ? H2TrigramIndex.getBlock(resultSet.getLong(1)) + 1 : 1;
+            statement.close();
+            long maxCandidates = Math.max(1, blocks / TRIGRAM_MAX_CANDIDATE_FRACTION);
+            statement = connection.prepareStatement(String.format(COUNT_CANDIDATE_BLOCKS_STATEMENT, blockQuery));
+            setParameters(statement, parameters);
+            statement.setLong(parameters.size() + 1, maxCandidates + 1);
+            resultSet = statement.executeQuery();
+            result = resultSet.next() && resultSet.getLong(1) <= maxCandidates;
+            statement.close();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    private Object getSummaryLock(String tableName) {
+        return m_summaryLocks.computeIfAbsent(tableName, name -> new Object());
+    }
+
+    /**
+     * Counts rows and values of given columns of the table, or of a partition, with one scan per column
+     *
+     * @return counts of values of each column, with row count under <code>ROW_COUNT_COLUMN</code>
+     */
+    private Map<String, Map<String, Long>> countRows(Connection connection, String tableName, List<String> columnNames) throws SQLException {
+        Map<String, Map<String, Long>> valueCounts = new LinkedHashMap<>();
+        PreparedStatement statement = connection.prepareStatement(String.format(COUNT_ROWS_STATEMENT, tableName));
+        ResultSet resultSet = statement.executeQuery();
+        resultSet.next();
+        valueCounts.put(H2ValueSummary.ROW_COUNT_COLUMN, Collections.singletonMap(null, resultSet.getLong(1)));
+        statement.close();
+        for (String columnName : columnNames) {
+            Map<String, Long> counts = new HashMap<>();
+            statement = connection.prepareStatement(String.format(COUNT_VALUES_STATEMENT, columnName, tableName, columnName, columnName));
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                counts.put(resultSet.getString(1), resultSet.getLong(2));
+            }
+            statement.close();
+            valueCounts.put(columnName, counts);
+        }
+        return valueCounts;
+    }
+
+    /**
+     * Counts rows and values of summarized columns of given rows
+     *
+     * @param summaryColumnIndexes - positions of summarized columns in rows
+     * @return counts of values of each column, with row count under <code>ROW_COUNT_COLUMN</code>
+     */
+    private Map<String, Map<String, Long>> countRows(List<String> summaryColumns, int[] summaryColumnIndexes, List<Object[]> rows) {
+        Map<String, Map<String, Long>> valueCounts = new LinkedHashMap<>();
+        valueCounts.put(H2ValueSummary.ROW_COUNT_COLUMN, Collections.singletonMap(null, (long) rows.size()));
+        for (int index = 0; index < summaryColumnIndexes.length; index++) {
+            Map<String, Long> counts = new HashMap<>();
+            for (Object[] rowValues : rows) {
+                Object value = summaryColumnIndexes[index] < rowValues.length ? rowValues[summaryColumnIndexes[index]] : null;
+                if (value != null) {
+                    counts.merge(value.toString(), 1L, Long::sum);
+                }
+            }
+            valueCounts.put(summaryColumns.get(index), counts);
+        }
+        return valueCounts;
+    }
+
+    /**
+     * Adds counts to summary of values of the table, in transaction of given connection.
+     * Counts of each column are read, changed in memory and merged back, which is much faster than updating rows one by one.
+     * Column counted exactly is switched to sketch when it gets more than <code>MAX_EXACT_VALUES</code> values.
+     * Callers hold the summary lock of the table until the transaction is committed.
+     *
+     * @param valueCounts - counts of values of each column, negative for removed rows, see <code>countRows</code>
+     */
+    private void updateValueSummary(Connection connection, String tableName, Map<String, Map<String, Long>> valueCounts) throws SQLException {
+        String summaryTable = H2ValueSummary.getSummaryTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        for (Entry<String, Map<String, Long>> columnCounts : valueCounts.entrySet()) {
+            String columnName = columnCounts.getKey();
+            boolean sketch = false;
+            Map<Long, Long> counts = new HashMap<>();
+            PreparedStatement statement = connection.prepareStatement(String.format(SELECT_COLUMN_SUMMARY_STATEMENT, summaryTable));
+            statement.setString(1, columnName);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                sketch |= resultSet.getBoolean(1);
+                counts.put(resultSet.getLong(2), resultSet.getLong(3));
+            }
+            statement.close();
+
+            Map<Long, String> changedValues = new HashMap<>();
+            for (Entry<String, Long> valueCount : columnCounts.getValue().entrySet()) {
+                if (columnName.equals(H2ValueSummary.ROW_COUNT_COLUMN)) {
+                    counts.merge(0L, valueCount.getValue(), Long::sum);
+                    changedValues.put(0L, null);
+                    continue;
+                }
+                long key = H2ValueSummary.getValueKey(columnName, valueCount.getKey());
+                if (sketch) {
+                    for (long cell : H2ValueSummary.getSketchCells(key)) {
+                        counts.merge(cell, valueCount.getValue(), Long::sum);
+                        changedValues.put(cell, null);
+                    }
+                } else {
+                    counts.merge(key, valueCount.getValue(), Long::sum);
+                    changedValues.put(key, valueCount.getKey());
+                }
+            }
+            if (!sketch && !columnName.equals(H2ValueSummary.ROW_COUNT_COLUMN) && counts.size() > H2ValueSummary.MAX_EXACT_VALUES) {
+                switchToSketch(connection, summaryTable, columnName, counts);
+                continue;
+            }
+
+            List<Object[]> changedRows = new ArrayList<>();
+            statement = connection.prepareStatement(String.format(DELETE_SUMMARY_COUNT_STATEMENT, summaryTable));
+            boolean deleted = false;
+            for (Entry<Long, String> changedValue : changedValues.entrySet()) {
+                long count = counts.get(changedValue.getKey());
+                if (count > 0 || sketch || columnName.equals(H2ValueSummary.ROW_COUNT_COLUMN)) {
+                    changedRows.add(new Object[]{columnName, sketch, changedValue.getKey(), changedValue.getValue(), count});
+                } else {
+                    // Values of removed rows which no longer occur
+                    statement.setString(1, columnName);
+                    statement.setLong(2, changedValue.getKey());
+                    statement.addBatch();
+                    deleted = true;
+                }
+            }
+            if (deleted) {
+                statement.executeBatch();
+            }
+            statement.close();
+            changedRows.sort((first, second) -> Long.compare((Long) first[2], (Long) second[2]));
+            insertKeyRows(connection, MERGE_SUMMARY_COUNT_STATEMENT, summaryTable, changedRows);
+        }
+    }
+
+    /**
+     * Returns number of values of column counted exactly in summary table, or -1 when the column is counted by sketch
+     */
+    private int getExactValueCount(Connection connection, String summaryTable, String columnName) throws SQLException {
+        int result = 0;
+        PreparedStatement statement = connection.prepareStatement(String.format(SELECT_SUMMARY_MODE_STATEMENT, summaryTable));
+        statement.setString(1, columnName);
+        ResultSet resultSet = statement.executeQuery();
+        while (resultSet.next()) {
+            if (resultSet.getBoolean(1)) {
+                result = -1;
+                break;
+            }
+            result = resultSet.getInt(2);
+        }
+        statement.close();
+        return result;
+    }
+
+    /**
+     * Replaces exact counts of values of column by cells of count-min sketch, with all values counted already
+     *
+     * @param counts - exact counts of the column, by value key
+     */
+    private void switchToSketch(Connection connection, String summaryTable, String columnName, Map<Long, Long> counts) throws SQLException {
+        long[] cellCounts = new long[H2ValueSummary.SKETCH_DEPTH * H2ValueSummary.SKETCH_WIDTH];
+        for (Entry<Long, Long> count : counts.entrySet()) {
+            for (long cell : H2ValueSummary.getSketchCells(count.getKey())) {
+                cellCounts[(int) cell] += Math.max(0, count.getValue());
+            }
+        }
+        PreparedStatement statement = connection.prepareStatement(String.format(DELETE_SUMMARY_COLUMN_STATEMENT, summaryTable));
+        statement.setString(1, columnName);
+        statement.executeUpdate();
+        statement.close();
+        List<Object[]> cellRows = new ArrayList<>();
+        for (int cell = 0; cell < cellCounts.length; cell++) {
+            cellRows.add(new Object[]{columnName, true, (long) cell, null, cellCounts[cell]});
+        }
+        insertKeyRows(connection, MERGE_SUMMARY_COUNT_STATEMENT, summaryTable, cellRows);
+    }
+
+    /**
+     * Reads counts of given value keys or sketch cells from summary table
+     *
+     * @return counts by key, without keys which have no row
+     */
+    private Map<Long, Long> getSummaryCounts(Connection connection, String summaryTable, String columnName, boolean sketch,
+                                             Collection<Long> keys) throws SQLException {
+        StringBuilder parameters = new StringBuilder();
+        for (int index = 0; index < keys.size(); index++) {
+            parameters.append(index == 0 ? "?" : ", ?");
+        }
+        PreparedStatement statement = connection.prepareStatement(String.format(SELECT_SUMMARY_COUNTS_STATEMENT, summaryTable, parameters));
+        statement.setString(1, columnName);
+        statement.setBoolean(2, sketch);
+        int parameterIndex = 3;
+        for (Long key : keys) {
+            statement.setLong(parameterIndex++, key);
+        }
+        ResultSet resultSet = statement.executeQuery();
+        Map<Long, Long> counts = new HashMap<>();
+        while (resultSet.next()) {
+            counts.put(resultSet.getLong(1), resultSet.getLong(2));
+        }
+        statement.close();
+        return counts;
+    }
+
+    /**
+     * Answers count query from summary of values of the table, when it can be answered exactly
+     *
+     * @return number of rows, or null when the query has to be executed
+     */
+    private Long countFromSummary(String tableName, Map<String, String> columnRegexMap) throws SQLException {
+        List<String> summaryColumns = getValueSummaryColumns(tableName);
+        if (summaryColumns.isEmpty() || columnRegexMap != null && columnRegexMap.size() > 1) {
+            return null;
+        }
+        String columnName = H2ValueSummary.ROW_COUNT_COLUMN;
+        List<String> values = null;
+        if (columnRegexMap != null && !columnRegexMap.isEmpty()) {
+            Entry<String, String> entry = columnRegexMap.entrySet().iterator().next();
+            columnName = entry.getKey().replaceAll(ESCAPE_CHARACTER_REGEX, "");
+            values = H2RegexFilter.getEqualValues(entry.getValue());
+            if (!summaryColumns.contains(columnName) || values == null) {
+                return null;
+            }
+        }
+        String summaryTable = H2ValueSummary.getSummaryTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        Long result = null;
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            boolean sketch = values != null && getExactValueCount(connection, summaryTable, columnName) < 0;
+            Set<Long> keys = new LinkedHashSet<>();
+            if (values == null) {
+                keys.add(0L);
+            }
+            for (String value : values == null ? Collections.<String>emptyList() : values) {
+                long key = H2ValueSummary.getValueKey(columnName, value);
+                if (sketch) {
+                    for (long cell : H2ValueSummary.getSketchCells(key)) {
+                        keys.add(cell);
+                    }
+                } else {
+                    keys.add(key);
+                }
+            }
+            Map<Long, Long> counts = getSummaryCounts(connection, summaryTable, columnName, sketch, keys);
+            if (!sketch) {
+                result = 0L;
+                for (Long count : counts.values()) {
+                    result += count;
+                }
+            } else {
+                // Sketch tells exactly only that none of the values occurs, when some of the cells of each of them is empty
+                result = 0L;
+                for (String value : values) {
+                    long estimate = Long.MAX_VALUE;
+                    for (long cell : H2ValueSummary.getSketchCells(H2ValueSummary.getValueKey(columnName, value))) {
+                        estimate = Math.min(estimate, counts.getOrDefault(cell, 0L));
+                    }
+                    if (estimate > 0) {
+                        result = null;
+                        break;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Subtracts rows of partitions which are going to be removed from summary of values of partitioned table
+     */
+    private void removeFromValueSummary(String tableName, Collection<String> partitions, List<String> summaryColumns) throws SQLException {
+        synchronized (getSummaryLock(tableName)) {
+            Connection connection = null;
+            try {
+                connection = m_connector.getConnection();
+                connection.setAutoCommit(false);
+                for (String partition : partitions) {
+                    Map<String, Map<String, Long>> valueCounts = countRows(connection, partition, summaryColumns);
+                    for (Entry<String, Map<String, Long>> columnCounts : valueCounts.entrySet()) {
+                        Map<String, Long> negated = new HashMap<>();
+                        for (Entry<String, Long> valueCount : columnCounts.getValue().entrySet()) {
+                            negated.put(valueCount.getKey(), -valueCount.getValue());
+                        }
+                        columnCounts.setValue(negated);
+                    }
+                    updateValueSummary(connection, tableName, valueCounts);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                throw e;
+            } finally {
+                try {
+                    if (connection != null) {
+                        connection.close();
+                    }
+                } catch (SQLException e) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private List<String> splitColumnList(String columns) {
+        return columns.isEmpty() ? new ArrayList<>() : asList(columns.split(","));
+    }
+
+    private Long getLongOrNull(ResultSet resultSet, int column) throws SQLException {
+        long value = resultSet.getLong(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    /**
+     * Adds given rows to totals of their periods, rows without time are skipped
+     *
+     * @param rollupColumnIndexes - positions of time column, group columns and value columns in rows, see <code>H2Rollup.getColumns</code>
+     */
+    private void aggregateRows(H2Rollup rollup, H2Rollup.Aggregation aggregation, int[] rollupColumnIndexes, List<Object[]> rows) {
+        int groupColumns = rollup.getGroupColumns().size();
+        for (Object[] rowValues : rows) {
+            Object[] values = new Object[rollupColumnIndexes.length];
+            for (int index = 0; index < rollupColumnIndexes.length; index++) {
+                values[index] = rollupColumnIndexes[index] < rowValues.length ? rowValues[rollupColumnIndexes[index]] : null;
+            }
+            if (values[0] == null) {
+                continue;
+            }
+            List<String> groupValues = new ArrayList<>(groupColumns);
+            for (int index = 1; index <= groupColumns; index++) {
+                groupValues.add(values[index] == null ? null : values[index].toString());
+            }
+            Long[] numbers = new Long[values.length - groupColumns - 1];
+            for (int index = 0; index < numbers.length; index++) {
+                Object value = values[groupColumns + 1 + index];
+                numbers[index] = value == null ? null : ((Number) value).longValue();
+            }
+            aggregation.add(((Timestamp) values[0]).toLocalDateTime(), groupValues, numbers);
+        }
+    }
+
+    /**
+     * Adds rows already in the table to its rollups, in pieces committed separately. Caller holds the summary lock of the table.
+     */
+    private void aggregateExistingRows(Connection connection, String tableName, H2Rollup rollup) throws SQLException {
+        int[] columnIndexes = new int[rollup.getColumns().size()];
+        for (int index = 0; index < columnIndexes.length; index++) {
+            columnIndexes[index] = index;
+        }
+        int groupColumns = rollup.getGroupColumns().size();
+        H2Rollup.Aggregation aggregation = new H2Rollup.Aggregation(rollup.getValueColumns().size());
+        try (H2ResultCursor cursor = openCursor(tableName, rollup.getColumns(), null, TOKEN_BACKFILL_ROWS)) {
+            List<Object[]> rows = new ArrayList<>();
+            while (cursor.hasNext()) {
+                List<String> row = cursor.next();
+                Object[] rowValues = row.toArray();
+                rowValues[0] = row.get(0) == null ? null : Timestamp.valueOf(row.get(0));
+                for (int index = groupColumns + 1; index < rowValues.length; index++) {
+                    rowValues[index] = row.get(index) == null ? null : Long.valueOf(row.get(index));
+                }
+                rows.add(rowValues);
+                if (rows.size() == TOKEN_BACKFILL_ROWS || !cursor.hasNext()) {
+                    aggregateRows(rollup, aggregation, columnIndexes, rows);
+                    updateRollups(connection, rollup, aggregation);
+                    connection.commit();
+                    aggregation = new H2Rollup.Aggregation(rollup.getValueColumns().size());
+                    rows.clear();
+                }
+            }
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Adds totals to rollup tables, in transaction of given connection.
+     * Existing rows of changed groups are read for every period, changed in memory and merged back, many rows per statement.
+     * Periods after the last one in rollup table cannot have rows yet, so when logs come in order of time most rows are just inserted.
+     * Callers hold the summary lock of the table until the transaction is committed.
+     */
+    private void updateRollups(Connection connection, H2Rollup rollup, H2Rollup.Aggregation aggregation) throws SQLException {
+        int groupColumns = rollup.getGroupColumns().size();
+        int valueColumns = rollup.getValueColumns().size();
+        StringBuilder parameters = new StringBuilder();
+        for (int index = 0; index < groupColumns + 1 + 3 * valueColumns; index++) {
+            parameters.append(", ?");
+        }
+        // Table name is left for insertKeyRows
+        String insertStatement = String.format(INSERT_ROLLUP_STATEMENT, "%s", parameters);
+        String mergeStatement = String.format(MERGE_ROLLUP_STATEMENT, "%s", parameters);
+        for (ChronoUnit unit : H2Rollup.UNITS) {
+            String rollupTable = rollup.getRollupTableName(unit);
+            Map<LocalDateTime, Map<Long, List<Object>>> keysByBucket = new TreeMap<>();
+            for (List<Object> key : aggregation.getTotals(unit).keySet()) {
+                List<String> groupValues = new ArrayList<>(groupColumns);
+                for (int index = 1; index <= groupColumns; index++) {
+                    groupValues.add((String) key.get(index));
+                }
+                long groupKey = H2Rollup.getGroupKey(groupValues);
+                keysByBucket.computeIfAbsent((LocalDateTime) key.get(0), bucket -> new TreeMap<>()).put(groupKey, key);
+            }
+            PreparedStatement lastBucketStatement = connection.prepareStatement(String.format(SELECT_LAST_BUCKET_STATEMENT, rollupTable));
+            ResultSet lastBucketResult = lastBucketStatement.executeQuery();
+            lastBucketResult.next();
+            Timestamp lastBucket = lastBucketResult.getTimestamp(1);
+            lastBucketStatement.close();
+            List<Object[]> insertedRows = new ArrayList<>();
+            List<Object[]> mergedRows = new ArrayList<>();
+            for (Entry<LocalDateTime, Map<Long, List<Object>>> bucketKeys : keysByBucket.entrySet()) {
+                Map<Long, H2Rollup.Totals> existing = new HashMap<>();
+                List<Long> groupKeys = new ArrayList<>(bucketKeys.getValue().keySet());
+                if (lastBucket == null || lastBucket.toLocalDateTime().isBefore(bucketKeys.getKey())) {
+                    groupKeys.clear();
+                }
+                for (int start = 0; start < groupKeys.size(); start += MULTI_ROW_VALUES_PARAMETERS) {
+                    List<Long> keys = groupKeys.subList(start, Math.min(groupKeys.size(), start + MULTI_ROW_VALUES_PARAMETERS));
+                    StringBuilder keyParameters = new StringBuilder();
+                    for (int index = 0; index < keys.size(); index++) {
+                        keyParameters.append(index == 0 ? "?" : ", ?");
+                    }
+                    PreparedStatement statement = connection.prepareStatement(String.format(SELECT_ROLLUP_ROWS_STATEMENT, rollupTable, keyParameters));
+                    statement.setTimestamp(1, Timestamp.valueOf(bucketKeys.getKey()));
+                    for (int index = 0; index < keys.size(); index++) {
+                        statement.setLong(index + 2, keys.get(index));
+                    }
+                    ResultSet resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        H2Rollup.Totals totals = new H2Rollup.Totals(valueColumns);
+                        int column = groupColumns + 4;
+                        for (int index = 0; index < valueColumns; index++) {
+                            totals.minimums[index] = getLongOrNull(resultSet, column++);
+                            totals.maximums[index] = getLongOrNull(resultSet, column++);
+                            totals.sums[index] = getLongOrNull(resultSet, column++);
+                        }
+                        totals.count = resultSet.getLong(groupColumns + 3);
+                        existing.put(resultSet.getLong(2), totals);
+                    }
+                    statement.close();
+                }
+                for (Entry<Long, List<Object>> groupKey : bucketKeys.getValue().entrySet()) {
+                    List<Object[]> rollupRows = existing.containsKey(groupKey.getKey()) ? mergedRows : insertedRows;
+                    H2Rollup.Totals totals = existing.computeIfAbsent(groupKey.getKey(), key -> new H2Rollup.Totals(valueColumns));
+                    H2Rollup.Totals added = aggregation.getTotals(unit).get(groupKey.getValue());
+                    totals.add(added.count, added.minimums, added.maximums, added.sums);
+                    Object[] rowValues = new Object[groupColumns + 3 + 3 * valueColumns];
+                    rowValues[0] = Timestamp.valueOf(bucketKeys.getKey());
+                    rowValues[1] = groupKey.getKey();
+                    for (int index = 0; index < groupColumns; index++) {
+                        rowValues[index + 2] = groupKey.getValue().get(index + 1);
+                    }
+                    rowValues[groupColumns + 2] = totals.count;
+                    for (int index = 0; index < valueColumns; index++) {
+                        rowValues[groupColumns + 3 + 3 * index] = totals.minimums[index];
+                        rowValues[groupColumns + 4 + 3 * index] = totals.maximums[index];
+                        rowValues[groupColumns + 5 + 3 * index] = totals.sums[index];
+                    }
+                    rollupRows.add(rowValues);
+                }
+            }
+            insertKeyRows(connection, insertStatement, rollupTable, insertedRows);
+            insertKeyRows(connection, mergeStatement, rollupTable, mergedRows);
+        }
+    }
+
+    /**
+     * Inserts trigrams of given rows into trigram table of the table, once for every block of rows containing them.
+     * Entries are merged, as rows of the same block can be inserted by several chunks.
+     *
+     * @param trigramColumnIndexes - positions of indexed columns in rows, whose first value is row ID
+     */
+    private void insertTrigrams(Connection connection, String tableName, List<String> trigramColumns, int[] trigramColumnIndexes,
+                                List<Object[]> rows) throws SQLException {
+        Map<Long, Set<Long>> keysByBlock = new HashMap<>();
+        for (Object[] rowValues : rows) {
+            Set<Long> keys = keysByBlock.computeIfAbsent(H2TrigramIndex.getBlock((Long) rowValues[0]), block -> new HashSet<>());
+            for (int index = 0; index < trigramColumnIndexes.length; index++) {
+                Object value = trigramColumnIndexes[index] < rowValues.length ? rowValues[trigramColumnIndexes[index]] : null;
+                for (String trigram : H2TrigramIndex.getTrigrams(value == null ? null : value.toString())) {
+                    keys.add(H2TokenIndex.getTokenKey(trigramColumns.get(index), trigram));
+                }
+            }
+        }
+        List<Object[]> trigramRows = new ArrayList<>();
+        for (Entry<Long, Set<Long>> blockKeys : keysByBlock.entrySet()) {
+            for (Long key : blockKeys.getValue()) {
+                trigramRows.add(new Object[]{key, blockKeys.getKey()});
+            }
+        }
+        trigramRows.sort((first, second) -> Long.compare((Long) first[0], (Long) second[0]));
+        insertKeyRows(connection, MERGE_TRIGRAM_STATEMENT, H2TrigramIndex.getTrigramTableName(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")),
+                trigramRows);
+    }
+
+    /**
+     * Inserts rows into index or summary table, many rows per statement
+     *
+     * @param sql     - statement inserting a single row
+     * @param keyRows - rows sorted by key
+     */
+    private void insertKeyRows(Connection connection, String sql, String indexTable, List<Object[]> keyRows) throws SQLException {
+        if (keyRows.isEmpty()) {
+            return;
+        }
+        int rowsPerStatement = MULTI_ROW_VALUES_PARAMETERS / keyRows.get(0).length;
+        int full = keyRows.size() / rowsPerStatement * rowsPerStatement;
+        if (full > 0) {
+            PreparedStatement statement = connection.prepareStatement(multiRowStatement(sql, indexTable, rowsPerStatement));
+            for (int row = 0; row < full; row += rowsPerStatement) {
+                setRowParameters(statement, keyRows.subList(row, row + rowsPerStatement));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            statement.close();
+        }
+        if (full < keyRows.size()) {
+            PreparedStatement statement = connection.prepareStatement(multiRowStatement(sql, indexTable, keyRows.size() - full));
+            setRowParameters(statement, keyRows.subList(full, keyRows.size()));
+            statement.executeUpdate();
+            statement.close();
+        }
+    }
+
+    private int[] getValueIndexes(List<String> dataColumnNames, List<String> indexedColumns, int valueOffset) {
+        int[] valueIndexes = new int[indexedColumns.size()];
+        for (int index = 0; index < indexedColumns.size(); index++) {
+            valueIndexes[index] = dataColumnNames.indexOf(indexedColumns.get(index)) + valueOffset;
+        }
+        return valueIndexes;
+    }
+
+    private String multiRowStatement(String sql, String indexTable, int rows) {
+        StringBuilder statementBuilder = new StringBuilder(String.format(sql, indexTable));
+        statementBuilder.setLength(statementBuilder.length() - 1);
+        String values = statementBuilder.substring(statementBuilder.lastIndexOf("("));
+        for (int row = 1; row < rows; row++) {
+            statementBuilder.append(", ").append(values);
+        }
+        statementBuilder.append(';');
+        return statementBuilder.toString();
+    }
+
+    /**
+     * Returns copies of rows with new ID from sequence of the table as their first value
+     */
+    private Object[][] addRowIds(String tableName, Object[][] convertedRows) throws SQLException {
+        String sequence = getIdSequence(tableName);
+        long[] ids = new long[convertedRows.length];
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            PreparedStatement statement = connection.prepareStatement(String.format(NEXT_IDS_STATEMENT, sequence, convertedRows.length));
+            ResultSet resultSet = statement.executeQuery();
+            int index = 0;
+            while (resultSet.next()) {
+                ids[index++] = resultSet.getLong(1);
+            }
+            statement.close();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        Arrays.sort(ids);
+        Object[][] rows = new Object[convertedRows.length][];
+        for (int row = 0; row < convertedRows.length; row++) {
+            rows[row] = new Object[convertedRows[row].length + 1];
+            rows[row][0] = ids[row];
+            System.arraycopy(convertedRows[row], 0, rows[row], 1, convertedRows[row].length);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns name of sequence generating IDs of the table, shared by all partitions of partitioned table
+     */
+    private String getIdSequence(String tableName) throws SQLException {
+        H2Partitioning partitioning = getPartitioning(tableName);
+        if (partitioning != null) {
+            return partitioning.getSequenceName();
+        }
+        String sequence = null;
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            PreparedStatement statement = connection.prepareStatement(SELECT_ID_SEQUENCE_STATEMENT);
+            statement.setString(1, tableName);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                sequence = resultSet.getString(1);
+            }
+            statement.close();
+        } catch (SQLException e) {
+            throw e;
+        } finally {
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw e;
+            }
+        }
+        if (sequence == null) {
+            throw new SQLException(String.format("Table %s has no sequence of IDs", tableName));
+        }
+        return sequence;
+    }
+
+    /**
+     * Creates SELECT query of given columns of the table, with optional regexes, limit and offset
+     *
+     * @param tableName      - name of table
+     * @param columnNames    - list of column names
+     * @param columnRegexMap - contains pairs of column name (key) and associated regex (value), may be null
+     * @param limit          - maximum number of rows, null for all rows
+     * @param offset         - number of skipped rows, may be null
+     * @param parameters     - values of parameters of the statement, values of conditions, limit and offset are added
+     * @return SQL statement
+     */
+    private String selectStatement(String tableName, List<String> columnNames, Map<String, String> columnRegexMap,
+                                   Integer limit, Integer offset, List<Object> parameters) throws SQLException {
+        StringBuilder statementBuilder = new StringBuilder("select ");
+        statementBuilder.append(columnNames.get(0).replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        for (int i = 1; i < columnNames.size(); i++) {
+            statementBuilder.append(", ")
+                    .append(columnNames.get(i).replaceAll(ESCAPE_CHARACTER_REGEX, ""));
+        }
+        statementBuilder.append(" from \"").append(tableName.replaceAll(ESCAPE_CHARACTER_REGEX, "")).append("\"");
+        if (columnRegexMap != null && !columnRegexMap.isEmpty()) {
+            addFiltersToStatement(statementBuilder, tableName, columnRegexMap, " where ", parameters);
+        }
+        if(limit != null && limit > 0) {
+            addOffsetAndLimitToStatement(statementBuilder, limit, offset, parameters);
+        }
+        statementBuilder.append(';');
+        return statementBuilder.toString();
+    }
+
+    /**
+     * Adds columns LIMIT and OFFSET parameters to SELECT query. This method is used to avoid code duplication.
+     * Both are bound as parameters, missing offset as 0, so all pages share one statement
+     *
+     * @param statementBuilder - reference to StringBuilder used to create statement
+     * @param limit -  value for the LIMIT parameter
+     * @param offset - value for the OFFSET parameter
+     * @param parameters - values of parameters of the statement, limit and offset are added
+     */
+    private void addOffsetAndLimitToStatement(StringBuilder statementBuilder, Integer limit, Integer offset, List<Object> parameters) {
+        statementBuilder.append(" limit ? offset ?");
+        parameters.add(limit);
+        parameters.add(offset != null && offset > 0 ? offset : 0);
+    }
+}
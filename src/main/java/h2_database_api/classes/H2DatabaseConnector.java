@@ -36,12 +36,19 @@ import static org.h2.util.StringUtils.isNullOrEmpty;
 
 /**
  * Class responsible for establishing and validating connection with database.
+ * Connections are lent from a bounded pool, closing them returns them to the pool.
  */
 public class H2DatabaseConnector {
     private static final String dbDriver = "org.h2.Driver";
+    private static final int DEFAULT_POOL_SIZE = 8;
+    private static final long BORROW_TIMEOUT_MILLIS = 30000;
+    private static final long IDLE_TIMEOUT_MILLIS = 60000;
+    private static final long VALIDATION_INTERVAL_MILLIS = 5000;
+    private static volatile boolean driverLoaded = false;
     private final String username;
     private final String password;
     private final String databaseURL;
+    private final H2ConnectionPool pool;
 
     /**
      * Constructs a new @see h2_database_api.classes.H2DatabaseConnector with username, password and databaseURL
@@ -53,6 +60,20 @@ public class H2DatabaseConnector {
      * @throws NullPointerException - when one of given parameters is null or empty
      */
     public H2DatabaseConnector(String username, String password, String databaseURL) {
+        this(username, password, databaseURL, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Constructs a new @see h2_database_api.classes.H2DatabaseConnector with username, password, databaseURL and size of connection pool
+     *
+     * @param username    - name of user account used for connecting with database
+     * @param password    - password credentials
+     * @param databaseURL - full URL that identifies database (host/directory + database name)
+     * @param poolSize    - maximum number of connections open at once
+     *
+     * @throws NullPointerException - when one of given parameters is null or empty
+     */
+    public H2DatabaseConnector(String username, String password, String databaseURL, int poolSize) {
         if (isNullOrEmpty(username)) {
             throw new NullPointerException("username cannot be null");
         }
@@ -64,6 +85,7 @@ public class H2DatabaseConnector {
         this.username = username;
         this.password = password;
         this.databaseURL = databaseURL;
+        this.pool = new H2ConnectionPool(this, poolSize, BORROW_TIMEOUT_MILLIS, IDLE_TIMEOUT_MILLIS, VALIDATION_INTERVAL_MILLIS);
     }
 
     /**
@@ -94,17 +116,46 @@ public class H2DatabaseConnector {
     }
 
     /**
-     * Returns the instance of <code>Connection</code> class using values of fields username, password and databaseURL
+     * Returns the pool connections are lent from
      *
-     * @return New instance of <code>Connection</code>
+     * @return Value of <code>pool</code> field
+     */
+    public H2ConnectionPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Borrows connection from the pool, closing it returns it to the pool
+     *
+     * @return Instance of <code>Connection</code>
      * @exception SQLException - when operation wasn't successfull or connection was impossible
      */
     public Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    /**
+     * Closes all idle connections of the pool, connections borrowed at the moment are closed when returned
+     */
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Returns the new instance of <code>Connection</code> class using values of fields username, password and databaseURL
+     *
+     * @return New instance of <code>Connection</code>
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    Connection openConnection() throws SQLException {
         Connection connection;
-        try {
-            Class.forName(dbDriver);
-        } catch (ClassNotFoundException e) {
-            throw new SQLException("H2 driver is missing", e);
+        if (!driverLoaded) {
+            try {
+                Class.forName(dbDriver);
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("H2 driver is missing", e);
+            }
+            driverLoaded = true;
         }
 
         try {
@@ -0,0 +1,151 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import downloading.IngestLedger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Keeps @see downloading.IngestLedger in a table of the database the logs are stored in.
+ * Table has one row per source and remote file and is created when missing.
+ * Entries are written in their own transactions after the rows of the file are committed, so a crash in between
+ * makes the file ingested again from its previous entry.
+ */
+public class H2IngestLedger implements IngestLedger {
+    private final H2DatabaseConnector m_connector;
+    private static final String LEDGER_TABLE_NAME = "ingest_ledger";
+    private static final String CREATE_LEDGER_STATEMENT = "create table if not exists \"" + LEDGER_TABLE_NAME + "\" (" +
+            "source_name varchar(255) not null, file_path varchar(4096) not null, step_time timestamp, " +
+            "byte_offset bigint, line_count int, file_size bigint, modified bigint, fingerprint bigint, complete boolean, " +
+            "primary key (source_name, file_path));";
+    private static final String SELECT_ENTRY_STATEMENT = "select file_path, step_time, byte_offset, line_count, file_size, modified, fingerprint, complete from \"" +
+            LEDGER_TABLE_NAME + "\" where source_name = ? and file_path = ?;";
+    private static final String MERGE_ENTRY_STATEMENT = "merge into \"" + LEDGER_TABLE_NAME + "\" key (source_name, file_path) values (?, ?, ?, ?, ?, ?, ?, ?, ?);";
+    private static final String COUNT_ENTRIES_STATEMENT = "select count(*) from \"" + LEDGER_TABLE_NAME + "\";";
+
+    /**
+     * Creates ledger in the database of given accessor, creating its table if needed.
+     *
+     * @param accessor - accessor of the database where logs are stored
+     * @exception SQLException - when operation wasn't successfull or connection was impossible
+     */
+    public H2IngestLedger(H2DatabaseAccessor accessor) throws SQLException {
+        m_connector = accessor.getConnector();
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(CREATE_LEDGER_STATEMENT);
+            statement.executeUpdate();
+            statement.close();
+            connection.commit();
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    @Override
+    public Entry find(String sourceName, String path) throws SQLException {
+        Connection connection = null;
+        Entry result = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(SELECT_ENTRY_STATEMENT);
+            statement.setString(1, sourceName);
+            statement.setString(2, path);
+            ResultSet resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                Timestamp step = resultSet.getTimestamp(2);
+                result = new Entry(resultSet.getString(1), step == null ? null : step.toLocalDateTime(), resultSet.getLong(3),
+                        resultSet.getInt(4), resultSet.getLong(5), resultSet.getLong(6), resultSet.getLong(7), resultSet.getBoolean(8));
+            }
+            statement.close();
+            connection.commit();
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void record(String sourceName, Entry entry) throws SQLException {
+        Connection connection = null;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(MERGE_ENTRY_STATEMENT);
+            statement.setString(1, sourceName);
+            statement.setString(2, entry.path);
+            statement.setTimestamp(3, entry.step == null ? null : Timestamp.valueOf(entry.step));
+            statement.setLong(4, entry.byteOffset);
+            statement.setInt(5, entry.lineCount);
+            statement.setLong(6, entry.size);
+            statement.setLong(7, entry.modified);
+            statement.setLong(8, entry.fingerprint);
+            statement.setBoolean(9, entry.complete);
+            statement.executeUpdate();
+            statement.close();
+            connection.commit();
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() throws SQLException {
+        Connection connection = null;
+        boolean result;
+        try {
+            connection = m_connector.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(COUNT_ENTRIES_STATEMENT);
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            result = resultSet.getLong(1) == 0;
+            statement.close();
+            connection.commit();
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Describes logical table split into one physical table (partition) per day or hour of its time column.
+ * Partitions are named after the logical table with suffix _p and start of their period, like logs_p20151206 or logs_p2015120614.
+ * Logical table itself is a view joining all partitions, so it can be read like any other table.
+ */
+public class H2Partitioning {
+    private static final String PARTITION_SUFFIX = "_p";
+    private static final String TEMPLATE_SUFFIX = "_template";
+    private static final String SEQUENCE_SUFFIX = "_id_seq";
+
+    private final String tableName;
+    private final String timeColumn;
+    private final ChronoUnit unit;
+    private final DateTimeFormatter suffixFormat;
+
+    /**
+     * Constructs a new @see h2_database_api.classes.H2Partitioning
+     *
+     * @param tableName  - name of the logical table
+     * @param timeColumn - name of the timestamp column rows are partitioned by
+     * @param unit       - length of period of single partition, <code>DAYS</code> or <code>HOURS</code>
+     * @throws IllegalArgumentException - when unit is not supported
+     */
+    public H2Partitioning(String tableName, String timeColumn, ChronoUnit unit) {
+        if (unit != ChronoUnit.DAYS && unit != ChronoUnit.HOURS) {
+            throw new IllegalArgumentException("Tables can be partitioned only by days or hours");
+        }
+        this.tableName = tableName;
+        this.timeColumn = timeColumn;
+        this.unit = unit;
+        this.suffixFormat = DateTimeFormatter.ofPattern(unit == ChronoUnit.DAYS ? "yyyyMMdd" : "yyyyMMddHH");
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getTimeColumn() {
+        return timeColumn;
+    }
+
+    public ChronoUnit getUnit() {
+        return unit;
+    }
+
+    /**
+     * Returns name of the empty table defining columns of all partitions, it is always a part of the view
+     *
+     * @return name of the template table
+     */
+    String getTemplateName() {
+        return tableName + TEMPLATE_SUFFIX;
+    }
+
+    /**
+     * Returns name of the sequence generating ids, shared by all partitions so ids stay unique in the view
+     *
+     * @return name of the sequence
+     */
+    String getSequenceName() {
+        return tableName + SEQUENCE_SUFFIX;
+    }
+
+    /**
+     * Returns name of the partition storing rows of given time
+     *
+     * @param time - value of the time column
+     * @return name of the partition
+     */
+    String getPartitionName(LocalDateTime time) {
+        return tableName + PARTITION_SUFFIX + suffixFormat.format(time);
+    }
+
+    /**
+     * Returns start of the period of given partition
+     *
+     * @param partitionName - name of table
+     * @return start of the period, or null when table is not a partition of this table
+     */
+    LocalDateTime getPartitionStart(String partitionName) {
+        String prefix = tableName + PARTITION_SUFFIX;
+        int length = unit == ChronoUnit.DAYS ? 8 : 10;
+        if (!partitionName.startsWith(prefix) || partitionName.length() != prefix.length() + length) {
+            return null;
+        }
+        String suffix = partitionName.substring(prefix.length());
+        for (int i = 0; i < suffix.length(); i++) {
+            if (!Character.isDigit(suffix.charAt(i))) {
+                return null;
+            }
+        }
+        return LocalDateTime.of(Integer.parseInt(suffix.substring(0, 4)), Integer.parseInt(suffix.substring(4, 6)),
+                Integer.parseInt(suffix.substring(6, 8)), length == 10 ? Integer.parseInt(suffix.substring(8, 10)) : 0, 0);
+    }
+
+    /**
+     * Returns end of the period of partition starting at given time, exclusive
+     *
+     * @param partitionStart - start of the period
+     * @return end of the period
+     */
+    LocalDateTime getPartitionEnd(LocalDateTime partitionStart) {
+        return partitionStart.plus(1, unit);
+    }
+}
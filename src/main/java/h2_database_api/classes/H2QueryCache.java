@@ -0,0 +1,304 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-process cache of results of read queries of @see h2_database_api.classes.H2DatabaseAccessor, keyed by everything the result depends on.
+ * Least recently used results are evicted when the cache has too many entries or their estimated size is too big.
+ * Results of a table are dropped by the accessor after each commit of inserted rows and after its own DDL, and expire after time to live
+ * to notice changes made by other processes. Each table has a generation increased by every invalidation, a result read before the last
+ * invalidation of its table is not cached, as it may miss the committed rows.
+ */
+public class H2QueryCache {
+    private static final long ENTRY_OVERHEAD_BYTES = 64;
+    private static final long VALUE_OVERHEAD_BYTES = 16;
+
+    private final LinkedHashMap<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<List<Object>>> keysByTable = new HashMap<>();
+    private final Map<String, Long> generations = new HashMap<>();
+    private long allTablesGeneration = 0;
+    private int maxEntries;
+    private long maxBytes;
+    private long ttlMillis;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    H2QueryCache(int maxEntries, long maxBytes, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Sets limits of the cache, entries over them are evicted at once
+     *
+     * @param maxEntries - maximum number of cached results, 0 disables the cache
+     * @param maxBytes   - maximum estimated size of cached results
+     * @param ttlMillis  - time after which results expire
+     */
+    synchronized void setLimits(int maxEntries, long maxBytes, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        evict();
+    }
+
+    /**
+     * Returns key of query made of its kind and arguments, collections are copied so callers can change them later
+     *
+     * @param parts - kind of query and its arguments
+     * @return list usable as key of the cache
+     */
+    static List<Object> key(Object... parts) {
+        List<Object> key = new ArrayList<>(parts.length);
+        for (Object part : parts) {
+            if (part instanceof Map) {
+                key.add(new HashMap<>((Map<?, ?>) part));
+            } else if (part instanceof Collection) {
+                key.add(new ArrayList<>((Collection<?>) part));
+            } else {
+                key.add(part);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns generation of the table, which has to be read before the query whose result is cached
+     *
+     * @param tableName - name of queried table
+     * @return number of invalidations of the table
+     */
+    synchronized long getGeneration(String tableName) {
+        return allTablesGeneration + generations.getOrDefault(tableName, 0L);
+    }
+
+    /**
+     * Returns cached result of query and marks it as recently used
+     *
+     * @param key - key of the query, see <code>key</code>
+     * @return result, or null when it is not cached or expired
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> T get(List<Object> key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.cachedAt >= ttlMillis) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return (T) entry.result;
+    }
+
+    /**
+     * Caches result of query, unless its table was invalidated since given generation
+     *
+     * @param tableName  - name of queried table
+     * @param key        - key of the query, see <code>key</code>
+     * @param generation - generation of the table read before the query
+     * @param result     - result, not changed afterwards
+     * @param bytes      - estimated size of the result
+     */
+    synchronized void put(String tableName, List<Object> key, long generation, Object result, long bytes) {
+        if (maxEntries <= 0 || bytes > maxBytes || generation != getGeneration(tableName)) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(tableName, result, bytes));
+        keysByTable.computeIfAbsent(tableName, name -> new HashSet<>()).add(key);
+        this.bytes += bytes;
+        evict();
+    }
+
+    /**
+     * Drops cached results of the table
+     *
+     * @param tableName - name of the table
+     */
+    synchronized void invalidate(String tableName) {
+        generations.merge(tableName, 1L, Long::sum);
+        Set<List<Object>> keys = keysByTable.remove(tableName);
+        if (keys != null) {
+            for (List<Object> key : keys) {
+                Entry entry = entries.remove(key);
+                bytes -= entry.bytes;
+                invalidations++;
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        allTablesGeneration++;
+        invalidations += entries.size();
+        entries.clear();
+        keysByTable.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns estimated size of rows of a result
+     *
+     * @param rows - rows of values as text
+     * @return size in bytes
+     */
+    static long estimateBytes(List<List<String>> rows) {
+        long size = ENTRY_OVERHEAD_BYTES;
+        for (List<String> row : rows) {
+            size += VALUE_OVERHEAD_BYTES;
+            for (String value : row) {
+                size += VALUE_OVERHEAD_BYTES + (value == null ? 0 : 2L * value.length());
+            }
+        }
+        return size;
+    }
+
+    synchronized Statistics getStatistics() {
+        return new Statistics(entries.size(), bytes, hits, misses, evictions, invalidations);
+    }
+
+    private void remove(List<Object> key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.bytes;
+            Set<List<Object>> keys = keysByTable.get(entry.tableName);
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByTable.remove(entry.tableName);
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<List<Object>> iterator = entries.keySet().iterator();
+        while (!entries.isEmpty() && (entries.size() > maxEntries || bytes > maxBytes)) {
+            remove(iterator.next());
+            iterator = entries.keySet().iterator();
+            evictions++;
+        }
+    }
+
+    private static class Entry {
+        final String tableName;
+        final Object result;
+        final long bytes;
+        final long cachedAt = System.currentTimeMillis();
+
+        Entry(String tableName, Object result, long bytes) {
+            this.tableName = tableName;
+            this.result = result;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Counters of the cache since it was created
+     */
+    public static class Statistics {
+        private final int entries;
+        private final long bytes;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long invalidations;
+
+        Statistics(int entries, long bytes, long hits, long misses, long evictions, long invalidations) {
+            this.entries = entries;
+            this.bytes = bytes;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+        }
+
+        /**
+         * @return Number of cached results
+         */
+        public int getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return Estimated size of cached results
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return Number of results dropped to keep the cache within its limits
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return Number of results dropped because their table changed
+         */
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        /**
+         * @return Fraction of queries answered from the cache
+         */
+        public double getHitRatio() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("entries=%d, bytes=%d, hits=%d, misses=%d, evictions=%d, invalidations=%d",
+                    entries, bytes, hits, misses, evictions, invalidations);
+        }
+    }
+}
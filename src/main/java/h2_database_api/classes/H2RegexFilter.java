@@ -0,0 +1,185 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rewriting of column regexes into conditions the database can answer from an index of the column.
+ * Regexes matching only some texts, like <code>^GET$</code> or <code>^(GET|POST)$</code>, become IN of those texts,
+ * and regexes anchored at the start, like <code>^GET /api</code>, become LIKE of their literal prefix.
+ * When the regex continues after its prefix with more than literal text, it is checked too, so results are the same as of the regex alone.
+ */
+class H2RegexFilter {
+    // Line terminators, before which $ matches too when it ends the regex
+    private static final String[] LINE_TERMINATORS = {"", "\n", "\r\n", "\r", "\u0085", "\u2028", "\u2029"};
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final String QUANTIFIERS = "?*+{";
+    private static final char LIKE_ESCAPE = '\\';
+
+    private H2RegexFilter() {
+    }
+
+    /**
+     * Returns condition of text column equivalent to the regex, which can use index of the column
+     *
+     * @param columnName - name of the column
+     * @param regex      - regex of the column
+     * @return SQL condition, or null when the regex can only be checked by REGEXP
+     */
+    static String toCondition(String columnName, String regex) {
+        List<String> values = getEqualValues(regex);
+        if (values != null) {
+            StringBuilder condition = new StringBuilder(columnName).append(" in (");
+            for (int index = 0; index < values.size(); index++) {
+                condition.append(index == 0 ? "" : ", ").append(quote(values.get(index)));
+            }
+            return condition.append(')').toString();
+        }
+        int end = getLiteralEnd(regex, 1);
+        if (!regex.startsWith("^") || regex.indexOf('|') >= 0 || end == 1) {
+            return null;
+        }
+        String prefix = getLiteral(regex, 1, end);
+        if (end < regex.length() && QUANTIFIERS.indexOf(regex.charAt(end)) >= 0) {
+            // Quantifier applies only to the last character of the literal
+            int last = prefix.offsetByCodePoints(prefix.length(), -1);
+            prefix = prefix.substring(0, last);
+        }
+        if (prefix.isEmpty()) {
+            return null;
+        }
+        StringBuilder pattern = new StringBuilder();
+        for (char character : prefix.toCharArray()) {
+            if (character == '%' || character == '_' || character == LIKE_ESCAPE) {
+                pattern.append(LIKE_ESCAPE);
+            }
+            pattern.append(character);
+        }
+        String condition = columnName + " like " + quote(pattern.append('%').toString()) + " escape " + quote(String.valueOf(LIKE_ESCAPE));
+        return end == regex.length() ? condition : condition + " and " + columnName + " regexp " + quote(regex);
+    }
+
+    /**
+     * Recognizes regex which matches only values equal to some texts, like <code>^GET$</code>, <code>^10\.0\.0\.1$</code>
+     * or alternation of such texts, <code>^(GET|POST)$</code>, <code>^(?:GET|POST)$</code> or <code>^GET$|^POST$</code>.
+     * As <code>$</code> matches also before line terminator ending the value, all such values match too.
+     *
+     * @param regex - regex of a column
+     * @return values matched by the regex, or null when it matches other values too
+     */
+    static List<String> getEqualValues(String regex) {
+        List<String> texts = new ArrayList<>();
+        String group = regex.startsWith("^(?:") ? "^(?:" : regex.startsWith("^(") ? "^(" : null;
+        if (group != null && regex.endsWith(")$") && regex.length() >= group.length() + 2) {
+            for (String alternative : splitAlternatives(regex.substring(group.length(), regex.length() - 2))) {
+                String text = getLiteral(alternative, 0, alternative.length());
+                if (text == null || getLiteralEnd(alternative, 0) != alternative.length()) {
+                    return null;
+                }
+                texts.add(text);
+            }
+        } else {
+            for (String alternative : splitAlternatives(regex)) {
+                if (alternative.length() < 2 || alternative.charAt(0) != '^' || alternative.charAt(alternative.length() - 1) != '$'
+                        || getLiteralEnd(alternative, 1) != alternative.length() - 1) {
+                    return null;
+                }
+                texts.add(getLiteral(alternative, 1, alternative.length() - 1));
+            }
+        }
+        Set<String> values = new LinkedHashSet<>();
+        for (String text : texts) {
+            for (String terminator : LINE_TERMINATORS) {
+                values.add(text + terminator);
+            }
+        }
+        return new ArrayList<>(values);
+    }
+
+    /**
+     * Splits regex at <code>|</code> which is not escaped. Alternatives containing groups or classes are not literal,
+     * so they are rejected later and <code>|</code> inside them needs no special care.
+     */
+    private static List<String> splitAlternatives(String regex) {
+        List<String> alternatives = new ArrayList<>();
+        int start = 0;
+        for (int index = 0; index < regex.length(); index++) {
+            char character = regex.charAt(index);
+            if (character == '\\') {
+                index++;
+            } else if (character == '|') {
+                alternatives.add(regex.substring(start, index));
+                start = index + 1;
+            }
+        }
+        alternatives.add(regex.substring(start));
+        return alternatives;
+    }
+
+    /**
+     * Returns position where literal text of the regex starting at given position ends. Literal is made of characters
+     * other than metacharacters and of metacharacters escaped by backslash, escaped letters and digits are classes or references.
+     */
+    private static int getLiteralEnd(String regex, int start) {
+        int index = start;
+        while (index < regex.length()) {
+            char character = regex.charAt(index);
+            if (character == '\\') {
+                if (index + 1 == regex.length() || Character.isLetterOrDigit(regex.charAt(index + 1))) {
+                    return index;
+                }
+                index += 2;
+            } else if (METACHARACTERS.indexOf(character) >= 0) {
+                return index;
+            } else {
+                index++;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns text matched by literal part of the regex between given positions, ending at or before <code>getLiteralEnd</code>
+     */
+    private static String getLiteral(String regex, int start, int end) {
+        StringBuilder text = new StringBuilder();
+        for (int index = start; index < end; index++) {
+            char character = regex.charAt(index);
+            text.append(character == '\\' ? regex.charAt(++index) : character);
+        }
+        return text.toString();
+    }
+
+    private static String quote(String text) {
+        return '\'' + text.replace("'", "''") + '\'';
+    }
+}
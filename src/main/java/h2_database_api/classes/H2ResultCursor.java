@@ -0,0 +1,150 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Rows of a query read one by one, created by <code>H2DatabaseAccessor.openCursor</code>.
+ * Only the rows of the current fetch are kept in memory. Connection of the cursor is closed
+ * when the last row is read or when the cursor is closed, whichever comes first.
+ * Errors of reading are thrown as IllegalStateException with the SQLException as its cause, as Iterator cannot throw checked exceptions.
+ */
+public class H2ResultCursor implements Iterator<List<String>>, AutoCloseable {
+    private final Connection m_connection;
+    private final PreparedStatement m_statement;
+    private final ResultSet m_resultSet;
+    private final int columnsNum;
+    private List<String> nextRow = null;
+    private long rowsRead = 0;
+    private boolean closed = false;
+
+    /**
+     * Takes ownership of the query, all three are closed by the cursor
+     *
+     * @param connection - connection the query runs on
+     * @param statement  - executed statement
+     * @param resultSet  - result of the statement
+     * @exception SQLException - when result has no metadata
+     */
+    H2ResultCursor(Connection connection, PreparedStatement statement, ResultSet resultSet) throws SQLException {
+        m_connection = connection;
+        m_statement = statement;
+        m_resultSet = resultSet;
+        columnsNum = resultSet.getMetaData().getColumnCount();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextRow == null && !closed) {
+            try {
+                if (m_resultSet.next()) {
+                    nextRow = new ArrayList<String>(columnsNum);
+                    for (int index = 1; index <= columnsNum; index++) {
+                        nextRow.add(m_resultSet.getString(index));
+                    }
+                } else {
+                    close();
+                }
+            } catch (SQLException e) {
+                closeQuietly();
+                throw new IllegalStateException("Reading of query result failed", e);
+            }
+        }
+        return nextRow != null;
+    }
+
+    @Override
+    public List<String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<String> row = nextRow;
+        nextRow = null;
+        rowsRead++;
+        return row;
+    }
+
+    /**
+     * Returns number of rows returned by <code>next</code> so far
+     *
+     * @return Value of <code>rowsRead</code> field
+     */
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * Returns remaining rows as sequential stream, closing the stream closes the cursor
+     *
+     * @return New stream of rows
+     */
+    public Stream<List<String>> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::closeQuietly);
+    }
+
+    /**
+     * Ends the query and returns its connection to the pool. Rows not read yet are discarded.
+     *
+     * @exception SQLException - when connection couldn't be closed
+     */
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            m_resultSet.close();
+            m_statement.close();
+            m_connection.commit();
+        } finally {
+            m_connection.close();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
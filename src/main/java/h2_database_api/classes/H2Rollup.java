@@ -0,0 +1,274 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Describes rollups of a table: number of rows and minimum, maximum and sum of numeric columns per minute, hour and day of its time column,
+ * for every combination of values of group columns. Rollups are updated when rows are inserted, so aggregations never read the rows.
+ * Rollup of each unit is kept in table named after the table with suffix __rollup_ and the unit, like logs__rollup_minutes,
+ * with one row per start of period and 64-bit hash of values of group columns. Rows without time, like continuation lines, are not counted.
+ */
+public class H2Rollup {
+    static final List<ChronoUnit> UNITS = Collections.unmodifiableList(asList(ChronoUnit.MINUTES, ChronoUnit.HOURS, ChronoUnit.DAYS));
+    private static final String ROLLUP_TABLE_SUFFIX = "__rollup_";
+    private static final String GROUP_COLUMN_PREFIX = "by_";
+
+    private final String tableName;
+    private final String timeColumn;
+    private final List<String> groupColumns;
+    private final List<String> valueColumns;
+
+    /**
+     * Constructs a new @see h2_database_api.classes.H2Rollup
+     *
+     * @param tableName    - name of the table
+     * @param timeColumn   - name of the timestamp column rows are aggregated by
+     * @param groupColumns - names of columns whose values are kept apart, can be empty
+     * @param valueColumns - names of integer columns whose minimum, maximum and sum are kept, can be empty
+     */
+    public H2Rollup(String tableName, String timeColumn, List<String> groupColumns, List<String> valueColumns) {
+        this.tableName = tableName;
+        this.timeColumn = timeColumn;
+        this.groupColumns = Collections.unmodifiableList(new ArrayList<>(groupColumns));
+        this.valueColumns = Collections.unmodifiableList(new ArrayList<>(valueColumns));
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getTimeColumn() {
+        return timeColumn;
+    }
+
+    public List<String> getGroupColumns() {
+        return groupColumns;
+    }
+
+    public List<String> getValueColumns() {
+        return valueColumns;
+    }
+
+    /**
+     * Returns name of the table holding rollup of given unit
+     *
+     * @param unit - <code>MINUTES</code>, <code>HOURS</code> or <code>DAYS</code>
+     * @return name of rollup table
+     */
+    String getRollupTableName(ChronoUnit unit) {
+        return tableName + ROLLUP_TABLE_SUFFIX + unit.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns name of column of rollup table holding values of given group column, prefixed so it cannot clash with other columns
+     *
+     * @param groupColumn - name of group column
+     * @return name of column in rollup table
+     */
+    static String getGroupColumnName(String groupColumn) {
+        return GROUP_COLUMN_PREFIX + groupColumn;
+    }
+
+    /**
+     * Returns columns of the table read to update rollups: time column, group columns and value columns
+     *
+     * @return list of column names
+     */
+    List<String> getColumns() {
+        List<String> columns = new ArrayList<>();
+        columns.add(timeColumn);
+        columns.addAll(groupColumns);
+        columns.addAll(valueColumns);
+        return columns;
+    }
+
+    /**
+     * Returns key of combination of values of group columns in rollup tables, FNV-1a hash of the values like in token index
+     *
+     * @param groupValues - values of group columns as text, null for missing ones
+     * @return hash of the values
+     */
+    static long getGroupKey(List<String> groupValues) {
+        long hash = H2TokenIndex.FNV_OFFSET_BASIS;
+        for (String value : groupValues) {
+            // Length separates values, -1 marks missing one
+            hash = (hash ^ (value == null ? -1 : value.length())) * H2TokenIndex.FNV_PRIME;
+            if (value != null) {
+                for (int index = 0; index < value.length(); index++) {
+                    hash = (hash ^ value.charAt(index)) * H2TokenIndex.FNV_PRIME;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Totals of rows of one period and one combination of values of group columns
+     */
+    static class Totals {
+        long count;
+        final Long[] minimums;
+        final Long[] maximums;
+        final Long[] sums;
+
+        Totals(int valueColumns) {
+            minimums = new Long[valueColumns];
+            maximums = new Long[valueColumns];
+            sums = new Long[valueColumns];
+        }
+
+        /**
+         * Adds totals of other rows, missing values are skipped like by SQL aggregates
+         */
+        void add(long count, Long[] minimums, Long[] maximums, Long[] sums) {
+            this.count += count;
+            for (int index = 0; index < sums.length; index++) {
+                if (minimums[index] != null) {
+                    this.minimums[index] = this.minimums[index] == null ? minimums[index] : Math.min(this.minimums[index], minimums[index]);
+                }
+                if (maximums[index] != null) {
+                    this.maximums[index] = this.maximums[index] == null ? maximums[index] : Math.max(this.maximums[index], maximums[index]);
+                }
+                if (sums[index] != null) {
+                    this.sums[index] = this.sums[index] == null ? sums[index] : this.sums[index] + sums[index];
+                }
+            }
+        }
+    }
+
+    /**
+     * Totals of some rows in every unit, keyed by start of period followed by values of group columns
+     */
+    static class Aggregation {
+        private final int valueColumns;
+        private final Map<ChronoUnit, Map<List<Object>, Totals>> totals = new HashMap<>();
+
+        Aggregation(int valueColumns) {
+            this.valueColumns = valueColumns;
+        }
+
+        /**
+         * Adds single row to totals of its periods
+         *
+         * @param time        - value of time column
+         * @param groupValues - values of group columns as text
+         * @param values      - values of value columns
+         */
+        void add(LocalDateTime time, List<String> groupValues, Long[] values) {
+            for (ChronoUnit unit : UNITS) {
+                List<Object> key = new ArrayList<>(groupValues.size() + 1);
+                key.add(time.truncatedTo(unit));
+                key.addAll(groupValues);
+                totals.computeIfAbsent(unit, any -> new HashMap<>())
+                        .computeIfAbsent(key, any -> new Totals(valueColumns))
+                        .add(1, values, values, values);
+            }
+        }
+
+        Map<List<Object>, Totals> getTotals(ChronoUnit unit) {
+            return totals.getOrDefault(unit, Collections.emptyMap());
+        }
+    }
+
+    /**
+     * Aggregates of rows of one period with the same values of grouped columns, returned by aggregation queries
+     */
+    public static class Bucket {
+        private final LocalDateTime start;
+        private final List<String> groupValues;
+        private final long count;
+        private final Map<String, Long> minimums;
+        private final Map<String, Long> maximums;
+        private final Map<String, Long> sums;
+
+        Bucket(LocalDateTime start, List<String> groupValues, long count, Map<String, Long> minimums, Map<String, Long> maximums,
+               Map<String, Long> sums) {
+            this.start = start;
+            this.groupValues = groupValues;
+            this.count = count;
+            this.minimums = minimums;
+            this.maximums = maximums;
+            this.sums = sums;
+        }
+
+        /**
+         * Returns start of the period
+         */
+        public LocalDateTime getStart() {
+            return start;
+        }
+
+        /**
+         * Returns values of grouped columns, in order of the query
+         */
+        public List<String> getGroupValues() {
+            return groupValues;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns minimum of value column, null when no row of the bucket has a value
+         */
+        public Long getMinimum(String valueColumn) {
+            return minimums.get(valueColumn);
+        }
+
+        /**
+         * Returns maximum of value column, null when no row of the bucket has a value
+         */
+        public Long getMaximum(String valueColumn) {
+            return maximums.get(valueColumn);
+        }
+
+        /**
+         * Returns sum of value column, null when no row of the bucket has a value
+         */
+        public Long getSum(String valueColumn) {
+            return sums.get(valueColumn);
+        }
+
+        @Override
+        public String toString() {
+            return start + " " + groupValues + " count=" + count + " min=" + minimums + " max=" + maximums + " sum=" + sums;
+        }
+    }
+}
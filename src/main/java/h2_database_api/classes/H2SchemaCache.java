@@ -0,0 +1,102 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process cache of table metadata used by @see h2_database_api.classes.H2DatabaseAccessor.
+ * Entries are dropped by the accessor after its own DDL, and expire after time to live to notice DDL made by other processes.
+ */
+class H2SchemaCache {
+    private final ConcurrentHashMap<String, TableMetadata> tables = new ConcurrentHashMap<>();
+    private volatile long ttlMillis;
+
+    H2SchemaCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        tables.clear();
+    }
+
+    /**
+     * Returns cached metadata of the table
+     *
+     * @param tableName - name of the table
+     * @return metadata, or null when it is not cached or expired
+     */
+    TableMetadata get(String tableName) {
+        TableMetadata metadata = tables.get(tableName);
+        if (metadata == null || System.currentTimeMillis() - metadata.loadedAt >= ttlMillis) {
+            return null;
+        }
+        return metadata;
+    }
+
+    void put(TableMetadata metadata) {
+        if (ttlMillis > 0) {
+            tables.put(metadata.tableName, metadata);
+        }
+    }
+
+    void invalidate(String tableName) {
+        tables.remove(tableName);
+    }
+
+    void invalidateAll() {
+        tables.clear();
+    }
+
+    /**
+     * Existence and columns of a table at the moment they were read from database
+     */
+    static class TableMetadata {
+        final String tableName;
+        final boolean exists;
+        final List<String> columnNames;
+        final List<H2ColumnType> columnTypes;
+        final long loadedAt = System.currentTimeMillis();
+
+        /**
+         * @param tableName   - name of the table
+         * @param exists      - whether the table or view exists
+         * @param columnNames - names of all columns, with primary key ID
+         * @param columnTypes - types of data columns, without primary key ID
+         */
+        TableMetadata(String tableName, boolean exists, List<String> columnNames, List<H2ColumnType> columnTypes) {
+            this.tableName = tableName;
+            this.exists = exists;
+            this.columnNames = Collections.unmodifiableList(columnNames);
+            this.columnTypes = Collections.unmodifiableList(columnTypes);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splitting of column values into tokens of inverted index of a table, and recognition of regexes which are token searches.
+ * Token is a lower case run of word characters as <code>\b</code> of a regex sees them: letters and digits of <code>Character.isLetterOrDigit</code>
+ * and underscores, together with non-spacing marks following them. Other numerals, like superscripts or roman numerals, separate tokens.
+ * Index is kept in table named after the indexed table with suffix __tokens, with one row per row ID and 64-bit hash of column and token.
+ * Hashes keep the index compact and fast to update. Rows found by colliding hash are filtered out by the regex, which is always checked too.
+ */
+class H2TokenIndex {
+    static final int MAX_TOKEN_LENGTH = 64;
+    private static final String TOKEN_TABLE_SUFFIX = "__tokens";
+    // Regex searching for whole words, like \bERR42\b or (?i)\buser admin\b, words separated by spaces or \s+
+    private static final Pattern TOKEN_SEARCH = Pattern.compile("(\\(\\?i\\))?\\\\b(\\w+(?:(?: |\\\\s\\+)\\w+)*)\\\\b");
+    private static final Pattern WORD_SEPARATOR = Pattern.compile(" |\\\\s\\+");
+    static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    static final long FNV_PRIME = 0x100000001b3L;
+
+    private H2TokenIndex() {
+    }
+
+    /**
+     * Returns name of the table holding tokens of given table
+     *
+     * @param tableName - name of indexed table
+     * @return name of token table
+     */
+    static String getTokenTableName(String tableName) {
+        return tableName + TOKEN_TABLE_SUFFIX;
+    }
+
+    /**
+     * Returns key of token of given column in the token table, FNV-1a hash of column name and token
+     *
+     * @param columnName - name of indexed column
+     * @param token      - lower case token
+     * @return hash of both
+     */
+    static long getTokenKey(String columnName, String token) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int index = 0; index < columnName.length(); index++) {
+            hash = (hash ^ columnName.charAt(index)) * FNV_PRIME;
+        }
+        // Separates column name from token
+        hash *= FNV_PRIME;
+        for (int index = 0; index < token.length(); index++) {
+            hash = (hash ^ token.charAt(index)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Splits value into distinct tokens, tokens longer than <code>MAX_TOKEN_LENGTH</code> are skipped
+     *
+     * @param value - value of indexed column, may be null
+     * @return set of lower case tokens in order of their first occurrence
+     */
+    static Set<String> tokenize(String value) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (value == null) {
+            return tokens;
+        }
+        int start = -1;
+        int index = 0;
+        while (index < value.length()) {
+            int codePoint = value.codePointAt(index);
+            // Like \b, non-spacing mark is a word character only when it follows one
+            boolean word = Character.isLetterOrDigit(codePoint) || codePoint == '_'
+                    || start >= 0 && Character.getType(codePoint) == Character.NON_SPACING_MARK;
+            if (word && start < 0) {
+                start = index;
+            } else if (!word && start >= 0) {
+                addToken(tokens, value, start, index);
+                start = -1;
+            }
+            index += Character.charCount(codePoint);
+        }
+        if (start >= 0) {
+            addToken(tokens, value, start, value.length());
+        }
+        return tokens;
+    }
+
+    private static void addToken(Set<String> tokens, String value, int start, int end) {
+        if (end - start <= MAX_TOKEN_LENGTH) {
+            tokens.add(value.substring(start, end).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Recognizes regex which matches only values containing given words, so rows can be found in the index first.
+     * Regex itself still has to be checked on found rows, as the index ignores case and order of words.
+     *
+     * @param regex - regex of a column
+     * @return lower case tokens every matching value contains, or null when the regex is not a token search
+     */
+    static List<String> getSearchTokens(String regex) {
+        Matcher matcher = TOKEN_SEARCH.matcher(regex);
+        if (!matcher.matches()) {
+            return null;
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String word : WORD_SEPARATOR.split(matcher.group(2))) {
+            if (word.length() > MAX_TOKEN_LENGTH) {
+                return null;
+            }
+            tokens.add(word.toLowerCase(Locale.ROOT));
+        }
+        return tokens;
+    }
+}
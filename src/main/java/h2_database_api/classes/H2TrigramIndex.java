@@ -0,0 +1,601 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Trigram index of a table, which narrows rows checked by arbitrary regexes, the way code search engines do it.
+ * Regex is decomposed into a boolean query of trigrams every matching value has to contain, like <code>err.*(disk|dsk)</code>
+ * into <code>err AND (dis AND isk OR dsk)</code>. Values are indexed by blocks of <code>BLOCK_ROWS</code> consecutive row IDs,
+ * so each trigram is stored once per block instead of once per row. Index ignores case, also the way <code>(?iu)</code> does,
+ * so characters like ſ and s or ı and i get the same trigrams. Regex is always checked on rows of found blocks.
+ * Index is kept in table named after the indexed table with suffix __trigrams, keys are hashes of column and trigram like in token index.
+ */
+class H2TrigramIndex {
+    static final int BLOCK_ROWS = 64;
+    private static final String TRIGRAM_TABLE_SUFFIX = "__trigrams";
+    // Non-overlapping trigrams already cover every character of a literal, more of them only add lookups
+    private static final int MAX_LITERAL_TRIGRAMS = 8;
+
+    private H2TrigramIndex() {
+    }
+
+    /**
+     * Returns name of the table holding trigrams of given table
+     *
+     * @param tableName - name of indexed table
+     * @return name of trigram table
+     */
+    static String getTrigramTableName(String tableName) {
+        return tableName + TRIGRAM_TABLE_SUFFIX;
+    }
+
+    /**
+     * Returns block of given row, in which its trigrams are stored
+     *
+     * @param rowId - ID of the row
+     * @return number of the block
+     */
+    static long getBlock(long rowId) {
+        return Math.floorDiv(rowId, BLOCK_ROWS);
+    }
+
+    /**
+     * Splits value into distinct trigrams, sequences of three characters with case folded one by one
+     *
+     * @param value - value of indexed column, may be null
+     * @return set of trigrams, empty for values shorter than three characters
+     */
+    static Set<String> getTrigrams(String value) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        if (value == null) {
+            return trigrams;
+        }
+        String folded = foldCase(value);
+        for (int index = 0; index + 3 <= folded.length(); index++) {
+            trigrams.add(folded.substring(index, index + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Decomposes regex into query of trigrams which every value matched by it contains.
+     * Parts of regex the analysis does not understand only make the query less selective, never wrong.
+     *
+     * @param regex - regex of a column, as passed to REGEXP
+     * @return query of trigrams, <code>Query.ALL</code> when regex requires no trigram or cannot be analysed
+     */
+    static Query analyze(String regex) {
+        try {
+            Parser parser = new Parser(regex);
+            Result result = parser.parseAlternation();
+            if (parser.m_position < regex.length()) {
+                return Query.ALL;
+            }
+            return result.m_query;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return Query.ALL;
+        }
+    }
+
+    // Converts characters one by one to lower case of their upper case, so the result has the same length, unlike String.toLowerCase.
+    // Characters are equal in this form exactly when regex with UNICODE_CASE flag treats them as equal ignoring case
+    private static String foldCase(String value) {
+        char[] characters = value.toCharArray();
+        for (int index = 0; index < characters.length; index++) {
+            characters[index] = Character.toLowerCase(Character.toUpperCase(characters[index]));
+        }
+        return new String(characters);
+    }
+
+    /**
+     * Boolean query of trigrams: single trigram, conjunction or alternative of queries, or ALL which is true for every value
+     */
+    static final class Query {
+        static final Query ALL = new Query(null, true, new ArrayList<>());
+
+        private final String m_trigram;
+        private final boolean m_and;
+        private final List<Query> m_operands;
+
+        private Query(String trigram, boolean and, List<Query> operands) {
+            m_trigram = trigram;
+            m_and = and;
+            m_operands = operands;
+        }
+
+        static Query trigram(String trigram) {
+            return new Query(trigram, true, new ArrayList<>());
+        }
+
+        static Query and(List<Query> operands) {
+            Set<Query> flattened = new LinkedHashSet<>();
+            for (Query operand : operands) {
+                if (operand.m_trigram == null && operand.m_and) {
+                    flattened.addAll(operand.m_operands);
+                } else {
+                    flattened.add(operand);
+                }
+            }
+            return flattened.size() == 1 ? flattened.iterator().next() : new Query(null, true, new ArrayList<>(flattened));
+        }
+
+        static Query or(List<Query> operands) {
+            Set<Query> flattened = new LinkedHashSet<>();
+            for (Query operand : operands) {
+                if (operand.isAll()) {
+                    return ALL;
+                }
+                if (operand.m_trigram == null && !operand.m_and) {
+                    flattened.addAll(operand.m_operands);
+                } else {
+                    flattened.add(operand);
+                }
+            }
+            return flattened.size() == 1 ? flattened.iterator().next() : new Query(null, false, new ArrayList<>(flattened));
+        }
+
+        boolean isAll() {
+            return m_trigram == null && m_operands.isEmpty();
+        }
+
+        /**
+         * Returns all trigrams of the query
+         *
+         * @return set of trigrams
+         */
+        Set<String> getTrigrams() {
+            Set<String> trigrams = new LinkedHashSet<>();
+            if (m_trigram != null) {
+                trigrams.add(m_trigram);
+            }
+            for (Query operand : m_operands) {
+                trigrams.addAll(operand.getTrigrams());
+            }
+            return trigrams;
+        }
+
+        /**
+         * Checks whether value with given trigrams can match the query
+         *
+         * @param trigrams - trigrams of the value, see <code>getTrigrams</code>
+         * @return boolean value, <code>false</code> when value surely does not match regex of the query
+         */
+        boolean matches(Set<String> trigrams) {
+            if (m_trigram != null) {
+                return trigrams.contains(m_trigram);
+            }
+            for (Query operand : m_operands) {
+                if (operand.matches(trigrams) != m_and) {
+                    return !m_and;
+                }
+            }
+            return m_and;
+        }
+
+        /**
+         * Builds SQL query of blocks matching the query, from queries of blocks containing single trigrams
+         *
+         * @param trigramQuery - returns query selecting blocks which contain given trigram
+         * @return query combining them with INTERSECT and UNION
+         */
+        String toBlockQuery(Function<String, String> trigramQuery) {
+            if (m_trigram != null) {
+                return trigramQuery.apply(m_trigram);
+            }
+            StringBuilder queryBuilder = new StringBuilder();
+            for (Query operand : m_operands) {
+                if (queryBuilder.length() > 0) {
+                    queryBuilder.append(m_and ? " intersect " : " union ");
+                }
+                queryBuilder.append('(').append(operand.toBlockQuery(trigramQuery)).append(')');
+            }
+            return queryBuilder.toString();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Query)) {
+                return false;
+            }
+            Query query = (Query) other;
+            return Objects.equals(m_trigram, query.m_trigram) && m_and == query.m_and && m_operands.equals(query.m_operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_trigram, m_and, m_operands);
+        }
+
+        @Override
+        public String toString() {
+            if (m_trigram != null) {
+                return m_trigram;
+            }
+            if (isAll()) {
+                return "ALL";
+            }
+            StringBuilder builder = new StringBuilder("(");
+            for (Query operand : m_operands) {
+                builder.append(builder.length() > 1 ? (m_and ? " AND " : " OR ") : "").append(operand);
+            }
+            return builder.append(')').toString();
+        }
+    }
+
+    /**
+     * Part of regex: query of trigrams it requires and, when it matches exactly one literal text, that text
+     */
+    private static final class Result {
+        static final Result ANY = new Result(Query.ALL, null);
+        static final Result ZERO_WIDTH = new Result(Query.ALL, "");
+
+        private final Query m_query;
+        private final String m_literal;
+
+        private Result(Query query, String literal) {
+            m_query = query;
+            m_literal = literal;
+        }
+
+        static Result literal(String literal) {
+            return new Result(Query.ALL, literal);
+        }
+    }
+
+    /**
+     * Recursive descent parser of the syntax of java.util.regex.Pattern, which REGEXP of H2 uses.
+     * Character classes, back references and other constructs matching unknown text are treated like dot.
+     */
+    private static final class Parser {
+        private static final int[] ONCE = {1, 1};
+
+        private final String m_regex;
+        private int m_position;
+
+        Parser(String regex) {
+            m_regex = regex;
+        }
+
+        Result parseAlternation() {
+            List<Result> branches = new ArrayList<>();
+            branches.add(parseConcatenation());
+            while (m_position < m_regex.length() && m_regex.charAt(m_position) == '|') {
+                m_position++;
+                branches.add(parseConcatenation());
+            }
+            if (branches.size() == 1) {
+                return branches.get(0);
+            }
+            List<Query> queries = new ArrayList<>();
+            for (Result branch : branches) {
+                queries.add(branch.m_query);
+            }
+            return new Result(Query.or(queries), null);
+        }
+
+        private Result parseConcatenation() {
+            List<Query> required = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            StringBuilder run = new StringBuilder();
+            boolean exact = true;
+            while (m_position < m_regex.length() && m_regex.charAt(m_position) != '|' && m_regex.charAt(m_position) != ')') {
+                Result atom = parseAtom();
+                int[] repetition = parseQuantifier();
+                if (atom.m_literal != null && atom.m_literal.isEmpty()) {
+                    continue;
+                }
+                if (repetition[0] == 0) {
+                    // Optional part requires nothing and separates text before and after it
+                    addRun(required, run);
+                    exact = false;
+                } else if (atom.m_literal != null) {
+                    run.append(atom.m_literal);
+                    literal.append(atom.m_literal);
+                    if (repetition[1] != 1) {
+                        // Repeated text is followed by its last character, whatever the count of repetitions is
+                        addRun(required, run);
+                        run.append(atom.m_literal.charAt(atom.m_literal.length() - 1));
+                        exact = false;
+                    }
+                } else {
+                    addRun(required, run);
+                    required.add(atom.m_query);
+                    exact = false;
+                }
+            }
+            addRun(required, run);
+            return new Result(Query.and(required), exact ? literal.toString() : null);
+        }
+
+        private void addRun(List<Query> required, StringBuilder run) {
+            String folded = foldCase(run.toString());
+            run.setLength(0);
+            if (folded.length() < 3) {
+                return;
+            }
+            List<Query> trigrams = new ArrayList<>();
+            for (int index = 0; index + 3 <= folded.length() && trigrams.size() < MAX_LITERAL_TRIGRAMS; index += 3) {
+                trigrams.add(Query.trigram(folded.substring(index, index + 3)));
+            }
+            if (folded.length() % 3 != 0 && trigrams.size() < MAX_LITERAL_TRIGRAMS) {
+                trigrams.add(Query.trigram(folded.substring(folded.length() - 3)));
+            }
+            required.addAll(trigrams);
+        }
+
+        private Result parseAtom() {
+            char character = m_regex.charAt(m_position++);
+            switch (character) {
+                case '(':
+                    return parseGroup();
+                case '[':
+                    skipClass();
+                    return Result.ANY;
+                case '.':
+                    return Result.ANY;
+                case '^':
+                case '$':
+                    return Result.ZERO_WIDTH;
+                case '\\':
+                    return parseEscape();
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new IllegalArgumentException("Dangling quantifier at " + m_position);
+                default:
+                    return Result.literal(String.valueOf(character));
+            }
+        }
+
+        private Result parseGroup() {
+            if (m_regex.charAt(m_position) != '?') {
+                return closeGroup(parseAlternation());
+            }
+            m_position++;
+            char kind = m_regex.charAt(m_position);
+            if (kind == ':' || kind == '>') {
+                m_position++;
+                return closeGroup(parseAlternation());
+            }
+            if (kind == '=' || kind == '!') {
+                // Lookahead, text it checks is matched by the rest of regex
+                m_position++;
+                closeGroup(parseAlternation());
+                return Result.ZERO_WIDTH;
+            }
+            if (kind == '<') {
+                char next = m_regex.charAt(m_position + 1);
+                if (next == '=' || next == '!') {
+                    m_position += 2;
+                    closeGroup(parseAlternation());
+                    return Result.ZERO_WIDTH;
+                }
+                int end = m_regex.indexOf('>', m_position);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed group name at " + m_position);
+                }
+                m_position = end + 1;
+                return closeGroup(parseAlternation());
+            }
+            // Flags, like (?i) or (?i:text)
+            boolean enabled = true;
+            while (true) {
+                char flag = m_regex.charAt(m_position++);
+                if (flag == ')') {
+                    return Result.ZERO_WIDTH;
+                } else if (flag == ':') {
+                    return closeGroup(parseAlternation());
+                } else if (flag == '-') {
+                    enabled = false;
+                } else if (flag == 'x' && enabled) {
+                    // Whitespace and comments would be taken for literal text
+                    throw new IllegalArgumentException("Comments mode is not supported");
+                } else if ("idmsuxU".indexOf(flag) < 0) {
+                    throw new IllegalArgumentException("Unknown flag at " + m_position);
+                }
+            }
+        }
+
+        private Result closeGroup(Result result) {
+            if (m_regex.charAt(m_position) != ')') {
+                throw new IllegalArgumentException("Unclosed group at " + m_position);
+            }
+            m_position++;
+            return result;
+        }
+
+        private void skipClass() {
+            if (m_regex.charAt(m_position) == '^') {
+                m_position++;
+            }
+            // Closing bracket right after the opening one is a member of the class
+            if (m_regex.charAt(m_position) == ']') {
+                m_position++;
+            }
+            int depth = 1;
+            while (depth > 0) {
+                char character = m_regex.charAt(m_position++);
+                if (character == '\\') {
+                    if (m_regex.charAt(m_position) == 'Q') {
+                        int end = m_regex.indexOf("\\E", m_position);
+                        m_position = end < 0 ? m_regex.length() : end + 2;
+                    } else {
+                        m_position++;
+                    }
+                } else if (character == '[') {
+                    depth++;
+                } else if (character == ']') {
+                    depth--;
+                }
+            }
+        }
+
+        private Result parseEscape() {
+            char character = m_regex.charAt(m_position++);
+            if (character >= '1' && character <= '9') {
+                // Back reference
+                while (m_position < m_regex.length() && Character.isDigit(m_regex.charAt(m_position))) {
+                    m_position++;
+                }
+                return Result.ANY;
+            }
+            switch (character) {
+                case 'b':
+                case 'B':
+                case 'A':
+                case 'z':
+                case 'Z':
+                case 'G':
+                    return Result.ZERO_WIDTH;
+                case 'Q': {
+                    int end = m_regex.indexOf("\\E", m_position);
+                    String text = m_regex.substring(m_position, end < 0 ? m_regex.length() : end);
+                    m_position = end < 0 ? m_regex.length() : end + 2;
+                    return Result.literal(text);
+                }
+                case 'k':
+                    m_position = m_regex.indexOf('>', m_position) + 1;
+                    if (m_position == 0) {
+                        throw new IllegalArgumentException("Unclosed group name");
+                    }
+                    return Result.ANY;
+                case 'p':
+                case 'P':
+                    if (m_regex.charAt(m_position) == '{') {
+                        m_position = m_regex.indexOf('}', m_position) + 1;
+                        if (m_position == 0) {
+                            throw new IllegalArgumentException("Unclosed character property");
+                        }
+                    } else {
+                        m_position++;
+                    }
+                    return Result.ANY;
+                case 'd':
+                case 'D':
+                case 'w':
+                case 'W':
+                case 's':
+                case 'S':
+                case 'h':
+                case 'H':
+                case 'v':
+                case 'V':
+                case 'R':
+                case 'X':
+                    return Result.ANY;
+                case 'c':
+                    m_position++;
+                    return Result.ANY;
+                case '0':
+                    for (int digits = 0; digits < 3 && m_position < m_regex.length()
+                            && m_regex.charAt(m_position) >= '0' && m_regex.charAt(m_position) <= '7'; digits++) {
+                        m_position++;
+                    }
+                    return Result.ANY;
+                case 't':
+                    return Result.literal("\t");
+                case 'n':
+                    return Result.literal("\n");
+                case 'r':
+                    return Result.literal("\r");
+                case 'f':
+                    return Result.literal("\f");
+                case 'a':
+                    return Result.literal("\u0007");
+                case 'e':
+                    return Result.literal("\u001B");
+                case 'x':
+                    if (m_regex.charAt(m_position) == '{') {
+                        int end = m_regex.indexOf('}', m_position);
+                        if (end < 0) {
+                            throw new IllegalArgumentException("Unclosed hexadecimal escape");
+                        }
+                        int codePoint = Integer.parseInt(m_regex.substring(m_position + 1, end), 16);
+                        m_position = end + 1;
+                        return Result.literal(new String(Character.toChars(codePoint)));
+                    }
+                    m_position += 2;
+                    return Result.literal(String.valueOf((char) Integer.parseInt(m_regex.substring(m_position - 2, m_position), 16)));
+                case 'u':
+                    m_position += 4;
+                    return Result.literal(String.valueOf((char) Integer.parseInt(m_regex.substring(m_position - 4, m_position), 16)));
+                default:
+                    if (Character.isLetterOrDigit(character)) {
+                        throw new IllegalArgumentException("Unknown escape at " + m_position);
+                    }
+                    return Result.literal(String.valueOf(character));
+            }
+        }
+
+        private int[] parseQuantifier() {
+            if (m_position >= m_regex.length()) {
+                return ONCE;
+            }
+            int[] repetition;
+            switch (m_regex.charAt(m_position)) {
+                case '?':
+                    repetition = new int[]{0, 1};
+                    break;
+                case '*':
+                    repetition = new int[]{0, -1};
+                    break;
+                case '+':
+                    repetition = new int[]{1, -1};
+                    break;
+                case '{': {
+                    int end = m_regex.indexOf('}', m_position);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed repetition at " + m_position);
+                    }
+                    String[] bounds = m_regex.substring(m_position + 1, end).split(",", -1);
+                    int minimum = Integer.parseInt(bounds[0].trim());
+                    int maximum = bounds.length == 1 ? minimum : bounds[1].trim().isEmpty() ? -1 : Integer.parseInt(bounds[1].trim());
+                    repetition = new int[]{minimum, maximum};
+                    m_position = end;
+                    break;
+                }
+                default:
+                    return ONCE;
+            }
+            m_position++;
+            // Lazy and possessive quantifiers match the same texts
+            if (m_position < m_regex.length() && (m_regex.charAt(m_position) == '?' || m_regex.charAt(m_position) == '+')) {
+                m_position++;
+            }
+            return repetition;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+/**
+ * Summary of values of a table, maintained at insert, which answers unfiltered counts and counts of values equal to a text without scan.
+ * Summary is kept in table named after the summarized table with suffix __values. Row with empty column name holds the row count.
+ * Values of each column are counted exactly, one row per distinct value, while the column has at most <code>MAX_EXACT_VALUES</code> of them.
+ * Columns with more values are counted by count-min sketch of <code>SKETCH_DEPTH</code> rows of <code>SKETCH_WIDTH</code> cells,
+ * which never underestimates counts, so it tells exactly only that some value does not occur at all.
+ */
+class H2ValueSummary {
+    static final String ROW_COUNT_COLUMN = "";
+    static final int MAX_EXACT_VALUES = 1000;
+    static final int SKETCH_DEPTH = 4;
+    static final int SKETCH_WIDTH = 1024;
+    private static final String SUMMARY_TABLE_SUFFIX = "__values";
+
+    private H2ValueSummary() {
+    }
+
+    /**
+     * Returns name of the table holding summary of given table
+     *
+     * @param tableName - name of summarized table
+     * @return name of summary table
+     */
+    static String getSummaryTableName(String tableName) {
+        return tableName + SUMMARY_TABLE_SUFFIX;
+    }
+
+    /**
+     * Returns key of value of given column in the summary table, hash of column name and value like in token index
+     *
+     * @param columnName - name of summarized column
+     * @param value      - value as text, the same as REGEXP matches
+     * @return hash of both
+     */
+    static long getValueKey(String columnName, String value) {
+        return H2TokenIndex.getTokenKey(columnName, value);
+    }
+
+    /**
+     * Returns cells of count-min sketch counting value of given key, one in each row of the sketch
+     *
+     * @param valueKey - key of the value, see <code>getValueKey</code>
+     * @return keys of cells in the summary table
+     */
+    static long[] getSketchCells(long valueKey) {
+        long[] cells = new long[SKETCH_DEPTH];
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            // Finalizer of SplitMix64 makes hashes of the rows independent enough
+            long hash = valueKey + (row + 1) * 0x9E3779B97F4A7C15L;
+            hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+            hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+            hash = hash ^ (hash >>> 31);
+            cells[row] = (long) row * SKETCH_WIDTH + Math.floorMod(hash, SKETCH_WIDTH);
+        }
+        return cells;
+    }
+}
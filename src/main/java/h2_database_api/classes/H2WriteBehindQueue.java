@@ -0,0 +1,531 @@
+package h2_database_api.classes;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import downloading.RowSink.Checkpoint;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of rows waiting to be written by @see h2_database_api.classes.H2DatabaseAccessor.
+ * Many producers, like download threads of different sources, put rows into the queue and continue parsing,
+ * while a single writer thread takes everything queued at the moment and inserts rows of the same table together,
+ * so rows of many producers share their commits.
+ * Queue holds at most capacityRows rows, producers putting more wait until the writer catches up.
+ * Checkpoints of a producer run on the writer thread once all rows it has put before are committed.
+ * When rows of a producer cannot be written, its checkpoints are dropped and its next call fails with the error.
+ * Group which fails is written again producer by producer, without rows already committed, so only producers of bad rows fail.
+ * When the writer stops for any other reason than closing, the queue is closed and all producers of queued items fail.
+ */
+public class H2WriteBehindQueue implements AutoCloseable {
+    private static final Object STOP = new Object();
+
+    private final H2DatabaseAccessor m_accessor;
+    private final int capacityRows;
+    private final int maxGroupRows;
+    private final long lingerNanos;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final Semaphore freeRows;
+    private final Thread writer;
+    // Guards closing of the queue, so no item is queued after the writer was told to stop
+    private final Object lock = new Object();
+    private volatile boolean closed = false;
+
+    private final AtomicLong queuedRows = new AtomicLong();
+    private final AtomicLong committedRows = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private volatile long lastLatencyNanos = 0;
+
+    /**
+     * Constructs a new @see h2_database_api.classes.H2WriteBehindQueue and starts its writer thread
+     *
+     * @param accessor     - accessor the rows are written with
+     * @param capacityRows - maximum number of rows waiting in the queue before producers are throttled
+     * @param maxGroupRows - maximum number of rows written together by the writer
+     * @param lingerMillis - how long the writer waits for more rows when fewer than maxGroupRows are queued
+     */
+    public H2WriteBehindQueue(H2DatabaseAccessor accessor, int capacityRows, int maxGroupRows, long lingerMillis) {
+        if (capacityRows < 1 || maxGroupRows < 1) {
+            throw new IllegalArgumentException("Queue capacity and group size have to be positive");
+        }
+        this.m_accessor = accessor;
+        this.capacityRows = capacityRows;
+        this.maxGroupRows = maxGroupRows;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.freeRows = new Semaphore(capacityRows);
+        this.writer = new Thread(this::write, "h2-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Creates handle through which a single producer puts its rows and checkpoints, in order
+     *
+     * @return New producer of this queue
+     */
+    public Producer newProducer() {
+        return new Producer();
+    }
+
+    /**
+     * Returns depth and latency of the queue
+     *
+     * @return New snapshot of queue statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(queuedRows.get(), capacityRows, committedRows.get(), groups.get(), failures.get(),
+                TimeUnit.NANOSECONDS.toMillis(throttledNanos.get()), TimeUnit.NANOSECONDS.toMillis(latencyNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get()), TimeUnit.NANOSECONDS.toMillis(lastLatencyNanos));
+    }
+
+    /**
+     * Stops accepting rows and waits until the writer writes everything already queued.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (!closed) {
+                closed = true;
+                queue.add(STOP);
+            }
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Wakes producers waiting for space, they fail as the queue is closed
+        freeRows.release(capacityRows);
+    }
+
+    /**
+     * Puts rows and checkpoints of one producer into the queue. Methods of a single producer are not meant to be called concurrently.
+     */
+    public class Producer {
+        private volatile Exception failure = null;
+        // Items put before a failure was reported are dropped, their rows or progress would follow the lost rows
+        private volatile int epoch = 0;
+        private volatile int failedEpoch = -1;
+
+        private Producer() {
+        }
+
+        /**
+         * Queues rows to be added to the table, waiting while the queue is full
+         *
+         * @param tableName   - name of the table
+         * @param columnNames - list of column names in table (except default primary key ID)
+         * @param rowsValues  - list of list with values of each new row in table, not changed afterwards
+         * @exception Exception - when earlier rows of this producer couldn't be written or the wait was interrupted
+         */
+        public void put(String tableName, List<String> columnNames, List<List<String>> rowsValues) throws Exception {
+            checkFailure();
+            if (rowsValues.isEmpty()) {
+                return;
+            }
+            int permits = Math.min(rowsValues.size(), capacityRows);
+            long start = System.nanoTime();
+            freeRows.acquire(permits);
+            throttledNanos.addAndGet(System.nanoTime() - start);
+            synchronized (lock) {
+                if (closed) {
+                    freeRows.release(permits);
+                    checkFailure();
+                    throw new IllegalStateException("Write-behind queue is closed");
+                }
+                queuedRows.addAndGet(rowsValues.size());
+                queue.add(new Rows(this, epoch, tableName, columnNames, rowsValues, permits));
+            }
+        }
+
+        /**
+         * Queues checkpoint, which the writer runs after all rows put before it are committed
+         *
+         * @param checkpoint - action to run
+         * @exception Exception - when earlier rows of this producer couldn't be written
+         */
+        public void checkpoint(Checkpoint checkpoint) throws Exception {
+            synchronized (lock) {
+                checkFailure();
+                queue.add(new QueuedCheckpoint(this, epoch, checkpoint));
+            }
+        }
+
+        private void fail(Exception exception, int itemEpoch) {
+            failedEpoch = Math.max(failedEpoch, itemEpoch);
+            failure = exception;
+        }
+
+        private boolean isDropped(int itemEpoch) {
+            return itemEpoch <= failedEpoch;
+        }
+
+        private void checkFailure() throws Exception {
+            Exception exception = failure;
+            if (exception != null) {
+                failure = null;
+                epoch++;
+                throw exception;
+            }
+            if (closed) {
+                throw new IllegalStateException("Write-behind queue is closed");
+            }
+        }
+    }
+
+    private void write() {
+        List<Object> items = new ArrayList<>();
+        boolean stopping = false;
+        try {
+            while (!stopping) {
+                stopping = take(items);
+                writeItems(items);
+            }
+        } catch (InterruptedException e) {
+            abandon(items, e);
+        } catch (RuntimeException | Error e) {
+            abandon(items, new IllegalStateException("Write-behind queue writer stopped", e));
+            throw e;
+        }
+    }
+
+    /**
+     * Writes taken rows and runs taken checkpoints, removing every item from the list once it is done
+     */
+    private void writeItems(List<Object> items) {
+        // Rows of the same table and columns are inserted together, in the order they were queued
+        Map<List<Object>, List<Rows>> groupsByTable = new LinkedHashMap<>();
+        for (Object item : items) {
+            if (item instanceof Rows) {
+                Rows rows = (Rows) item;
+                List<Object> key = new ArrayList<>();
+                key.add(rows.tableName);
+                key.add(rows.columnNames);
+                groupsByTable.computeIfAbsent(key, k -> new ArrayList<>()).add(rows);
+            }
+        }
+        for (List<Rows> group : groupsByTable.values()) {
+            writeGroup(group);
+            items.removeAll(group);
+        }
+        Iterator<Object> iterator = items.iterator();
+        while (iterator.hasNext()) {
+            runCheckpoint((QueuedCheckpoint) iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Closes the queue after the writer stopped unexpectedly. Producers of items not done fail with the error
+     * and producers waiting for space are woken up, so nobody waits for rows which will never be written.
+     */
+    private void abandon(List<Object> items, Exception exception) {
+        synchronized (lock) {
+            closed = true;
+            queue.drainTo(items);
+            for (Object item : items) {
+                if (item instanceof Rows) {
+                    Rows rows = (Rows) item;
+                    rows.producer.fail(exception, rows.epoch);
+                } else if (item instanceof QueuedCheckpoint) {
+                    QueuedCheckpoint queued = (QueuedCheckpoint) item;
+                    queued.producer.fail(exception, queued.epoch);
+                }
+            }
+        }
+        items.clear();
+        queuedRows.set(0);
+        freeRows.release(capacityRows);
+    }
+
+    /**
+     * Waits for the first item and adds following ones to the list, until enough rows are taken or linger time passes
+     *
+     * @return <code>true</code> when the queue was closed
+     */
+    private boolean take(List<Object> items) throws InterruptedException {
+        Object item = queue.take();
+        long deadline = System.nanoTime() + lingerNanos;
+        int rows = 0;
+        while (true) {
+            if (item == STOP) {
+                return true;
+            }
+            items.add(item);
+            if (item instanceof Rows) {
+                rows += ((Rows) item).rowsValues.size();
+            }
+            if (rows >= maxGroupRows) {
+                return false;
+            }
+            item = queue.poll();
+            if (item == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || (item = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void writeGroup(List<Rows> group) {
+        Rows first = group.get(0);
+        List<List<String>> rowsValues = new ArrayList<>();
+        List<Rows> written = new ArrayList<>();
+        for (Rows rows : group) {
+            if (!rows.producer.isDropped(rows.epoch)) {
+                rowsValues.addAll(rows.rowsValues);
+                written.add(rows);
+            }
+        }
+        try {
+            if (rowsValues.isEmpty()) {
+                return;
+            }
+            boolean[] committed = new boolean[rowsValues.size()];
+            try {
+                m_accessor.addRowsToTable(first.tableName, first.columnNames, rowsValues, null, committed);
+                recordWritten(written, rowsValues.size());
+            } catch (SQLException | RuntimeException e) {
+                Map<Producer, List<Rows>> rowsByProducer = new LinkedHashMap<>();
+                for (Rows rows : written) {
+                    rowsByProducer.computeIfAbsent(rows.producer, k -> new ArrayList<>()).add(rows);
+                }
+                if (rowsByProducer.size() == 1) {
+                    failWrite(written, e);
+                } else {
+                    writeByProducer(first, rowsByProducer, written, committed);
+                }
+            }
+        } finally {
+            for (Rows rows : group) {
+                queuedRows.addAndGet(-rows.rowsValues.size());
+                freeRows.release(rows.permits);
+            }
+        }
+    }
+
+    /**
+     * Writes rows of failed group again, separately for each producer, skipping rows committed before the group failed
+     */
+    private void writeByProducer(Rows first, Map<Producer, List<Rows>> rowsByProducer, List<Rows> written, boolean[] committed) {
+        Map<Rows, Integer> offsets = new HashMap<>();
+        int offset = 0;
+        for (Rows rows : written) {
+            offsets.put(rows, offset);
+            offset += rows.rowsValues.size();
+        }
+        int committedBefore = 0;
+        for (List<Rows> producerRows : rowsByProducer.values()) {
+            List<List<String>> remaining = new ArrayList<>();
+            for (Rows rows : producerRows) {
+                int rowsOffset = offsets.get(rows);
+                for (int row = 0; row < rows.rowsValues.size(); row++) {
+                    if (committed[rowsOffset + row]) {
+                        committedBefore++;
+                    } else {
+                        remaining.add(rows.rowsValues.get(row));
+                    }
+                }
+            }
+            if (remaining.isEmpty()) {
+                continue;
+            }
+            try {
+                m_accessor.addRowsToTable(first.tableName, first.columnNames, remaining);
+                recordWritten(producerRows, remaining.size());
+            } catch (SQLException | RuntimeException e) {
+                failWrite(producerRows, e);
+            }
+        }
+        if (committedBefore > 0) {
+            committedRows.addAndGet(committedBefore);
+        }
+    }
+
+    private void recordWritten(List<Rows> written, int rowCount) {
+        long now = System.nanoTime();
+        for (Rows rows : written) {
+            long latency = now - rows.queuedNanos;
+            latencyNanos.addAndGet(latency * rows.rowsValues.size());
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            lastLatencyNanos = latency;
+        }
+        committedRows.addAndGet(rowCount);
+        groups.incrementAndGet();
+    }
+
+    private void failWrite(List<Rows> written, Exception exception) {
+        exception.printStackTrace();
+        failures.incrementAndGet();
+        for (Rows rows : written) {
+            rows.producer.fail(exception, rows.epoch);
+        }
+    }
+
+    private void runCheckpoint(QueuedCheckpoint queued) {
+        if (queued.producer.isDropped(queued.epoch)) {
+            return;
+        }
+        try {
+            queued.checkpoint.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            queued.producer.fail(e, queued.epoch);
+        }
+    }
+
+    private static class Rows {
+        final Producer producer;
+        final int epoch;
+        final String tableName;
+        final List<String> columnNames;
+        final List<List<String>> rowsValues;
+        final int permits;
+        final long queuedNanos = System.nanoTime();
+
+        Rows(Producer producer, int epoch, String tableName, List<String> columnNames, List<List<String>> rowsValues, int permits) {
+            this.producer = producer;
+            this.epoch = epoch;
+            this.tableName = tableName;
+            this.columnNames = columnNames;
+            this.rowsValues = rowsValues;
+            this.permits = permits;
+        }
+    }
+
+    private static class QueuedCheckpoint {
+        final Producer producer;
+        final int epoch;
+        final Checkpoint checkpoint;
+
+        QueuedCheckpoint(Producer producer, int epoch, Checkpoint checkpoint) {
+            this.producer = producer;
+            this.epoch = epoch;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    /**
+     * Snapshot of counters of @see h2_database_api.classes.H2WriteBehindQueue
+     */
+    public static class Statistics {
+        private final long queuedRows;
+        private final int capacityRows;
+        private final long committedRows;
+        private final long groups;
+        private final long failures;
+        private final long throttledMillis;
+        private final long latencyMillis;
+        private final long maxLatencyMillis;
+        private final long lastLatencyMillis;
+
+        Statistics(long queuedRows, int capacityRows, long committedRows, long groups, long failures, long throttledMillis,
+                   long latencyMillis, long maxLatencyMillis, long lastLatencyMillis) {
+            this.queuedRows = queuedRows;
+            this.capacityRows = capacityRows;
+            this.committedRows = committedRows;
+            this.groups = groups;
+            this.failures = failures;
+            this.throttledMillis = throttledMillis;
+            this.latencyMillis = latencyMillis;
+            this.maxLatencyMillis = maxLatencyMillis;
+            this.lastLatencyMillis = lastLatencyMillis;
+        }
+
+        /**
+         * @return Number of rows put into the queue and not written yet, the queue depth
+         */
+        public long getQueuedRows() {
+            return queuedRows;
+        }
+
+        public int getCapacityRows() {
+            return capacityRows;
+        }
+
+        public long getCommittedRows() {
+            return committedRows;
+        }
+
+        /**
+         * @return Number of groups of rows written together
+         */
+        public long getGroups() {
+            return groups;
+        }
+
+        public double getAverageGroupRows() {
+            return groups == 0 ? 0 : (double) committedRows / groups;
+        }
+
+        /**
+         * @return Number of groups, or rows of a producer in a group written again, which couldn't be written
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return Total time producers spent waiting for free space in the queue
+         */
+        public long getThrottledMillis() {
+            return throttledMillis;
+        }
+
+        /**
+         * @return Average time from putting a row into the queue until it was written
+         */
+        public double getAverageLatencyMillis() {
+            return committedRows == 0 ? 0 : (double) latencyMillis / committedRows;
+        }
+
+        public long getMaxLatencyMillis() {
+            return maxLatencyMillis;
+        }
+
+        public long getLastLatencyMillis() {
+            return lastLatencyMillis;
+        }
+    }
+}
@@ -27,17 +27,39 @@ of the authors and should not be interpreted as representing official policies,
 either expressed or implied, of the FreeBSD Project.
 */
 
+import h2_database_api.classes.H2BulkLoadSession;
+import h2_database_api.classes.H2ColumnType;
+import h2_database_api.classes.H2ConnectionPool;
 import h2_database_api.classes.H2DatabaseAccessor;
+import h2_database_api.classes.H2DatabaseConnector;
+import h2_database_api.classes.H2ResultCursor;
+import h2_database_api.classes.H2Rollup;
+import h2_database_api.classes.H2WriteBehindQueue;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /*
 * This class is a colection of database functionality tests.
@@ -50,6 +72,9 @@ public class DatabaseTests {
     private static final String TABLE_NAME_LOWER_CASE = "testtable";
     private static final String TABLE_NAME_MIXED_CASE = "TestTable";
     private static final String NON_EXISTING_TABLE_NAME = "nonExistingTable";
+    private static final String TYPED_TABLE_NAME = "TYPEDTABLE";
+    private static final String TYPED_TEXT_TABLE_NAME = "TYPEDTEXTTABLE";
+    private static final String PARTITIONED_TABLE_NAME = "PARTITIONEDTABLE";
     private final List<String> allColumnNames = asList("ID", "FIRST_NAME", "LAST_NAME");
     private final List<String> columnNames = asList("FIRST_NAME", "LAST_NAME");
 
@@ -62,6 +87,18 @@ public class DatabaseTests {
     private final List<String> returnTwo = asList("3", "Roman", "Kaskader");
     private final List<String> returnThree = asList("4", "Jaroslaw", "Kulesza");
 
+    private final List<String> typedColumnNames = asList("host", "time", "status", "bytes");
+    private final List<String> typedValuesOne = asList("10.0.0.1", "2015-12-06 10:00:00", "200", "-");
+    private final List<String> typedValuesTwo = asList("10.0.0.2", "2015-12-06T10:00:01", "404", "1024");
+    private final List<String> typedValuesThree = asList("10.0.0.3", "2015-12-06 10:00:02", "500", "5000000000");
+
+    private final List<String> partitionedValuesOne = asList("10.0.0.1", "2015-12-05 23:59:59", "200", "10");
+    private final List<String> partitionedValuesTwo = asList("10.0.0.2", "2015-12-06 00:00:00", "404", "20");
+    private final List<String> partitionedValuesThree = asList("10.0.0.3", "2015-12-07 12:00:00", "500", "30");
+    private final List<String> partitionedValuesContinued = asList("10.0.0.3", "", "", "");
+
+    private static final String POOL_DATABASE_URL = "jdbc:h2:tcp://localhost/~/test;IFEXISTS=TRUE";
+
     private final List<String> insertInjection = asList("Jaroslaw", "Kulesza); drop table TEST_TABLE; --");
 
     /* Test for addTable method.
@@ -248,6 +285,851 @@ public class DatabaseTests {
         }
     }
 
+    /* Test for inserting rows in many small chunks, with multi-row INSERT statements.
+     All rows should be inserted in the original order and counted in insert statistics */
+    @Test
+    public void chunkedMultiRowInsertTest() throws SQLException {
+        H2DatabaseAccessor chunkingAccessor = new H2DatabaseAccessor("sa", "", "tcp://localhost/~/test");
+        chunkingAccessor.setInsertChunking(1, 3, 1024 * 1024, 1000);
+        chunkingAccessor.setMultiRowInserts(true);
+        try {
+            assertTrue(chunkingAccessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            assertTrue(chunkingAccessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo, valuesThree, valuesFour)));
+            List<List<String>> result = chunkingAccessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, null);
+            assertEquals(asList(valuesOne, valuesTwo, valuesThree, valuesFour), result);
+            assertEquals(4, chunkingAccessor.getInsertStatistics().getRows());
+            assertTrue(chunkingAccessor.getInsertStatistics().getChunks() >= 2);
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE);
+            chunkingAccessor.close();
+        }
+    }
+
+    /* Test for tables with typed columns. Types are inferred from sample rows, values are converted when inserted
+     and column is widened when a value does not fit it */
+    @Test
+    public void typedTableTest() throws SQLException {
+        try {
+            List<H2ColumnType> types = H2ColumnType.inferAll(asList(typedValuesOne, typedValuesTwo));
+            assertEquals(asList(H2ColumnType.SHORT_VARCHAR, H2ColumnType.TIMESTAMP, H2ColumnType.INT, H2ColumnType.INT), types);
+            assertTrue(accessor.addTable(TYPED_TABLE_NAME, typedColumnNames, types));
+            assertTrue(accessor.addRowsToTable(TYPED_TABLE_NAME, typedColumnNames, asList(typedValuesOne, typedValuesTwo)));
+            assertTrue(accessor.addRowsToTable(TYPED_TABLE_NAME, typedColumnNames, asList(typedValuesThree)));
+            assertEquals(H2ColumnType.BIGINT, accessor.getColumnTypes(TYPED_TABLE_NAME).get(3));
+
+            List<List<String>> result = accessor.selectValuesFromTable(TYPED_TABLE_NAME, asList("status", "bytes"), null);
+            assertEquals(3, result.size());
+            assertEquals(asList("200", null), result.get(0));
+            assertEquals(asList("500", "5000000000"), result.get(2));
+
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("status", "^[45]");
+            assertEquals(2, accessor.countValuesFromTable(TYPED_TABLE_NAME, regexMap));
+        } finally {
+            dropTables(TYPED_TABLE_NAME);
+        }
+    }
+
+    /* Test for values which would lose their text in typed columns. Timestamps with offset and "-" are not inferred
+     as timestamps and widen timestamp column to text, regex filters of typed columns match text rendered by H2 */
+    @Test
+    public void typedColumnTextTest() throws SQLException {
+        try {
+            assertEquals(H2ColumnType.SHORT_VARCHAR, H2ColumnType.infer(asList("2015-12-06T10:00:00+01:00", "2015-12-06T10:00:01")));
+            assertEquals(H2ColumnType.SHORT_VARCHAR, H2ColumnType.infer(asList("06/Dec/2015:10:00:01 +0000")));
+            assertEquals(H2ColumnType.SHORT_VARCHAR, H2ColumnType.infer(asList("2015-12-06 10:00:00", "-")));
+            assertEquals(H2ColumnType.TIMESTAMP, H2ColumnType.infer(asList("2015-12-06T10:00:00", "Oct 11 22:14:15")));
+
+            List<H2ColumnType> types = H2ColumnType.inferAll(asList(typedValuesOne, typedValuesThree));
+            assertEquals(asList(H2ColumnType.SHORT_VARCHAR, H2ColumnType.TIMESTAMP, H2ColumnType.INT, H2ColumnType.BIGINT), types);
+            assertTrue(accessor.addTable(TYPED_TEXT_TABLE_NAME, typedColumnNames, types));
+            assertTrue(accessor.addRowsToTable(TYPED_TEXT_TABLE_NAME, typedColumnNames, asList(typedValuesOne, typedValuesThree)));
+
+            // Timestamp is matched in the form rendered by H2, missing number is NULL and never matched
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("time", "^2015-12-06 10:00:00\\.0$");
+            assertEquals(1, accessor.countValuesFromTable(TYPED_TEXT_TABLE_NAME, regexMap));
+            regexMap.put("time", "T10:00");
+            assertEquals(0, accessor.countValuesFromTable(TYPED_TEXT_TABLE_NAME, regexMap));
+            regexMap.clear();
+            regexMap.put("bytes", "^-$");
+            assertEquals(0, accessor.countValuesFromTable(TYPED_TEXT_TABLE_NAME, regexMap));
+            regexMap.put("bytes", "^5000000000$");
+            assertEquals(1, accessor.countValuesFromTable(TYPED_TEXT_TABLE_NAME, regexMap));
+
+            // Values with offset and "-" widen the column and are kept as written
+            assertTrue(accessor.addRowsToTable(TYPED_TEXT_TABLE_NAME, typedColumnNames, asList(
+                    asList("10.0.0.4", "2015-12-06T11:00:00+01:00", "200", "1"), asList("10.0.0.5", "-", "200", "2"))));
+            assertEquals(H2ColumnType.SHORT_VARCHAR, accessor.getColumnTypes(TYPED_TEXT_TABLE_NAME).get(1));
+            List<List<String>> result = accessor.selectValuesFromTable(TYPED_TEXT_TABLE_NAME, asList("time"), null);
+            assertEquals(asList(asList("2015-12-06 10:00:00.0"), asList("2015-12-06 10:00:02.0"),
+                    asList("2015-12-06T11:00:00+01:00"), asList("-")), result);
+            regexMap.clear();
+            regexMap.put("time", "\\+01:00$");
+            assertEquals(1, accessor.countValuesFromTable(TYPED_TEXT_TABLE_NAME, regexMap));
+        } finally {
+            dropTables(TYPED_TEXT_TABLE_NAME);
+        }
+    }
+
+    /* Test for streaming cursor. Rows are returned in order, and the connection goes back to the pool
+     when the cursor is exhausted or its stream is closed early */
+    @Test
+    public void resultCursorTest() throws SQLException {
+        try {
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo, valuesThree, valuesFour)));
+            List<List<String>> result = new ArrayList<>();
+            H2ResultCursor cursor = accessor.openCursor(TABLE_NAME_UPPER_CASE, columnNames, null, 2);
+            while (cursor.hasNext()) {
+                result.add(cursor.next());
+            }
+            assertEquals(asList(valuesOne, valuesTwo, valuesThree, valuesFour), result);
+            assertEquals(4, cursor.getRowsRead());
+            assertEquals(0, accessor.getPoolStatistics().getActive());
+
+            try (Stream<List<String>> rows = accessor.openCursor(TABLE_NAME_UPPER_CASE, columnNames, null, 2).stream()) {
+                assertEquals(asList(valuesOne), rows.limit(1).collect(Collectors.toList()));
+            }
+            assertEquals(0, accessor.getPoolStatistics().getActive());
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE);
+        }
+    }
+
+    /* Test for token index. Whole word searches find rows through the index with the same result as the regex alone,
+     rows inserted before and after the index was added are both found */
+    @Test
+    public void tokenIndexTest() throws SQLException {
+        try {
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo)));
+            accessor.addTokenIndex(TABLE_NAME_UPPER_CASE, asList("LAST_NAME"));
+            assertEquals(asList("LAST_NAME"), accessor.getTokenIndexColumns(TABLE_NAME_UPPER_CASE));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesThree, valuesFour)));
+
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("LAST_NAME", "\\bNowak\\b");
+            assertEquals(asList(valuesTwo), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap));
+            regexMap.put("LAST_NAME", "\\bkulesza\\b");
+            assertEquals(0, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            regexMap.put("LAST_NAME", "(?i)\\bkulesza\\b");
+            assertEquals(1, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            assertEquals(asList(valuesFour), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap));
+
+            // Superscript and roman numerals are not word characters of \b, combining mark after a letter is
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(asList("Jan", "\u00b2ERR42 failed"),
+                    asList("Jan", "\u2167ERR42"), asList("Jan", "e\u0301ERR42"), asList("Jan", "ERR42\u0301"))));
+            regexMap.put("LAST_NAME", "\\bERR42\\b");
+            assertEquals(asList(asList("Jan", "\u00b2ERR42 failed"), asList("Jan", "\u2167ERR42")),
+                    accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap));
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+            assertTrue(accessor.getTokenIndexColumns(TABLE_NAME_UPPER_CASE).isEmpty());
+
+            List<H2ColumnType> types = H2ColumnType.inferAll(asList(partitionedValuesOne, partitionedValuesTwo));
+            assertTrue(accessor.addPartitionedTable(PARTITIONED_TABLE_NAME, typedColumnNames, types, "time", ChronoUnit.DAYS));
+            accessor.addTokenIndex(PARTITIONED_TABLE_NAME, asList("host"));
+            assertTrue(accessor.addRowsToTable(PARTITIONED_TABLE_NAME, typedColumnNames,
+                    asList(partitionedValuesOne, partitionedValuesTwo, partitionedValuesThree, partitionedValuesContinued)));
+            regexMap = new HashMap<>(1);
+            regexMap.put("host", "\\b10 0 0 3\\b");
+            assertEquals(0, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, regexMap));
+            regexMap.put("host", "\\b3\\b");
+            assertEquals(2, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, regexMap));
+            assertEquals(2, accessor.countValuesFromTimeRange(PARTITIONED_TABLE_NAME, regexMap, LocalDateTime.of(2015, 12, 7, 0, 0), null));
+            assertEquals(2, accessor.dropPartitionsBefore(PARTITIONED_TABLE_NAME, LocalDateTime.of(2015, 12, 7, 0, 0)));
+            regexMap.put("host", "\\b0\\b");
+            assertEquals(2, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, regexMap));
+            accessor.dropTable(PARTITIONED_TABLE_NAME);
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE, PARTITIONED_TABLE_NAME);
+        }
+    }
+
+    /* Test for trigram index. Regexes with literal text find rows through index in plain and partitioned table,
+     also after retention, and regexes without it are checked on all rows */
+    @Test
+    public void trigramIndexTest() throws SQLException {
+        try {
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo)));
+            accessor.addTrigramIndex(TABLE_NAME_UPPER_CASE, asList("LAST_NAME"));
+            assertEquals(asList("LAST_NAME"), accessor.getTrigramIndexColumns(TABLE_NAME_UPPER_CASE));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesThree, valuesFour)));
+
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("LAST_NAME", "wal.ki");
+            assertEquals(asList(valuesOne), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap));
+            regexMap.put("LAST_NAME", "K(ask|ule)");
+            assertEquals(2, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            regexMap.put("LAST_NAME", "NOWAK");
+            assertEquals(0, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            regexMap.put("LAST_NAME", "(?i)NOWAK$");
+            assertEquals(asList(valuesTwo), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap));
+            regexMap.put("LAST_NAME", "^Ka.*der$|Kul");
+            assertEquals(asList(valuesThree, valuesFour), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap));
+            regexMap.put("LAST_NAME", "[KN]o");
+            assertEquals(2, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+            assertTrue(accessor.getTrigramIndexColumns(TABLE_NAME_UPPER_CASE).isEmpty());
+
+            // Characters equal ignoring case only in Unicode, long s and dotless i, are found with (?iu)
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            accessor.addTrigramIndex(TABLE_NAME_UPPER_CASE, asList("LAST_NAME"));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(asList("Jan", "Kowal\u017Fki"), asList("Jan", "L\u0131nda"))));
+            regexMap.put("LAST_NAME", "(?iu)kowalski");
+            assertEquals(asList(asList("Jan", "Kowal\u017Fki")), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap));
+            regexMap.put("LAST_NAME", "(?iu)LINDA");
+            assertEquals(1, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            regexMap.put("LAST_NAME", "(?i)LINDA");
+            assertEquals(0, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+
+            List<H2ColumnType> types = H2ColumnType.inferAll(asList(partitionedValuesOne, partitionedValuesTwo));
+            assertTrue(accessor.addPartitionedTable(PARTITIONED_TABLE_NAME, typedColumnNames, types, "time", ChronoUnit.DAYS));
+            accessor.addTrigramIndex(PARTITIONED_TABLE_NAME, asList("host"));
+            assertTrue(accessor.addRowsToTable(PARTITIONED_TABLE_NAME, typedColumnNames,
+                    asList(partitionedValuesOne, partitionedValuesTwo, partitionedValuesThree, partitionedValuesContinued)));
+            regexMap = new HashMap<>(1);
+            regexMap.put("host", "0\\.0\\.3");
+            assertEquals(2, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, regexMap));
+            assertEquals(2, accessor.countValuesFromTimeRange(PARTITIONED_TABLE_NAME, regexMap, LocalDateTime.of(2015, 12, 7, 0, 0), null));
+            assertEquals(2, accessor.dropPartitionsBefore(PARTITIONED_TABLE_NAME, LocalDateTime.of(2015, 12, 7, 0, 0)));
+            regexMap.put("host", "^10\\.0");
+            assertEquals(2, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, regexMap));
+            accessor.dropTable(PARTITIONED_TABLE_NAME);
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE, PARTITIONED_TABLE_NAME);
+        }
+    }
+
+    /* Test for summary of values. Counts answered from summary are the same as counts of rows, also after retention
+     and after column with many values is switched to sketch */
+    @Test
+    public void valueSummaryTest() throws SQLException {
+        try {
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo, valuesTwo)));
+            accessor.addValueSummary(TABLE_NAME_UPPER_CASE, asList("LAST_NAME"));
+            assertEquals(asList("LAST_NAME"), accessor.getValueSummaryColumns(TABLE_NAME_UPPER_CASE));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesThree, valuesTwo)));
+
+            assertEquals(5, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null));
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("LAST_NAME", "^Nowak$");
+            assertEquals(3, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            regexMap.put("LAST_NAME", "^Kulesza$");
+            assertEquals(0, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            regexMap.put("LAST_NAME", "^K");
+            assertEquals(2, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            Map<String, Long> histogram = accessor.getValueCounts(TABLE_NAME_UPPER_CASE, "LAST_NAME");
+            assertEquals("Nowak", histogram.keySet().iterator().next());
+            assertEquals(Long.valueOf(1), histogram.get("Kaskader"));
+            assertEquals(3, accessor.estimateValueCount(TABLE_NAME_UPPER_CASE, "LAST_NAME", "Nowak"));
+
+            List<List<String>> manyValues = new ArrayList<>();
+            for (int index = 0; index < 1100; index++) {
+                manyValues.add(asList("Jan", "Nazwisko" + index));
+            }
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, manyValues));
+            assertEquals(null, accessor.getValueCounts(TABLE_NAME_UPPER_CASE, "LAST_NAME"));
+            assertTrue(accessor.estimateValueCount(TABLE_NAME_UPPER_CASE, "LAST_NAME", "Nowak") >= 3);
+            regexMap.put("LAST_NAME", "^Nazwisko7$");
+            assertEquals(1, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            regexMap.put("LAST_NAME", "^Kulesza$");
+            assertEquals(0, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            assertEquals(1105, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null));
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+            assertTrue(accessor.getValueSummaryColumns(TABLE_NAME_UPPER_CASE).isEmpty());
+
+            List<H2ColumnType> types = H2ColumnType.inferAll(asList(partitionedValuesOne, partitionedValuesTwo));
+            assertTrue(accessor.addPartitionedTable(PARTITIONED_TABLE_NAME, typedColumnNames, types, "time", ChronoUnit.DAYS));
+            accessor.addValueSummary(PARTITIONED_TABLE_NAME, asList("host", "status"));
+            assertTrue(accessor.addRowsToTable(PARTITIONED_TABLE_NAME, typedColumnNames,
+                    asList(partitionedValuesOne, partitionedValuesTwo, partitionedValuesThree, partitionedValuesContinued)));
+            regexMap = new HashMap<>(1);
+            regexMap.put("host", "^10\\.0\\.0\\.3$");
+            assertEquals(2, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, regexMap));
+            regexMap = new HashMap<>(1);
+            regexMap.put("status", "^404$");
+            assertEquals(1, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, regexMap));
+            assertEquals(2, accessor.dropPartitionsBefore(PARTITIONED_TABLE_NAME, LocalDateTime.of(2015, 12, 7, 0, 0)));
+            assertEquals(0, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, regexMap));
+            assertEquals(2, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, null));
+            accessor.dropTable(PARTITIONED_TABLE_NAME);
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE, PARTITIONED_TABLE_NAME);
+        }
+    }
+
+    /* Test for rollups. Rows already in the table and inserted later are aggregated per minute, hour and day,
+     buckets can be grouped and filtered by group columns and are kept when retention drops partitions */
+    @Test
+    public void rollupTest() throws SQLException {
+        try {
+            List<H2ColumnType> types = H2ColumnType.inferAll(asList(partitionedValuesOne, partitionedValuesTwo));
+            assertTrue(accessor.addPartitionedTable(PARTITIONED_TABLE_NAME, typedColumnNames, types, "time", ChronoUnit.DAYS));
+            assertTrue(accessor.addRowsToTable(PARTITIONED_TABLE_NAME, typedColumnNames, asList(partitionedValuesOne)));
+            accessor.addRollup(PARTITIONED_TABLE_NAME, "time", asList("host", "status"), asList("bytes"));
+            assertEquals(asList("host", "status"), accessor.getRollup(PARTITIONED_TABLE_NAME).getGroupColumns());
+            assertTrue(accessor.addRowsToTable(PARTITIONED_TABLE_NAME, typedColumnNames, asList(partitionedValuesTwo, partitionedValuesThree,
+                    partitionedValuesContinued, asList("10.0.0.3", "2015-12-07 12:00:30", "503", "40"))));
+
+            List<H2Rollup.Bucket> days = accessor.aggregate(PARTITIONED_TABLE_NAME, ChronoUnit.DAYS, new ArrayList<>(), null, null, null);
+            assertEquals(3, days.size());
+            assertEquals(LocalDateTime.of(2015, 12, 5, 0, 0), days.get(0).getStart());
+            assertEquals(1, days.get(0).getCount());
+            assertEquals(Long.valueOf(10), days.get(0).getSum("bytes"));
+            assertEquals(2, days.get(2).getCount());
+            assertEquals(Long.valueOf(30), days.get(2).getMinimum("bytes"));
+            assertEquals(Long.valueOf(40), days.get(2).getMaximum("bytes"));
+            assertEquals(Long.valueOf(70), days.get(2).getSum("bytes"));
+
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("status", "^5");
+            List<H2Rollup.Bucket> errors = accessor.aggregate(PARTITIONED_TABLE_NAME, ChronoUnit.MINUTES, asList("host"), regexMap, null, null);
+            assertEquals(1, errors.size());
+            assertEquals(LocalDateTime.of(2015, 12, 7, 12, 0), errors.get(0).getStart());
+            assertEquals(asList("10.0.0.3"), errors.get(0).getGroupValues());
+            assertEquals(2, errors.get(0).getCount());
+            List<H2Rollup.Bucket> hours = accessor.aggregate(PARTITIONED_TABLE_NAME, ChronoUnit.HOURS, asList("status"), null,
+                    LocalDateTime.of(2015, 12, 6, 0, 0), LocalDateTime.of(2015, 12, 7, 0, 0));
+            assertEquals(1, hours.size());
+            assertEquals(asList("404"), hours.get(0).getGroupValues());
+
+            assertEquals(2, accessor.dropPartitionsBefore(PARTITIONED_TABLE_NAME, LocalDateTime.of(2015, 12, 7, 0, 0)));
+            assertEquals(3, accessor.aggregate(PARTITIONED_TABLE_NAME, ChronoUnit.DAYS, new ArrayList<>(), null, null, null).size());
+            accessor.dropTable(PARTITIONED_TABLE_NAME);
+            assertEquals(null, accessor.getRollup(PARTITIONED_TABLE_NAME));
+        } finally {
+            dropTables(PARTITIONED_TABLE_NAME);
+        }
+    }
+
+    /* Test for cache of query results. Repeated queries are answered from the cache until rows are inserted,
+     results can be changed by callers without changing the cache and least recently used results are evicted */
+    @Test
+    public void queryCacheTest() throws SQLException {
+        try {
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo)));
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("LAST_NAME", "^Nowak$");
+            List<List<String>> first = accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null);
+            first.clear();
+            regexMap.put("LAST_NAME", "^Kowalski$");
+            assertEquals(asList(valuesOne), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null));
+            regexMap.put("LAST_NAME", "^Nowak$");
+            assertEquals(asList(valuesTwo), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null));
+            assertEquals(2, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null));
+            assertEquals(2, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null));
+            assertEquals(2, accessor.getQueryCacheStatistics().getHits());
+            assertEquals(3, accessor.getQueryCacheStatistics().getMisses());
+
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesTwo)));
+            assertEquals(0, accessor.getQueryCacheStatistics().getEntries());
+            assertEquals(asList(valuesTwo, valuesTwo), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null));
+            assertEquals(3, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null));
+
+            H2DatabaseAccessor.Page page = accessor.selectPage(TABLE_NAME_UPPER_CASE, columnNames, null, "id", null, true, 2);
+            H2DatabaseAccessor.Page next = accessor.selectPage(TABLE_NAME_UPPER_CASE, columnNames, null, "id", page.getLastKey(), true, 2);
+            assertEquals(next.getRows(), accessor.selectPage(TABLE_NAME_UPPER_CASE, columnNames, null, "id", page.getLastKey(), true, 2).getRows());
+            assertEquals(3, accessor.getQueryCacheStatistics().getHits());
+
+            accessor.setQueryCache(1, 1024 * 1024, 30000);
+            assertEquals(1, accessor.getQueryCacheStatistics().getEntries());
+            assertTrue(accessor.getQueryCacheStatistics().getEvictions() >= 3);
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+            assertEquals(0, accessor.getQueryCacheStatistics().getEntries());
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE);
+        }
+    }
+
+    /* Test for bound parameters and statements kept by pooled connections. Pages differing only in limit and offset
+     reuse one statement, and regexes are matched exactly as given, also with quotes */
+    @Test
+    public void preparedStatementCacheTest() throws SQLException {
+        try {
+            accessor.setQueryCache(0, 0, 0);
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            List<String> valuesQuoted = asList("Sean", "O'Brien");
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo, valuesQuoted)));
+            assertEquals(asList(valuesOne), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, null, 1, null));
+            long hits = accessor.getPoolStatistics().getStatementHits();
+            assertEquals(asList(valuesTwo), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, null, 1, 1));
+            assertEquals(asList(valuesQuoted), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, null, 1, 2));
+            assertTrue(accessor.getPoolStatistics().getStatementHits() >= hits + 2);
+
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("LAST_NAME", "^O'Brien$");
+            assertEquals(asList(valuesQuoted), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null));
+            assertEquals(1, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            regexMap.put("LAST_NAME", "^OBrien$");
+            assertEquals(0, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE);
+        }
+    }
+
+
+    /* Test for cached metadata of tables changed by another accessor. Dropped or recreated table is seen after time to live
+     of the cache, or right away when a statement fails because of the change */
+    @Test
+    public void schemaCacheTest() throws Exception {
+        H2DatabaseAccessor other = new H2DatabaseAccessor("sa", "", "tcp://localhost/~/test");
+        try {
+            accessor.setSchemaCacheTtl(500);
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            assertTrue(accessor.checkIfTableExists(TABLE_NAME_UPPER_CASE));
+            other.dropTable(TABLE_NAME_UPPER_CASE);
+            assertTrue(accessor.checkIfTableExists(TABLE_NAME_UPPER_CASE));
+            for (int wait = 0; wait < 20 && accessor.checkIfTableExists(TABLE_NAME_UPPER_CASE); wait++) {
+                Thread.sleep(100);
+            }
+            assertFalse(accessor.checkIfTableExists(TABLE_NAME_UPPER_CASE));
+
+            accessor.setSchemaCacheTtl(60000);
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            assertTrue(accessor.getColumnNames(TABLE_NAME_UPPER_CASE).containsAll(columnNames));
+            other.dropTable(TABLE_NAME_UPPER_CASE);
+            assertTrue(other.addTable(TABLE_NAME_UPPER_CASE, asList("HOST")));
+            assertTrue(accessor.getColumnNames(TABLE_NAME_UPPER_CASE).containsAll(columnNames));
+            try {
+                accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, null, null, null);
+                fail("Selected columns of dropped table");
+            } catch (SQLException e) {
+                // Column not found, metadata of the table is dropped
+            }
+            List<String> altered = accessor.getColumnNames(TABLE_NAME_UPPER_CASE);
+            assertTrue(altered.contains("HOST"));
+            assertFalse(altered.contains("FIRST_NAME"));
+
+            other.dropTable(TABLE_NAME_UPPER_CASE);
+            try {
+                accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null);
+                fail("Counted rows of dropped table");
+            } catch (SQLException e) {
+                // Table not found, metadata of the table is dropped
+            }
+            assertFalse(accessor.checkIfTableExists(TABLE_NAME_UPPER_CASE));
+        } finally {
+            // Table is dropped by what it is now, not by what the cache remembers
+            accessor.setSchemaCacheTtl(0);
+            if (accessor.checkIfTableExists(TABLE_NAME_UPPER_CASE)) {
+                accessor.dropTable(TABLE_NAME_UPPER_CASE);
+            }
+            other.close();
+        }
+    }
+
+    /* Test for waiting for a free connection of the pool. Borrowing from a full pool fails after the borrow timeout,
+     and succeeds once a connection is returned, also for a borrower that is already waiting */
+    @Test
+    public void poolBorrowTimeoutTest() throws Exception {
+        H2ConnectionPool pool = new H2ConnectionPool(new H2DatabaseConnector("sa", "", POOL_DATABASE_URL), 1, 300, 60000, 60000);
+        try {
+            Connection first = pool.getConnection();
+            long start = System.nanoTime();
+            try {
+                pool.getConnection();
+                fail("Borrowed a connection from a full pool");
+            } catch (SQLException e) {
+                assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+            }
+            assertEquals(1, pool.getStatistics().getTimeouts());
+
+            Connection[] waited = new Connection[1];
+            Thread borrower = new Thread(() -> {
+                try {
+                    waited[0] = pool.getConnection();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            });
+            borrower.start();
+            Thread.sleep(100);
+            first.close();
+            borrower.join();
+            assertTrue(waited[0] != null);
+            assertEquals(1, pool.getStatistics().getCreated());
+            waited[0].close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    /* Test for eviction of idle connections. Connections returned to the pool are closed once idle
+     longer than the idle timeout, and the pool opens new ones when needed afterwards */
+    @Test
+    public void poolIdleEvictionTest() throws Exception {
+        H2ConnectionPool pool = new H2ConnectionPool(new H2DatabaseConnector("sa", "", POOL_DATABASE_URL), 2, 1000, 500, 60000);
+        try {
+            Connection first = pool.getConnection();
+            Connection second = pool.getConnection();
+            first.close();
+            second.close();
+            assertEquals(2, pool.getStatistics().getIdle());
+            for (int wait = 0; wait < 50 && pool.getStatistics().getSize() > 0; wait++) {
+                Thread.sleep(100);
+            }
+            assertEquals(0, pool.getStatistics().getSize());
+            assertEquals(2, pool.getStatistics().getDestroyed());
+            Connection third = pool.getConnection();
+            assertTrue(third.isValid(1));
+            third.close();
+            assertEquals(3, pool.getStatistics().getCreated());
+        } finally {
+            pool.close();
+        }
+    }
+
+    /* Test for validation of idle connections. A connection broken while idle is not lent again, a new one is opened instead,
+     and statements closed by the borrower are kept by the connection for the next borrower */
+    @Test
+    public void poolValidationTest() throws Exception {
+        H2ConnectionPool pool = new H2ConnectionPool(new H2DatabaseConnector("sa", "", POOL_DATABASE_URL), 1, 1000, 60000, 0);
+        try {
+            Connection lent = pool.getConnection();
+            Connection physical = lent.unwrap(Connection.class);
+            for (int i = 0; i < 100; i++) {
+                PreparedStatement statement = lent.prepareStatement("select 1");
+                statement.executeQuery().close();
+                statement.close();
+            }
+            assertEquals(99, pool.getStatistics().getStatementHits());
+            lent.close();
+            physical.close();
+            Thread.sleep(10);
+
+            Connection renewed = pool.getConnection();
+            try {
+                assertEquals(1, pool.getStatistics().getValidationFailures());
+                assertEquals(2, pool.getStatistics().getCreated());
+                PreparedStatement statement = renewed.prepareStatement("select 1");
+                assertTrue(statement.executeQuery().next());
+                statement.close();
+            } finally {
+                renewed.close();
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    /* Test for rewriting of regexes into IN and LIKE conditions. Exact texts, alternations and prefixes find the same
+     rows as the regexes, also values ending with line terminator and prefixes containing wildcards of LIKE */
+    @Test
+    public void regexRewriteTest() throws SQLException {
+        try {
+            accessor.setQueryCache(0, 0, 0);
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            List<String> valuesPercent = asList("Jan", "Kow%ski");
+            List<String> valuesTerminated = asList("Andrzej", "Nowak\n");
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames,
+                    asList(valuesOne, valuesTwo, valuesThree, valuesPercent, valuesTerminated)));
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("LAST_NAME", "^Nowak$");
+            assertEquals(asList(valuesTwo, valuesTerminated), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null));
+            regexMap.put("LAST_NAME", "^(Nowak|Kaskader)$");
+            assertEquals(3, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, regexMap));
+            regexMap.put("LAST_NAME", "^Kow");
+            assertEquals(asList(valuesOne, valuesPercent), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null));
+            regexMap.put("LAST_NAME", "^Kow%");
+            assertEquals(asList(valuesPercent), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null));
+            regexMap.put("LAST_NAME", "^Kow\\w+i$");
+            assertEquals(asList(valuesOne), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null));
+            regexMap.put("LAST_NAME", "^Kowalskii?$");
+            assertEquals(asList(valuesOne), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, regexMap, null, null));
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE);
+        }
+    }
+
+    /* Test for keyset pagination. Pages are found by seeking from the key of neighbouring page in both directions,
+     by ID of plain table and by time column of partitioned table */
+    @Test
+    public void keysetPaginationTest() throws SQLException {
+        try {
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            assertTrue(accessor.addRowsToTable(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo, valuesThree, valuesFour)));
+            H2DatabaseAccessor.Page first = accessor.selectPage(TABLE_NAME_UPPER_CASE, columnNames, null, "id", null, true, 3);
+            assertEquals(asList(valuesOne, valuesTwo, valuesThree), first.getRows());
+            H2DatabaseAccessor.Page next = accessor.selectPage(TABLE_NAME_UPPER_CASE, columnNames, null, "id", first.getLastKey(), true, 3);
+            assertEquals(asList(valuesFour), next.getRows());
+            assertTrue(accessor.selectPage(TABLE_NAME_UPPER_CASE, columnNames, null, "id", next.getLastKey(), true, 3).isEmpty());
+            H2DatabaseAccessor.Page previous = accessor.selectPage(TABLE_NAME_UPPER_CASE, columnNames, null, "id", next.getFirstKey(), false, 3);
+            assertEquals(first.getRows(), previous.getRows());
+            H2DatabaseAccessor.Page last = accessor.selectPage(TABLE_NAME_UPPER_CASE, columnNames, null, "id", null, false, 3);
+            assertEquals(asList(valuesTwo, valuesThree, valuesFour), last.getRows());
+
+            List<H2ColumnType> types = H2ColumnType.inferAll(asList(partitionedValuesOne, partitionedValuesTwo));
+            assertTrue(accessor.addPartitionedTable(PARTITIONED_TABLE_NAME, typedColumnNames, types, "time", ChronoUnit.DAYS));
+            assertTrue(accessor.addRowsToTable(PARTITIONED_TABLE_NAME, typedColumnNames,
+                    asList(partitionedValuesThree, partitionedValuesOne, partitionedValuesTwo)));
+            H2DatabaseAccessor.Page firstByTime = accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host"), null, "time", null, true, 2);
+            assertEquals(asList(asList("10.0.0.1"), asList("10.0.0.2")), firstByTime.getRows());
+            H2DatabaseAccessor.Page nextByTime = accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host"), null, "time", firstByTime.getLastKey(), true, 2);
+            assertEquals(asList(asList("10.0.0.3")), nextByTime.getRows());
+            accessor.dropTable(PARTITIONED_TABLE_NAME);
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE, PARTITIONED_TABLE_NAME);
+        }
+    }
+
+    /* Test for keyset pagination of partitioned table by its time column. Pages are read partition by partition,
+     rows without time stay next to the row they continue, and pages crossing the boundary of partitions are the same
+     in both directions, also with regex filter */
+    @Test
+    public void partitionedPaginationTest() throws SQLException {
+        List<H2ColumnType> types = H2ColumnType.inferAll(asList(partitionedValuesOne, partitionedValuesTwo));
+        assertTrue(accessor.addPartitionedTable(PARTITIONED_TABLE_NAME, typedColumnNames, types, "time", ChronoUnit.DAYS));
+        try {
+            List<List<String>> rows = new ArrayList<>();
+            for (int day = 5; day <= 7; day++) {
+                // Every day has a row continued by a row without time
+                rows.add(asList("10.0.0." + day, String.format("2015-12-%02d 10:00:00", day), "200", "1"));
+                rows.add(asList("10.0.0." + day, "", "", ""));
+                rows.add(asList("10.0.1." + day, String.format("2015-12-%02d 11:00:00", day), "200", "1"));
+            }
+            assertTrue(accessor.addRowsToTable(PARTITIONED_TABLE_NAME, typedColumnNames, rows));
+            assertEquals(3, accessor.getPartitions(PARTITIONED_TABLE_NAME).size());
+
+            H2DatabaseAccessor.Page first = accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host", "time"), null, "time", null, true, 4);
+            assertEquals(asList("10.0.0.5", "10.0.0.5", "10.0.1.5", "10.0.0.6"), getColumn(first.getRows(), 0));
+            assertEquals(null, first.getRows().get(1).get(1));
+            assertEquals("2015-12-06 10:00:00.0", first.getRows().get(3).get(1));
+            H2DatabaseAccessor.Page second = accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host", "time"), null, "time", first.getLastKey(), true, 4);
+            assertEquals(asList("10.0.0.6", "10.0.1.6", "10.0.0.7", "10.0.0.7"), getColumn(second.getRows(), 0));
+            H2DatabaseAccessor.Page third = accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host", "time"), null, "time", second.getLastKey(), true, 4);
+            assertEquals(asList("10.0.1.7"), getColumn(third.getRows(), 0));
+            assertTrue(accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host"), null, "time", third.getLastKey(), true, 4).isEmpty());
+
+            assertEquals(second.getRows(), accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host", "time"), null, "time",
+                    third.getFirstKey(), false, 4).getRows());
+            assertEquals(first.getRows(), accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host", "time"), null, "time",
+                    second.getFirstKey(), false, 4).getRows());
+            assertTrue(accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host"), null, "time", first.getFirstKey(), false, 4).isEmpty());
+            H2DatabaseAccessor.Page last = accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host"), null, "time", null, false, 4);
+            assertEquals(asList("10.0.1.6", "10.0.0.7", "10.0.0.7", "10.0.1.7"), getColumn(last.getRows(), 0));
+
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("host", "^10\\.0\\.0\\.");
+            H2DatabaseAccessor.Page filtered = accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host"), regexMap, "time", null, true, 3);
+            assertEquals(asList("10.0.0.5", "10.0.0.5", "10.0.0.6"), getColumn(filtered.getRows(), 0));
+            H2DatabaseAccessor.Page filteredNext = accessor.selectPage(PARTITIONED_TABLE_NAME, asList("host"), regexMap, "time",
+                    filtered.getLastKey(), true, 3);
+            assertEquals(asList("10.0.0.6", "10.0.0.7", "10.0.0.7"), getColumn(filteredNext.getRows(), 0));
+        } finally {
+            accessor.dropTable(PARTITIONED_TABLE_NAME);
+        }
+    }
+
+    private void dropTables(String... tableNames) throws SQLException {
+        for (String tableName : tableNames) {
+            if (accessor.checkIfTableExists(tableName)) {
+                accessor.dropTable(tableName);
+            }
+        }
+    }
+
+    private static List<String> getColumn(List<List<String>> rows, int column) {
+        return rows.stream().map(row -> row.get(column)).collect(Collectors.toList());
+    }
+
+    /* Test for tables partitioned by days. Rows are stored in partition of their day and the table can still be read as a whole,
+     time range queries read only overlapping partitions and retention drops whole partitions */
+    @Test
+    public void partitionedTableTest() throws SQLException {
+        try {
+            List<H2ColumnType> types = H2ColumnType.inferAll(asList(partitionedValuesOne, partitionedValuesTwo));
+            assertTrue(accessor.addPartitionedTable(PARTITIONED_TABLE_NAME, typedColumnNames, types, "time", ChronoUnit.DAYS));
+            assertTrue(accessor.addRowsToTable(PARTITIONED_TABLE_NAME, typedColumnNames,
+                    asList(partitionedValuesOne, partitionedValuesTwo, partitionedValuesThree, partitionedValuesContinued)));
+            assertEquals(asList(PARTITIONED_TABLE_NAME + "_p20151205", PARTITIONED_TABLE_NAME + "_p20151206", PARTITIONED_TABLE_NAME + "_p20151207"),
+                    accessor.getPartitions(PARTITIONED_TABLE_NAME));
+            assertEquals(4, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, null));
+
+            List<List<String>> result = accessor.selectValuesFromTimeRange(PARTITIONED_TABLE_NAME, asList("host"), null,
+                    LocalDateTime.of(2015, 12, 6, 0, 0), LocalDateTime.of(2015, 12, 7, 0, 0), null, null);
+            assertEquals(1, result.size());
+            assertEquals(asList("10.0.0.2"), result.get(0));
+            HashMap<String, String> regexMap = new HashMap<>(1);
+            regexMap.put("host", "3$");
+            assertEquals(2, accessor.countValuesFromTimeRange(PARTITIONED_TABLE_NAME, regexMap, LocalDateTime.of(2015, 12, 6, 0, 0), null));
+
+            assertEquals(2, accessor.dropPartitionsBefore(PARTITIONED_TABLE_NAME, LocalDateTime.of(2015, 12, 7, 0, 0)));
+            assertEquals(2, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, null));
+            accessor.dropTable(PARTITIONED_TABLE_NAME);
+            assertFalse(accessor.checkIfTableExists(PARTITIONED_TABLE_NAME));
+        } finally {
+            dropTables(PARTITIONED_TABLE_NAME);
+        }
+    }
+
+    /* Test for bulk load session of partitioned table. Rows loaded during the session are stored like regular inserts,
+     only one session can be open at a time and settings are restored when it is closed */
+    @Test
+    public void bulkLoadSessionTest() throws SQLException {
+        try {
+            List<H2ColumnType> types = H2ColumnType.inferAll(asList(partitionedValuesOne, partitionedValuesTwo));
+            assertTrue(accessor.addPartitionedTable(PARTITIONED_TABLE_NAME, typedColumnNames, types, "time", ChronoUnit.DAYS));
+            try (H2BulkLoadSession session = accessor.openBulkLoadSession(PARTITIONED_TABLE_NAME)) {
+                session.addRows(typedColumnNames, asList(partitionedValuesOne, partitionedValuesTwo));
+                session.addRows(typedColumnNames, asList(partitionedValuesThree, partitionedValuesContinued));
+                assertEquals(4, session.getLoadedRows());
+                try {
+                    accessor.openBulkLoadSession(PARTITIONED_TABLE_NAME);
+                    assertTrue(false);
+                } catch (IllegalStateException e) {
+                    // expected, session is already open
+                }
+            }
+            assertEquals(3, accessor.getPartitions(PARTITIONED_TABLE_NAME).size());
+            assertEquals(4, accessor.countValuesFromTable(PARTITIONED_TABLE_NAME, null));
+            assertEquals(1, accessor.selectValuesFromTimeRange(PARTITIONED_TABLE_NAME, asList("host"), null,
+                    LocalDateTime.of(2015, 12, 6, 0, 0), LocalDateTime.of(2015, 12, 7, 0, 0), null, null).size());
+            accessor.openBulkLoadSession(PARTITIONED_TABLE_NAME).close();
+            accessor.dropTable(PARTITIONED_TABLE_NAME);
+        } finally {
+            dropTables(PARTITIONED_TABLE_NAME);
+        }
+    }
+
+    /* Test for loading CSV file in bulk load session. Column names are stripped of escape characters and quoted,
+     like in other statements of the accessor */
+    @Test
+    public void bulkLoadCsvFileTest() throws IOException, SQLException {
+        File file = File.createTempFile("bulk_load", ".csv");
+        try {
+            Files.write(file.toPath(), asList("FIRST_NAME,LAST_NAME", "Jan,Kowalski", "Andrzej,Nowak"), StandardCharsets.UTF_8);
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            try (H2BulkLoadSession session = accessor.openBulkLoadSession(TABLE_NAME_UPPER_CASE)) {
+                assertEquals(2, session.loadCsvFile(file.getAbsolutePath(), asList("FIRST_NAME\n", "LAST_NAME'")));
+                assertEquals(2, session.getLoadedRows());
+            }
+            assertEquals(asList(valuesOne, valuesTwo), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, null));
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+        } finally {
+            dropTables(TABLE_NAME_UPPER_CASE);
+            assertTrue(file.delete());
+        }
+    }
+
+    /* Test for write-behind queue shared by two producers. Rows of both are written, checkpoints run after their rows,
+     and producer whose rows could not be written gets the error on its next call */
+    @Test
+    public void writeBehindQueueTest() throws Exception {
+        H2WriteBehindQueue queue = new H2WriteBehindQueue(accessor, 2, 10, 10);
+        try {
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            H2WriteBehindQueue.Producer first = queue.newProducer();
+            H2WriteBehindQueue.Producer second = queue.newProducer();
+            H2WriteBehindQueue.Producer failing = queue.newProducer();
+            long[] checkpointRows = new long[1];
+            first.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo));
+            second.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesThree));
+            first.checkpoint(() -> checkpointRows[0] = accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null));
+            second.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesFour));
+            failing.put(TABLE_NAME_LOWER_CASE + "_missing", columnNames, asList(valuesOne));
+            failing.checkpoint(() -> checkpointRows[0] = -1);
+            queue.close();
+
+            assertTrue(checkpointRows[0] >= 3);
+            assertEquals(4, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null));
+            assertEquals(4, queue.getStatistics().getCommittedRows());
+            assertEquals(0, queue.getStatistics().getQueuedRows());
+            assertEquals(1, queue.getStatistics().getFailures());
+            try {
+                failing.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne));
+                assertTrue(false);
+            } catch (SQLException e) {
+                // expected, earlier rows of the producer were not written
+            }
+        } finally {
+            queue.close();
+            dropTables(TABLE_NAME_UPPER_CASE);
+        }
+    }
+
+    /* Test for write-behind queue writing rows of many producers in one group. When the group fails it is written again
+     producer by producer, so only the producer of the bad row fails, and no rows are queued after the queue is closed */
+    @Test
+    public void writeBehindQueueGroupFailureTest() throws Exception {
+        H2WriteBehindQueue queue = new H2WriteBehindQueue(accessor, 100, 100, 5000);
+        try {
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            H2WriteBehindQueue.Producer good = queue.newProducer();
+            H2WriteBehindQueue.Producer bad = queue.newProducer();
+            long[] checkpointRows = new long[1];
+            good.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne, valuesTwo));
+            bad.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesThree, null));
+            good.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesFour));
+            good.checkpoint(() -> checkpointRows[0] = accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null));
+            bad.checkpoint(() -> checkpointRows[0] = -1);
+            queue.close();
+
+            assertEquals(3, checkpointRows[0]);
+            assertEquals(asList(valuesOne, valuesTwo, valuesFour), accessor.selectValuesFromTable(TABLE_NAME_UPPER_CASE, columnNames, null));
+            assertEquals(3, queue.getStatistics().getCommittedRows());
+            assertEquals(1, queue.getStatistics().getFailures());
+            try {
+                bad.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne));
+                assertTrue(false);
+            } catch (NullPointerException e) {
+                // expected, rows of the producer contained null row
+            }
+            try {
+                good.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne));
+                assertTrue(false);
+            } catch (IllegalStateException e) {
+                // expected, queue is closed
+            }
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+        } finally {
+            queue.close();
+            dropTables(TABLE_NAME_UPPER_CASE);
+        }
+    }
+
+    /* Test for write-behind queue whose writer stops with an error. Producers of items still queued fail
+     instead of waiting for rows which will never be written */
+    @Test
+    public void writeBehindQueueWriterErrorTest() throws Exception {
+        H2WriteBehindQueue queue = new H2WriteBehindQueue(accessor, 100, 100, 0);
+        try {
+            assertTrue(accessor.addTable(TABLE_NAME_UPPER_CASE, columnNames));
+            H2WriteBehindQueue.Producer first = queue.newProducer();
+            H2WriteBehindQueue.Producer second = queue.newProducer();
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            first.checkpoint(() -> {
+                started.countDown();
+                release.await();
+                throw new AssertionError("Writer error");
+            });
+            started.await();
+            second.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesOne));
+            release.countDown();
+            queue.close();
+
+            try {
+                second.put(TABLE_NAME_UPPER_CASE, columnNames, asList(valuesTwo));
+                assertTrue(false);
+            } catch (IllegalStateException e) {
+                assertTrue(e.getCause() instanceof AssertionError);
+            }
+            assertEquals(0, accessor.countValuesFromTable(TABLE_NAME_UPPER_CASE, null));
+            assertEquals(0, queue.getStatistics().getQueuedRows());
+            accessor.dropTable(TABLE_NAME_UPPER_CASE);
+        } finally {
+            queue.close();
+            dropTables(TABLE_NAME_UPPER_CASE);
+        }
+    }
+
     /* Case of SQL injection, through INSERT statement.
      Injected query shouldn't be executed but added to table */
     @Test
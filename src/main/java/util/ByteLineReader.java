@@ -0,0 +1,209 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Reads lines from a byte stream keeping track of how many bytes were consumed, so that reading can be resumed at that position later.
+ * Lines are terminated with '\n', a '\r' directly before it is dropped as well.
+ */
+public class ByteLineReader implements AutoCloseable {
+    private final InputStream in;
+    private final Charset charset;
+    private final boolean holdPartialLine;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int bufferStart = 0;
+    private int bufferEnd = 0;
+    private byte[] line = new byte[256];
+    private final CharsetDecoder decoder;
+    private CharBuffer chars = CharBuffer.allocate(256);
+    private long position = 0;
+    private byte[] tail = new byte[0];
+    private int tailStart = 0;
+    private int tailLength = 0;
+
+    /**
+     * @param in Stream to read from, it is closed with this reader.
+     * @param charset Charset used to decode lines.
+     * @param holdPartialLine Whether unterminated last line should be left unread, for example because the file is still being written.
+     */
+    public ByteLineReader(InputStream in, Charset charset, boolean holdPartialLine) {
+        this.in = in;
+        this.charset = charset;
+        this.holdPartialLine = holdPartialLine;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * @return Next line without its terminator, or null at the end of stream.
+     * @throws IOException When reading from the stream fails.
+     */
+    public String readLine() throws IOException {
+        int length = readRawLine();
+        return length < 0 ? null : new String(line, 0, length, charset);
+    }
+
+    /**
+     * Same as readLine, but decodes the line into a buffer reused by following calls instead of a new String.
+     *
+     * @return Next line without its terminator, valid until next call, or null at the end of stream.
+     * @throws IOException When reading from the stream fails.
+     */
+    public CharSequence readLineChars() throws IOException {
+        int length = readRawLine();
+        if (length < 0) {
+            return null;
+        }
+        int needed = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+        if (chars.capacity() < needed) {
+            chars = CharBuffer.allocate(needed);
+        }
+        chars.clear();
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(line, 0, length), chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return chars;
+    }
+
+    /**
+     * Reads next line into line buffer.
+     *
+     * @return Length of the line without its terminator, or -1 at the end of stream.
+     */
+    private int readRawLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (bufferStart == bufferEnd) {
+                int read = in.read(buffer);
+                if (read < 0) {
+                    if (length == 0 || holdPartialLine) {
+                        return -1;
+                    }
+                    position += length;
+                    appendTail(line, 0, length);
+                    if (line[length - 1] == '\r') {
+                        length--;
+                    }
+                    return length;
+                }
+                bufferStart = 0;
+                bufferEnd = read;
+            }
+            int end = bufferStart;
+            while (end < bufferEnd && buffer[end] != '\n') {
+                end++;
+            }
+            int count = end - bufferStart;
+            if (length + count > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+            }
+            System.arraycopy(buffer, bufferStart, line, length, count);
+            length += count;
+            if (end < bufferEnd) {
+                bufferStart = end + 1;
+                position += length + 1;
+                appendTail(line, 0, length);
+                appendTail(buffer, end, 1);
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+                return length;
+            }
+            bufferStart = bufferEnd;
+        }
+    }
+
+    /**
+     * @return Number of bytes consumed by lines returned so far, including their terminators.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Makes the reader remember last bytes of consumed lines, for example to fingerprint the position reached.
+     *
+     * @param initial Bytes consumed before this reader started, the last of them are kept too.
+     * @param capacity How many last bytes to keep.
+     */
+    public void keepTail(byte[] initial, int capacity) {
+        tail = new byte[capacity];
+        tailStart = 0;
+        tailLength = 0;
+        appendTail(initial, 0, initial.length);
+    }
+
+    /**
+     * @return Last bytes of consumed lines, as many as set by keepTail.
+     */
+    public byte[] getTail() {
+        byte[] out = new byte[tailLength];
+        int first = Math.min(tailLength, tail.length - tailStart);
+        System.arraycopy(tail, tailStart, out, 0, first);
+        System.arraycopy(tail, 0, out, first, tailLength - first);
+        return out;
+    }
+
+    private void appendTail(byte[] bytes, int offset, int length) {
+        int capacity = tail.length;
+        if (capacity == 0) {
+            return;
+        }
+        if (length >= capacity) {
+            System.arraycopy(bytes, offset + length - capacity, tail, 0, capacity);
+            tailStart = 0;
+            tailLength = capacity;
+            return;
+        }
+        int writeAt = (tailStart + tailLength) % capacity;
+        int first = Math.min(length, capacity - writeAt);
+        System.arraycopy(bytes, offset, tail, writeAt, first);
+        System.arraycopy(bytes, offset + first, tail, 0, length - first);
+        int overflow = Math.max(0, tailLength + length - capacity);
+        tailStart = (tailStart + overflow) % capacity;
+        tailLength = Math.min(capacity, tailLength + length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
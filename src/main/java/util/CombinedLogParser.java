@@ -0,0 +1,151 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parser of Apache and Nginx access logs in combined format:
+ * host ident user [time] "request" status bytes "referer" "user agent".
+ * Common format, without referer and user agent, is accepted too, those columns are then null.
+ * Anything after the user agent, like extra fields added by Nginx, is ignored.
+ */
+public class CombinedLogParser implements LineParser {
+    static final List<String> COLUMN_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "host", "ident", "user", "time", "request", "status", "bytes", "referer", "user_agent"));
+
+    @Override
+    public RowBuffer newRowBuffer() {
+        return new RowBuffer(COLUMN_NAMES.size());
+    }
+
+    @Override
+    public List<String> columnNames() {
+        return COLUMN_NAMES;
+    }
+
+    @Override
+    public boolean splitInto(CharSequence text, int start, int end, RowBuffer row) {
+        row.reset(text);
+        int pos = skipSpaces(text, start, end);
+        //host, ident, user
+        for (int i = 0; i < 3; i++) {
+            int tokenEnd = tokenEnd(text, pos, end);
+            if (tokenEnd == pos) {
+                return fail(text, row);
+            }
+            row.add(pos, tokenEnd);
+            pos = skipSpaces(text, tokenEnd, end);
+        }
+        if (pos >= end || text.charAt(pos) != '[') {
+            return fail(text, row);
+        }
+        int close = indexOf(text, ']', pos + 1, end);
+        if (close < 0) {
+            return fail(text, row);
+        }
+        row.add(pos + 1, close);
+        pos = skipSpaces(text, close + 1, end);
+        int quoteEnd = quotedEnd(text, pos, end);
+        if (quoteEnd < 0) {
+            return fail(text, row);
+        }
+        row.add(pos + 1, quoteEnd);
+        pos = skipSpaces(text, quoteEnd + 1, end);
+        //status, bytes
+        for (int i = 0; i < 2; i++) {
+            int tokenEnd = tokenEnd(text, pos, end);
+            if (tokenEnd == pos) {
+                return fail(text, row);
+            }
+            row.add(pos, tokenEnd);
+            pos = skipSpaces(text, tokenEnd, end);
+        }
+        //referer, user agent
+        for (int i = 0; i < 2; i++) {
+            quoteEnd = quotedEnd(text, pos, end);
+            if (quoteEnd < 0) {
+                row.add(-1, -1);
+            } else {
+                row.add(pos + 1, quoteEnd);
+                pos = skipSpaces(text, quoteEnd + 1, end);
+            }
+        }
+        return true;
+    }
+
+    static boolean fail(CharSequence text, RowBuffer row) {
+        row.reset(text);
+        return false;
+    }
+
+    static int skipSpaces(CharSequence text, int pos, int end) {
+        while (pos < end && text.charAt(pos) == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    static int tokenEnd(CharSequence text, int pos, int end) {
+        while (pos < end && text.charAt(pos) != ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    static int indexOf(CharSequence text, char c, int pos, int end) {
+        for (; pos < end; pos++) {
+            if (text.charAt(pos) == c) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Index of the closing quote of value starting at pos, -1 when there is no quoted value there.
+     */
+    static int quotedEnd(CharSequence text, int pos, int end) {
+        if (pos >= end || text.charAt(pos) != '"') {
+            return -1;
+        }
+        for (pos++; pos < end; pos++) {
+            char c = text.charAt(pos);
+            if (c == '\\') {
+                pos++;
+            } else if (c == '"') {
+                return pos;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static util.CombinedLogParser.fail;
+
+/**
+ * Parser of JSON lines logs, where every line is a single JSON object.
+ * Only the given members of the object become columns, in the given order, missing ones and JSON nulls are null.
+ * Strings are unescaped, other values, including nested objects and arrays, are kept as they are written.
+ */
+public class JsonLinesParser implements LineParser {
+    private final String[] fields;
+
+    public JsonLinesParser(List<String> fields) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("JSON lines parser needs at least one field");
+        }
+        this.fields = fields.toArray(new String[fields.size()]);
+    }
+
+    @Override
+    public RowBuffer newRowBuffer() {
+        return new RowBuffer(fields.length);
+    }
+
+    @Override
+    public List<String> columnNames() {
+        return Collections.unmodifiableList(Arrays.asList(fields));
+    }
+
+    @Override
+    public boolean splitInto(CharSequence text, int start, int end, RowBuffer row) {
+        row.reset(text);
+        for (int i = 0; i < fields.length; i++) {
+            row.add(-1, -1);
+        }
+        int pos = skipWhitespace(text, start, end);
+        if (pos >= end || text.charAt(pos) != '{') {
+            return fail(text, row);
+        }
+        pos = skipWhitespace(text, pos + 1, end);
+        if (pos < end && text.charAt(pos) == '}') {
+            return true;
+        }
+        while (pos < end) {
+            int keyEnd = stringEnd(text, pos, end);
+            if (keyEnd < 0) {
+                return fail(text, row);
+            }
+            int column = findField(text, pos + 1, keyEnd);
+            pos = skipWhitespace(text, keyEnd + 1, end);
+            if (pos >= end || text.charAt(pos) != ':') {
+                return fail(text, row);
+            }
+            pos = skipWhitespace(text, pos + 1, end);
+            int valueEnd = valueEnd(text, pos, end);
+            if (valueEnd < 0) {
+                return fail(text, row);
+            }
+            if (column >= 0 && !setValue(text, pos, valueEnd, column, row)) {
+                return fail(text, row);
+            }
+            pos = skipWhitespace(text, valueEnd, end);
+            if (pos >= end) {
+                break;
+            }
+            char c = text.charAt(pos);
+            if (c == '}') {
+                return true;
+            }
+            if (c != ',') {
+                break;
+            }
+            pos = skipWhitespace(text, pos + 1, end);
+        }
+        return fail(text, row);
+    }
+
+    private boolean setValue(CharSequence text, int start, int end, int column, RowBuffer row) {
+        if (text.charAt(start) != '"') {
+            if (end - start == 4 && regionEquals(text, start, "null")) {
+                row.set(column, -1, -1);
+            } else {
+                row.set(column, start, end);
+            }
+            return true;
+        }
+        if (CombinedLogParser.indexOf(text, '\\', start + 1, end - 1) < 0) {
+            row.set(column, start + 1, end - 1);
+            return true;
+        }
+        String value = unescape(text, start + 1, end - 1);
+        row.setValue(column, value);
+        return value != null;
+    }
+
+    private int findField(CharSequence text, int start, int end) {
+        if (CombinedLogParser.indexOf(text, '\\', start, end) >= 0) {
+            String key = unescape(text, start, end);
+            for (int i = fields.length - 1; i >= 0; i--) {
+                if (fields[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = fields.length - 1; i >= 0; i--) {
+            if (fields[i].length() == end - start && regionEquals(text, start, fields[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(CharSequence text, int start, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (text.charAt(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(CharSequence text, int pos, int end) {
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return Index of the closing quote of string starting at pos, -1 when there is no string there.
+     */
+    private static int stringEnd(CharSequence text, int pos, int end) {
+        return CombinedLogParser.quotedEnd(text, pos, end);
+    }
+
+    /**
+     * @return Index after the value starting at pos, -1 when it is malformed.
+     */
+    private static int valueEnd(CharSequence text, int pos, int end) {
+        if (pos >= end) {
+            return -1;
+        }
+        char first = text.charAt(pos);
+        if (first == '"') {
+            int close = stringEnd(text, pos, end);
+            return close < 0 ? -1 : close + 1;
+        }
+        if (first == '{' || first == '[') {
+            int depth = 0;
+            for (; pos < end; pos++) {
+                char c = text.charAt(pos);
+                if (c == '"') {
+                    pos = stringEnd(text, pos, end);
+                    if (pos < 0) {
+                        return -1;
+                    }
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return pos + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+        int start = pos;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                break;
+            }
+            pos++;
+        }
+        return pos == start ? -1 : pos;
+    }
+
+    /**
+     * @return Unescaped contents of the string, null when it contains an invalid escape.
+     */
+    private static String unescape(CharSequence text, int start, int end) {
+        StringBuilder out = new StringBuilder(end - start);
+        for (int pos = start; pos < end; pos++) {
+            char c = text.charAt(pos);
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (++pos >= end) {
+                return null;
+            }
+            c = text.charAt(pos);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    out.append(c);
+                    break;
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 >= end) {
+                        return null;
+                    }
+                    int code = 0;
+                    for (int i = 1; i <= 4; i++) {
+                        int digit = Character.digit(text.charAt(pos + i), 16);
+                        if (digit < 0) {
+                            return null;
+                        }
+                        code = code * 16 + digit;
+                    }
+                    out.append((char) code);
+                    pos += 4;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package util;
+
+import java.util.List;
+
+/**
+ * Splits single lines of a log into values of the columns.
+ * Implementations are expected to be usable from many threads at once, any per-call state goes into the given row.
+ */
+public interface LineParser {
+
+    /**
+     * @return Row buffer large enough for all columns of this parser.
+     */
+    RowBuffer newRowBuffer();
+
+    /**
+     * @return Names of the columns, in the order they are stored in rows.
+     */
+    List<String> columnNames();
+
+    /**
+     * Splits part of the text between start and end, as if it was a separate line. Positions stored in the row refer to the whole text.
+     *
+     * @param text Text containing the line.
+     * @param start Index of the first character of the line.
+     * @param end Index after the last character of the line.
+     * @param row Buffer receiving the columns, its previous contents are discarded.
+     * @return Whether the line was recognised, row is empty otherwise.
+     */
+    boolean splitInto(CharSequence text, int start, int end, RowBuffer row);
+
+    default boolean splitInto(CharSequence line, RowBuffer row) {
+        return splitInto(line, 0, line.length(), row);
+    }
+
+    default List<String> splitByGroups(String line) {
+        RowBuffer row = newRowBuffer();
+        splitInto(line, row);
+        return row.toList();
+    }
+}
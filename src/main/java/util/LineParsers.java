@@ -0,0 +1,76 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses parser for the split pattern of a source.
+ * Besides regular expressions the pattern can name one of the built-in formats:
+ * <ul>
+ * <li>{@value #COMBINED} or {@value #COMMON} - Apache and Nginx access logs</li>
+ * <li>{@value #SYSLOG} - RFC 5424 and RFC 3164 syslog</li>
+ * <li>{@value #JSON_PREFIX}field1,field2,... - JSON lines, with given members as columns</li>
+ * </ul>
+ * Built-in formats avoid running a regular expression for every line.
+ */
+public class LineParsers {
+    public static final String COMBINED = "@combined";
+    public static final String COMMON = "@common";
+    public static final String SYSLOG = "@syslog";
+    public static final String JSON_PREFIX = "@json:";
+
+    private LineParsers() {
+    }
+
+    /**
+     * @param pattern Name of a built-in format, or a regular expression with a group for every column.
+     * @return Parser for the pattern.
+     */
+    public static LineParser forPattern(String pattern) {
+        if (COMBINED.equals(pattern) || COMMON.equals(pattern)) {
+            return new CombinedLogParser();
+        }
+        if (SYSLOG.equals(pattern)) {
+            return new SyslogParser();
+        }
+        if (pattern.startsWith(JSON_PREFIX)) {
+            List<String> fields = new ArrayList<>();
+            for (String field : pattern.substring(JSON_PREFIX.length()).split(",")) {
+                if (!field.trim().isEmpty()) {
+                    fields.add(field.trim());
+                }
+            }
+            return new JsonLinesParser(fields);
+        }
+        return new Splitter(pattern);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reusable holder of a single split line. Keeps only positions of the groups in the line,
+ * Strings are created when the row is taken with get or toList.
+ * Values that do not appear in the line as they are, like unescaped JSON strings, can be stored directly.
+ * Contents are valid until the buffer is reused or the line it refers to changes.
+ */
+public class RowBuffer {
+    private CharSequence line;
+    private int[] bounds;
+    private int size = 0;
+    private String[] values;
+    private static final int STORED_VALUE = -2;
+
+    public RowBuffer(int capacity) {
+        bounds = new int[Math.max(1, capacity) * 2];
+        values = new String[Math.max(1, capacity)];
+    }
+
+    /**
+     * Starts a new row of the given line.
+     */
+    public void reset(CharSequence line) {
+        this.line = line;
+        this.size = 0;
+    }
+
+    /**
+     * Adds group found between start and end of the line, start -1 means the group has no value.
+     */
+    public void add(int start, int end) {
+        if (size == values.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        bounds[size * 2] = start;
+        bounds[size * 2 + 1] = end;
+        values[size] = null;
+        size++;
+    }
+
+    /**
+     * Adds group with value that is not a part of the line.
+     */
+    public void addValue(String value) {
+        if (value == null) {
+            add(-1, -1);
+            return;
+        }
+        add(STORED_VALUE, STORED_VALUE);
+        values[size - 1] = value;
+    }
+
+    /**
+     * Replaces group already in the row, for parsers that find values out of order.
+     */
+    public void set(int index, int start, int end) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        bounds[index * 2] = start;
+        bounds[index * 2 + 1] = end;
+        values[index] = null;
+    }
+
+    public void setValue(int index, String value) {
+        if (value == null) {
+            set(index, -1, -1);
+            return;
+        }
+        set(index, STORED_VALUE, STORED_VALUE);
+        values[index] = value;
+    }
+
+    /**
+     * @return Number of groups in the row, 0 when the line did not match.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index Index of the group, starting at 0.
+     * @return Value of the group, or null when the group did not take part in the match.
+     */
+    public String get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int start = bounds[index * 2];
+        if (start == STORED_VALUE) {
+            return values[index];
+        }
+        if (start < 0) {
+            return null;
+        }
+        return line.subSequence(start, bounds[index * 2 + 1]).toString();
+    }
+
+    /**
+     * @return New list with values of all groups.
+     */
+    public List<String> toList() {
+        List<String> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            out.add(get(i));
+        }
+        return out;
+    }
+}
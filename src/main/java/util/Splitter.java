@@ -30,6 +30,7 @@ either expressed or implied, of the FreeBSD Project.
 package util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,23 +38,89 @@ import java.util.regex.Pattern;
 /**
  * Created by MIC on 2015-11-22.
  */
-public class Splitter {
+public class Splitter implements LineParser {
     final String pattern;
     final Pattern compiled;
+    private final ThreadLocal<Matcher> matchers;
+    private final List<String> columnNames;
 
     public Splitter(String pattern){
         this.pattern = pattern;
         this.compiled = Pattern.compile(pattern);
+        this.matchers = ThreadLocal.withInitial(() -> compiled.matcher(""));
+        this.columnNames = Collections.unmodifiableList(groupNames(pattern, compiled.matcher("").groupCount()));
     }
 
-    public List<String> splitByGroups(String string){
-        Matcher m = compiled.matcher(string);
-        List<String> out = new ArrayList<String>();
+    @Override
+    public RowBuffer newRowBuffer(){
+        return new RowBuffer(compiled.matcher("").groupCount());
+    }
+
+    /**
+     * Named groups, like (?&lt;status&gt;\d+), give names to their columns, other groups are named col_1, col_2 and so on.
+     */
+    @Override
+    public List<String> columnNames(){
+        return columnNames;
+    }
+
+    /**
+     * Reuses matcher of the current thread, one value per group of the pattern.
+     */
+    @Override
+    public boolean splitInto(CharSequence text, int start, int end, RowBuffer row){
+        Matcher m = matchers.get();
+        m.reset(text).region(start, end);
+        row.reset(text);
         if(m.find()){
             for(int i = 1; i <= m.groupCount(); i++){
-                out.add(m.group(i));
+                row.add(m.start(i), m.end(i));
+            }
+            m.reset("");
+            return true;
+        }
+        m.reset("");
+        return false;
+    }
+
+    /**
+     * Finds names of capturing groups in the order of their numbers, skipping escapes, quotes and character classes.
+     */
+    static List<String> groupNames(String pattern, int groupCount){
+        List<String> names = new ArrayList<>();
+        int classDepth = 0;
+        for(int i = 0; i < pattern.length(); i++){
+            char c = pattern.charAt(i);
+            if(c == '\\'){
+                if(i + 1 < pattern.length() && pattern.charAt(i + 1) == 'Q'){
+                    int quoteEnd = pattern.indexOf("\\E", i + 2);
+                    i = quoteEnd < 0 ? pattern.length() : quoteEnd + 1;
+                }else{
+                    i++;
+                }
+            }else if(c == '['){
+                classDepth++;
+                if(i + 1 < pattern.length() && pattern.charAt(i + 1) == '^') i++;
+                if(classDepth == 1 && i + 1 < pattern.length() && pattern.charAt(i + 1) == ']') i++;
+            }else if(c == ']' && classDepth > 0){
+                classDepth--;
+            }else if(c == '(' && classDepth == 0){
+                if(!pattern.startsWith("?", i + 1)){
+                    names.add(null);
+                }else if(pattern.startsWith("?<", i + 1) && i + 3 < pattern.length() && Character.isLetter(pattern.charAt(i + 3))){
+                    int nameEnd = pattern.indexOf('>', i + 3);
+                    names.add(pattern.substring(i + 3, nameEnd));
+                    i = nameEnd;
+                }
             }
         }
-        return out;
+        if(names.size() != groupCount){
+            names.clear();
+            for(int i = 0; i < groupCount; i++) names.add(null);
+        }
+        for(int i = 0; i < names.size(); i++){
+            if(names.get(i) == null) names.set(i, "col_" + (i + 1));
+        }
+        return names;
     }
 }
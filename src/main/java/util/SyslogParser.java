@@ -0,0 +1,197 @@
+/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+package util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static util.CombinedLogParser.fail;
+import static util.CombinedLogParser.tokenEnd;
+
+/**
+ * Parser of syslog lines, both RFC 5424 and traditional RFC 3164 ones as written to files by syslog daemons.
+ * Columns are priority, timestamp, hostname, app name, process id, message id, structured data and message.
+ * Priority is null when the line does not start with it, nil values and columns missing in RFC 3164 are null.
+ */
+public class SyslogParser implements LineParser {
+    static final List<String> COLUMN_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "priority", "timestamp", "hostname", "app_name", "proc_id", "msg_id", "structured_data", "message"));
+    private static final int BSD_TIMESTAMP_LENGTH = "Oct 11 22:14:15".length();
+
+    @Override
+    public RowBuffer newRowBuffer() {
+        return new RowBuffer(COLUMN_NAMES.size());
+    }
+
+    @Override
+    public List<String> columnNames() {
+        return COLUMN_NAMES;
+    }
+
+    @Override
+    public boolean splitInto(CharSequence text, int start, int end, RowBuffer row) {
+        row.reset(text);
+        int pos = start;
+        if (pos < end && text.charAt(pos) == '<') {
+            int close = digitsEnd(text, pos + 1, end);
+            if (close == pos + 1 || close >= end || text.charAt(close) != '>') {
+                return fail(text, row);
+            }
+            row.add(pos + 1, close);
+            pos = close + 1;
+        } else {
+            row.add(-1, -1);
+        }
+        int versionEnd = digitsEnd(text, pos, end);
+        if (versionEnd > pos && versionEnd < end && text.charAt(versionEnd) == ' ') {
+            return split5424(text, versionEnd + 1, end, row);
+        }
+        return split3164(text, pos, end, row);
+    }
+
+    private boolean split5424(CharSequence text, int pos, int end, RowBuffer row) {
+        //timestamp, hostname, app name, process id, message id
+        for (int i = 0; i < 5; i++) {
+            int tokenEnd = tokenEnd(text, pos, end);
+            if (tokenEnd == pos || tokenEnd == end) {
+                return fail(text, row);
+            }
+            addNillable(text, pos, tokenEnd, row);
+            pos = tokenEnd + 1;
+        }
+        int dataEnd = structuredDataEnd(text, pos, end);
+        if (dataEnd < 0) {
+            return fail(text, row);
+        }
+        addNillable(text, pos, dataEnd, row);
+        pos = Math.min(dataEnd + 1, end);
+        if (pos < end && text.charAt(pos) == '\uFEFF') {
+            pos++;
+        }
+        row.add(pos, end);
+        return true;
+    }
+
+    private boolean split3164(CharSequence text, int pos, int end, RowBuffer row) {
+        int timestampEnd;
+        if (pos < end && Character.isDigit(text.charAt(pos))) {
+            //high precision timestamps written by rsyslog
+            timestampEnd = tokenEnd(text, pos, end);
+        } else {
+            timestampEnd = pos + BSD_TIMESTAMP_LENGTH;
+            if (timestampEnd > end || text.charAt(pos + 3) != ' ' || text.charAt(pos + 9) != ':' || text.charAt(pos + 12) != ':') {
+                return fail(text, row);
+            }
+        }
+        if (timestampEnd >= end || text.charAt(timestampEnd) != ' ') {
+            return fail(text, row);
+        }
+        row.add(pos, timestampEnd);
+        pos = timestampEnd + 1;
+        int hostEnd = tokenEnd(text, pos, end);
+        if (hostEnd == pos || hostEnd == end) {
+            return fail(text, row);
+        }
+        row.add(pos, hostEnd);
+        pos = hostEnd + 1;
+        int tagEnd = pos;
+        while (tagEnd < end && text.charAt(tagEnd) != ':' && text.charAt(tagEnd) != '[' && text.charAt(tagEnd) != ' ') {
+            tagEnd++;
+        }
+        row.add(pos, tagEnd);
+        pos = tagEnd;
+        if (pos < end && text.charAt(pos) == '[') {
+            int close = CombinedLogParser.indexOf(text, ']', pos + 1, end);
+            if (close < 0) {
+                return fail(text, row);
+            }
+            row.add(pos + 1, close);
+            pos = close + 1;
+        } else {
+            row.add(-1, -1);
+        }
+        if (pos < end && text.charAt(pos) == ':') {
+            pos++;
+        }
+        if (pos < end && text.charAt(pos) == ' ') {
+            pos++;
+        }
+        row.add(-1, -1);
+        row.add(-1, -1);
+        row.add(pos, end);
+        return true;
+    }
+
+    private static void addNillable(CharSequence text, int start, int end, RowBuffer row) {
+        if (end == start + 1 && text.charAt(start) == '-') {
+            row.add(-1, -1);
+        } else {
+            row.add(start, end);
+        }
+    }
+
+    private static int digitsEnd(CharSequence text, int pos, int end) {
+        while (pos < end && Character.isDigit(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return Index after the structured data starting at pos, -1 when it is malformed.
+     */
+    private static int structuredDataEnd(CharSequence text, int pos, int end) {
+        if (pos < end && text.charAt(pos) == '-') {
+            return pos + 1;
+        }
+        if (pos >= end || text.charAt(pos) != '[') {
+            return -1;
+        }
+        while (pos < end && text.charAt(pos) == '[') {
+            boolean quoted = false;
+            for (pos++; pos < end; pos++) {
+                char c = text.charAt(pos);
+                if (c == '\\') {
+                    pos++;
+                } else if (c == '"') {
+                    quoted = !quoted;
+                } else if (c == ']' && !quoted) {
+                    break;
+                }
+            }
+            if (pos >= end) {
+                return -1;
+            }
+            pos++;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,163 @@
+package util.util_tests;/*
+Copyright (c) 2015, AGH University of Science and Technology
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+*/
+
+import org.junit.Test;
+import util.CombinedLogParser;
+import util.JsonLinesParser;
+import util.LineParser;
+import util.LineParsers;
+import util.RowBuffer;
+import util.SyslogParser;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+* This class is a collection of tests of built-in parsers of log lines.
+* Every line is checked for exact values of all columns, malformed lines have to be rejected with empty row */
+public class LineParserTests {
+    private final LineParser combined = new CombinedLogParser();
+    private final LineParser syslog = new SyslogParser();
+    private final LineParser json = new JsonLinesParser(asList("level", "msg", "ctx", "tags", "n", "missing"));
+
+    /**
+     * Splits the line, also as a region of longer text, which has to give the same values
+     *
+     * @return values of columns, or null when the line was not recognised
+     */
+    private static List<String> split(LineParser parser, String line) {
+        RowBuffer row = parser.newRowBuffer();
+        boolean recognised = parser.splitInto(line, row);
+        List<String> values = row.toList();
+        String text = "prefix\n" + line + "\nsuffix";
+        RowBuffer regionRow = parser.newRowBuffer();
+        assertEquals(recognised, parser.splitInto(text, 7, 7 + line.length(), regionRow));
+        assertEquals(values, regionRow.toList());
+        if (!recognised) {
+            assertEquals(0, row.size());
+            return null;
+        }
+        assertEquals(parser.columnNames().size(), values.size());
+        return values;
+    }
+
+    /* Test for combined and common access log lines, with quoted values containing escaped quotes and extra fields */
+    @Test
+    public void combinedLogTest() {
+        assertEquals(asList("host", "ident", "user", "time", "request", "status", "bytes", "referer", "user_agent"),
+                LineParsers.forPattern(LineParsers.COMBINED).columnNames());
+        assertEquals(asList("127.0.0.1", "-", "frank", "10/Oct/2000:13:55:36 -0700", "GET /apache_pb.gif HTTP/1.0", "200", "2326",
+                "http://www.example.com/start.html", "Mozilla/4.08 [en] (Win98; I ;Nav)"),
+                split(combined, "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /apache_pb.gif HTTP/1.0\" 200 2326 " +
+                        "\"http://www.example.com/start.html\" \"Mozilla/4.08 [en] (Win98; I ;Nav)\""));
+        // Common format has no referer and user agent
+        assertEquals(asList("10.0.0.1", "-", "-", "01/Jan/2024:00:00:00 +0000", "POST /login HTTP/1.1", "302", "-", null, null),
+                split(combined, "10.0.0.1 - - [01/Jan/2024:00:00:00 +0000] \"POST /login HTTP/1.1\" 302 -"));
+        // Referer "-" is kept as it is written, escaped quotes are not unescaped, extra Nginx fields are ignored
+        assertEquals(asList("::1", "-", "-", "01/Jan/2024:00:00:00 +0000", "GET /a\\\"b HTTP/1.1", "404", "0", "-", "curl/8.0"),
+                split(combined, "::1 - - [01/Jan/2024:00:00:00 +0000] \"GET /a\\\"b HTTP/1.1\" 404 0 \"-\" \"curl/8.0\" \"-\" rt=0.001"));
+        // Only referer, user agent missing
+        assertEquals(asList("h", "-", "-", "t", "GET / HTTP/1.1", "200", "5", "http://r/", null),
+                split(combined, "h - - [t] \"GET / HTTP/1.1\" 200 5 \"http://r/\""));
+
+        assertNull(split(combined, ""));
+        assertNull(split(combined, "127.0.0.1 - frank 10/Oct/2000:13:55:36 \"GET / HTTP/1.0\" 200 2326"));
+        assertNull(split(combined, "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700 \"GET / HTTP/1.0\" 200 2326"));
+        assertNull(split(combined, "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET / HTTP/1.0 200 2326"));
+        assertNull(split(combined, "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] GET 200 2326"));
+        assertNull(split(combined, "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET / HTTP/1.0\" 200"));
+    }
+
+    /* Test for syslog lines. RFC 5424 is recognised by version after priority, other lines are RFC 3164 */
+    @Test
+    public void syslogTest() {
+        assertEquals(asList("165", "2003-10-11T22:14:15.003Z", "mymachine.example.com", "evntslog", null, "ID47",
+                "[exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"]", "An application event log entry"),
+                split(syslog, "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 " +
+                        "[exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"] An application event log entry"));
+        // Several structured data elements, with ] and escaped quote inside values, and byte order mark before message
+        assertEquals(asList("13", "2024-01-02T03:04:05Z", "host", "app", "42", null, "[a x=\"1]\"][b y=\"\\\"]\"]", "message"),
+                split(syslog, "<13>1 2024-01-02T03:04:05Z host app 42 - [a x=\"1]\"][b y=\"\\\"]\"] \uFEFFmessage"));
+        // Nil structured data, no message
+        assertEquals(asList("0", null, null, null, null, null, null, ""),
+                split(syslog, "<0>1 - - - - - -"));
+
+        assertEquals(asList("34", "Oct 11 22:14:15", "mymachine", "su", "123", null, null, "'su root' failed for lonvick on /dev/pts/8"),
+                split(syslog, "<34>Oct 11 22:14:15 mymachine su[123]: 'su root' failed for lonvick on /dev/pts/8"));
+        // No priority, day padded by space, tag without process id
+        assertEquals(asList(null, "Oct  1 02:03:04", "host", "kernel", null, null, null, "eth0: link up"),
+                split(syslog, "Oct  1 02:03:04 host kernel: eth0: link up"));
+        // High precision timestamp of rsyslog
+        assertEquals(asList(null, "2024-01-02T03:04:05.123456+01:00", "host", "app", "7", null, null, "hi"),
+                split(syslog, "2024-01-02T03:04:05.123456+01:00 host app[7]: hi"));
+
+        assertNull(split(syslog, ""));
+        assertNull(split(syslog, "<34 Oct 11 22:14:15 mymachine su: x"));
+        assertNull(split(syslog, "<>Oct 11 22:14:15 mymachine su: x"));
+        assertNull(split(syslog, "<1>1 2003-10-11T22:14:15Z host"));
+        assertNull(split(syslog, "<1>1 2003-10-11T22:14:15Z host app - ID [unterminated x=\"]"));
+        assertNull(split(syslog, "<1>1 2003-10-11T22:14:15Z host app - ID not-structured-data"));
+        assertNull(split(syslog, "garbage line"));
+        assertNull(split(syslog, "Oct 11 22:14:15 hostonly"));
+        assertNull(split(syslog, "<34>Oct 11 22:14:15 mymachine su[123: message"));
+    }
+
+    /* Test for JSON lines. Strings are unescaped, nested values are kept as written, missing members and nulls are null */
+    @Test
+    public void jsonLinesTest() {
+        assertEquals(asList("level", "msg", "ctx", "tags", "n", "missing"), json.columnNames());
+        assertEquals(asList("info", "a \"quoted\" \\ path/x\n\t", "{\"a\":[1,2,{\"b\":\"}]\"}]}", "[\"x\", [\"y\"]]", "42", null),
+                split(json, "{\"level\":\"info\",\"msg\":\"a \\\"quoted\\\" \\\\ path\\/x\\n\\t\",\"ctx\":{\"a\":[1,2,{\"b\":\"}]\"}]}," +
+                        "\"tags\":[\"x\", [\"y\"]],\"n\":42}"));
+        // Unicode escapes, whitespace around members, null, unknown members and escaped member name
+        assertEquals(asList(null, "caf\u00e9 A", null, null, "-1.5e3", null),
+                split(json, " { \"level\" : null , \"other\" : {\"msg\":\"nested\"} , \"m\\u0073g\" : \"caf\\u00e9 \\u0041\" , \"n\" : -1.5e3 } "));
+        assertEquals(asList(null, null, null, null, "true", null), split(json, "{\"n\":true}"));
+        assertEquals(asList(null, null, null, null, null, null), split(json, "{}"));
+
+        assertNull(split(json, ""));
+        assertNull(split(json, "[1, 2]"));
+        assertNull(split(json, "{\"level\":\"info\""));
+        assertNull(split(json, "{\"level\" \"info\"}"));
+        assertNull(split(json, "{\"level\":\"info}"));
+        assertNull(split(json, "{\"level\":\"bad \\x escape\"}"));
+        assertNull(split(json, "{\"msg\":\"short \\u12\"}"));
+        assertNull(split(json, "{\"msg\":\"bad \\u12G4\"}"));
+        assertNull(split(json, "{\"ctx\":{\"a\":[1,2}"));
+        assertNull(split(json, "{\"level\":}"));
+        assertNull(split(json, "{\"level\":\"a\" \"msg\":\"b\"}"));
+        assertFalse(json.splitInto("not json", json.newRowBuffer()));
+        assertTrue(json.splitInto("{\"level\":\"x\"}", json.newRowBuffer()));
+    }
+}